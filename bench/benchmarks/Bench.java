@@ -0,0 +1,195 @@
+package benchmarks;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A small JMH style harness:  every benchmark is warmed up, then timed over several fixed length iterations on one thread.
+ * Besides time per operation it reports bytes allocated per operation and the collections that ran during measurement,
+ * the same numbers JMH's gc profiler gives, so a CSV of one release can be diffed against the next.
+ *
+ * Options:  -w warmup iterations, -i measured iterations, -t milliseconds per iteration, -f regex of benchmarks to run,
+ * -csv file to append results to, -l to list the benchmarks.
+ */
+public class Bench
+{
+	public interface Body
+	{
+		Object run() throws Exception;
+	}
+
+	//Results are written here so the JIT can not drop the work that made them
+	public static volatile Object sink;
+
+	private final List<String> names = new ArrayList<String>();
+	private final List<Body> bodies = new ArrayList<Body>();
+	private int warmup = 3;
+	private int iterations = 5;
+	private long iterationMillis = 1000;
+	private Pattern filter = null;
+	private String csv = null;
+	private boolean list = false;
+
+	public Bench(String[] args)
+	{
+		for(int i = 0; i < args.length; i++)
+		{
+			switch(args[i])
+			{
+				case "-w":
+					warmup = Integer.parseInt(args[++i]);
+					break;
+				case "-i":
+					iterations = Integer.parseInt(args[++i]);
+					break;
+				case "-t":
+					iterationMillis = Long.parseLong(args[++i]);
+					break;
+				case "-f":
+					filter = Pattern.compile(args[++i]);
+					break;
+				case "-csv":
+					csv = args[++i];
+					break;
+				case "-l":
+					list = true;
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i] + ".  Usage:  [-w warmup] [-i iterations] [-t millis] [-f regex] [-csv file] [-l]");
+			}
+		}
+	}
+
+	public void add(String name, Body body)
+	{
+		if(filter != null && !filter.matcher(name).find()) return;
+		names.add(name);
+		bodies.add(body);
+	}
+
+	public void run() throws IOException
+	{
+		if(list)
+		{
+			for(String name : names)
+				System.out.println(name);
+			return;
+		}
+		PrintWriter out = null;
+		if(csv != null)
+		{
+			boolean fresh = !new java.io.File(csv).exists();
+			out = new PrintWriter(new FileWriter(csv, true));
+			if(fresh) out.println("benchmark,ns/op,error ns/op,ops/s,B/op,gc count,gc ms");
+		}
+		int width = 10;
+		for(String name : names)
+			width = Math.max(width, name.length());
+		String format = "%-" + width + "s %14s %12s %12s %12s %6s %8s\n";
+		System.out.printf(format, "Benchmark", "ns/op", "error", "ops/s", "B/op", "gc", "gc ms");
+		for(int b = 0; b < names.size(); b++)
+		{
+			String name = names.get(b);
+			Body body = bodies.get(b);
+			try
+			{
+				Result r = measure(body);
+				System.out.printf(format, name, String.format("%.1f", r.nsPerOp), String.format("+- %.1f", r.error), String.format("%.1f", 1e9 / r.nsPerOp), String.format("%.0f", r.bytesPerOp), r.gcCount, r.gcMillis);
+				if(out != null)
+				{
+					out.printf("%s,%.1f,%.1f,%.1f,%.0f,%d,%d\n", name, r.nsPerOp, r.error, 1e9 / r.nsPerOp, r.bytesPerOp, r.gcCount, r.gcMillis);
+					out.flush();
+				}
+			}
+			catch(Exception e)
+			{
+				System.out.printf("%-" + width + "s failed:  %s\n", name, e);
+			}
+		}
+		if(out != null) out.close();
+	}
+
+	private Result measure(Body body) throws Exception
+	{
+		for(int i = 0; i < warmup; i++)
+			iteration(body);
+		double[] nsPerOp = new double[iterations];
+		long ops = 0;
+		long bytes = 0;
+		long gcBefore = gcCount();
+		long gcTimeBefore = gcMillis();
+		for(int i = 0; i < iterations; i++)
+		{
+			long allocatedBefore = allocatedBytes();
+			long start = System.nanoTime();
+			long n = iteration(body);
+			long time = System.nanoTime() - start;
+			bytes += allocatedBytes() - allocatedBefore;
+			ops += n;
+			nsPerOp[i] = (double) time / n;
+		}
+		Result r = new Result();
+		r.nsPerOp = Arrays.stream(nsPerOp).average().getAsDouble();
+		double variance = 0;
+		for(double x : nsPerOp)
+			variance += (x - r.nsPerOp) * (x - r.nsPerOp);
+		//Half width of a 99.9% interval, as JMH prints it, using the normal approximation
+		r.error = iterations > 1 ? 3.29 * Math.sqrt(variance / (iterations - 1)) / Math.sqrt(iterations) : Double.NaN;
+		r.bytesPerOp = allocatedBytes() < 0 ? Double.NaN : (double) bytes / ops;
+		r.gcCount = gcCount() - gcBefore;
+		r.gcMillis = gcMillis() - gcTimeBefore;
+		return r;
+	}
+
+	//Runs the body until the iteration time is used up and returns how many times it ran
+	private long iteration(Body body) throws Exception
+	{
+		long end = System.nanoTime() + iterationMillis * 1000000L;
+		long n = 0;
+		do {
+			sink = body.run();
+			n++;
+		}while(System.nanoTime() < end);
+		return n;
+	}
+
+	private static long allocatedBytes()
+	{
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return -1;
+	}
+
+	private static long gcCount()
+	{
+		long count = 0;
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			count += Math.max(0, gc.getCollectionCount());
+		return count;
+	}
+
+	private static long gcMillis()
+	{
+		long time = 0;
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			time += Math.max(0, gc.getCollectionTime());
+		return time;
+	}
+
+	private static class Result
+	{
+		double nsPerOp;
+		double error;
+		double bytesPerOp;
+		long gcCount;
+		long gcMillis;
+	}
+}
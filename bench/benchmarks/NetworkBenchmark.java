@@ -0,0 +1,311 @@
+package benchmarks;
+
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+
+import protocol.LoopbackTransport;
+import protocol.NetworkConditions;
+import zero_knowledge_proofs.AggregatedProofBlock;
+import zero_knowledge_proofs.CryptoDataCodec;
+import zero_knowledge_proofs.ECPedersenCommitment;
+import zero_knowledge_proofs.ECSchnorrProver;
+import zero_knowledge_proofs.PipelinedProof;
+import zero_knowledge_proofs.PipelinedProofSession;
+import zero_knowledge_proofs.VarianceToolkit;
+import zero_knowledge_proofs.ZKPProtocol;
+import zero_knowledge_proofs.CryptoData.BigIntData;
+import zero_knowledge_proofs.CryptoData.CryptoData;
+import zero_knowledge_proofs.CryptoData.CryptoDataArray;
+import zero_knowledge_proofs.CryptoData.ECCurveData;
+import zero_knowledge_proofs.CryptoData.ECPointData;
+
+/**
+ * How the ways of exchanging proofs cope with latency:  two parties prove a KeyCount statement to each other over a
+ * LoopbackTransport with simulated network conditions, and the proofs exchanged per second are tabulated against round
+ * trip time for
+ *
+ *   lock-step    parallelZKProve, one proof at a time, as the main programs do when friends are involved
+ *   pipelined    PipelinedProofSession, with up to w proofs in flight, for each window in -windows
+ *   fiat-shamir  non-interactive proofs streamed one way while the other party's are verified
+ *   aggregated   AggregatedProofBlock, each block of -block proofs as one AND proof under a single challenge
+ *
+ * Run from the project root:
+ *
+ *   java -cp jars/bcprov-ext-jdk15on-157.jar:bin:bench-bin benchmarks.NetworkBenchmark [options]
+ *
+ * Options:  -rtt comma separated round trip times in ms (0,10,40,80,150), -jitter ms (0), -bw Mbit/s (0 for no cap),
+ * -n and -k of the statement (2, 1), -proofs per streamed run (256), -lockstep proofs per lock-step run (16),
+ * -windows comma separated pipeline windows (1,16,256), -block proofs per aggregated block (64).
+ */
+public class NetworkBenchmark
+{
+	private static final byte[] CONTEXT = "NetworkBenchmark".getBytes();
+
+	private double[] rtts = {0, 10, 40, 80, 150};
+	private double jitter = 0;
+	private double bandwidth = 0;
+	private int n = 2;
+	private int k = 1;
+	private int proofs = 256;
+	private int lockStepProofs = 16;
+	private int[] windows = {1, 16, 256};
+	private int blockSize = 64;
+
+	private final SecureRandom rand = new SecureRandom();
+	private ECCurve curve;
+	private BigInteger order;
+	private CryptoData miniEnv;
+	private CryptoData environment;
+	private CryptoData proverInput;
+	private CryptoData verifierInput;
+
+	public static void main(String[] args) throws Exception
+	{
+		new NetworkBenchmark(args).run();
+	}
+
+	private NetworkBenchmark(String[] args)
+	{
+		for(int i = 0; i < args.length; i++)
+		{
+			switch(args[i])
+			{
+				case "-rtt":
+					String[] list = args[++i].split(",");
+					rtts = new double[list.length];
+					for(int j = 0; j < list.length; j++)
+						rtts[j] = Double.parseDouble(list[j].trim());
+					break;
+				case "-jitter":
+					jitter = Double.parseDouble(args[++i]);
+					break;
+				case "-bw":
+					bandwidth = Double.parseDouble(args[++i]);
+					break;
+				case "-n":
+					n = Integer.parseInt(args[++i]);
+					break;
+				case "-k":
+					k = Integer.parseInt(args[++i]);
+					break;
+				case "-proofs":
+					proofs = Integer.parseInt(args[++i]);
+					break;
+				case "-lockstep":
+					lockStepProofs = Integer.parseInt(args[++i]);
+					break;
+				case "-windows":
+					String[] w = args[++i].split(",");
+					windows = new int[w.length];
+					for(int j = 0; j < w.length; j++)
+						windows[j] = Integer.parseInt(w[j].trim());
+					break;
+				case "-block":
+					blockSize = Integer.parseInt(args[++i]);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i] + ".  Usage:  [-rtt ms,...] [-jitter ms] [-bw Mbit/s] [-n n] [-k k] [-proofs count] [-lockstep count] [-windows w,...] [-block count]");
+			}
+		}
+	}
+
+	private void run() throws Exception
+	{
+		VarianceToolkit.register();
+		ECPoint g = ECNamedCurveTable.getParameterSpec("secp256k1").getG();
+		curve = g.getCurve();
+		order = curve.getOrder();
+		ECPoint h = g.multiply(random());
+		miniEnv = new CryptoDataArray(new CryptoData[] {new ECCurveData(curve, g), new ECPointData(h)});
+		CryptoData revMiniEnv = new CryptoDataArray(new CryptoData[] {new ECCurveData(curve, h), new ECPointData(g)});
+		miniEnv.precomputeFixedBase(curve);
+		revMiniEnv.precomputeFixedBase(curve);
+		makeStatement(g, revMiniEnv);
+
+		List<String> variants = new ArrayList<String>();
+		variants.add("lock-step");
+		for(int w : windows)
+			variants.add("pipelined w=" + w);
+		variants.add("fiat-shamir");
+		variants.add("aggregated b=" + blockSize);
+
+		//Once through everything without delay so the JIT has compiled it before anything is timed
+		for(int v = 0; v < variants.size(); v++)
+			exchange(v, NetworkConditions.IDEAL, 8);
+
+		System.out.printf("KeyCount(%d,%d) proofs exchanged per second (jitter %.1f ms, %s)\n", n, k, jitter, bandwidth == 0 ? "no bandwidth cap" : bandwidth + " Mbit/s");
+		System.out.printf("%-18s", "");
+		for(double rtt : rtts)
+			System.out.printf(" %10s", String.format("%.0f ms", rtt));
+		System.out.println();
+		for(int v = 0; v < variants.size(); v++)
+		{
+			System.out.printf("%-18s", variants.get(v));
+			for(double rtt : rtts)
+			{
+				int count = v == 0 ? lockStepProofs : proofs;
+				long start = System.nanoTime();
+				boolean ok = exchange(v, new NetworkConditions(rtt, jitter, bandwidth), count);
+				double perSecond = count * 1e9 / (System.nanoTime() - start);
+				System.out.printf(" %10s", ok ? String.format("%.1f", perSecond) : "failed");
+			}
+			System.out.println();
+		}
+	}
+
+	private void makeStatement(ECPoint g, CryptoData revMiniEnv)
+	{
+		CryptoData[] publicKeys = new CryptoData[n];
+		CryptoData[] privateKeys = new CryptoData[k];
+		int[] positions = new int[k];
+		ECPedersenCommitment[] commitments = new ECPedersenCommitment[n];
+		BigInteger[] ephemeralKeys = new BigInteger[n];
+		for(int i = 0; i < n; i++)
+		{
+			BigInteger x = random();
+			publicKeys[i] = new ECPointData(g.multiply(x));
+			if(i < k)
+			{
+				privateKeys[i] = new BigIntData(x);
+				positions[i] = i;
+			}
+			ephemeralKeys[i] = random();
+			commitments[i] = new ECPedersenCommitment(i < k ? BigInteger.ONE : BigInteger.ZERO, ephemeralKeys[i], miniEnv);
+		}
+		environment = VarianceToolkit.createMultiSigEnvironmentKeyCount(n, k, miniEnv, revMiniEnv);
+		proverInput = VarianceToolkit.createMultiSigProverDataKeyCount(n, k, publicKeys, privateKeys, positions, miniEnv, commitments, ephemeralKeys, order, rand);
+		verifierInput = VarianceToolkit.createMultiSigVerifierInputsKeyCount(n, k, publicKeys, commitments, miniEnv, new ECSchnorrProver());
+	}
+
+	//Both parties prove count statements to each other using variant v;  true if every proof verified
+	private boolean exchange(int v, NetworkConditions conditions, int count) throws Exception
+	{
+		LoopbackTransport[] transports = LoopbackTransport.pair(0, 0, conditions, conditions);
+		ExecutorService threads = Executors.newCachedThreadPool();
+		try
+		{
+			List<Future<Boolean>> parties = new ArrayList<Future<Boolean>>();
+			for(LoopbackTransport t : transports)
+			{
+				parties.add(threads.submit(() -> {
+					try
+					{
+						return party(v, t.getMainIn(), t.getMainOut(), count, threads);
+					}
+					catch(Exception e)
+					{
+						for(LoopbackTransport other : transports)
+							other.close();
+						throw e;
+					}
+				}));
+			}
+			boolean ok = true;
+			for(Future<Boolean> f : parties)
+			{
+				try
+				{
+					ok &= f.get();
+				}
+				catch(ExecutionException e)
+				{
+					ok = false;
+				}
+			}
+			return ok;
+		}
+		finally
+		{
+			threads.shutdown();
+			for(LoopbackTransport t : transports)
+				t.close();
+		}
+	}
+
+	private boolean party(int v, ObjectInputStream in, ObjectOutputStream out, int count, ExecutorService threads) throws Exception
+	{
+		CryptoDataCodec codec = new CryptoDataCodec(curve);
+		codec.writeHeader(out);
+		out.flush();
+		codec.readHeader(in);
+		ZKPProtocol prover = VarianceToolkit.createMultiSigProofKeyCount(n, k, new ECSchnorrProver(), new ECSchnorrProver());
+		prover.setCodec(codec);
+		boolean ok = true;
+		if(v == 0)
+		{
+			for(int i = 0; i < count; i++)
+			{
+				BigInteger[] c = challenge();
+				ok &= prover.parallelZKProve(proverInput, verifierInput, environment, in, out, new ECPedersenCommitment(c[0], c[1], miniEnv), miniEnv, c, (StringBuilder) null);
+			}
+		}
+		else if(v <= windows.length)
+		{
+			List<PipelinedProof> block = new ArrayList<PipelinedProof>(count);
+			for(int i = 0; i < count; i++)
+			{
+				BigInteger[] c = challenge();
+				block.add(new PipelinedProof(prover, proverInput, verifierInput, environment, new ECPedersenCommitment(c[0], c[1], miniEnv), c));
+			}
+			PipelinedProofSession session = new PipelinedProofSession(in, out, codec, windows[v - 1], ForkJoinPool.commonPool());
+			for(boolean result : session.run(block, miniEnv, (StringBuilder) null))
+				ok &= result;
+		}
+		else if(v == windows.length + 2)
+		{
+			AggregatedProofBlock aggregated = new AggregatedProofBlock(prover, environment);
+			CryptoData[] proverInputs = new CryptoData[blockSize];
+			CryptoData[] verifierInputs = new CryptoData[blockSize];
+			Arrays.fill(proverInputs, proverInput);
+			Arrays.fill(verifierInputs, verifierInput);
+			for(int done = 0; done < count; done += blockSize)
+			{
+				BigInteger[] c = challenge();
+				ok &= aggregated.parallelZKProve(proverInputs, verifierInputs, Math.min(blockSize, count - done), in, out, new ECPedersenCommitment(c[0], c[1], miniEnv), miniEnv, c, null);
+			}
+		}
+		else
+		{
+			//Proofs go out on their own thread so neither party waits for the other to start reading
+			Future<Void> sent = threads.submit((Callable<Void>) () -> {
+				for(int i = 0; i < count; i++)
+					prover.nonInteractiveProve(proverInput, verifierInput, environment, CONTEXT, order, out);
+				out.flush();
+				return null;
+			});
+			for(int i = 0; i < count; i++)
+				ok &= prover.nonInteractiveVerify(verifierInput, environment, CONTEXT, order, in, null);
+			sent.get();
+		}
+		return ok;
+	}
+
+	private BigInteger[] challenge()
+	{
+		return new BigInteger[] {new BigInteger(order.bitLength() - 1, rand), random()};
+	}
+
+	private BigInteger random()
+	{
+		BigInteger r;
+		do {
+			r = new BigInteger(order.bitLength(), rand);
+		}while(r.compareTo(order) >= 0);
+		return r;
+	}
+}
@@ -0,0 +1,422 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import protocol.ECKeyMaker;
+import protocol.ECKeyMakerMultiSigWithFriends;
+import protocol.LoopbackTransport;
+import protocol.NetworkConditions;
+import protocol.ProtocolMainVarianceMultiSigFriend;
+import protocol.ProtocolMainVarianceMultiSigMainPartyKeyCount;
+import protocol.ProtocolMainVarianceSingleKey;
+import protocol.TrafficCounter;
+import zero_knowledge_proofs.ChallengeCommitmentScheme;
+import zero_knowledge_proofs.MultiSigPlanner;
+import zero_knowledge_proofs.ScalarSampler;
+
+/**
+ * Runs whole protocols end to end:  both main parties, and the friends holding their other keys, as threads of this
+ * JVM talking over LoopbackTransport.  For each run it reports accounts per second and, per phase of the host party,
+ * the bytes both parties exchanged per account and the round trips per account.  Since nothing crosses a real network
+ * this is the protocol's own cost;  the round trips say how much latency would add to it.
+ *
+ * Inputs are made with the usual key makers into inputs/ and transcripts go to outputs/ (output/ for the single key
+ * protocol), so run it from the project root:
+ *
+ *   java -cp jars/bcprov-ext-jdk15on-157.jar:bin:bench-bin benchmarks.ProtocolBenchmark [options]
+ *
+ * Options:  -a accounts (200), -b block size (64), -m comma separated n:k of the multi-signature runs (1:1,2:1,3:1,2:2),
+ * -p proportion of accounts owned (0.5), -single to run the single key protocol too, -csv file to append results to,
+ * -v to keep the parties' own output, -aggregate to prove each block as one AND proof with a single challenge,
+ * -cc challenge commitment scheme (pedersen, sha256 or sha3-256), -transcript format of the verifier transcripts (text,
+ * binary, deflate or indexed), -multisig construction of the multi-signature accounts (auto, keycount, threshold or
+ * naive;  see MultiSigPlanner), -seed to seed every party and friend and run each multi-signature run a second time,
+ * checking that both runs wrote the same verifier transcripts.
+ *
+ * Network:  -rtt comma separated round trip times in ms to run every protocol at (0), -frtt round trip time to the
+ * friends (as -rtt), -jitter ms (0), -bw Mbit/s (0 for no cap).  With more than one round trip time a table of
+ * accounts/s against round trip time ends the report.
+ */
+public class ProtocolBenchmark
+{
+	private static final String CURVE = "secp256k1";
+	private static final String ENVIRONMENT = "bench_ecEnvironment";
+	private static final PrintStream DISCARD = new PrintStream(new OutputStream() {
+		@Override
+		public void write(int b)
+		{
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len)
+		{
+		}
+	});
+
+	private int accounts = 200;
+	private int blockSize = 64;
+	private String multiSig = "1:1,2:1,3:1,2:2";
+	private String owned = "0.5";
+	private boolean single = false;
+	private String csv = null;
+	private boolean verbose = false;
+	private boolean aggregate = false;
+	private ChallengeCommitmentScheme challengeCommitment = ChallengeCommitmentScheme.PEDERSEN;
+	private String transcriptFormat = "text";
+	private MultiSigPlanner planner = MultiSigPlanner.DEFAULT;
+	private double[] rtts = {0};
+	private double friendRtt = -1;
+	private double jitter = 0;
+	private double bandwidth = 0;
+	private Long seed = null;
+
+	public static void main(String[] args) throws Exception
+	{
+		new ProtocolBenchmark(args).run();
+	}
+
+	private ProtocolBenchmark(String[] args)
+	{
+		for(int i = 0; i < args.length; i++)
+		{
+			switch(args[i])
+			{
+				case "-a":
+					accounts = Integer.parseInt(args[++i]);
+					break;
+				case "-b":
+					blockSize = Integer.parseInt(args[++i]);
+					break;
+				case "-m":
+					multiSig = args[++i];
+					break;
+				case "-p":
+					owned = args[++i];
+					break;
+				case "-single":
+					single = true;
+					break;
+				case "-csv":
+					csv = args[++i];
+					break;
+				case "-v":
+					verbose = true;
+					break;
+				case "-aggregate":
+					aggregate = true;
+					break;
+				case "-cc":
+					challengeCommitment = ChallengeCommitmentScheme.forName(args[++i]);
+					break;
+				case "-transcript":
+					transcriptFormat = args[++i];
+					break;
+				case "-multisig":
+					planner = MultiSigPlanner.forName(args[++i]);
+					break;
+				case "-rtt":
+					String[] list = args[++i].split(",");
+					rtts = new double[list.length];
+					for(int j = 0; j < list.length; j++)
+						rtts[j] = Double.parseDouble(list[j].trim());
+					break;
+				case "-frtt":
+					friendRtt = Double.parseDouble(args[++i]);
+					break;
+				case "-jitter":
+					jitter = Double.parseDouble(args[++i]);
+					break;
+				case "-bw":
+					bandwidth = Double.parseDouble(args[++i]);
+					break;
+				case "-seed":
+					seed = Long.parseLong(args[++i]);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i] + ".  Usage:  [-a accounts] [-b blockSize] [-m n:k,...] [-p owned] [-single] [-csv file] [-v] [-aggregate] [-cc scheme] [-transcript format] [-multisig construction] [-rtt ms,...] [-frtt ms] [-jitter ms] [-bw Mbit/s] [-seed n]");
+			}
+		}
+	}
+
+	private void run() throws Exception
+	{
+		new File("inputs").mkdirs();
+		new File("outputs").mkdirs();
+		new File("output").mkdirs();
+		try(PrintWriter env = new PrintWriter(new FileWriter("inputs/" + ENVIRONMENT)))
+		{
+			env.println(CURVE);
+		}
+		PrintWriter out = null;
+		if(csv != null)
+		{
+			boolean fresh = !new File(csv).exists();
+			out = new PrintWriter(new FileWriter(csv, true));
+			if(fresh) out.println("protocol,n,k,rtt ms,accounts,accounts/s,phase,ms,bytes/account,round trips/account");
+		}
+		if(aggregate) System.out.println("Blocks of " + blockSize + " accounts are proved as single AND proofs");
+		if(challengeCommitment != ChallengeCommitmentScheme.PEDERSEN) System.out.println("Challenges are committed with " + challengeCommitment);
+		System.out.printf("%-10s %3s %3s %7s %8s %10s  %-16s %10s %14s %20s\n", "protocol", "n", "k", "rtt ms", "accounts", "accounts/s", "phase", "ms", "bytes/account", "round trips/account");
+		List<String> variants = new ArrayList<String>();
+		List<double[]> perSecond = new ArrayList<double[]>();
+		if(!multiSig.isEmpty())
+		{
+			for(String nk : multiSig.split(","))
+			{
+				String[] parts = nk.trim().split(":");
+				int n = Integer.parseInt(parts[0]);
+				int k = Integer.parseInt(parts[1]);
+				makeKeyCountInputs(n, k);
+				double[] rates = new double[rtts.length];
+				for(int i = 0; i < rtts.length; i++)
+				{
+					rates[i] = report("keycount", n, k, rtts[i], runKeyCount(n, k, rtts[i]), out);
+					if(seed != null) checkReplay(n, k, rtts[i]);
+				}
+				variants.add("keycount " + n + ":" + k);
+				perSecond.add(rates);
+			}
+		}
+		if(single)
+		{
+			makeSingleKeyInputs();
+			double[] rates = new double[rtts.length];
+			for(int i = 0; i < rtts.length; i++)
+				rates[i] = report("singlekey", 1, 1, rtts[i], runSingleKey(rtts[i]), out);
+			variants.add("singlekey");
+			perSecond.add(rates);
+		}
+		if(out != null) out.close();
+		if(rtts.length > 1)
+		{
+			System.out.printf("\naccounts/s by round trip time (jitter %.1f ms, %s)\n%-16s", jitter, bandwidth == 0 ? "no bandwidth cap" : bandwidth + " Mbit/s", "");
+			for(double rtt : rtts)
+				System.out.printf(" %10s", String.format("%.0f ms", rtt));
+			System.out.println();
+			for(int v = 0; v < variants.size(); v++)
+			{
+				System.out.printf("%-16s", variants.get(v));
+				for(double rate : perSecond.get(v))
+					System.out.printf(" %10.1f", rate);
+				System.out.println();
+			}
+		}
+	}
+
+	private NetworkConditions link(double rtt)
+	{
+		return new NetworkConditions(rtt, jitter, bandwidth);
+	}
+
+	private String keyCountSuffix(int n, int k)
+	{
+		return accounts + "_" + owned + "_0.5_" + n + "_" + k;
+	}
+
+	private void makeKeyCountInputs(int n, int k) throws Exception
+	{
+		quietly(() -> {
+			ECKeyMakerMultiSigWithFriends.main(new String[] {CURVE, "" + accounts, "" + n, "" + k, owned, "0.5"});
+			return null;
+		});
+	}
+
+	private void makeSingleKeyInputs() throws Exception
+	{
+		quietly(() -> {
+			ECKeyMaker.main(new String[] {CURVE, "" + accounts, owned, "0.5"});
+			return null;
+		});
+	}
+
+	private Result runKeyCount(int n, int k, double rtt) throws Exception
+	{
+		String suffix = keyCountSuffix(n, k);
+		LoopbackTransport[] transports = LoopbackTransport.pair(k - 1, k - 1, link(rtt), link(friendRtt < 0 ? rtt : friendRtt));
+		List<Callable<Boolean>> parties = new ArrayList<Callable<Boolean>>();
+		for(int p = 0; p < 2; p++)
+		{
+			String[] args = {"localhost", "0", "0", "Account" + suffix, "P" + (p + 1) + ".0_Keys" + suffix, ENVIRONMENT, "" + blockSize, ""};
+			if(seed != null)
+			{
+				args = Arrays.copyOf(args, 9);
+				args[8] = "" + (seed + p);
+			}
+			String[] partyArgs = args;
+			LoopbackTransport transport = transports[p];
+			parties.add(() -> {
+				ProtocolMainVarianceMultiSigMainPartyKeyCount party = new ProtocolMainVarianceMultiSigMainPartyKeyCount();
+				party.setAggregateBlocks(aggregate);
+				party.setChallengeCommitment(challengeCommitment);
+				party.setTranscriptFormat(transcriptFormat);
+				party.setMultiSigPlanner(planner);
+				return party.run(partyArgs, transport);
+			});
+			for(int j = 1; j < k; j++)
+			{
+				String keys = "inputs/P" + (p + 1) + "." + j + "_Keys" + suffix;
+				LoopbackTransport.Link link = transport.getFriendLink(j - 1);
+				SecureRandom rand = seed == null ? new SecureRandom() : new ScalarSampler(BigInteger.valueOf(seed + p).toByteArray()).split(-j);
+				parties.add(() -> ProtocolMainVarianceMultiSigFriend.run(reader("inputs/Account" + suffix), reader(keys), reader("inputs/" + ENVIRONMENT), link.in, link.out, rand));
+			}
+		}
+		return runParties(transports, parties);
+	}
+
+	//Runs the seeded protocol again and checks that it wrote the same verifier transcripts, byte for byte
+	private void checkReplay(int n, int k, double rtt) throws Exception
+	{
+		File[] files = new File("outputs").listFiles((dir, name) -> name.startsWith("Verifier_Transcript_") && name.contains("_Keys" + keyCountSuffix(n, k) + "_"));
+		Map<File, byte[]> first = new HashMap<File, byte[]>();
+		for(File f : files)
+			first.put(f, Files.readAllBytes(f.toPath()));
+		Result again = runKeyCount(n, k, rtt);
+		String status = again.failure != null ? "failed:  " + again.failure : "transcripts identical";
+		for(File f : files)
+		{
+			if(again.failure == null && !Arrays.equals(first.get(f), Files.readAllBytes(f.toPath())))
+			{
+				status = f.getName() + " differs";
+				break;
+			}
+		}
+		System.out.printf("%-10s %3s %3s %7s %8s %10s  replayed from seed %d:  %s\n", "", "", "", "", "", "", seed, status);
+	}
+
+	private Result runSingleKey(double rtt) throws Exception
+	{
+		String suffix = accounts + "_" + owned + "_0.5";
+		LoopbackTransport[] transports = LoopbackTransport.pair(0, 0, link(rtt), link(rtt));
+		List<Callable<Boolean>> parties = new ArrayList<Callable<Boolean>>();
+		for(int p = 0; p < 2; p++)
+		{
+			String[] args = {"localhost", "0", "Account" + suffix, "P" + (p + 1) + "Keys" + suffix, ENVIRONMENT, "" + blockSize};
+			LoopbackTransport transport = transports[p];
+			parties.add(() -> {
+				ProtocolMainVarianceSingleKey party = new ProtocolMainVarianceSingleKey();
+				party.setAggregateBlocks(aggregate);
+				party.setChallengeCommitment(challengeCommitment);
+				party.setTranscriptFormat(transcriptFormat);
+				return party.run(args, transport);
+			});
+		}
+		return runParties(transports, parties);
+	}
+
+	//Runs every party on its own thread.  If one fails the channels are closed so the others stop instead of waiting.
+	private Result runParties(LoopbackTransport[] transports, List<Callable<Boolean>> parties) throws Exception
+	{
+		ExecutorService threads = Executors.newCachedThreadPool();
+		PrintStream stdout = System.out;
+		if(!verbose) System.setOut(DISCARD);
+		Result result = new Result();
+		long start = System.nanoTime();
+		try
+		{
+			List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+			for(Callable<Boolean> party : parties)
+				futures.add(threads.submit(() -> {
+					try
+					{
+						return party.call();
+					}
+					catch(Exception e)
+					{
+						synchronized(result)
+						{
+							if(result.failure == null) result.failure = e;
+						}
+						if(verbose) e.printStackTrace();
+						for(LoopbackTransport t : transports)
+							t.close();
+						throw e;
+					}
+				}));
+			result.verified = true;
+			for(Future<Boolean> f : futures)
+			{
+				try
+				{
+					result.verified &= f.get();
+				}
+				catch(ExecutionException e)
+				{
+					//The first failure was recorded by its thread;  the others are the channels closing after it
+				}
+			}
+		}
+		finally
+		{
+			result.nanos = System.nanoTime() - start;
+			System.setOut(stdout);
+			threads.shutdown();
+		}
+		result.phases = transports[0].getTraffic().getPhases();
+		return result;
+	}
+
+	//Prints one run and returns its accounts/s
+	private double report(String protocol, int n, int k, double rtt, Result r, PrintWriter out)
+	{
+		double perSecond = accounts * 1e9 / r.nanos;
+		String status = r.failure != null ? "  failed:  " + r.failure : r.verified ? "" : "  proofs did not verify";
+		System.out.printf("%-10s %3d %3d %7.1f %8d %10.1f  %-16s %10.1f %14s %20s%s\n", protocol, n, k, rtt, accounts, perSecond, "total", r.nanos / 1e6, "", "", status);
+		for(TrafficCounter.Phase phase : r.phases)
+		{
+			double bytes = (double) (phase.bytesSent + phase.bytesReceived) / accounts;
+			double roundTrips = (double) phase.roundTrips / accounts;
+			System.out.printf("%-10s %3s %3s %7s %8s %10s  %-16s %10.1f %14.1f %20.3f\n", "", "", "", "", "", "", phase.name, phase.nanos / 1e6, bytes, roundTrips);
+			if(out != null) out.printf("%s,%d,%d,%.1f,%d,%.1f,%s,%.1f,%.1f,%.3f\n", protocol, n, k, rtt, accounts, perSecond, phase.name, phase.nanos / 1e6, bytes, roundTrips);
+		}
+		if(out != null) out.flush();
+		return r.failure == null ? perSecond : Double.NaN;
+	}
+
+	private static BufferedReader reader(String file) throws IOException
+	{
+		return new BufferedReader(new FileReader(file));
+	}
+
+	//The key makers talk a lot;  only their files are wanted
+	private void quietly(Callable<Void> task) throws Exception
+	{
+		PrintStream stdout = System.out;
+		if(!verbose) System.setOut(DISCARD);
+		try
+		{
+			task.call();
+		}
+		finally
+		{
+			System.setOut(stdout);
+		}
+	}
+
+	private static class Result
+	{
+		long nanos;
+		boolean verified;
+		Throwable failure;
+		List<TrafficCounter.Phase> phases = new ArrayList<TrafficCounter.Phase>();
+	}
+}
@@ -0,0 +1,382 @@
+package benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.TreeSet;
+
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+
+import zero_knowledge_proofs.ChallengeCommitment;
+import zero_knowledge_proofs.ChallengeCommitmentScheme;
+import zero_knowledge_proofs.CommitmentAccumulator;
+import zero_knowledge_proofs.CryptoDataCodec;
+import zero_knowledge_proofs.ECEqualDiscreteLogsProver;
+import zero_knowledge_proofs.ECPOKPedersenProver;
+import zero_knowledge_proofs.ECPedersenCommitment;
+import zero_knowledge_proofs.ECProofOfPrechosenExponentProver;
+import zero_knowledge_proofs.ECProvisionsProver;
+import zero_knowledge_proofs.ECSchnorrProver;
+import zero_knowledge_proofs.VarianceToolkit;
+import zero_knowledge_proofs.ZKPProtocol;
+import zero_knowledge_proofs.CryptoData.BigIntData;
+import zero_knowledge_proofs.CryptoData.CryptoData;
+import zero_knowledge_proofs.CryptoData.CryptoDataArray;
+import zero_knowledge_proofs.CryptoData.ECCurveData;
+import zero_knowledge_proofs.CryptoData.ECPointData;
+
+/**
+ * Benchmarks every prover, the multi-signature trees built by VarianceToolkit, Pedersen commitments and CryptoData
+ * serialization on secp256k1.  Run with "make bench" or:
+ *
+ *   java -cp jars/bcprov-ext-jdk15on-157.jar:bin:bench-bin benchmarks.ProverBenchmarks [-f regex] [-csv file] ...
+ *
+ * The (n,k) sweep of the trees is set with -Dbench.n=1,2,3,5,8;  for each n it uses k = 1, n/2 and n.
+ */
+public class ProverBenchmarks
+{
+	private static SecureRandom rand = new SecureRandom();
+	private static ECCurve curve;
+	private static BigInteger order;
+	private static ECPoint g;
+	private static ECPoint h;
+	private static CryptoData env;
+	private static CryptoData revEnv;
+
+	public static void main(String[] args) throws Exception
+	{
+		Bench bench = new Bench(args);
+		VarianceToolkit.register();
+
+		g = ECNamedCurveTable.getParameterSpec("secp256k1").getG();
+		curve = g.getCurve();
+		order = curve.getOrder();
+		h = g.multiply(random());
+		env = new CryptoDataArray(new CryptoData[] {new ECCurveData(curve, g), new ECPointData(h)});
+		revEnv = new CryptoDataArray(new CryptoData[] {new ECCurveData(curve, h), new ECPointData(g)});
+		env.precomputeFixedBase(curve);
+		revEnv.precomputeFixedBase(curve);
+
+		addBaseProvers(bench);
+		int[] sweep = parseSweep(System.getProperty("bench.n", "1,2,3,5,8"));
+		for(int n : sweep)
+		{
+			TreeSet<Integer> ks = new TreeSet<Integer>();
+			ks.add(1);
+			ks.add(Math.max(1, n / 2));
+			ks.add(n);
+			for(int k : ks)
+			{
+				addNaive(bench, n, k);
+				addKeyCount(bench, n, k);
+				addThreshhold(bench, n, k);
+			}
+		}
+		addCommitments(bench);
+		addSerialization(bench);
+		bench.run();
+	}
+
+	private static void addBaseProvers(Bench bench)
+	{
+		BigInteger x = random();
+		ECPoint y = g.multiply(x);
+		BigInteger r = random();
+		addProver(bench, "ECSchnorr", new ECSchnorrProver(),
+				array(point(y), integer(r), integer(x)),
+				array(point(y)),
+				array(point(y), integer(random())), env);
+
+		ECPoint yh = h.multiply(x);
+		addProver(bench, "ECEqualDiscreteLogs", new ECEqualDiscreteLogsProver(),
+				array(point(y), point(yh), integer(r), integer(x)),
+				array(point(y), point(yh)),
+				array(point(y), point(yh), integer(random())), env);
+
+		BigInteger m = random();
+		BigInteger key = random();
+		ECPoint comm = g.multiply(m).add(h.multiply(key));
+		addProver(bench, "ECPOKPedersen", new ECPOKPedersenProver(),
+				array(point(comm), integer(random()), integer(random()), integer(m), integer(key)),
+				array(point(comm)),
+				array(point(comm), integer(random()), integer(random())), env);
+
+		ECPoint base = g.multiply(random());
+		BigInteger t = random();
+		ECPoint newM = base.multiply(x);
+		ECPoint expComm = g.multiply(x).add(h.multiply(t));
+		addProver(bench, "ECProofOfPrechosenExponent", new ECProofOfPrechosenExponentProver(),
+				array(point(base), point(newM), point(expComm), integer(random()), integer(random()), integer(x), integer(t)),
+				array(point(base), point(newM), point(expComm)),
+				array(point(base), point(newM), point(expComm), integer(random()), integer(random())), env);
+
+		//Provisions with s = 1:  p = b + h*v and l = y + h*t
+		BigInteger v = random();
+		ECPoint b = g.multiply(random());
+		ECPoint pComm = b.add(h.multiply(v));
+		ECPoint lComm = y.add(h.multiply(t));
+		CryptoData[] provisions = new CryptoData[13];
+		provisions[0] = point(b);
+		provisions[1] = point(y);
+		provisions[2] = integer(x);
+		provisions[3] = integer(v);
+		provisions[4] = integer(t);
+		provisions[5] = integer(BigInteger.ONE);
+		for(int i = 6; i < 12; i++)
+			provisions[i] = integer(random());
+		provisions[12] = integer(random());
+		addProver(bench, "ECProvisions", new ECProvisionsProver(), new CryptoDataArray(provisions),
+				array(point(b), point(y), point(pComm), point(lComm)), null, env);
+	}
+
+	private static void addNaive(Bench bench, int n, int k)
+	{
+		String name = "Naive(" + n + "," + k + ")";
+		try
+		{
+			Keys keys = new Keys(n, k);
+			ZKPProtocol p = VarianceToolkit.createMultiSigProofNaive(n, k, new ECSchnorrProver());
+			CryptoData environment = VarianceToolkit.createMultiSigEnvironmentNaive(n, k, env);
+			CryptoData proverInput = VarianceToolkit.createMultiSigProverDataNaive(n, k, keys.publicKeys, keys.privateKeys, keys.positions, env, p, order, rand);
+			CryptoData verifierInput = VarianceToolkit.createMultiSigVerifierInputsNaive(n, k, keys.publicKeys, p);
+			addProof(bench, name, p, proverInput, verifierInput, environment);
+		}
+		catch(RuntimeException e)
+		{
+			System.out.println(name + " skipped:  could not build the proof, " + e);
+		}
+	}
+
+	private static void addKeyCount(Bench bench, int n, int k)
+	{
+		String name = "KeyCount(" + n + "," + k + ")";
+		try
+		{
+			Keys keys = new Keys(n, k);
+			ECPedersenCommitment[] commitments = new ECPedersenCommitment[n];
+			BigInteger[] ephemeralKeys = new BigInteger[n];
+			for(int i = 0; i < n; i++)
+			{
+				ephemeralKeys[i] = random();
+				commitments[i] = new ECPedersenCommitment(i < k ? BigInteger.ONE : BigInteger.ZERO, ephemeralKeys[i], env);
+			}
+			ZKPProtocol p = VarianceToolkit.createMultiSigProofKeyCount(n, k, new ECSchnorrProver(), new ECSchnorrProver());
+			CryptoData environment = VarianceToolkit.createMultiSigEnvironmentKeyCount(n, k, env, revEnv);
+			CryptoData proverInput = VarianceToolkit.createMultiSigProverDataKeyCount(n, k, keys.publicKeys, keys.privateKeys, keys.positions, env, commitments, ephemeralKeys, order, rand);
+			CryptoData verifierInput = VarianceToolkit.createMultiSigVerifierInputsKeyCount(n, k, keys.publicKeys, commitments, env, new ECSchnorrProver());
+			addProof(bench, name, p, proverInput, verifierInput, environment);
+			bench.add(name + ".proverInput", () -> VarianceToolkit.createMultiSigProverDataKeyCount(n, k, keys.publicKeys, keys.privateKeys, keys.positions, env, commitments, ephemeralKeys, order, rand));
+		}
+		catch(RuntimeException e)
+		{
+			System.out.println(name + " skipped:  could not build the proof, " + e);
+		}
+	}
+
+	private static void addThreshhold(Bench bench, int n, int k)
+	{
+		String name = "Threshhold(" + n + "," + k + ")";
+		try
+		{
+			BigInteger challengePrime = BigInteger.ONE.shiftLeft(255).subtract(BigInteger.valueOf(19));
+			Keys keys = new Keys(n, k);
+			ZKPProtocol p = VarianceToolkit.createMultiSigProofThreshhold(n, k, new ECSchnorrProver(), challengePrime);
+			CryptoData environment = VarianceToolkit.createMultiSigEnvironmentThreshhold(n, k, env);
+			CryptoData proverInput = VarianceToolkit.createMultiSigProverDataThreshhold(n, k, keys.publicKeys, keys.privateKeys, keys.positions, env, p, order, rand);
+			CryptoData verifierInput = VarianceToolkit.createMultiSigVerifierInputsThreshhold(n, k, keys.publicKeys, p, challengePrime);
+			addProof(bench, name, p, proverInput, verifierInput, environment);
+		}
+		catch(RuntimeException e)
+		{
+			System.out.println(name + " skipped:  could not build the proof, " + e);
+		}
+	}
+
+	private static void addCommitments(Bench bench)
+	{
+		BigInteger m = random();
+		BigInteger key = random();
+		ECPedersenCommitment a = new ECPedersenCommitment(m, key, env);
+		ECPedersenCommitment b = new ECPedersenCommitment(random(), random(), env);
+		bench.add("ECPedersenCommitment.commit", () -> new ECPedersenCommitment(m, key, env));
+		bench.add("ECPedersenCommitment.multiplyCommitment", () -> a.multiplyCommitment(b, env));
+		CommitmentAccumulator sum = new CommitmentAccumulator(env);
+		bench.add("CommitmentAccumulator.add", () -> sum.add(b));
+		bench.add("ECPedersenCommitment.verifyCommitment", () -> a.verifyCommitment(m, key, env));
+		for(ChallengeCommitmentScheme scheme : new ChallengeCommitmentScheme[] {ChallengeCommitmentScheme.SHA256, ChallengeCommitmentScheme.SHA3_256})
+		{
+			ChallengeCommitment hash = scheme.commit(m, key, env);
+			bench.add("HashCommitment(" + scheme + ").commit", () -> scheme.commit(m, key, env));
+			bench.add("HashCommitment(" + scheme + ").verifyCommitment", () -> hash.verifyCommitment(m, key, env));
+		}
+		bench.add("ECPedersenCommitment.serialize", () -> {
+			ECPedersenCommitment copy = new ECPedersenCommitment(m, key, env);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(copy);
+			out.close();
+			return bytes.size();
+		});
+	}
+
+	private static void addSerialization(Bench bench) throws Exception
+	{
+		//The initial commitment of a 5 key account is a typical message:  a tree of points
+		int n = 5;
+		Keys keys = new Keys(n, 1);
+		ZKPProtocol p = VarianceToolkit.createMultiSigProofNaive(n, 1, new ECSchnorrProver());
+		CryptoData environment = VarianceToolkit.createMultiSigEnvironmentNaive(n, 1, env);
+		CryptoData proverInput = VarianceToolkit.createMultiSigProverDataNaive(n, 1, keys.publicKeys, keys.privateKeys, keys.positions, env, p, order, rand);
+		CryptoData tree = new CryptoDataArray(new CryptoData[] {p.initialComm(proverInput, environment), p.calcResponse(proverInput, challenge(), environment)});
+		CryptoDataCodec codec = new CryptoDataCodec(curve);
+
+		byte[] serialized = javaSerialize(tree);
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		codec.writeData(new DataOutputStream(encoded), tree);
+		byte[] binary = encoded.toByteArray();
+		System.out.println("CryptoData message:  " + serialized.length + " bytes serialized, " + binary.length + " bytes with CryptoDataCodec");
+
+		bench.add("CryptoData.javaSerialize", () -> javaSerialize(tree));
+		bench.add("CryptoData.javaDeserialize", () -> {
+			ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized));
+			CryptoData data = (CryptoData) in.readObject();
+			//Decoding is lazy, so touch the points the way a verifier would
+			return data.getCryptoDataArray()[0].getCryptoDataArray()[0].getCryptoDataArray()[0].getECPointData(curve);
+		});
+		bench.add("CryptoData.codecWrite", () -> {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(binary.length);
+			codec.writeData(new DataOutputStream(bytes), tree);
+			return bytes.size();
+		});
+		bench.add("CryptoData.codecRead", () -> codec.readData(new DataInputStream(new ByteArrayInputStream(binary))));
+		bench.add("CryptoData.codecReadFlat", () -> codec.readFlatData(new DataInputStream(new ByteArrayInputStream(binary))));
+	}
+
+	//Adds the three steps of a single prover, after checking the inputs make an accepted proof
+	private static void addProver(Bench bench, String name, ZKPProtocol p, CryptoData proverInput, CryptoData verifierInput, CryptoData simulatorInput, CryptoData environment)
+	{
+		try
+		{
+			BigInteger c = challenge();
+			CryptoData a = p.initialComm(proverInput, environment);
+			CryptoData z = p.calcResponse(proverInput, c, environment);
+			if(!p.verifyResponse(verifierInput, a, z, c, environment)) throw new IllegalStateException("the proof was rejected");
+			bench.add(name + ".initialComm", () -> p.initialComm(proverInput, environment));
+			bench.add(name + ".calcResponse", () -> p.calcResponse(proverInput, c, environment));
+			bench.add(name + ".verifyResponse", () -> p.verifyResponse(verifierInput, a, z, c, environment));
+			if(simulatorInput != null)
+				bench.add(name + ".initialCommSim", () -> p.initialCommSim(simulatorInput, c, environment));
+		}
+		catch(Exception e)
+		{
+			System.out.println(name + " skipped:  " + e);
+		}
+	}
+
+	//Adds proving (initial commitment and response) and verifying a whole tree
+	private static void addProof(Bench bench, String name, ZKPProtocol p, CryptoData proverInput, CryptoData verifierInput, CryptoData environment)
+	{
+		try
+		{
+			BigInteger c = challenge();
+			CryptoData a = p.initialComm(proverInput, environment);
+			CryptoData z = p.calcResponse(proverInput, c, environment);
+			if(!p.verifyResponse(verifierInput, a, z, c, environment)) throw new IllegalStateException("the proof was rejected");
+			bench.add(name + ".prove", () -> {
+				CryptoData[] transcript = new CryptoData[2];
+				transcript[0] = p.initialComm(proverInput, environment);
+				transcript[1] = p.calcResponse(proverInput, c, environment);
+				return transcript;
+			});
+			bench.add(name + ".verify", () -> p.verifyResponse(verifierInput, a, z, c, environment));
+			bench.add(name + ".verifyCompiled", () -> p.verifyCompiled(verifierInput, a, z, c, environment));
+		}
+		catch(Exception e)
+		{
+			System.out.println(name + " skipped:  " + e);
+		}
+	}
+
+	private static byte[] javaSerialize(CryptoData data) throws Exception
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(data);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static int[] parseSweep(String list)
+	{
+		String[] parts = list.split(",");
+		int[] sweep = new int[parts.length];
+		for(int i = 0; i < parts.length; i++)
+			sweep[i] = Integer.parseInt(parts[i].trim());
+		return sweep;
+	}
+
+	private static BigInteger random()
+	{
+		BigInteger r;
+		do {
+			r = new BigInteger(order.bitLength(), rand);
+		}while(r.signum() == 0 || r.compareTo(order) >= 0);
+		return r;
+	}
+
+	//Challenges are one bit shorter than the order, as in the protocol mains
+	private static BigInteger challenge()
+	{
+		return new BigInteger(order.bitLength() - 1, rand);
+	}
+
+	private static CryptoData array(CryptoData... data)
+	{
+		return new CryptoDataArray(data);
+	}
+
+	private static CryptoData point(ECPoint p)
+	{
+		return new ECPointData(p);
+	}
+
+	private static CryptoData integer(BigInteger i)
+	{
+		return new BigIntData(i);
+	}
+
+	//n fresh key pairs, the first k of which are known
+	private static class Keys
+	{
+		final CryptoData[] publicKeys;
+		final CryptoData[] privateKeys;
+		final int[] positions;
+
+		Keys(int n, int k)
+		{
+			publicKeys = new CryptoData[n];
+			privateKeys = new CryptoData[k];
+			positions = new int[k];
+			ArrayList<BigInteger> secrets = new ArrayList<BigInteger>();
+			for(int i = 0; i < n; i++)
+			{
+				BigInteger x = random();
+				secrets.add(x);
+				publicKeys[i] = point(g.multiply(x));
+			}
+			for(int i = 0; i < k; i++)
+			{
+				positions[i] = i;
+				privateKeys[i] = integer(secrets.get(i));
+			}
+		}
+	}
+}
@@ -0,0 +1,321 @@
+package protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Channels through memory, so both main parties (and their friends) can run as threads of one JVM.  Nothing is
+ * encrypted or copied beyond the serialized bytes, which makes it the baseline against which socket and network costs
+ * can be measured.  Given NetworkConditions, every channel also delays and throttles what crosses it like a real link,
+ * so latency and bandwidth sensitivity can be measured without one.
+ *
+ * java.io.PipedInputStream is not used because it fails once the last thread that wrote to it has died, and the
+ * pipelined sessions write from short lived threads.
+ */
+public class LoopbackTransport implements Transport
+{
+	private final ObjectInputStream mainIn;
+	private final ObjectOutputStream mainOut;
+	private final ObjectInputStream[] friendsIn;
+	private final ObjectOutputStream[] friendsOut;
+	private final Link[] friendLinks;
+	private final boolean isHost;
+	private final TrafficCounter traffic;
+	private final List<Pipe> pipes = new ArrayList<Pipe>();
+
+	/**
+	 * The far end of a friend channel, for the thread that plays the friend.
+	 */
+	public static class Link
+	{
+		public final ObjectInputStream in;
+		public final ObjectOutputStream out;
+
+		private Link(ObjectInputStream in, ObjectOutputStream out)
+		{
+			this.in = in;
+			this.out = out;
+		}
+	}
+
+	private LoopbackTransport(ObjectInputStream mainIn, ObjectOutputStream mainOut, int friends, NetworkConditions friendLinks, boolean isHost, TrafficCounter traffic, Pipe toOther, Pipe fromOther) throws IOException
+	{
+		this.mainIn = mainIn;
+		this.mainOut = mainOut;
+		this.isHost = isHost;
+		this.traffic = traffic;
+		pipes.add(toOther);
+		pipes.add(fromOther);
+		friendsIn = new ObjectInputStream[friends];
+		friendsOut = new ObjectOutputStream[friends];
+		this.friendLinks = new Link[friends];
+		for(int i = 0; i < friends; i++)
+		{
+			Pipe toFriend = new Pipe(friendLinks);
+			Pipe fromFriend = new Pipe(friendLinks);
+			pipes.add(toFriend);
+			pipes.add(fromFriend);
+			friendsOut[i] = new ObjectOutputStream(toFriend.out);
+			friendsOut[i].flush();
+			ObjectOutputStream friendOut = new ObjectOutputStream(fromFriend.out);
+			friendOut.flush();
+			friendsIn[i] = new ObjectInputStream(fromFriend.in);
+			this.friendLinks[i] = new Link(new ObjectInputStream(toFriend.in), friendOut);
+		}
+	}
+
+	/**
+	 * Connects two main parties.  The first is the host.
+	 */
+	public static LoopbackTransport[] pair(int friendsOfFirst, int friendsOfSecond) throws IOException
+	{
+		return pair(friendsOfFirst, friendsOfSecond, NetworkConditions.IDEAL, NetworkConditions.IDEAL);
+	}
+
+	/**
+	 * Connects two main parties, whose channel behaves as mainLink and whose channels to their friends behave as
+	 * friendLinks.  The first is the host.
+	 */
+	public static LoopbackTransport[] pair(int friendsOfFirst, int friendsOfSecond, NetworkConditions mainLink, NetworkConditions friendLinks) throws IOException
+	{
+		Pipe ab = new Pipe(mainLink);
+		Pipe ba = new Pipe(mainLink);
+		TrafficCounter aTraffic = new TrafficCounter();
+		TrafficCounter bTraffic = new TrafficCounter();
+		//Both headers are written before either side reads, so neither constructor blocks
+		ObjectOutputStream aOut = new ObjectOutputStream(aTraffic.wrap(ab.out));
+		aOut.flush();
+		ObjectOutputStream bOut = new ObjectOutputStream(bTraffic.wrap(ba.out));
+		bOut.flush();
+		ObjectInputStream aIn = new ObjectInputStream(aTraffic.wrap(ba.in));
+		ObjectInputStream bIn = new ObjectInputStream(bTraffic.wrap(ab.in));
+		return new LoopbackTransport[] {
+				new LoopbackTransport(aIn, aOut, friendsOfFirst, friendLinks, true, aTraffic, ab, ba),
+				new LoopbackTransport(bIn, bOut, friendsOfSecond, friendLinks, false, bTraffic, ba, ab)};
+	}
+
+	public Link getFriendLink(int i)
+	{
+		return friendLinks[i];
+	}
+
+	@Override
+	public ObjectInputStream getMainIn()
+	{
+		return mainIn;
+	}
+
+	@Override
+	public ObjectOutputStream getMainOut()
+	{
+		return mainOut;
+	}
+
+	@Override
+	public ObjectInputStream[] getFriendsIn()
+	{
+		return friendsIn;
+	}
+
+	@Override
+	public ObjectOutputStream[] getFriendsOut()
+	{
+		return friendsOut;
+	}
+
+	@Override
+	public boolean isHost()
+	{
+		return isHost;
+	}
+
+	@Override
+	public void setTimeout(int millis)
+	{
+		for(Pipe p : pipes)
+			p.timeout = millis;
+	}
+
+	@Override
+	public TrafficCounter getTraffic()
+	{
+		return traffic;
+	}
+
+	/**
+	 * Closes every channel of this party.  The other ends read what was already written and then see the end of the
+	 * stream.
+	 */
+	@Override
+	public void close()
+	{
+		for(Pipe p : pipes)
+			p.close();
+	}
+
+	/**
+	 * One direction of a link:  a queue of packets, each readable once its delivery time has come.
+	 */
+	private static class Pipe
+	{
+		private final NetworkConditions conditions;
+		private final Random jitter = new Random();
+		private final ArrayDeque<Packet> packets = new ArrayDeque<Packet>();
+		private int unread = 0;
+		private long linkFree = 0;
+		private long lastDelivery = 0;
+		private boolean closed = false;
+		private volatile int timeout = 0;
+
+		final InputStream in = new InputStream() {
+			@Override
+			public int read() throws IOException
+			{
+				byte[] b = new byte[1];
+				return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException
+			{
+				return Pipe.this.read(b, off, len);
+			}
+
+			@Override
+			public void close()
+			{
+				Pipe.this.close();
+			}
+		};
+
+		final OutputStream out = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException
+			{
+				write(new byte[] {(byte) b}, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException
+			{
+				Pipe.this.write(b, off, len);
+			}
+
+			@Override
+			public void close()
+			{
+				Pipe.this.close();
+			}
+		};
+
+		private static class Packet
+		{
+			final byte[] data;
+			final long deliverAt;
+			int read = 0;
+
+			Packet(byte[] data, long deliverAt)
+			{
+				this.data = data;
+				this.deliverAt = deliverAt;
+			}
+		}
+
+		Pipe(NetworkConditions conditions)
+		{
+			this.conditions = conditions;
+		}
+
+		private synchronized int read(byte[] b, int off, int len) throws IOException
+		{
+			if(len == 0) return 0;
+			long deadline = timeout == 0 ? 0 : System.nanoTime() + timeout * 1000000L;
+			Packet p;
+			while(true)
+			{
+				p = packets.peek();
+				if(p != null)
+				{
+					long early = p.deliverAt == 0 ? 0 : p.deliverAt - System.nanoTime();
+					if(early <= 0) break;
+					await(deadline, early);
+				}
+				else if(closed) return -1;
+				else await(deadline, 0);
+			}
+			int n = Math.min(len, p.data.length - p.read);
+			System.arraycopy(p.data, p.read, b, off, n);
+			p.read += n;
+			if(p.read == p.data.length) packets.poll();
+			unread -= n;
+			notifyAll();
+			return n;
+		}
+
+		private synchronized void write(byte[] b, int off, int len) throws IOException
+		{
+			boolean ideal = conditions.isIdeal();
+			while(len > 0)
+			{
+				while(unread >= conditions.getWindow() && !closed)
+					await(0, 0);
+				if(closed) throw new IOException("Pipe closed");
+				int n = Math.min(len, conditions.getWindow() - unread);
+				if(!ideal) n = Math.min(n, conditions.getPacketSize());
+				byte[] data = new byte[n];
+				System.arraycopy(b, off, data, 0, n);
+				long deliverAt = 0;
+				if(!ideal)
+				{
+					//The link sends one packet after another;  each then takes the one way delay to arrive
+					long now = System.nanoTime();
+					linkFree = Math.max(now, linkFree) + (long) (n * conditions.getNanosPerByte());
+					deliverAt = linkFree + conditions.getDelayNanos();
+					if(conditions.getJitterNanos() != 0)
+						deliverAt += (long) (jitter.nextDouble() * conditions.getJitterNanos());
+					deliverAt = Math.max(deliverAt, lastDelivery);
+					lastDelivery = deliverAt;
+				}
+				packets.add(new Packet(data, deliverAt));
+				unread += n;
+				off += n;
+				len -= n;
+				notifyAll();
+			}
+		}
+
+		//Waits at most until deadline (0 for none) and at most nanos (0 for no limit)
+		private void await(long deadline, long nanos) throws InterruptedIOException
+		{
+			try {
+				if(deadline != 0)
+				{
+					long left = deadline - System.nanoTime();
+					if(left <= 0) throw new InterruptedIOException("Read timed out");
+					nanos = nanos == 0 ? left : Math.min(nanos, left);
+				}
+				if(nanos == 0)
+					wait();
+				else
+					wait(nanos / 1000000, (int) (nanos % 1000000));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+
+		private synchronized void close()
+		{
+			closed = true;
+			notifyAll();
+		}
+	}
+}
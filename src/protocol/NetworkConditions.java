@@ -0,0 +1,102 @@
+package protocol;
+
+/**
+ * What a simulated link does to the bytes crossing it, for LoopbackTransport:  each packet arrives half a round trip
+ * (plus up to jitter) after the link finished sending it, the link sends at most a given bandwidth, and a sender blocks
+ * once window bytes are unread, as it would on a TCP connection whose window is full.  Writes are cut into packets of
+ * at most packetSize bytes;  packets are delayed independently but always delivered in order.
+ *
+ * Delays are honoured to about a millisecond.
+ */
+public class NetworkConditions
+{
+	public static final int DEFAULT_PACKET_SIZE = 1460;
+	public static final int DEFAULT_WINDOW = 1 << 20;
+
+	/**
+	 * No delay, no bandwidth cap.
+	 */
+	public static final NetworkConditions IDEAL = new NetworkConditions(0, 0, 0);
+
+	private final double rttMillis;
+	private final double jitterMillis;
+	private final double megabitsPerSecond;
+	private final int packetSize;
+	private final int window;
+
+	/**
+	 * @param megabitsPerSecond 0 for no cap
+	 */
+	public NetworkConditions(double rttMillis, double jitterMillis, double megabitsPerSecond)
+	{
+		this(rttMillis, jitterMillis, megabitsPerSecond, DEFAULT_PACKET_SIZE, DEFAULT_WINDOW);
+	}
+
+	public NetworkConditions(double rttMillis, double jitterMillis, double megabitsPerSecond, int packetSize, int window)
+	{
+		if(rttMillis < 0 || jitterMillis < 0 || megabitsPerSecond < 0 || packetSize <= 0 || window <= 0)
+			throw new IllegalArgumentException("Network conditions must not be negative");
+		this.rttMillis = rttMillis;
+		this.jitterMillis = jitterMillis;
+		this.megabitsPerSecond = megabitsPerSecond;
+		this.packetSize = packetSize;
+		this.window = window;
+	}
+
+	public double getRttMillis()
+	{
+		return rttMillis;
+	}
+
+	public double getJitterMillis()
+	{
+		return jitterMillis;
+	}
+
+	public double getMegabitsPerSecond()
+	{
+		return megabitsPerSecond;
+	}
+
+	public int getPacketSize()
+	{
+		return packetSize;
+	}
+
+	public int getWindow()
+	{
+		return window;
+	}
+
+	/**
+	 * @return true if packets are neither delayed nor throttled
+	 */
+	public boolean isIdeal()
+	{
+		return rttMillis == 0 && jitterMillis == 0 && megabitsPerSecond == 0;
+	}
+
+	long getDelayNanos()
+	{
+		return (long) (rttMillis * 500000);
+	}
+
+	long getJitterNanos()
+	{
+		return (long) (jitterMillis * 1000000);
+	}
+
+	/**
+	 * @return 0 if the bandwidth is not capped
+	 */
+	double getNanosPerByte()
+	{
+		return megabitsPerSecond == 0 ? 0 : 8000 / megabitsPerSecond;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("rtt %.1f ms, jitter %.1f ms, %s", rttMillis, jitterMillis, megabitsPerSecond == 0 ? "no bandwidth cap" : String.format("%.1f Mbit/s", megabitsPerSecond));
+	}
+}
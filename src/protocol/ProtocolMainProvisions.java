@@ -16,7 +16,6 @@ import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketAddress;
-import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Base64.Decoder;
@@ -39,7 +38,10 @@ import zero_knowledge_proofs.ECProvisionsProver;
 import zero_knowledge_proofs.InvalidStringFormatException;
 import zero_knowledge_proofs.MultipleTrueProofException;
 import zero_knowledge_proofs.NoTrueProofException;
+import zero_knowledge_proofs.TextTranscript;
+import zero_knowledge_proofs.Transcript;
 import zero_knowledge_proofs.ZKPProtocol;
+import zero_knowledge_proofs.ScalarSampler;
 import zero_knowledge_proofs.CryptoData.BigIntData;
 import zero_knowledge_proofs.CryptoData.CryptoData;
 import zero_knowledge_proofs.CryptoData.CryptoDataArray;
@@ -129,10 +131,10 @@ public class ProtocolMainProvisions {
 	    {
 	    	BigInteger seedInt = new BigInteger(args[6]);
 	    	byte[] seed = seedInt.toByteArray();
-	    	r = new SecureRandom(seed);
+	    	r = new ScalarSampler(seed);
 	    }
 	    else {
-	    	r = new SecureRandom();
+	    	r = new ScalarSampler();
 	    }
 		
 		
@@ -150,6 +152,7 @@ public class ProtocolMainProvisions {
 		
 		ArrayList<CryptoData[]> knownKeys = new ArrayList<CryptoData[]>();
 		CryptoData environment = new CryptoDataArray(new CryptoData[] {new ECCurveData(c,g), new ECPointData(h)});
+		environment.precomputeFixedBase(c);
 		
 		CryptoData[] commitment1Env = new CryptoData[] {new ECCurveData(c, h), null};
 		CryptoData[] commitment2Env = new CryptoData[] {new ECCurveData(c,g), new ECPointData(h)};
@@ -167,11 +170,7 @@ public class ProtocolMainProvisions {
 			e.printStackTrace();
 		}
 		BufferedWriter out2 = new BufferedWriter(arg0);
-		StringBuilder transcript = new StringBuilder();
-
-		transcript.append("Environment:  ");
-		transcript.append(environment.toString64());
-		transcript.append("\n\n");
+		Transcript transcript = new TextTranscript(out2);
 		while((dataRow = keyBr.readLine()) != null)
 		{
 			//String format:  "Public Key	Private Key"
@@ -337,8 +336,7 @@ public class ProtocolMainProvisions {
 				runProver(prover, host, in, out, otherCommitments, r, h, bitLength, commEnv2,
 						environment, proverIndex, acc, input, transcript);
 
-				out2.write(transcript.toString());
-				transcript.setLength(0);
+				transcript.flush();
 				out2.flush();
 				out.flush();
 				out.reset();
@@ -351,8 +349,7 @@ public class ProtocolMainProvisions {
 			runProver(prover, host, in, out, otherCommitments, r, h, bitLength, commEnv2,
 					environment, proverIndex, acc, input, transcript);
 
-			out2.write(transcript.toString());
-			transcript.setLength(0);
+			transcript.flush();
 		}
 
 
@@ -413,7 +410,7 @@ public class ProtocolMainProvisions {
 	private static void runProver(ZKPProtocol prover, ServerSocket host,
 			ObjectInputStream in, ObjectOutputStream out, ECPedersenCommitment[][] otherCommitments, Random r, ECPoint h,
 			int bitLength, CryptoData commitmentEnv, CryptoData environment, int proverIndex,
-			CryptoData[][] acc, CryptoData[] input, StringBuilder transcript) throws IOException {
+			CryptoData[][] acc, CryptoData[] input, Transcript transcript) throws IOException {
 		
 		for(int i = 0; i < proverIndex; i++)
 		{
@@ -31,6 +31,7 @@ import zero_knowledge_proofs.MultipleTrueProofException;
 import zero_knowledge_proofs.NoTrueProofException;
 import zero_knowledge_proofs.VarianceToolkit;
 import zero_knowledge_proofs.ZKPProtocol;
+import zero_knowledge_proofs.ScalarSampler;
 import zero_knowledge_proofs.CryptoData.BigIntData;
 import zero_knowledge_proofs.CryptoData.CryptoData;
 import zero_knowledge_proofs.CryptoData.CryptoDataArray;
@@ -62,9 +63,9 @@ public class ProtocolMainVarianceMultiSigFriend {
 		boolean flag = false;
 		SecureRandom rand;
 		if(args.length == 7)
-			rand = new SecureRandom(new BigInteger(args[6]).toByteArray());
+			rand = new ScalarSampler(new BigInteger(args[6]).toByteArray());
 		else if(args.length == 6)
-			rand = new SecureRandom();
+			rand = new ScalarSampler();
 		else {
 			System.out.println("usage:  <executable> <ip> <port> <position on main party's list> <account_filename> <key_filename> <environment_filename> [seed]");
 			System.exit(1);
@@ -86,173 +87,40 @@ public class ProtocolMainVarianceMultiSigFriend {
 			e1.printStackTrace();
 			return;
 		}
-		String dataRow;
-
-		
 		String leaderIP = args[0];
 		int leaderPort = Integer.parseInt(args[1]);
 		Socket toLeader = null;
 		ObjectInputStream in = null;
 		ObjectOutputStream out = null;
-		try {
-			dataRow = envBr.readLine();
-			String[] envString = dataRow.split("\t");
-			ECPoint g = ECNamedCurveTable.getParameterSpec(envString[0]).getG();
-			ECCurve curve = g.getCurve();
-			BigInteger order = g.getCurve().getOrder();
-			Decoder decoder = Base64.getDecoder();
-			System.out.println("Attempting to connect to main party");
-			boolean flag2 = true;
-			while(flag2)
-			{
-				try {
-					toLeader = sf.createSocket(leaderIP, leaderPort);
-
-					out = new ObjectOutputStream(toLeader.getOutputStream());
-					in = new ObjectInputStream(toLeader.getInputStream());
-					out.writeInt(Integer.parseInt(args[2]));
-					out.flush();
-					System.out.println("Sent number!");
-					if(in.readBoolean()) {
-						flag2=false;
-						System.out.println("Success!");						
-					}
-					else {
-						System.out.println("They said no.  Sleeping for 5 seconds");
-						Thread.sleep(5000);
-						System.out.println("Trying again...");
-						toLeader.close();
-						toLeader = null;
-					}
-				} catch (Exception e) {
-					System.out.println("Trying again...");
-				}
-			}
-			CryptoData environment = new CryptoDataArray(new CryptoData[] {new ECCurveData(curve, g)});
-			
-			ArrayList<KeyList> knownKeys = new ArrayList<KeyList>();
+		System.out.println("Attempting to connect to main party");
+		boolean flag2 = true;
+		while(flag2)
+		{
+			try {
+				toLeader = sf.createSocket(leaderIP, leaderPort);
 
-			while((dataRow = keyBr.readLine()) != null)
-			{
-				//String format:  "Public Key	Private Key"
-				 
-				String[] stringData = dataRow.split("\t");
-				if(stringData[0].length() > 2 && stringData[0].substring(0, 2).equals("//")) {
-					continue;	//lines can be commented with //
-				}
-				if(stringData.length < 3) 
-				{
-					System.err.printf("Line rejected from Keys:  %s\n", dataRow);
-					continue;				
-				}
-				
-				
-				KeyList keys = new KeyList();
-				
-				try
-				{
-					keys.id = Integer.parseInt(stringData[0]);
-					keys.keys = new CryptoData[stringData.length / 2];
-					keys.positions = new int[stringData.length / 2];
-					for(int i = 0; i < keys.keys.length; i++)
-					{
-						keys.positions[i] = Integer.parseInt(stringData[((i+1) * 2) - 1]);
-						keys.keys[i] = new BigIntData(new BigInteger(decoder.decode(stringData[(i+1) * 2])));
-					}
-					knownKeys.add(keys);
-				}
-				catch(Exception e)
-				{
-					System.err.println("Line failed in KeyFile:  Not parsed as numbers.  " + dataRow);
-					e.printStackTrace(System.err);
-					continue;
-				}
-			}		
-			
-			knownKeys.add(null);
-			
-			ZKPProtocol schnorr = new ECSchnorrProver();
-			flag = in.readBoolean();
-			int current = -1;
-			String[] accountLine = null;
-			int keyNum = 0;
-			KeyList currKey = knownKeys.get(0);
-			
-			CryptoData[] input = new CryptoData[16];
-			while(!flag)
-			{ 
-				int account = currKey.id;
-				if(account < current){
-					out.writeObject(null);
-					out.flush();
-					throw new IOException("Inputs out of order");
-				}
-				if(currKey == null || currKey.id != account)
-				{
-					out.writeObject(null);
-					out.flush();
-					throw new IOException("Unexpected Account");
-				}
-				while(current != account)
-				{
-					String line = br.readLine();
-					if(line.length() == 0) continue;
-					if(current + 1 == account)
-					{
-						accountLine = line.split("\t");
-						if(accountLine[0].length() >= 2 && accountLine[0].substring(0, 2).equals("//")) {
-							continue;	//lines can be commented with //
-						}
-						if(accountLine.length < 4) 
-						{
-							continue;				
-						}
-						
-					}
-					current++;
+				out = new ObjectOutputStream(toLeader.getOutputStream());
+				in = new ObjectInputStream(toLeader.getInputStream());
+				out.writeInt(Integer.parseInt(args[2]));
+				out.flush();
+				System.out.println("Sent number!");
+				if(in.readBoolean()) {
+					flag2=false;
+					System.out.println("Success!");						
 				}
-				keyNum++;
-				
-				for(int i = 0; i < currKey.positions.length; i++)
-				{
-					input[i] = VarianceToolkit.createSchnorrProverInputsNoChecks(new ECPointData(curve.decodePoint(decoder.decode(accountLine[currKey.positions[i] + 3]))), currKey.keys[i], order, rand);
-					CryptoData a;
-					try {
-						a = schnorr.initialComm(input[i], environment);
-					} catch (MultipleTrueProofException | NoTrueProofException | ArraySizesDoNotMatchException e) {
-						e.printStackTrace();
-						out.writeObject(null);
-						out.flush();
-						return;
-					}
-					out.flush();
-					out.writeObject(a);
-				}
-				BigInteger challenge;
-				try {
-					challenge = (BigInteger) in.readObject();
-				} catch (ClassNotFoundException e) {
-					e.printStackTrace();
-					return;
-				}
-				
-				for(int i = 0; i < currKey.positions.length; i++)
-				{
-					try {
-						out.writeObject(schnorr.calcResponse(input[i], challenge, environment));
-						out.flush();
-					} catch (NoTrueProofException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					} catch (MultipleTrueProofException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
+				else {
+					System.out.println("They said no.  Sleeping for 5 seconds");
+					Thread.sleep(5000);
+					System.out.println("Trying again...");
+					toLeader.close();
+					toLeader = null;
 				}
-				currKey = knownKeys.get(keyNum);
-				flag = in.readBoolean();
+			} catch (Exception e) {
+				System.out.println("Trying again...");
 			}
-
+		}
+		try {
+			flag = run(br, keyBr, envBr, in, out, rand);
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -279,7 +147,6 @@ public class ProtocolMainVarianceMultiSigFriend {
 		}
 		if(flag)
 			try {
-				out.writeBoolean(true);
 				toLeader.close();
 			} catch (Exception e) {
 			}
@@ -287,4 +154,148 @@ public class ProtocolMainVarianceMultiSigFriend {
 		System.exit(0);
 	}
 
+	/**
+	 * Answers the main party's requests for this friend's share of the proofs until it says it is done.
+	 * 
+	 * @return true if the main party ended the session, false if it was cut short
+	 */
+	public static boolean run(BufferedReader br, BufferedReader keyBr, BufferedReader envBr, ObjectInputStream in, ObjectOutputStream out, SecureRandom rand) throws IOException
+	{
+		String dataRow;
+		boolean flag;
+		dataRow = envBr.readLine();
+		String[] envString = dataRow.split("\t");
+		ECPoint g = ECNamedCurveTable.getParameterSpec(envString[0]).getG();
+		ECCurve curve = g.getCurve();
+		BigInteger order = g.getCurve().getOrder();
+		Decoder decoder = Base64.getDecoder();
+		CryptoData environment = new CryptoDataArray(new CryptoData[] {new ECCurveData(curve, g)});
+		
+		ArrayList<KeyList> knownKeys = new ArrayList<KeyList>();
+
+		while((dataRow = keyBr.readLine()) != null)
+		{
+			//String format:  "Public Key	Private Key"
+			 
+			String[] stringData = dataRow.split("\t");
+			if(stringData[0].length() > 2 && stringData[0].substring(0, 2).equals("//")) {
+				continue;	//lines can be commented with //
+			}
+			if(stringData.length < 3) 
+			{
+				System.err.printf("Line rejected from Keys:  %s\n", dataRow);
+				continue;				
+			}
+			
+			
+			KeyList keys = new KeyList();
+			
+			try
+			{
+				keys.id = Integer.parseInt(stringData[0]);
+				keys.keys = new CryptoData[stringData.length / 2];
+				keys.positions = new int[stringData.length / 2];
+				for(int i = 0; i < keys.keys.length; i++)
+				{
+					keys.positions[i] = Integer.parseInt(stringData[((i+1) * 2) - 1]);
+					keys.keys[i] = new BigIntData(new BigInteger(decoder.decode(stringData[(i+1) * 2])));
+				}
+				knownKeys.add(keys);
+			}
+			catch(Exception e)
+			{
+				System.err.println("Line failed in KeyFile:  Not parsed as numbers.  " + dataRow);
+				e.printStackTrace(System.err);
+				continue;
+			}
+		}		
+		
+		knownKeys.add(null);
+		
+		ZKPProtocol schnorr = new ECSchnorrProver();
+		flag = in.readBoolean();
+		int current = -1;
+		String[] accountLine = null;
+		int keyNum = 0;
+		KeyList currKey = knownKeys.get(0);
+		
+		CryptoData[] input = new CryptoData[16];
+		while(!flag)
+		{ 
+			int account = currKey.id;
+			if(account < current){
+				out.writeObject(null);
+				out.flush();
+				throw new IOException("Inputs out of order");
+			}
+			if(currKey == null || currKey.id != account)
+			{
+				out.writeObject(null);
+				out.flush();
+				throw new IOException("Unexpected Account");
+			}
+			while(current != account)
+			{
+				String line = br.readLine();
+				if(line.length() == 0) continue;
+				if(current + 1 == account)
+				{
+					accountLine = line.split("\t");
+					if(accountLine[0].length() >= 2 && accountLine[0].substring(0, 2).equals("//")) {
+						continue;	//lines can be commented with //
+					}
+					if(accountLine.length < 4) 
+					{
+						continue;				
+					}
+					
+				}
+				current++;
+			}
+			keyNum++;
+			
+			for(int i = 0; i < currKey.positions.length; i++)
+			{
+				input[i] = VarianceToolkit.createSchnorrProverInputsNoChecks(new ECPointData(curve.decodePoint(decoder.decode(accountLine[currKey.positions[i] + 3]))), currKey.keys[i], order, rand);
+				CryptoData a;
+				try {
+					a = schnorr.initialComm(input[i], environment);
+				} catch (MultipleTrueProofException | NoTrueProofException | ArraySizesDoNotMatchException e) {
+					e.printStackTrace();
+					out.writeObject(null);
+					out.flush();
+					return false;
+				}
+				out.flush();
+				out.writeObject(a);
+			}
+			BigInteger challenge;
+			try {
+				challenge = (BigInteger) in.readObject();
+			} catch (ClassNotFoundException e) {
+				e.printStackTrace();
+				return false;
+			}
+			
+			for(int i = 0; i < currKey.positions.length; i++)
+			{
+				try {
+					out.writeObject(schnorr.calcResponse(input[i], challenge, environment));
+					out.flush();
+				} catch (NoTrueProofException e) {
+					// TODO Auto-generated catch block
+					e.printStackTrace();
+				} catch (MultipleTrueProofException e) {
+					// TODO Auto-generated catch block
+					e.printStackTrace();
+				}
+			}
+			currKey = knownKeys.get(keyNum);
+			flag = in.readBoolean();
+		}
+		out.writeBoolean(true);
+		out.flush();
+		return flag;
+	}
+
 }
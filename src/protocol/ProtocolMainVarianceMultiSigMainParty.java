@@ -20,7 +20,6 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketAddress;
 import java.net.SocketTimeoutException;
-import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Date;
@@ -40,6 +39,7 @@ import java.util.Base64.Decoder;
 
 import zero_knowledge_proofs.ArraySizesDoNotMatchException;
 import zero_knowledge_proofs.CheaterException;
+import zero_knowledge_proofs.CommitmentAccumulator;
 import zero_knowledge_proofs.InvalidStringFormatException;
 import zero_knowledge_proofs.MultipleTrueProofException;
 import zero_knowledge_proofs.NoTrueProofException;
@@ -47,8 +47,11 @@ import zero_knowledge_proofs.VarianceToolkit;
 import zero_knowledge_proofs.ECPedersenCommitment;
 import zero_knowledge_proofs.ECPedersenOwnedBitwiseCommitment;
 import zero_knowledge_proofs.ECSchnorrProver;
+import zero_knowledge_proofs.TextTranscript;
+import zero_knowledge_proofs.Transcript;
 import zero_knowledge_proofs.ZKPProtocol;
 import zero_knowledge_proofs.ZKToolkit;
+import zero_knowledge_proofs.ScalarSampler;
 import zero_knowledge_proofs.CryptoData.BigIntData;
 import zero_knowledge_proofs.CryptoData.CryptoData;
 import zero_knowledge_proofs.CryptoData.CryptoDataArray;
@@ -59,7 +62,7 @@ public class ProtocolMainVarianceMultiSigMainParty {
 	//TODO Make usage statement:  <excecutable> <ip> <port> <myport> <accounts file name> <key file name> <environment file name> <blockSize> <friends file> [seed (optional)]
 
 	static boolean verify = true; //This is lousy, make it an instance
-	static ECPedersenCommitment othersSumCommitment;
+	static CommitmentAccumulator othersSum;
 	
 	public static void main(String[] args) throws InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException, SecurityException, InvalidStringFormatException, IOException, ClassNotFoundException, MultipleTrueProofException, NoTrueProofException, ArraySizesDoNotMatchException{
 		int debug = 1;
@@ -282,15 +285,15 @@ public class ProtocolMainVarianceMultiSigMainParty {
 	    ECPedersenCommitment[] otherCommitments = new ECPedersenCommitment[blockSize];
 		
 	    System.out.println("Attempting to Connect");
-	    SecureRandom r;
+	    ScalarSampler r;
 	    if(args.length == 9)
 	    {
 	    	BigInteger seedInt = new BigInteger(args[8]);
 	    	byte[] seed = seedInt.toByteArray();
-	    	r = new SecureRandom(seed);
+	    	r = new ScalarSampler(seed);
 	    }
 	    else {
-	    	r = new SecureRandom();
+	    	r = new ScalarSampler();
 	    }
 		
 		
@@ -320,6 +323,8 @@ public class ProtocolMainVarianceMultiSigMainParty {
 		CryptoData miniEnv = new CryptoDataArray(new CryptoData[] {new ECCurveData(curve, g), new ECPointData(h)});
 		
 		CryptoData revMiniEnv = new CryptoDataArray(new CryptoData[] {new ECCurveData(curve, h), new ECPointData(g)});
+		miniEnv.precomputeFixedBase(curve);
+		revMiniEnv.precomputeFixedBase(curve);
 		
 		
 		BigInteger sum = BigInteger.ZERO;
@@ -327,7 +332,7 @@ public class ProtocolMainVarianceMultiSigMainParty {
 		
 		CryptoData environment = new CryptoDataArray(new CryptoData[] {new CryptoDataArray (new CryptoData[] {miniEnv, revMiniEnv}), revMiniEnv});
 
-		othersSumCommitment = new ECPedersenCommitment(BigInteger.ZERO, BigInteger.ZERO, miniEnv);
+		othersSum = new CommitmentAccumulator(miniEnv);
 
 		Writer arg0 = null;
 		try {
@@ -337,7 +342,7 @@ public class ProtocolMainVarianceMultiSigMainParty {
 			e.printStackTrace();
 		}
 		BufferedWriter out2 = new BufferedWriter(arg0);
-		StringBuilder transcript = new StringBuilder();
+		Transcript transcript = new TextTranscript(out2);
 		ArrayList<int[]> requests = new ArrayList<int[]>();
 		while((dataRow = keyBr.readLine()) != null)
 		{
@@ -406,8 +411,6 @@ public class ProtocolMainVarianceMultiSigMainParty {
 		CryptoData[] verifierInput = new CryptoData[blockSize];
 		CryptoData[][] acc = new CryptoData[blockSize][];
 		BigInteger balance[] = new BigInteger[blockSize];
-		int lastN = -1;
-		int lastK = -1;
 		while((dataRow = br.readLine()) != null)
 		{
 			if(dataRow.length() == 0) continue;
@@ -497,13 +500,6 @@ public class ProtocolMainVarianceMultiSigMainParty {
 				environments[n-1][k-1] = VarianceToolkit.createVarianceEnvironment(keyEnv, miniEnv);
 //				System.out.println(keyEnv);
 			}
-			if(lastN != n || lastK != k){
-				transcript.append("Environment:  ");
-				transcript.append(environments[n-1][k-1].toString64());
-				transcript.append("\n\n");
-				lastN = n;
-				lastK = k;
-			}
 //			System.out.println(provers[n-1][k-1]);
 //			System.out.println("In main:  " + environments[n-1][k-1]);
 			BigInteger pcKey;
@@ -576,7 +572,7 @@ public class ProtocolMainVarianceMultiSigMainParty {
 						}
 						else
 						{
-							othersSumCommitment = othersSumCommitment.multiplyCommitment(otherCommitments[i], miniEnv);
+							othersSum.add(otherCommitments[i]);
 						}
 							
 					} catch (ClassNotFoundException | MultipleTrueProofException | NoTrueProofException
@@ -585,8 +581,7 @@ public class ProtocolMainVarianceMultiSigMainParty {
 						e.printStackTrace();
 					}
 				}
-				out2.write(transcript.toString());
-				transcript.setLength(0);
+				transcript.flush();
 				mainOut.flush();
 				proverIndex = 0;
 			}
@@ -631,7 +626,7 @@ public class ProtocolMainVarianceMultiSigMainParty {
 		mainOut.writeObject(ecBitComm);
 		otherECBits = (ECPedersenCommitment[]) mainIn.readObject();
 		
-		if(!VarianceToolkit.checkBitCommitment(othersSumCommitment, otherECBits, miniEnv)) System.out.println("LIAR!!! BIT COMMITMENTS DO NOT MATCH THEIR SUM");
+		if(!VarianceToolkit.checkBitCommitment(othersSum.toCommitment(), otherECBits, miniEnv)) System.out.println("LIAR!!! BIT COMMITMENTS DO NOT MATCH THEIR SUM");
 		else System.out.println("Bit Commitments Correct");
 		System.out.println(ecBits.getMessage());
 		CryptoData[][] table = VarianceToolkit.getBasicTable(miniEnv);
@@ -663,7 +658,7 @@ public class ProtocolMainVarianceMultiSigMainParty {
 		ECPedersenCommitment myCmt = new ECPedersenCommitment(c[0], c[1], miniEnv);
 		ObjectInputStream[] inArray = {mainIn}; 
 		ObjectOutputStream[] outArray = {mainOut}; 
-		if(VarianceToolkit.consistantTableEncryptionProver.parallelZKProve(pInputs, vInputs, tableProofEnv, mainIn, mainOut, myCmt, miniEnv, c, null))
+		if(VarianceToolkit.consistantTableEncryptionProver.parallelZKProve(pInputs, vInputs, tableProofEnv, mainIn, mainOut, myCmt, miniEnv, c, (StringBuilder) null))
 		{
 		}
 		else System.out.println("boooooo...");
@@ -737,7 +732,7 @@ public class ProtocolMainVarianceMultiSigMainParty {
 			c[1] = random;
 			myCmt = new ECPedersenCommitment(c[0], c[1], miniEnv);
 			
-			if(!VarianceToolkit.tableEqualityProver.parallelZKProve(shufflePInputs, shuffleVInputs, shuffleProofEnv, mainIn, mainOut, myCmt, miniEnv, c, null))
+			if(!VarianceToolkit.tableEqualityProver.parallelZKProve(shufflePInputs, shuffleVInputs, shuffleProofEnv, mainIn, mainOut, myCmt, miniEnv, c, (StringBuilder) null))
 			{
 				System.out.println("CHEATING SHUFFLE");
 			}
@@ -762,7 +757,7 @@ public class ProtocolMainVarianceMultiSigMainParty {
 			c[0] = new BigInteger(bitLength - 1, r);
 			c[1] = random;
 			myCmt = new ECPedersenCommitment(c[0], c[1], miniEnv);
-			VarianceToolkit.consistantTableEncryptionProver.parallelZKProve(pInputs, vInputs, tableProofEnv, mainIn, mainOut, myCmt, miniEnv, c, null);
+			VarianceToolkit.consistantTableEncryptionProver.parallelZKProve(pInputs, vInputs, tableProofEnv, mainIn, mainOut, myCmt, miniEnv, c, (StringBuilder) null);
 			//tables are shuffled and proven to be equal!  Now, PET.
 			for(row = 0;row < 3;row++)
 			{
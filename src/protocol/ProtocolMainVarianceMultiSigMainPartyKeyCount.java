@@ -15,22 +15,13 @@ import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
 import java.math.BigInteger;
 import java.net.InetAddress;
-import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketAddress;
-import java.net.SocketException;
-import java.net.SocketTimeoutException;
-import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Date;
 import java.util.Scanner;
-
-import javax.net.ServerSocketFactory;
-import javax.net.SocketFactory;
-import javax.net.ssl.SSLServerSocketFactory;
-import javax.net.ssl.SSLSocketFactory;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
 
 import org.bouncycastle.jce.ECNamedCurveTable;
 import org.bouncycastle.math.ec.ECCurve;
@@ -40,14 +31,26 @@ import org.bouncycastle.util.io.TeeOutputStream;
 
 import java.util.Base64.Decoder;
 
+import zero_knowledge_proofs.AggregatedProofBlock;
 import zero_knowledge_proofs.ArraySizesDoNotMatchException;
+import zero_knowledge_proofs.ChallengeCommitment;
+import zero_knowledge_proofs.ChallengeCommitmentScheme;
+import zero_knowledge_proofs.CryptoDataCodec;
+import zero_knowledge_proofs.CommitmentAccumulator;
 import zero_knowledge_proofs.InvalidStringFormatException;
+import zero_knowledge_proofs.MultiSigPlanner;
 import zero_knowledge_proofs.MultipleTrueProofException;
 import zero_knowledge_proofs.NoTrueProofException;
+import zero_knowledge_proofs.PipelinedProof;
+import zero_knowledge_proofs.PipelinedProofSession;
+import zero_knowledge_proofs.PrecomputationPool;
+import zero_knowledge_proofs.Transcript;
 import zero_knowledge_proofs.VarianceToolkit;
 import zero_knowledge_proofs.ECPedersenCommitment;
 import zero_knowledge_proofs.ECSchnorrProver;
 import zero_knowledge_proofs.ZKPProtocol;
+import zero_knowledge_proofs.ZeroKnowledgeThreshhold;
+import zero_knowledge_proofs.ScalarSampler;
 import zero_knowledge_proofs.CryptoData.BigIntData;
 import zero_knowledge_proofs.CryptoData.CryptoData;
 import zero_knowledge_proofs.CryptoData.CryptoDataArray;
@@ -57,11 +60,23 @@ import zero_knowledge_proofs.CryptoData.ECPointData;
 public class ProtocolMainVarianceMultiSigMainPartyKeyCount {
 	//TODO Make usage statement:  <excecutable> <ip> <port> <myport> <accounts file name> <key file name> <environment file name> <blockSize> <friends file> [seed (optional)]
 
-	static boolean verify = true; //This is lousy, make it an instance
-	static ECPedersenCommitment othersSumCommitment;
+	//How a block of proofs is exchanged, in increasing order of what both parties must support
+	private static final int LOCK_STEP = 0;
+	private static final int PIPELINED = 1;
+	private static final int AGGREGATED = 2;
+
+	private boolean verify = true;
+	private CommitmentAccumulator othersSum;
+	private boolean aggregateBlocks = Boolean.getBoolean("variance.aggregateBlocks");
+	private ChallengeCommitmentScheme challengeCommitment = ChallengeCommitmentScheme.forName(System.getProperty("variance.challengeCommitment", "pedersen"));
+	private ChallengeCommitmentScheme challengeScheme;
+	private String transcriptFormat = System.getProperty("variance.transcript", "text");
+	private MultiSigPlanner planner = MultiSigPlanner.forName(System.getProperty("variance.multiSig", "auto"));
+	//This session's nonce pools on g and h;  their filler threads are stopped when run returns or throws
+	private PrecomputationPool gPool;
+	private PrecomputationPool hPool;
 	
 	public static void main(String[] args) throws InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException, SecurityException, InvalidStringFormatException, IOException, ClassNotFoundException, MultipleTrueProofException, NoTrueProofException, ArraySizesDoNotMatchException{
-		int debug = 1;
 		boolean logging = true;
 		if(logging)
 		{
@@ -72,13 +87,6 @@ public class ProtocolMainVarianceMultiSigMainPartyKeyCount {
 			System.setErr(err);
 			System.setOut(normal);
 		}
-		Decoder decoder = Base64.getDecoder();
-		System.out.println(new File("").getAbsolutePath());
-		VarianceToolkit.register();
-		ZKPProtocol ecSchnorr = new ECSchnorrProver();
-		ZKPProtocol[][] provers = new ZKPProtocol[1][];
-		CryptoData[][] environments = new CryptoData[1][];
-		ServerSocket host = null;
 
 		// Create and install a security manager
 		System.out.println("Setting System Security Settings:");
@@ -88,11 +96,6 @@ public class ProtocolMainVarianceMultiSigMainPartyKeyCount {
 		System.setProperty("javax.net.ssl.trustStorePassword", "test123");
 		System.setProperty("javax.net.ssl.keyStorePassword", "test123");
 		System.setProperty("java.security.policy", "resources/mysecurity.policy");
-		ServerSocketFactory ssf = SSLServerSocketFactory.getDefault();
-		SocketFactory sf = SSLSocketFactory.getDefault();
-		Socket s = null;
-		ObjectInputStream mainIn = null;
-		ObjectOutputStream mainOut = null;
 		InetAddress mainAddress = InetAddress.getByName(args[0]);
 		
 		
@@ -104,161 +107,87 @@ public class ProtocolMainVarianceMultiSigMainPartyKeyCount {
 		}
 		
 		friendFile.close();
-		SocketAddress dest = new InetSocketAddress(args[0], Integer.parseInt(args[1]));
-		
-		Socket[] friends = new Socket[friendIPs.size()];
-		ObjectInputStream[] friendsIn = new ObjectInputStream[friendIPs.size()];
-		ObjectOutputStream[] friendsOut = new ObjectOutputStream[friendIPs.size()];
-		host = ssf.createServerSocket(Integer.parseInt(args[2]));
-		int socketDelay =  (int)((2500 * Math.random()) + 2500);  //Just so they aren't always checking at the same time.
-		host.setSoTimeout(0);	//Shifted so that they are not in sync and will eventually connect.
-		
-		int connected = 0;
-		
-		
-		while(connected != friendsIn.length)
-		{
-			Socket temp;
-			ObjectOutputStream tempOut;
-			ObjectInputStream tempIn;
-			try
-			{
-				System.out.println("Waiting for " + (1+friendsIn.length - connected) + " parties.");
-				temp = host.accept();
-				System.out.println("Someone contacted me!");
-				temp.setSoTimeout(socketDelay);
-				tempOut = new ObjectOutputStream(temp.getOutputStream());
-				tempIn = new ObjectInputStream(temp.getInputStream());
-				System.out.println("Streams open!");
-			} catch (Exception e){
-				System.out.println("Exception, trying again");
-				continue;
-			}
-			int num;
-			InetAddress address = temp.getInetAddress();
-			try{
-				System.out.println("Reading their int:");
-				num = tempIn.readInt();
-			}catch(IOException e) {
-				System.out.println("odd...");
-				try{
-					temp.close();
-				}catch(Exception e1) {}
-				continue;
-			}
-			if(address.equals(mainAddress) && num == -1)
-			{
-				System.out.println("The other main party has connected!");
-				if(s != null) {
-					try {
-						s.close();
-					}catch(Exception e) {}
-				}
-				s = temp;
-				mainOut = tempOut;
-				mainIn = tempIn;
-				host.setSoTimeout(0);
-				System.out.println("Main Other Party Detected.");
-			}
-			else if(num < friendIPs.size()){
-				if(friendIPs.get(num).equals(address) && friends[num] == null){
-					friendsOut[num] = tempOut;
-					friendsIn[num] = tempIn;
-					friends[num] = temp; 
-					tempOut.writeBoolean(true);
-					tempOut.flush();
-					System.out.println("Accepted friend!");
-					connected++;
-					
-				}
-			}
-			else
-			{
-				try {
-					System.out.println("I don't know this person...");
-					tempOut.writeBoolean(false);
-					tempOut.flush();
-					temp.close();
-				}catch(Exception e) {
-					
-				}
-				continue;
-			}
-		}
-		while(s == null)
-		{
-			host.setSoTimeout(socketDelay/5);
-			try {
-				s = host.accept();
-				mainOut = new ObjectOutputStream(s.getOutputStream());
-				mainIn = new ObjectInputStream(s.getInputStream());
-				InetAddress address = s.getInetAddress();
-				int num = mainIn.readInt();
-				if(address.equals(mainAddress) && num == -1){
-					System.out.println("Other main party has connected!");
-					break;
-				}else {
-					System.out.println("Odd, I already have everyone else ready...");
-					try{
-						mainOut.writeBoolean(false);
-						mainOut.flush();
-						s.close();
-					}catch(Exception e) {}
-					s = null;
-					continue;
-				}
-			}catch(Exception e) {
-				if(s != null) {
-					try {
-						s.close();
-					} catch (Exception e2) {}
-					s = null;
-				}
-				try
-				{
-					s = sf.createSocket();
-					s.setSoTimeout(socketDelay);
-					s.connect(dest, 1000);
-					
-					System.out.println("I connected to the other's main party.");
-					
-					mainOut = new ObjectOutputStream(s.getOutputStream());
-					mainIn = new ObjectInputStream(s.getInputStream());
-					
-					mainOut.writeInt(-1);
-					mainOut.flush();
-					
-					host.setSoTimeout(0);
-					connected++;
-					
-				} catch (SocketTimeoutException e2)
-				{
-					try {
-						s.close();
-					}catch(Exception e3) {}
-					s = null;
-					System.out.println("Trying again");
-				}
-			}
+		Transport transport = SocketTransport.connectWithFriends(mainAddress, Integer.parseInt(args[1]), Integer.parseInt(args[2]), friendIPs);
+		try {
+			new ProtocolMainVarianceMultiSigMainPartyKeyCount().run(args, transport);
+		}catch (NullPointerException e) {
+			System.exit(1);
 		}
+		System.exit(0);
+	}
+
+	/**
+	 * Offers to prove each block that needs no friends as one AND proof with a single challenge (see AggregatedProofBlock)
+	 * instead of pipelining its proofs.  It is used when the other party offers it too.  Defaults to the system property
+	 * variance.aggregateBlocks.
+	 */
+	public void setAggregateBlocks(boolean aggregateBlocks)
+	{
+		this.aggregateBlocks = aggregateBlocks;
+	}
+
+	/**
+	 * The scheme this party offers to commit to challenges with.  The session uses it if the other party offers the same
+	 * one, and PEDERSEN otherwise.  Defaults to the system property variance.challengeCommitment (pedersen).
+	 */
+	public void setChallengeCommitment(ChallengeCommitmentScheme challengeCommitment)
+	{
+		this.challengeCommitment = challengeCommitment;
+	}
+
+	/**
+	 * How the verifier transcript is written:  "text" (the default), "binary", "deflate" or "indexed" (see Transcript.open).  Defaults
+	 * to the system property variance.transcript.
+	 */
+	public void setTranscriptFormat(String transcriptFormat)
+	{
+		this.transcriptFormat = transcriptFormat;
+	}
+
+	/**
+	 * Chooses the multi-signature construction of each k-of-n account (see MultiSigPlanner).  The session uses it if the
+	 * other party uses the same planner, and KEY_COUNT for every account otherwise.  Defaults to the system property
+	 * variance.multiSig:  "auto" (MultiSigPlanner.DEFAULT), "keycount", "threshold" or "naive".
+	 */
+	public void setMultiSigPlanner(MultiSigPlanner planner)
+	{
+		this.planner = planner;
+	}
+
+	/**
+	 * Runs this party over channels that are already connected.  args are those of main, but the addresses, ports and
+	 * friends file are not read.
+	 * 
+	 * @return true if every proof of the other party verified
+	 */
+	public boolean run(String[] args, Transport transport) throws InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException, SecurityException, InvalidStringFormatException, IOException, ClassNotFoundException, MultipleTrueProofException, NoTrueProofException, ArraySizesDoNotMatchException{
 		try {
-			s.setSoTimeout(0);
-			mainOut.writeBoolean(true);
-			mainOut.flush();
-			System.out.println("Sending ready signal");
-			mainIn.readBoolean();
-			System.out.println("Recieved ready signal");
-		} catch (Exception e) {
-			System.out.println("Ready Signal failed");
-			try{
-				s.close();
-			}catch (Exception e2) {}
-			s = null;
-			connected--;
+			return runSession(args, transport);
 		}
+		finally {
+			if(gPool != null) gPool.stop();
+			if(hPool != null) hPool.stop();
+			gPool = null;
+			hPool = null;
+		}
+	}
+
+	private boolean runSession(String[] args, Transport transport) throws InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException, SecurityException, InvalidStringFormatException, IOException, ClassNotFoundException, MultipleTrueProofException, NoTrueProofException, ArraySizesDoNotMatchException{
+		int debug = 1;
+		Decoder decoder = Base64.getDecoder();
+		System.out.println(new File("").getAbsolutePath());
+		VarianceToolkit.register();
+		ZKPProtocol ecSchnorr = new ECSchnorrProver();
+		ZKPProtocol[][] provers = new ZKPProtocol[1][];
+		CryptoData[][] environments = new CryptoData[1][];
+		ObjectInputStream mainIn = transport.getMainIn();
+		ObjectOutputStream mainOut = transport.getMainOut();
+		ObjectInputStream[] friendsIn = transport.getFriendsIn();
+		ObjectOutputStream[] friendsOut = transport.getFriendsOut();
+		TrafficCounter traffic = transport.getTraffic();
 		System.out.println(new Date());
-		host.close();
 		final long startTime = System.currentTimeMillis();
+		traffic.phase("key exchange");
 		InputStream fis = new FileInputStream("inputs/"+args[3]);
 	    InputStreamReader isr = new InputStreamReader(fis);
 	    BufferedReader br = new BufferedReader(isr);
@@ -277,15 +206,15 @@ public class ProtocolMainVarianceMultiSigMainPartyKeyCount {
 	    ECPedersenCommitment[][] otherInternalComms = new ECPedersenCommitment[blockSize][];
 		
 	    System.out.println("Attempting to Connect");
-	    SecureRandom r;
+	    ScalarSampler r;
 	    if(args.length == 9)
 	    {
 	    	BigInteger seedInt = new BigInteger(args[8]);
 	    	byte[] seed = seedInt.toByteArray();
-	    	r = new SecureRandom(seed);
+	    	r = new ScalarSampler(seed);
 	    }
 	    else {
-	    	r = new SecureRandom();
+	    	r = new ScalarSampler();
 	    }
 		
 		
@@ -299,6 +228,11 @@ public class ProtocolMainVarianceMultiSigMainPartyKeyCount {
 		BigInteger order = g.getCurve().getOrder();
 		int bitLength = order.bitLength();
 
+		//Nonces for proofs on g (and on h once it is known) are made by background threads while the session is set up,
+		//each pool from its own sub-stream of r
+		gPool = new PrecomputationPool(g, r.split(0), PrecomputationPool.DEFAULT_CAPACITY);
+		gPool.startBackgroundFill();
+
 		BigInteger myPartOfKey = new BigInteger(bitLength, r);
 		while(myPartOfKey.compareTo(order) >= 0)
 		{
@@ -310,11 +244,29 @@ public class ProtocolMainVarianceMultiSigMainPartyKeyCount {
 		ECPoint otherHalfH = curve.decodePoint((byte[]) mainIn.readObject());
 		
 		ECPoint h = halfH.add(otherHalfH);
+		hPool = new PrecomputationPool(h, r.split(1), PrecomputationPool.DEFAULT_CAPACITY);
+		hPool.startBackgroundFill();
+		
+		CryptoDataCodec codec = new CryptoDataCodec(curve);
+		codec.writeHeader(mainOut);
+		mainOut.flush();
+		codec.readHeader(mainIn);
+		challengeScheme = ChallengeCommitmentScheme.agree(challengeCommitment, mainIn, mainOut);
+		planner = planner.agree(mainIn, mainOut);
+		//The field the threshold construction's challenge polynomial is over;  transcripts can only rebuild it with this one
+		BigInteger challengePrime = ZeroKnowledgeThreshhold.DEFAULT_CHALLENGE_PRIME;
+		//Proofs of a block are independent once their challenges are fixed, so their work is spread over every core
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		PipelinedProofSession session = new PipelinedProofSession(mainIn, mainOut, codec, PipelinedProofSession.DEFAULT_WINDOW, pool);
+		AggregatedProofBlock aggregated = null;
+		ZKPProtocol aggregatedProver = null;
 
 		ArrayList<KeyList> knownKeys = new ArrayList<KeyList>();
 		CryptoData miniEnv = new CryptoDataArray(new CryptoData[] {new ECCurveData(curve, g), new ECPointData(h)});
 		
 		CryptoData revMiniEnv = new CryptoDataArray(new CryptoData[] {new ECCurveData(curve, h), new ECPointData(g)});
+		miniEnv.precomputeFixedBase(curve);
+		revMiniEnv.precomputeFixedBase(curve);
 		
 		
 		BigInteger sum = BigInteger.ZERO;
@@ -322,17 +274,16 @@ public class ProtocolMainVarianceMultiSigMainPartyKeyCount {
 		
 		CryptoData environment = new CryptoDataArray(new CryptoData[] {new CryptoDataArray (new CryptoData[] {miniEnv, revMiniEnv}), revMiniEnv});
 
-		othersSumCommitment = new ECPedersenCommitment(BigInteger.ZERO, BigInteger.ZERO, miniEnv);
+		othersSum = new CommitmentAccumulator(miniEnv);
 
 		Writer arg0 = null;
+		Transcript transcript = null;
 		try {
-			arg0 = new FileWriter("outputs/Verifier_Transcript_" + args[4] + "_Variance");
+			transcript = Transcript.open(transcriptFormat, "outputs/Verifier_Transcript_" + args[4] + "_Variance", envString[0]);
 		} catch (IOException e) {
 			
 			e.printStackTrace();
 		}
-		BufferedWriter out2 = new BufferedWriter(arg0);
-		StringBuilder transcript = new StringBuilder();
 		ArrayList<int[]> requests = new ArrayList<int[]>();
 		while((dataRow = keyBr.readLine()) != null)
 		{
@@ -401,11 +352,11 @@ public class ProtocolMainVarianceMultiSigMainPartyKeyCount {
 		CryptoData[] verifierInput = new CryptoData[blockSize];
 		CryptoData[][] acc = new CryptoData[blockSize][];
 		BigInteger balance[] = new BigInteger[blockSize];
-		int lastN = -1;
-		int lastK = -1;
 		ECPedersenCommitment[][] internalCommitment = new ECPedersenCommitment[blockSize][];
 		BigInteger[][] commKeys = new BigInteger[blockSize][];
+		int[][] blockRequests = new int[blockSize][];
 		boolean mainVerify = true;
+		traffic.phase("commitments");
 		while((dataRow = br.readLine()) != null)
 		{
 			if(dataRow.length() == 0) continue;
@@ -464,11 +415,12 @@ public class ProtocolMainVarianceMultiSigMainPartyKeyCount {
 				provers[n-1] = new ZKPProtocol[n];
 				environments[n-1] = new CryptoData[n];
 				
-				ZKPProtocol keyProtocol = VarianceToolkit.createMultiSigProofKeyCount(n, k, ecSchnorr, ecSchnorr);
+				ZKPProtocol keyProtocol = VarianceToolkit.createMultiSigProof(planner.choose(n, k), n, k, ecSchnorr, ecSchnorr, challengePrime);
 
 				provers[n-1][k-1] = VarianceToolkit.createVarianceMultiSigProof(keyProtocol, ecSchnorr);
+				provers[n-1][k-1].setCodec(codec);
 				
-				CryptoData keyEnv = VarianceToolkit.createMultiSigEnvironmentKeyCount(n, k, miniEnv, revMiniEnv);
+				CryptoData keyEnv = VarianceToolkit.createMultiSigEnvironment(planner.choose(n, k), n, k, miniEnv, revMiniEnv);
 				environments[n-1][k-1] = VarianceToolkit.createVarianceEnvironment(keyEnv, miniEnv);
 //				System.out.println(keyEnv);
 			}
@@ -477,40 +429,38 @@ public class ProtocolMainVarianceMultiSigMainPartyKeyCount {
 				provers[n-1] = new ZKPProtocol[n];
 				environments[n-1] = new CryptoData[n];
 
-				ZKPProtocol keyProtocol = VarianceToolkit.createMultiSigProofKeyCount(n, k, ecSchnorr, ecSchnorr);
+				ZKPProtocol keyProtocol = VarianceToolkit.createMultiSigProof(planner.choose(n, k), n, k, ecSchnorr, ecSchnorr, challengePrime);
 
 				provers[n-1][k-1] = VarianceToolkit.createVarianceMultiSigProof(keyProtocol, ecSchnorr);
+				provers[n-1][k-1].setCodec(codec);
 				
-				CryptoData keyEnv = VarianceToolkit.createMultiSigEnvironmentKeyCount(n, k, miniEnv, revMiniEnv);
+				CryptoData keyEnv = VarianceToolkit.createMultiSigEnvironment(planner.choose(n, k), n, k, miniEnv, revMiniEnv);
 				environments[n-1][k-1] = VarianceToolkit.createVarianceEnvironment(keyEnv, miniEnv);
 //				System.out.println(keyEnv);
 			
 			}
 			else if(provers[n-1][k-1] == null)
 			{
-				ZKPProtocol keyProtocol = VarianceToolkit.createMultiSigProofKeyCount(n, k, ecSchnorr, ecSchnorr);
+				ZKPProtocol keyProtocol = VarianceToolkit.createMultiSigProof(planner.choose(n, k), n, k, ecSchnorr, ecSchnorr, challengePrime);
 
 				provers[n-1][k-1] = VarianceToolkit.createVarianceMultiSigProof(keyProtocol, ecSchnorr);
+				provers[n-1][k-1].setCodec(codec);
 				
-				CryptoData keyEnv = VarianceToolkit.createMultiSigEnvironmentKeyCount(n, k, miniEnv, revMiniEnv);
+				CryptoData keyEnv = VarianceToolkit.createMultiSigEnvironment(planner.choose(n, k), n, k, miniEnv, revMiniEnv);
 				environments[n-1][k-1] = VarianceToolkit.createVarianceEnvironment(keyEnv, miniEnv);
 //				System.out.println(keyEnv);
 			}
-			if(lastN != n || lastK != k){
-				transcript.append("Environment:  ");
-				transcript.append(environments[n-1][k-1].toString64());
-				transcript.append("\n\n");
-				lastN = n;
-				lastK = k;
-			}
 //			System.out.println(provers[n-1][k-1]);
 //			System.out.println("In main:  " + environments[n-1][k-1]);
 			BigInteger pcKey;
 			do{
 				pcKey = new BigInteger(bitLength, r);
 			}while (pcKey.compareTo(order) >= 0);
-			internalCommitment[proverIndex] = new ECPedersenCommitment[n];
-			commKeys[proverIndex] = new BigInteger[n];
+			//Only KEY_COUNT commits to which keys are counted;  the other constructions send an empty array
+			MultiSigPlanner.Construction construction = planner.choose(n, k);
+			int counted = construction == MultiSigPlanner.Construction.KEY_COUNT ? n : 0;
+			internalCommitment[proverIndex] = new ECPedersenCommitment[counted];
+			commKeys[proverIndex] = new BigInteger[counted];
 			int[] request = null;
 			if(keys != null && keys.id == counter && keys.keys.length >= k){ 
 				request = requests.get(index);
@@ -519,7 +469,7 @@ public class ProtocolMainVarianceMultiSigMainPartyKeyCount {
 				commitment = new ECPedersenCommitment(balance[proverIndex], pcKey, miniEnv);
 				ECPoint comm = commitment.getCommitment(miniEnv);
 				int j = 0;
-				for(int i = 0; i < n; i++)
+				for(int i = 0; i < counted; i++)
 				{
 					do {
 						commKeys[proverIndex][i] = new BigInteger(bitLength, r);
@@ -533,8 +483,14 @@ public class ProtocolMainVarianceMultiSigMainPartyKeyCount {
 						internalCommitment[proverIndex][i] = new ECPedersenCommitment(BigInteger.ZERO, commKeys[proverIndex][i], miniEnv);
 					}
 				}
-				CryptoData keyData = VarianceToolkit.createMultiSigProverDataKeyCount(n, k, acc[proverIndex], keys.keys, keys.positions, miniEnv, internalCommitment[proverIndex], commKeys[proverIndex], order, r);
-				proverInput[proverIndex] = VarianceToolkit.createVarianceProverData(keyData, pcKey, comm, balance[proverIndex], miniEnv, true, r);
+				CryptoData keyData;
+				if(construction == MultiSigPlanner.Construction.THRESHOLD)
+					keyData = VarianceToolkit.createMultiSigProverDataThreshhold(n, k, acc[proverIndex], keys.keys, keys.positions, miniEnv, ecSchnorr, order, r);
+				else if(construction == MultiSigPlanner.Construction.NAIVE)
+					keyData = VarianceToolkit.createMultiSigProverDataNaive(n, k, acc[proverIndex], keys.keys, keys.positions, miniEnv, ecSchnorr, order, r);
+				else
+					keyData = VarianceToolkit.createMultiSigProverDataKeyCount(n, k, acc[proverIndex], keys.keys, keys.positions, miniEnv, internalCommitment[proverIndex], commKeys[proverIndex], order, r, gPool, hPool);
+				proverInput[proverIndex] = VarianceToolkit.createVarianceProverData(keyData, pcKey, comm, balance[proverIndex], miniEnv, true, r, hPool);
 				sumKey = sumKey.add(pcKey).mod(order);
 				sum = sum.add(balance[proverIndex]);
 			}
@@ -542,7 +498,7 @@ public class ProtocolMainVarianceMultiSigMainPartyKeyCount {
 			{
 				sumKey = sumKey.add(pcKey).mod(order);
 
-				for(int i = 0; i < n; i++)
+				for(int i = 0; i < counted; i++)
 				{
 					do {
 						commKeys[proverIndex][i] = new BigInteger(bitLength, r);
@@ -551,11 +507,18 @@ public class ProtocolMainVarianceMultiSigMainPartyKeyCount {
 				}
 				commitment = new ECPedersenCommitment(BigInteger.ZERO, pcKey, miniEnv);
 				ECPoint comm = commitment.getCommitment(miniEnv);
-				CryptoData keyData = VarianceToolkit.createMultiSigSimulatorDataKeyCount(n, k, acc[proverIndex], miniEnv, internalCommitment[proverIndex], commKeys[proverIndex], order, r);
-				proverInput[proverIndex] = VarianceToolkit.createVarianceProverData(keyData, pcKey, comm, balance[proverIndex], miniEnv, false, r);
-			}
-			mainOut.writeObject(commitment);
-			mainOut.writeObject(internalCommitment[proverIndex]);
+				CryptoData keyData;
+				if(construction == MultiSigPlanner.Construction.THRESHOLD)
+					keyData = VarianceToolkit.createMultiSigSimulatorDataThreshhold(n, k, acc[proverIndex], ecSchnorr, order, r, challengePrime);
+				else if(construction == MultiSigPlanner.Construction.NAIVE)
+					keyData = VarianceToolkit.createMultiSigSimulatorDataNaive(n, k, acc[proverIndex], ecSchnorr, order, r);
+				else
+					keyData = VarianceToolkit.createMultiSigSimulatorDataKeyCount(n, k, acc[proverIndex], miniEnv, internalCommitment[proverIndex], commKeys[proverIndex], order, r, gPool, hPool);
+				proverInput[proverIndex] = VarianceToolkit.createVarianceProverData(keyData, pcKey, comm, balance[proverIndex], miniEnv, false, r, hPool);
+			}
+			blockRequests[proverIndex] = request;
+			codec.writeCommitment(mainOut, commitment);
+			codec.writeCommitments(mainOut, internalCommitment[proverIndex]);
 			mainOut.flush();
 			counter++;
 			proverIndex++;
@@ -563,89 +526,171 @@ public class ProtocolMainVarianceMultiSigMainPartyKeyCount {
 			{
 				for(int i = 0; i < proverIndex; i++)
 				{
+					otherCommitments[i] = codec.readCommitment(mainIn);
+					otherInternalComms[i] = codec.readCommitments(mainIn);
+				}
+				traffic.phase("proofs");
+				//Each party offers the most it can do for this block and both use the lesser offer.  Proofs are only
+				//pipelined or aggregated when neither party needs its friends for this block.
+				boolean needFriends = false;
+				for(int i = 0; i < proverIndex; i++)
+					needFriends |= blockRequests[i] != null;
+				int offer = needFriends ? LOCK_STEP : aggregateBlocks ? AGGREGATED : PIPELINED;
+				mainOut.writeByte(offer);
+				mainOut.flush();
+				int mode = Math.min(offer, mainIn.readByte());
+				if(mode != LOCK_STEP)
+				{
+					int blockN = n;
+					int blockK = k;
+					int blockCount = proverIndex;
+					pool.invoke(ForkJoinTask.adapt(() -> IntStream.range(0, blockCount).parallel().forEach(i -> {
+						ECPoint comm = otherCommitments[i].getCommitment(miniEnv);
+						CryptoData keyVerifierData = VarianceToolkit.createMultiSigVerifierInputs(planner.choose(blockN, blockK), blockN, blockK, acc[i], otherInternalComms[i], miniEnv, ecSchnorr, challengePrime);
+						verifierInput[i] = VarianceToolkit.createVarianceVerifierData(keyVerifierData, comm, balance[i], miniEnv);
+					})));
+				}
+				if(mode == AGGREGATED)
+				{
+					if(aggregatedProver != provers[n-1][k-1])
+					{
+						aggregatedProver = provers[n-1][k-1];
+						aggregated = new AggregatedProofBlock(aggregatedProver, environments[n-1][k-1]);
+					}
+					random = new BigInteger(bitLength, r);
+					while(random.compareTo(order) >= 0)
+						random = new BigInteger(bitLength, r);
+					BigInteger[] c = new BigInteger[] {new BigInteger(bitLength - 1, r),random};
+					ChallengeCommitment myCmt = challengeScheme.commit(c[0], c[1], miniEnv);
+					boolean blockVerify = false;
 					try {
-						otherCommitments[i] = (ECPedersenCommitment) mainIn.readObject();
-						otherInternalComms[i] = (ECPedersenCommitment[]) mainIn.readObject();
-					} catch (ClassNotFoundException e) {
+						blockVerify = aggregated.parallelZKProve(proverInput, verifierInput, proverIndex, mainIn, mainOut, myCmt, miniEnv, c, transcript);
+					} catch (ClassNotFoundException | MultipleTrueProofException | NoTrueProofException | ArraySizesDoNotMatchException e) {
 						e.printStackTrace();
 					}
+					if(!blockVerify) {
+						System.out.println("Proofs " + (counter - proverIndex) + " to " + (counter - 1) + ":  Block of proofs was bad");
+						mainVerify = false;
+					}
+					else
+					{
+						othersSum.merge(CommitmentAccumulator.parallelSum(otherCommitments, 0, proverIndex, miniEnv));
+					}
 				}
-				mainOut.flush();
-				for(int i = 0; i < proverIndex; i++)
+				else if(mode == PIPELINED)
 				{
-					ECPoint comm = otherCommitments[i].getCommitment(miniEnv);					
-					CryptoData keyVerifierData = VarianceToolkit.createMultiSigVerifierInputsKeyCount(n, k, acc[i], otherInternalComms[i], miniEnv, ecSchnorr);
-					verifierInput[i] = VarianceToolkit.createVarianceVerifierData(keyVerifierData, comm, balance[i], miniEnv);
-					
-					try {
-
+					ArrayList<PipelinedProof> block = new ArrayList<PipelinedProof>(proverIndex);
+					for(int i = 0; i < proverIndex; i++)
+					{
+						//Challenges stay on this thread so r is drawn in the same order as before
 						random = new BigInteger(bitLength, r);
 						while(random.compareTo(order) >= 0)
 							random = new BigInteger(bitLength, r);
 						BigInteger[] c = new BigInteger[] {new BigInteger(bitLength - 1, r),random};
-						ECPedersenCommitment myCmt = new ECPedersenCommitment(c[0], c[1], miniEnv);
-//						/**/System.out.println(provers[n-1][k-1]);
-//						/**/System.out.println(proverInput[i]);
-						try{
-							if(request == null) {
-								verify = provers[n-1][k-1].parallelZKProve(proverInput[i], verifierInput[i], environments[n-1][k-1], mainIn, mainOut, myCmt, miniEnv, c, transcript);
-							}
-							else {
-								verify = provers[n-1][k-1].parallelZKProveWithFriends(proverInput[i], verifierInput[i], environments[n-1][k-1], mainIn, mainOut, myCmt, miniEnv, c, friendsOut, friendsIn, request, transcript);
-							}
-						}catch (NullPointerException e) {
-							e.printStackTrace();
-							System.out.println(proverInput[i]);
-							System.out.println(verifierInput[i]);
-							System.exit(1);
-						}
-//						if(verify)
-//						{
-//							BigInteger totalKey = commKeys[i][0];
-//							ECPedersenCommitment otherTotalComm = otherInternalComms[i][0];
-//							for(int j = 1; j < n; j++){
-//								totalKey = totalKey.add(commKeys[i][j]).mod(order);
-//								otherTotalComm = otherTotalComm.multiplyCommitment(otherInternalComms[i][j], revMiniEnv);
-//							}
-//							mainOut.writeObject(totalKey);
-//							mainOut.flush();
-//							BigInteger otherTotalKey = (BigInteger) mainIn.readObject();
-//							if(!otherTotalComm.verifyCommitment(BigInteger.valueOf(k), otherTotalKey, revMiniEnv)) {
-//								verify = false;
-//								System.out.println("His counting commitment was bad");
-//							}
-//							mainOut.writeBoolean(verify);
-//							mainOut.flush();
-//							if(!mainIn.readBoolean())
-//							{
-//								verify = false;
-//								System.out.println("My counting commitment was bad");
-//							}
-//						}
-						if(!(verify)) {
-							System.out.println("Proof " + (counter) + ":  Proof was bad");
-							System.out.println("proverInputs: " + proverInput[i]);;
+						ChallengeCommitment myCmt = challengeScheme.commit(c[0], c[1], miniEnv);
+						block.add(new PipelinedProof(provers[n-1][k-1], proverInput[i], verifierInput[i], environments[n-1][k-1], myCmt, c));
+					}
+					boolean[] results = new boolean[proverIndex];
+					try {
+						results = session.run(block, miniEnv, transcript);
+					} catch (MultipleTrueProofException | NoTrueProofException | ArraySizesDoNotMatchException e) {
+						e.printStackTrace();
+					}
+					for(int i = 0; i < proverIndex; i++)
+					{
+						if(!results[i]) {
+							System.out.println("Proof " + (counter - proverIndex + i) + ":  Proof was bad");
+							System.out.println("proverInputs: " + proverInput[i]);
 							System.out.println("verifierInputs: " + verifierInput[i]);
-//									System.out.println(myVerify + " " + otherVerify);
+							mainVerify = false;
 							break;
 						}
 						else
 						{
-							othersSumCommitment = othersSumCommitment.multiplyCommitment(otherCommitments[i], miniEnv);
+							othersSum.add(otherCommitments[i]);
 						}
+					}
+				}
+				else
+				{
+					for(int i = 0; i < proverIndex; i++)
+					{
+						ECPoint comm = otherCommitments[i].getCommitment(miniEnv);					
+						CryptoData keyVerifierData = VarianceToolkit.createMultiSigVerifierInputs(planner.choose(n, k), n, k, acc[i], otherInternalComms[i], miniEnv, ecSchnorr, challengePrime);
+						verifierInput[i] = VarianceToolkit.createVarianceVerifierData(keyVerifierData, comm, balance[i], miniEnv);
+					
+						try {
+
+							random = new BigInteger(bitLength, r);
+							while(random.compareTo(order) >= 0)
+								random = new BigInteger(bitLength, r);
+							BigInteger[] c = new BigInteger[] {new BigInteger(bitLength - 1, r),random};
+							ChallengeCommitment myCmt = challengeScheme.commit(c[0], c[1], miniEnv);
+	//						/**/System.out.println(provers[n-1][k-1]);
+	//						/**/System.out.println(proverInput[i]);
+							try{
+								if(blockRequests[i] == null) {
+									verify = provers[n-1][k-1].parallelZKProve(proverInput[i], verifierInput[i], environments[n-1][k-1], mainIn, mainOut, myCmt, miniEnv, c, transcript);
+								}
+								else {
+									verify = provers[n-1][k-1].parallelZKProveWithFriends(proverInput[i], verifierInput[i], environments[n-1][k-1], mainIn, mainOut, myCmt, miniEnv, c, friendsOut, friendsIn, blockRequests[i], transcript);
+								}
+							}catch (NullPointerException e) {
+								e.printStackTrace();
+								System.out.println(proverInput[i]);
+								System.out.println(verifierInput[i]);
+								throw e;
+							}
+	//						if(verify)
+	//						{
+	//							BigInteger totalKey = commKeys[i][0];
+	//							ECPedersenCommitment otherTotalComm = otherInternalComms[i][0];
+	//							for(int j = 1; j < n; j++){
+	//								totalKey = totalKey.add(commKeys[i][j]).mod(order);
+	//								otherTotalComm = otherTotalComm.multiplyCommitment(otherInternalComms[i][j], revMiniEnv);
+	//							}
+	//							mainOut.writeObject(totalKey);
+	//							mainOut.flush();
+	//							BigInteger otherTotalKey = (BigInteger) mainIn.readObject();
+	//							if(!otherTotalComm.verifyCommitment(BigInteger.valueOf(k), otherTotalKey, revMiniEnv)) {
+	//								verify = false;
+	//								System.out.println("His counting commitment was bad");
+	//							}
+	//							mainOut.writeBoolean(verify);
+	//							mainOut.flush();
+	//							if(!mainIn.readBoolean())
+	//							{
+	//								verify = false;
+	//								System.out.println("My counting commitment was bad");
+	//							}
+	//						}
+							if(!(verify)) {
+								System.out.println("Proof " + (counter) + ":  Proof was bad");
+								System.out.println("proverInputs: " + proverInput[i]);;
+								System.out.println("verifierInputs: " + verifierInput[i]);
+	//									System.out.println(myVerify + " " + otherVerify);
+								mainVerify = false;
+								break;
+							}
+							else
+							{
+								othersSum.add(otherCommitments[i]);
+							}
 							
-					} catch (ClassNotFoundException | MultipleTrueProofException | NoTrueProofException
-							| ArraySizesDoNotMatchException e) {
+						} catch (ClassNotFoundException | MultipleTrueProofException | NoTrueProofException
+								| ArraySizesDoNotMatchException e) {
 						
-						e.printStackTrace();
+							e.printStackTrace();
+						}
 					}
 				}
-				out2.write(transcript.toString());
-				transcript.setLength(0);
+				transcript.flush();
 				mainOut.flush();
 				proverIndex = 0;
+				traffic.phase("commitments");
 			}
 		}
+		traffic.finish();
 		if(proverIndex != 0)
 		{
 			System.out.println("Argh...");
@@ -689,7 +734,7 @@ public class ProtocolMainVarianceMultiSigMainPartyKeyCount {
 		out.writeObject(ecBitComm);
 		otherECBits = (ECPedersenCommitment[]) in.readObject();
 		
-		if(!VarianceToolkit.checkBitCommitment(othersSumCommitment, otherECBits, miniEnv)) System.out.println("LIAR!!! BIT COMMITMENTS DO NOT MATCH THEIR SUM");
+		if(!VarianceToolkit.checkBitCommitment(othersSum.toCommitment(), otherECBits, miniEnv)) System.out.println("LIAR!!! BIT COMMITMENTS DO NOT MATCH THEIR SUM");
 		else System.out.println("Bit Commitments Correct");
 		CryptoData[][] table = VarianceToolkit.getBasicTable(miniEnv);
 		CryptoData[][] newTable;
@@ -718,7 +763,7 @@ public class ProtocolMainVarianceMultiSigMainPartyKeyCount {
 			random = new BigInteger(bitLength, r);
 		}
 		BigInteger[] c = {new BigInteger(bitLength - 1, r), random};
-		ECPedersenCommitment myCmt = new ECPedersenCommitment(c[0], c[1], miniEnv);
+		ChallengeCommitment myCmt = challengeScheme.commit(c[0], c[1], miniEnv);
 		ObjectInputStream[] inArray = {in}; 
 		ObjectOutputStream[] outArray = {out}; 
 		if(VarianceToolkit.consistantTableEncryptionProver.parallelZKProve(pInputs, new CryptoData[] {vInputs}, tableProofEnv, inArray, outArray, myCmt, miniEnv, c, null))
@@ -787,7 +832,7 @@ public class ProtocolMainVarianceMultiSigMainPartyKeyCount {
 			}
 			c[0] = new BigInteger(bitLength - 1, r);
 			c[1] = random;
-			myCmt = new ECPedersenCommitment(c[0], c[1], miniEnv);
+			myCmt = challengeScheme.commit(c[0], c[1], miniEnv);
 
 			if(!VarianceToolkit.tableEqualityProver.parallelZKProve(shufflePInputs, new CryptoData[] {shuffleVInputs}, shuffleProofEnv, inArray, outArray, myCmt, miniEnv, c, null))
 			{
@@ -813,7 +858,7 @@ public class ProtocolMainVarianceMultiSigMainPartyKeyCount {
 			}
 			c[0] = new BigInteger(bitLength - 1, r);
 			c[1] = random;
-			myCmt = new ECPedersenCommitment(c[0], c[1], miniEnv);
+			myCmt = challengeScheme.commit(c[0], c[1], miniEnv);
 			VarianceToolkit.consistantTableEncryptionProver.parallelZKProve(pInputs, new CryptoData[] {vInputs}, tableProofEnv, inArray, outArray, myCmt, miniEnv, c, null);
 			//tables are shuffles and proven to be equal!  Now, PET.
 			int row = 0;
@@ -893,39 +938,33 @@ public class ProtocolMainVarianceMultiSigMainPartyKeyCount {
 
 		if(mainVerify) {
 			out1.write("Success!\n");
-			out2.write("Success!\n");
+			transcript.note("Success!\n");
 		}
 		else{
 			out1.write("FAILURE\n");
-			out2.write("FAILURE\n");
+			transcript.note("FAILURE\n");
 		}
-		for(int i = 0; i < friends.length; i++)
+		transport.setTimeout(1000);
+		for(int i = 0; i < friendsOut.length; i++)
 		{
 			try {
 				friendsOut[i].writeBoolean(true);
 				friendsOut[i].flush();
-				friends[i].setSoTimeout(1000);
 				friendsIn[i].readBoolean();
 			}catch(Exception e) {}
-			friends[i].close();
 			
 		}
 		out1.write(String.format("Total execution time: %d\n", (endTime - startTime)));
 		out1.flush();
-		s.setSoTimeout(1000);
 		try {
 			mainOut.writeBoolean(true);
 			mainOut.flush();
 			mainIn.readBoolean();
-			mainOut.close();
-			mainIn.close();
-			s.close();
-			if(host != null) host.close();
 		}catch(Exception e) {}
+		transport.close();
 		out1.close();
-		out2.flush();
-		out2.close();
-		System.exit(0);
+		transcript.close();
+		return mainVerify;
 	}
 	
 }
@@ -13,11 +13,6 @@ import java.io.ObjectOutputStream;
 import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
 import java.math.BigInteger;
-import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketAddress;
-import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Date;
@@ -29,16 +24,22 @@ import org.bouncycastle.math.ec.ECPoint;
 
 import java.util.Base64.Decoder;
 
+import zero_knowledge_proofs.AggregatedProofBlock;
 import zero_knowledge_proofs.ArraySizesDoNotMatchException;
+import zero_knowledge_proofs.ChallengeCommitment;
+import zero_knowledge_proofs.ChallengeCommitmentScheme;
 import zero_knowledge_proofs.CheaterException;
+import zero_knowledge_proofs.CommitmentAccumulator;
 import zero_knowledge_proofs.InvalidStringFormatException;
 import zero_knowledge_proofs.MultipleTrueProofException;
 import zero_knowledge_proofs.NoTrueProofException;
+import zero_knowledge_proofs.Transcript;
 import zero_knowledge_proofs.VarianceToolkit;
 import zero_knowledge_proofs.ECPedersenCommitment;
 import zero_knowledge_proofs.ECPedersenOwnedBitwiseCommitment;
 import zero_knowledge_proofs.ZKPProtocol;
 import zero_knowledge_proofs.ZKToolkit;
+import zero_knowledge_proofs.ScalarSampler;
 import zero_knowledge_proofs.CryptoData.BigIntData;
 import zero_knowledge_proofs.CryptoData.CryptoData;
 import zero_knowledge_proofs.CryptoData.CryptoDataArray;
@@ -48,11 +49,55 @@ import zero_knowledge_proofs.CryptoData.ECPointData;
 public class ProtocolMainVarianceSingleKey {
 	//TODO Make usage statement:  <excecutable> <ip> <port> <accounts file name> <key file name> <environment file name> <blockSize> [seed (optional)]
 
-	static boolean verify = true; //This is lousy, make it an instance
-	static ECPedersenCommitment othersSumCommitment;
+	private boolean verify = true;
+	private CommitmentAccumulator othersSum;
+	private boolean aggregateBlocks = Boolean.getBoolean("variance.aggregateBlocks");
+	private ChallengeCommitmentScheme challengeCommitment = ChallengeCommitmentScheme.forName(System.getProperty("variance.challengeCommitment", "pedersen"));
+	private ChallengeCommitmentScheme challengeScheme;
+	private AggregatedProofBlock aggregated;
+	private String transcriptFormat = System.getProperty("variance.transcript", "text");
 
-	@SuppressWarnings({ "resource" })
 	public static void main(String[] args) throws InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException, SecurityException, InvalidStringFormatException, IOException, ClassNotFoundException, MultipleTrueProofException, NoTrueProofException, ArraySizesDoNotMatchException{
+		Transport transport = SocketTransport.connect(args[0], Integer.parseInt(args[1]));
+		new ProtocolMainVarianceSingleKey().run(args, transport);
+	}
+
+	/**
+	 * Offers to prove each block as one AND proof with a single challenge (see AggregatedProofBlock) instead of one proof
+	 * per account.  It is used when the other party offers it too.  Defaults to the system property
+	 * variance.aggregateBlocks.
+	 */
+	public void setAggregateBlocks(boolean aggregateBlocks)
+	{
+		this.aggregateBlocks = aggregateBlocks;
+	}
+
+	/**
+	 * The scheme this party offers to commit to challenges with.  The session uses it if the other party offers the same
+	 * one, and PEDERSEN otherwise.  Defaults to the system property variance.challengeCommitment (pedersen).
+	 */
+	public void setChallengeCommitment(ChallengeCommitmentScheme challengeCommitment)
+	{
+		this.challengeCommitment = challengeCommitment;
+	}
+
+	/**
+	 * How the verifier transcript is written:  "text" (the default), "binary", "deflate" or "indexed" (see Transcript.open).  Defaults
+	 * to the system property variance.transcript.
+	 */
+	public void setTranscriptFormat(String transcriptFormat)
+	{
+		this.transcriptFormat = transcriptFormat;
+	}
+
+	/**
+	 * Runs this party over a channel that is already connected.  args are those of main, but the address and port are
+	 * not read.
+	 * 
+	 * @return true if every proof of the other party verified
+	 */
+	@SuppressWarnings({ "resource" })
+	public boolean run(String[] args, Transport transport) throws InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException, SecurityException, InvalidStringFormatException, IOException, ClassNotFoundException, MultipleTrueProofException, NoTrueProofException, ArraySizesDoNotMatchException{
 		int debug = 1;
 
 		Decoder decoder = Base64.getDecoder();
@@ -61,42 +106,12 @@ public class ProtocolMainVarianceSingleKey {
 		VarianceToolkit.register();
 		ZKPProtocol prover = ZKPProtocol.generateProver("OR(AND(ECSchnorr,ECSchnorr),ECSchnorr)");
 
-		ServerSocket host = null;
-		Socket s;
-		ObjectInputStream in;
-		ObjectOutputStream out;
-
-		try {
-			SocketAddress dest = new InetSocketAddress(args[0], Integer.parseInt(args[1]));
-			s = new Socket();
-			s.connect(dest);
-			System.out.println("Connection to Server successful");
-			in = new ObjectInputStream(s.getInputStream());
-			out = new ObjectOutputStream(s.getOutputStream());
-		}
-		catch(Exception e){
-			System.out.println("Connection not open, opening server");
-			try {
-				host = new ServerSocket(Integer.parseInt(args[1]));
-				s = host.accept();
-				if(args[0].equals(s.getInetAddress().getHostAddress())){
-					System.out.println("");
-				}
-				System.out.println("Connection established");
-				out = new ObjectOutputStream(s.getOutputStream());
-				in = new ObjectInputStream(s.getInputStream());
-			}
-			catch( java.net.BindException ex)
-			{
-				SocketAddress dest = new InetSocketAddress(args[0], Integer.parseInt(args[1]));
-				s = new Socket();
-				s.connect(dest);
-				System.out.println("Connection to Server successful");
-				in = new ObjectInputStream(s.getInputStream());
-				out = new ObjectOutputStream(s.getOutputStream());
-			}
-		}
+		boolean isHost = transport.isHost();
+		ObjectInputStream in = transport.getMainIn();
+		ObjectOutputStream out = transport.getMainOut();
+		TrafficCounter traffic = transport.getTraffic();
 		final long startTime = System.currentTimeMillis();
+		traffic.phase("key exchange");
 		InputStream fis = new FileInputStream("inputs/"+args[2]);
 	    InputStreamReader isr = new InputStreamReader(fis);
 	    BufferedReader br = new BufferedReader(isr);
@@ -113,15 +128,15 @@ public class ProtocolMainVarianceSingleKey {
 	   ECPedersenCommitment[] otherCommitments = new ECPedersenCommitment[blockSize];
 		
 	    System.out.println("Attempting to Connect");
-	    SecureRandom r;
+	    ScalarSampler r;
 	    if(args.length == 7)
 	    {
 	    	BigInteger seedInt = new BigInteger(args[6]);
 	    	byte[] seed = seedInt.toByteArray();
-	    	r = new SecureRandom(seed);
+	    	r = new ScalarSampler(seed);
 	    }
 	    else {
-	    	r = new SecureRandom();
+	    	r = new ScalarSampler();
 	    }
 		
 		
@@ -145,11 +160,14 @@ public class ProtocolMainVarianceSingleKey {
 		ECPoint otherHalfH = curve.decodePoint((byte[]) in.readObject());
 		
 		ECPoint h = halfH.add(otherHalfH);
+		challengeScheme = ChallengeCommitmentScheme.agree(challengeCommitment, in, out);
 		
 		ArrayList<CryptoData[]> knownKeys = new ArrayList<CryptoData[]>();
 		CryptoData miniEnv = new CryptoDataArray(new CryptoData[] {new ECCurveData(curve, g), new ECPointData(h)});
 		
 		CryptoData revMiniEnv = new CryptoDataArray(new CryptoData[] {new ECCurveData(curve, h), new ECPointData(g)});
+		miniEnv.precomputeFixedBase(curve);
+		revMiniEnv.precomputeFixedBase(curve);
 		
 		
 		BigInteger sum = BigInteger.ZERO;
@@ -157,20 +175,16 @@ public class ProtocolMainVarianceSingleKey {
 		
 		CryptoData environment = new CryptoDataArray(new CryptoData[] {new CryptoDataArray (new CryptoData[] {miniEnv, revMiniEnv}), revMiniEnv});
 
-		othersSumCommitment = new ECPedersenCommitment(BigInteger.ZERO, BigInteger.ZERO, miniEnv);
+		othersSum = new CommitmentAccumulator(miniEnv);
 
 		Writer arg0 = null;
+		Transcript transcript = null;
 		try {
-			arg0 = new FileWriter("output/Verifier_Transcript_" + args[3] + "_Variance");
+			transcript = Transcript.open(transcriptFormat, "output/Verifier_Transcript_" + args[3] + "_Variance", envString[0]);
 		} catch (IOException e) {
 			
 			e.printStackTrace();
 		}
-		BufferedWriter out2 = new BufferedWriter(arg0);
-		StringBuilder transcript = new StringBuilder();
-		transcript.append("Environment:  ");
-		transcript.append(environment.toString64());
-		transcript.append("\n\n");
 		while((dataRow = keyBr.readLine()) != null)
 		{
 			//String format:  "Public Key	Private Key"
@@ -208,6 +222,7 @@ public class ProtocolMainVarianceSingleKey {
 		CryptoData[] input = new CryptoData[blockSize];
 		CryptoData[][] acc = new CryptoData[blockSize][2];
 
+		traffic.phase("commitments");
 		while((dataRow = br.readLine()) != null)
 		{
 			
@@ -364,21 +379,20 @@ public class ProtocolMainVarianceSingleKey {
 			proverIndex++;
 			if(proverIndex == blockSize)
 			{
-				runProver(prover, host, in, out, otherCommitments, r, g, bitLength, miniEnv, revMiniEnv,
+				runProver(prover, traffic, in, out, otherCommitments, r, g, bitLength, miniEnv, revMiniEnv,
 						environment, proverIndex, acc, input, transcript);
-				out2.write(transcript.toString());
-				transcript.setLength(0);
+				transcript.flush();
 				out.flush();
 				out.reset();
 				proverIndex = 0;
+				traffic.phase("commitments");
 			}
 		}
 		if(proverIndex != 0)
 		{
-			runProver(prover, host, in, out, otherCommitments, r, g, bitLength, miniEnv, revMiniEnv,
+			runProver(prover, traffic, in, out, otherCommitments, r, g, bitLength, miniEnv, revMiniEnv,
 					environment, proverIndex, acc, input, transcript);
-			out2.write(transcript.toString());
-			transcript.setLength(0);
+			transcript.flush();
 		}
 
 
@@ -402,6 +416,7 @@ public class ProtocolMainVarianceSingleKey {
 		//Convert to Bits:
 
 		
+		traffic.phase("bit commitments");
 		ECPedersenOwnedBitwiseCommitment ecBits = null;
 		
 		int numBits = 51;
@@ -416,8 +431,9 @@ public class ProtocolMainVarianceSingleKey {
 		out.writeObject(ecBitComm);
 		otherECBits = (ECPedersenCommitment[]) in.readObject();
 		
-		if(!VarianceToolkit.checkBitCommitment(othersSumCommitment, otherECBits, miniEnv)) System.out.println("LIAR!!! BIT COMMITMENTS DO NOT MATCH THEIR SUM");
+		if(!VarianceToolkit.checkBitCommitment(othersSum.toCommitment(), otherECBits, miniEnv)) System.out.println("LIAR!!! BIT COMMITMENTS DO NOT MATCH THEIR SUM");
 		else System.out.println("Bit Commitments Correct");
+		traffic.phase("comparison");
 		CryptoData[][] table = VarianceToolkit.getBasicTable(miniEnv);
 		CryptoData[][] newTable;
 		
@@ -432,11 +448,11 @@ public class ProtocolMainVarianceSingleKey {
 				keys[j] = new BigInteger(bitLength, r);
 		}
 		
-		CryptoData[] encryptions = VarianceToolkit.createTableCommitments(table[1], keys, ecBits.getMessage().testBit(numBits-1 - 0), host == null, miniEnv);
-		CryptoData pInputs = VarianceToolkit.getTableCoorespondenceProverData(table[1], encryptions, keys, new ECPointData(ecBitComm[numBits-1 - 0].getCommitment(miniEnv)), ecBitKeys[(numBits-1) - 0], ecBits.getMessage().testBit((numBits-1) - 0), host != null, miniEnv, r);
+		CryptoData[] encryptions = VarianceToolkit.createTableCommitments(table[1], keys, ecBits.getMessage().testBit(numBits-1 - 0), !isHost, miniEnv);
+		CryptoData pInputs = VarianceToolkit.getTableCoorespondenceProverData(table[1], encryptions, keys, new ECPointData(ecBitComm[numBits-1 - 0].getCommitment(miniEnv)), ecBitKeys[(numBits-1) - 0], ecBits.getMessage().testBit((numBits-1) - 0), isHost, miniEnv, r);
 		out.writeObject(encryptions);
 		CryptoData[] otherEncryptions = (CryptoData[]) in.readObject();
-		CryptoData vInputs = VarianceToolkit.getTableCoorespondenceVerifierData(table[1], otherEncryptions, new ECPointData(otherECBits[numBits-1 - 0].getCommitment(miniEnv)), host == null, miniEnv);
+		CryptoData vInputs = VarianceToolkit.getTableCoorespondenceVerifierData(table[1], otherEncryptions, new ECPointData(otherECBits[numBits-1 - 0].getCommitment(miniEnv)), !isHost, miniEnv);
 
 		BigInteger random;
 		random = new BigInteger(bitLength, r);
@@ -445,10 +461,10 @@ public class ProtocolMainVarianceSingleKey {
 			random = new BigInteger(bitLength, r);
 		}
 		BigInteger[] c = {new BigInteger(bitLength - 1, r), random};
-		ECPedersenCommitment myCmt = new ECPedersenCommitment(c[0], c[1], miniEnv);
+		ChallengeCommitment myCmt = challengeScheme.commit(c[0], c[1], miniEnv);
 		ObjectInputStream[] inArray = {in}; 
 		ObjectOutputStream[] outArray = {out}; 
-		if(VarianceToolkit.consistantTableEncryptionProver.parallelZKProve(pInputs, vInputs, tableProofEnv, in, out, myCmt, miniEnv, c, null))
+		if(VarianceToolkit.consistantTableEncryptionProver.parallelZKProve(pInputs, vInputs, tableProofEnv, in, out, myCmt, miniEnv, c, (StringBuilder) null))
 		{
 		}
 		else System.out.println("boooooo...");
@@ -489,7 +505,7 @@ public class ProtocolMainVarianceSingleKey {
 			CryptoData[][] finalTable;
 			CryptoData shufflePInputs;
 			CryptoData shuffleVInputs;
-			if(host == null)
+			if(!isHost)
 			{
 				newTable = VarianceToolkit.shuffleTable(table, keyChanges, shuffle, miniEnv);
 				out.writeObject(newTable);
@@ -514,9 +530,9 @@ public class ProtocolMainVarianceSingleKey {
 			}
 			c[0] = new BigInteger(bitLength - 1, r);
 			c[1] = random;
-			myCmt = new ECPedersenCommitment(c[0], c[1], miniEnv);
+			myCmt = challengeScheme.commit(c[0], c[1], miniEnv);
 
-			if(!VarianceToolkit.tableEqualityProver.parallelZKProve(shufflePInputs, shuffleVInputs, shuffleProofEnv, in, out, myCmt, miniEnv, c, null))
+			if(!VarianceToolkit.tableEqualityProver.parallelZKProve(shufflePInputs, shuffleVInputs, shuffleProofEnv, in, out, myCmt, miniEnv, c, (StringBuilder) null))
 			{
 				System.out.println("CHEATING SHUFFLE");
 			}
@@ -527,11 +543,11 @@ public class ProtocolMainVarianceSingleKey {
 					keys[j] = new BigInteger(bitLength, r);
 			}
 			
-			encryptions = VarianceToolkit.createTableCommitments(table[1], keys, ecBits.getMessage().testBit((numBits-1) - i), host == null, miniEnv);
-			pInputs = VarianceToolkit.getTableCoorespondenceProverData(table[1], encryptions, keys, new ECPointData(ecBitComm[(numBits-1) - i].getCommitment(miniEnv)), ecBitKeys[(numBits-1) - i], ecBits.getMessage().testBit((numBits-1) - i), host != null, miniEnv, r);
+			encryptions = VarianceToolkit.createTableCommitments(table[1], keys, ecBits.getMessage().testBit((numBits-1) - i), !isHost, miniEnv);
+			pInputs = VarianceToolkit.getTableCoorespondenceProverData(table[1], encryptions, keys, new ECPointData(ecBitComm[(numBits-1) - i].getCommitment(miniEnv)), ecBitKeys[(numBits-1) - i], ecBits.getMessage().testBit((numBits-1) - i), isHost, miniEnv, r);
 			out.writeObject(encryptions);
 			otherEncryptions = (CryptoData[]) in.readObject();
-			vInputs = VarianceToolkit.getTableCoorespondenceVerifierData(table[1], otherEncryptions, new ECPointData(otherECBits[(numBits-1) - i].getCommitment(miniEnv)), host == null, miniEnv);
+			vInputs = VarianceToolkit.getTableCoorespondenceVerifierData(table[1], otherEncryptions, new ECPointData(otherECBits[(numBits-1) - i].getCommitment(miniEnv)), !isHost, miniEnv);
 
 			random = new BigInteger(bitLength, r);
 			while(random.compareTo(order) >= 0)
@@ -540,14 +556,14 @@ public class ProtocolMainVarianceSingleKey {
 			}
 			c[0] = new BigInteger(bitLength - 1, r);
 			c[1] = random;
-			myCmt = new ECPedersenCommitment(c[0], c[1], miniEnv);
-			VarianceToolkit.consistantTableEncryptionProver.parallelZKProve(pInputs, vInputs, tableProofEnv, in, out, myCmt, miniEnv, c, null);
+			myCmt = challengeScheme.commit(c[0], c[1], miniEnv);
+			VarianceToolkit.consistantTableEncryptionProver.parallelZKProve(pInputs, vInputs, tableProofEnv, in, out, myCmt, miniEnv, c, (StringBuilder) null);
 			//tables are shuffles and proven to be equal!  Now, PET.
 			int row = 0;
 			for(;row < 3;row++)
 			{
 				int x = 0;
-				if(host == null)
+				if(!isHost)
 				{
 					x = 1;
 				}
@@ -576,7 +592,7 @@ public class ProtocolMainVarianceSingleKey {
 		}
 		//Decrypt feedback
 		int resultOfComparison;
-		if(host == null)
+		if(!isHost)
 		{
 			feedback[0] = ZKToolkit.decryptECElgamal(new CryptoDataArray(feedback), myPartOfKey, miniEnv);
 			out.writeObject(new CryptoDataArray(feedback));
@@ -600,6 +616,7 @@ public class ProtocolMainVarianceSingleKey {
 //		}
 		
 		out.flush();
+		traffic.finish();
 		final long actualEnd = System.currentTimeMillis();
 		System.out.println(counter);
 		System.out.println("My sum is " + sum);
@@ -626,18 +643,15 @@ public class ProtocolMainVarianceSingleKey {
 		}
 		out1.write(String.format("Total execution time: %d\n", (endTime - startTime)));
 		out1.flush();
-		out.close();
+		transport.close();
 		out1.close();
-		out2.flush();
-		out2.close();
-		in.close();
-		s.close();
-		if(host != null) host.close();
+		transcript.close();
+		return verify;
 	}
 
-	private static void runProver(ZKPProtocol prover, ServerSocket host,
+	private void runProver(ZKPProtocol prover, TrafficCounter traffic,
 			ObjectInputStream in, ObjectOutputStream out, ECPedersenCommitment[] otherCommitments, Random r, ECPoint h, int bitLength, CryptoData miniEnv, CryptoData revMiniEnv, CryptoData environment, int proverIndex,
-			CryptoData[][] acc, CryptoData[] input, StringBuilder transcript) throws IOException {
+			CryptoData[][] acc, CryptoData[] input, Transcript transcript) throws IOException {
 
 		BigInteger order = h.getCurve().getOrder();
 		for(int i = 0; i < proverIndex; i++)
@@ -649,6 +663,12 @@ public class ProtocolMainVarianceSingleKey {
 			}
 		}
 		out.flush();
+		traffic.phase("proofs");
+		//The block is proved as one AND proof only if both parties offer it
+		out.writeBoolean(aggregateBlocks);
+		out.flush();
+		boolean aggregate = in.readBoolean() && aggregateBlocks;
+		CryptoData[] otherInputs = new CryptoData[proverIndex];
 		for(int i = 0; i < proverIndex; i++)
 		{
 			ECPoint comm = otherCommitments[i].getCommitment(miniEnv);					
@@ -671,24 +691,48 @@ public class ProtocolMainVarianceSingleKey {
 			bIntArray[0] = new ECPointData(comm);
 			
 			dataArrayOuter[1] = new CryptoDataArray(bIntArray);
-			CryptoData otherInput = new CryptoDataArray(dataArrayOuter);
+			otherInputs[i] = new CryptoDataArray(dataArrayOuter);
+		}
+		if(aggregate)
+		{
+			if(aggregated == null)
+				aggregated = new AggregatedProofBlock(prover, environment);
+			BigInteger random = new BigInteger(bitLength, r);
+			while(random.compareTo(order) >= 0)
+				random = new BigInteger(bitLength, r);
+			BigInteger[] c = new BigInteger[] {new BigInteger(bitLength - 1, r),random};
+			ChallengeCommitment myCmt = challengeScheme.commit(c[0], c[1], miniEnv);
+			try {
+				verify = aggregated.parallelZKProve(input, otherInputs, proverIndex, in, out, myCmt, miniEnv, c, transcript);
+			} catch (ClassNotFoundException | MultipleTrueProofException | NoTrueProofException
+					| ArraySizesDoNotMatchException e) {
+				e.printStackTrace();
+				verify = false;
+			}
+			if(verify)
+				for(int i = 0; i < proverIndex; i++)
+					othersSum.add(otherCommitments[i]);
+			return;
+		}
+		for(int i = 0; i < proverIndex; i++)
+		{
 			try {
 
 				BigInteger random = new BigInteger(bitLength, r);
 				while(random.compareTo(order) >= 0)
 					random = new BigInteger(bitLength, r);
 				BigInteger[] c = new BigInteger[] {new BigInteger(bitLength - 1, r),random};
-				ECPedersenCommitment myCmt = new ECPedersenCommitment(c[0], c[1], miniEnv);
+				ChallengeCommitment myCmt = challengeScheme.commit(c[0], c[1], miniEnv);
 
 				ObjectInputStream[] inArray = {in}; 
 				ObjectOutputStream[] outArray = {out}; 
 				
-				verify = prover.parallelZKProve(input[i], otherInput, environment, in, out, myCmt, miniEnv, c, transcript);
+				verify = prover.parallelZKProve(input[i], otherInputs[i], environment, in, out, myCmt, miniEnv, c, transcript);
 				if(!(verify)) {
 //							System.out.println(myVerify + " " + otherVerify);
 					break;
 				}
-				else othersSumCommitment = othersSumCommitment.multiplyCommitment(otherCommitments[i], miniEnv);
+				else othersSum.add(otherCommitments[i]);
 					
 			} catch (ClassNotFoundException | MultipleTrueProofException | NoTrueProofException
 					| ArraySizesDoNotMatchException e) {
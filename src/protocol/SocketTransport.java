@@ -0,0 +1,321 @@
+package protocol;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.List;
+
+import javax.net.ServerSocketFactory;
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Channels over sockets between processes, as the main programs have always connected.
+ */
+public class SocketTransport implements Transport
+{
+	private final Socket s;
+	private final ObjectInputStream mainIn;
+	private final ObjectOutputStream mainOut;
+	private final Socket[] friends;
+	private final ObjectInputStream[] friendsIn;
+	private final ObjectOutputStream[] friendsOut;
+	private final ServerSocket host;
+	private final boolean isHost;
+	private final TrafficCounter traffic;
+
+	private SocketTransport(Socket s, ObjectInputStream mainIn, ObjectOutputStream mainOut, Socket[] friends, ObjectInputStream[] friendsIn, ObjectOutputStream[] friendsOut, ServerSocket host, boolean isHost, TrafficCounter traffic)
+	{
+		this.s = s;
+		this.mainIn = mainIn;
+		this.mainOut = mainOut;
+		this.friends = friends;
+		this.friendsIn = friendsIn;
+		this.friendsOut = friendsOut;
+		this.host = host;
+		this.isHost = isHost;
+		this.traffic = traffic;
+	}
+
+	/**
+	 * Plain TCP:  connects to ip:port, or listens on port if nobody is there yet.
+	 */
+	public static SocketTransport connect(String ip, int port) throws IOException
+	{
+		TrafficCounter traffic = new TrafficCounter();
+		ServerSocket host = null;
+		Socket s;
+		ObjectInputStream in;
+		ObjectOutputStream out;
+		try {
+			SocketAddress dest = new InetSocketAddress(ip, port);
+			s = new Socket();
+			s.connect(dest);
+			System.out.println("Connection to Server successful");
+			in = new ObjectInputStream(traffic.wrap(s.getInputStream()));
+			out = new ObjectOutputStream(traffic.wrap(s.getOutputStream()));
+		}
+		catch(Exception e){
+			System.out.println("Connection not open, opening server");
+			try {
+				host = new ServerSocket(port);
+				s = host.accept();
+				System.out.println("Connection established");
+				out = new ObjectOutputStream(traffic.wrap(s.getOutputStream()));
+				in = new ObjectInputStream(traffic.wrap(s.getInputStream()));
+			}
+			catch( java.net.BindException ex)
+			{
+				SocketAddress dest = new InetSocketAddress(ip, port);
+				s = new Socket();
+				s.connect(dest);
+				System.out.println("Connection to Server successful");
+				in = new ObjectInputStream(traffic.wrap(s.getInputStream()));
+				out = new ObjectOutputStream(traffic.wrap(s.getOutputStream()));
+			}
+		}
+		return new SocketTransport(s, in, out, new Socket[0], new ObjectInputStream[0], new ObjectOutputStream[0], host, host != null, traffic);
+	}
+
+	/**
+	 * TLS:  listens on myPort until every friend in friendIPs has connected (each sends its position in the list) and
+	 * either accepts the other main party or connects to it at mainAddress:mainPort, whichever happens first.  The
+	 * keystore properties must already be set.
+	 */
+	public static SocketTransport connectWithFriends(InetAddress mainAddress, int mainPort, int myPort, List<InetAddress> friendIPs) throws IOException
+	{
+		ServerSocketFactory ssf = SSLServerSocketFactory.getDefault();
+		SocketFactory sf = SSLSocketFactory.getDefault();
+		Socket s = null;
+		ObjectInputStream mainIn = null;
+		ObjectOutputStream mainOut = null;
+		TrafficCounter traffic = null;
+		boolean accepted = false;
+		SocketAddress dest = new InetSocketAddress(mainAddress, mainPort);
+
+		Socket[] friends = new Socket[friendIPs.size()];
+		ObjectInputStream[] friendsIn = new ObjectInputStream[friendIPs.size()];
+		ObjectOutputStream[] friendsOut = new ObjectOutputStream[friendIPs.size()];
+		ServerSocket host = ssf.createServerSocket(myPort);
+		int socketDelay =  (int)((2500 * Math.random()) + 2500);  //Just so they aren't always checking at the same time.
+		host.setSoTimeout(0);	//Shifted so that they are not in sync and will eventually connect.
+
+		int connected = 0;
+
+		while(connected != friendsIn.length)
+		{
+			Socket temp;
+			ObjectOutputStream tempOut;
+			ObjectInputStream tempIn;
+			TrafficCounter tempTraffic = new TrafficCounter();
+			try
+			{
+				System.out.println("Waiting for " + (1+friendsIn.length - connected) + " parties.");
+				temp = host.accept();
+				System.out.println("Someone contacted me!");
+				temp.setSoTimeout(socketDelay);
+				tempOut = new ObjectOutputStream(tempTraffic.wrap(temp.getOutputStream()));
+				tempIn = new ObjectInputStream(tempTraffic.wrap(temp.getInputStream()));
+				System.out.println("Streams open!");
+			} catch (Exception e){
+				System.out.println("Exception, trying again");
+				continue;
+			}
+			int num;
+			InetAddress address = temp.getInetAddress();
+			try{
+				System.out.println("Reading their int:");
+				num = tempIn.readInt();
+			}catch(IOException e) {
+				System.out.println("odd...");
+				try{
+					temp.close();
+				}catch(Exception e1) {}
+				continue;
+			}
+			if(address.equals(mainAddress) && num == -1)
+			{
+				System.out.println("The other main party has connected!");
+				if(s != null) {
+					try {
+						s.close();
+					}catch(Exception e) {}
+				}
+				s = temp;
+				mainOut = tempOut;
+				mainIn = tempIn;
+				traffic = tempTraffic;
+				accepted = true;
+				host.setSoTimeout(0);
+				System.out.println("Main Other Party Detected.");
+			}
+			else if(num < friendIPs.size()){
+				if(friendIPs.get(num).equals(address) && friends[num] == null){
+					friendsOut[num] = tempOut;
+					friendsIn[num] = tempIn;
+					friends[num] = temp;
+					tempOut.writeBoolean(true);
+					tempOut.flush();
+					System.out.println("Accepted friend!");
+					connected++;
+
+				}
+			}
+			else
+			{
+				try {
+					System.out.println("I don't know this person...");
+					tempOut.writeBoolean(false);
+					tempOut.flush();
+					temp.close();
+				}catch(Exception e) {
+
+				}
+				continue;
+			}
+		}
+		while(s == null)
+		{
+			host.setSoTimeout(socketDelay/5);
+			traffic = new TrafficCounter();
+			try {
+				s = host.accept();
+				mainOut = new ObjectOutputStream(traffic.wrap(s.getOutputStream()));
+				mainIn = new ObjectInputStream(traffic.wrap(s.getInputStream()));
+				InetAddress address = s.getInetAddress();
+				int num = mainIn.readInt();
+				if(address.equals(mainAddress) && num == -1){
+					System.out.println("Other main party has connected!");
+					accepted = true;
+					break;
+				}else {
+					System.out.println("Odd, I already have everyone else ready...");
+					try{
+						mainOut.writeBoolean(false);
+						mainOut.flush();
+						s.close();
+					}catch(Exception e) {}
+					s = null;
+					continue;
+				}
+			}catch(Exception e) {
+				if(s != null) {
+					try {
+						s.close();
+					} catch (Exception e2) {}
+					s = null;
+				}
+				try
+				{
+					s = sf.createSocket();
+					s.setSoTimeout(socketDelay);
+					s.connect(dest, 1000);
+
+					System.out.println("I connected to the other's main party.");
+
+					mainOut = new ObjectOutputStream(traffic.wrap(s.getOutputStream()));
+					mainIn = new ObjectInputStream(traffic.wrap(s.getInputStream()));
+
+					mainOut.writeInt(-1);
+					mainOut.flush();
+
+					host.setSoTimeout(0);
+					accepted = false;
+
+				} catch (SocketTimeoutException e2)
+				{
+					try {
+						s.close();
+					}catch(Exception e3) {}
+					s = null;
+					System.out.println("Trying again");
+				}
+			}
+		}
+		try {
+			s.setSoTimeout(0);
+			mainOut.writeBoolean(true);
+			mainOut.flush();
+			System.out.println("Sending ready signal");
+			mainIn.readBoolean();
+			System.out.println("Recieved ready signal");
+		} catch (IOException e) {
+			System.out.println("Ready Signal failed");
+			try{
+				s.close();
+			}catch (Exception e2) {}
+			host.close();
+			throw e;
+		}
+		host.close();
+		return new SocketTransport(s, mainIn, mainOut, friends, friendsIn, friendsOut, null, accepted, traffic);
+	}
+
+	@Override
+	public ObjectInputStream getMainIn()
+	{
+		return mainIn;
+	}
+
+	@Override
+	public ObjectOutputStream getMainOut()
+	{
+		return mainOut;
+	}
+
+	@Override
+	public ObjectInputStream[] getFriendsIn()
+	{
+		return friendsIn;
+	}
+
+	@Override
+	public ObjectOutputStream[] getFriendsOut()
+	{
+		return friendsOut;
+	}
+
+	@Override
+	public boolean isHost()
+	{
+		return isHost;
+	}
+
+	@Override
+	public void setTimeout(int millis) throws IOException
+	{
+		s.setSoTimeout(millis);
+		for(Socket friend : friends)
+			friend.setSoTimeout(millis);
+	}
+
+	@Override
+	public TrafficCounter getTraffic()
+	{
+		return traffic;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		for(Socket friend : friends)
+		{
+			try {
+				friend.close();
+			}catch(Exception e) {}
+		}
+		try {
+			mainOut.close();
+			mainIn.close();
+		}catch(Exception e) {}
+		s.close();
+		if(host != null) host.close();
+	}
+}
@@ -0,0 +1,161 @@
+package protocol;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts what one party sends and receives on a channel, split into named phases.
+ *
+ * A round trip is counted each time the party reads after having sent something since its last read:  in a lock-step
+ * exchange that is exactly the number of times it has to wait for the other party to answer, which is what latency
+ * multiplies.  Pipelined exchanges read and write at the same time, so for them it is an upper bound.
+ */
+public class TrafficCounter
+{
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong roundTrips = new AtomicLong();
+	private final AtomicBoolean sentSinceRead = new AtomicBoolean();
+
+	private final Map<String, long[]> phases = new LinkedHashMap<String, long[]>();
+	private String phaseName = null;
+	private long phaseStart;
+	private long phaseSent;
+	private long phaseReceived;
+	private long phaseRoundTrips;
+
+	public static class Phase
+	{
+		public final String name;
+		public final long bytesSent;
+		public final long bytesReceived;
+		public final long roundTrips;
+		public final long nanos;
+
+		Phase(String name, long bytesSent, long bytesReceived, long roundTrips, long nanos)
+		{
+			this.name = name;
+			this.bytesSent = bytesSent;
+			this.bytesReceived = bytesReceived;
+			this.roundTrips = roundTrips;
+			this.nanos = nanos;
+		}
+	}
+
+	public OutputStream wrap(OutputStream out)
+	{
+		return new FilterOutputStream(out) {
+			@Override
+			public void write(int b) throws IOException
+			{
+				out.write(b);
+				sent.incrementAndGet();
+				sentSinceRead.set(true);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException
+			{
+				out.write(b, off, len);
+				sent.addAndGet(len);
+				sentSinceRead.set(true);
+			}
+		};
+	}
+
+	public InputStream wrap(InputStream in)
+	{
+		return new FilterInputStream(in) {
+			@Override
+			public int read() throws IOException
+			{
+				if(sentSinceRead.getAndSet(false)) roundTrips.incrementAndGet();
+				int b = in.read();
+				if(b >= 0) received.incrementAndGet();
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException
+			{
+				if(sentSinceRead.getAndSet(false)) roundTrips.incrementAndGet();
+				int n = in.read(b, off, len);
+				if(n > 0) received.addAndGet(n);
+				return n;
+			}
+		};
+	}
+
+	/**
+	 * Ends the current phase (if any) and starts a new one.  Phases with the same name add up, so a loop can switch
+	 * between a few phases once per block.
+	 */
+	public synchronized void phase(String name)
+	{
+		long now = System.nanoTime();
+		if(phaseName != null)
+		{
+			long[] totals = phases.get(phaseName);
+			if(totals == null)
+			{
+				totals = new long[4];
+				phases.put(phaseName, totals);
+			}
+			totals[0] += sent.get() - phaseSent;
+			totals[1] += received.get() - phaseReceived;
+			totals[2] += roundTrips.get() - phaseRoundTrips;
+			totals[3] += now - phaseStart;
+		}
+		phaseName = name;
+		phaseStart = now;
+		phaseSent = sent.get();
+		phaseReceived = received.get();
+		phaseRoundTrips = roundTrips.get();
+	}
+
+	/**
+	 * Ends the current phase.
+	 */
+	public void finish()
+	{
+		phase(null);
+	}
+
+	/**
+	 * @return the finished phases in the order they first started
+	 */
+	public synchronized List<Phase> getPhases()
+	{
+		List<Phase> toReturn = new ArrayList<Phase>(phases.size());
+		for(Map.Entry<String, long[]> e : phases.entrySet())
+		{
+			long[] t = e.getValue();
+			toReturn.add(new Phase(e.getKey(), t[0], t[1], t[2], t[3]));
+		}
+		return toReturn;
+	}
+
+	public long getBytesSent()
+	{
+		return sent.get();
+	}
+
+	public long getBytesReceived()
+	{
+		return received.get();
+	}
+
+	public long getRoundTrips()
+	{
+		return roundTrips.get();
+	}
+}
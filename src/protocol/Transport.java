@@ -0,0 +1,41 @@
+package protocol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * The channels a main party uses:  one to the other main party and one per friend, all already connected and ready.
+ * SocketTransport makes them over TLS (or plain TCP) sockets between processes;  LoopbackTransport connects parties
+ * running in one JVM through memory.
+ */
+public interface Transport extends Closeable
+{
+	ObjectInputStream getMainIn();
+
+	ObjectOutputStream getMainOut();
+
+	ObjectInputStream[] getFriendsIn();
+
+	ObjectOutputStream[] getFriendsOut();
+
+	/**
+	 * True for the party that accepted the connection.  The two main parties always disagree, so protocols can use it
+	 * to pick roles.
+	 */
+	boolean isHost();
+
+	/**
+	 * Bounds how long a read may block, for the closing handshake with a party that may already be gone.
+	 * 0 waits forever.
+	 */
+	void setTimeout(int millis) throws IOException;
+
+	/**
+	 * @return the counter of the main channel
+	 */
+	TrafficCounter getTraffic();
+
+	void close() throws IOException;
+}
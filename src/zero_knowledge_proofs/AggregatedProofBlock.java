@@ -0,0 +1,78 @@
+package zero_knowledge_proofs;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import zero_knowledge_proofs.CryptoData.CryptoData;
+import zero_knowledge_proofs.CryptoData.CryptoDataArray;
+
+/**
+ * Proves a block of account proofs as a single AND of them, so the challenge commitment, the challenge opening and the
+ * accept/reject booleans of parallelZKProve are exchanged once per block instead of once per account, and only one
+ * challenge commitment is computed and checked.  Every account keeps its own proof tree, input and nonces;  an AND of
+ * sigma protocols under one challenge is itself a sigma protocol, so soundness is that of a single account proof.
+ *
+ * The price is that a bad proof fails the whole block (the AND reports which account on standard out), and the transcript
+ * gets one entry per block whose input is the array of the account inputs.  Both parties must aggregate the same number
+ * of accounts.
+ */
+public class AggregatedProofBlock
+{
+	private final ZKPProtocol accountProver;
+	private final CryptoData accountEnvironment;
+	private final HashMap<Integer, ZKPProtocol> provers = new HashMap<Integer, ZKPProtocol>();
+	private final HashMap<Integer, CryptoData> environments = new HashMap<Integer, CryptoData>();
+
+	/**
+	 * @param accountProver the proof of one account.  Its codec is used for the block.
+	 * @param accountEnvironment the environment of one account proof
+	 */
+	public AggregatedProofBlock(ZKPProtocol accountProver, CryptoData accountEnvironment)
+	{
+		this.accountProver = accountProver;
+		this.accountEnvironment = accountEnvironment;
+	}
+
+	/**
+	 * Runs parallelZKProve once for the first count accounts.
+	 *
+	 * @return true if both parties accepted every proof of the block
+	 */
+	public boolean parallelZKProve(CryptoData[] proverInputs, CryptoData[] verifierInputs, int count, ObjectInputStream in, ObjectOutputStream out, ChallengeCommitment myCmt, CryptoData commitmentEnvironment, BigInteger[] challenge, Transcript transcript) throws ClassNotFoundException, IOException, MultipleTrueProofException, NoTrueProofException, ArraySizesDoNotMatchException
+	{
+		ZKPProtocol prover = getProver(count);
+		prover.setCodec(accountProver.getCodec());
+		return prover.parallelZKProve(new CryptoDataArray(Arrays.copyOf(proverInputs, count)), new CryptoDataArray(Arrays.copyOf(verifierInputs, count)), getEnvironment(count), in, out, myCmt, commitmentEnvironment, challenge, transcript);
+	}
+
+	//Blocks are usually all the same size, apart from the last one
+	private ZKPProtocol getProver(int count)
+	{
+		ZKPProtocol prover = provers.get(count);
+		if(prover == null)
+		{
+			ZKPProtocol[] p = new ZKPProtocol[count];
+			Arrays.fill(p, accountProver);
+			prover = new ZeroKnowledgeAndProver(p);
+			provers.put(count, prover);
+		}
+		return prover;
+	}
+
+	private CryptoData getEnvironment(int count)
+	{
+		CryptoData environment = environments.get(count);
+		if(environment == null)
+		{
+			CryptoData[] e = new CryptoData[count];
+			Arrays.fill(e, accountEnvironment);
+			environment = new CryptoDataArray(e);
+			environments.put(count, environment);
+		}
+		return environment;
+	}
+}
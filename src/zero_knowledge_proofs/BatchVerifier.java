@@ -0,0 +1,83 @@
+package zero_knowledge_proofs;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+
+/**
+ * Folds many verification equations of the form sum(s_i * P_i) == infinity into one multi-scalar multiplication.
+ * Every equation is scaled by its own random weight, so a bad equation only slips through with probability 2^-WEIGHT_BITS.
+ * Terms on the same base (g, h, ...) are merged, so the final check costs about one scalar multiplication per distinct point.
+ */
+public class BatchVerifier
+{
+	public static final int WEIGHT_BITS = 128;
+
+	private final SecureRandom rand;
+	private final HashMap<ECPoint, BigInteger> terms = new HashMap<ECPoint, BigInteger>();
+	private ECCurve curve;
+	private BigInteger order;
+	private BigInteger weight = BigInteger.ONE;
+	private boolean valid = true;
+
+	public BatchVerifier(SecureRandom rand)
+	{
+		this.rand = rand;
+	}
+
+	/**
+	 * Starts a new equation.  Terms added after this call are scaled by a fresh random weight.
+	 */
+	public void newEquation()
+	{
+		do
+		{
+			weight = new BigInteger(WEIGHT_BITS, rand);
+		} while(weight.signum() == 0);
+	}
+
+	/**
+	 * Adds scalar * base to the current equation.
+	 */
+	public void addTerm(ECPoint base, BigInteger scalar)
+	{
+		if(base.isInfinity()) return;
+		if(curve == null)
+		{
+			curve = base.getCurve();
+			order = curve.getOrder();
+		}
+		BigInteger k = weight.multiply(scalar);
+		BigInteger old = terms.get(base);
+		if(old != null) k = k.add(old);
+		terms.put(base, k.mod(order));
+	}
+
+	/**
+	 * Records a check that does not reduce to a group equation (for example an OR challenge that does not XOR out).
+	 */
+	public void fail()
+	{
+		valid = false;
+	}
+
+	public boolean verify()
+	{
+		if(!valid) return false;
+		if(terms.isEmpty()) return true;
+		ECPoint[] points = new ECPoint[terms.size()];
+		BigInteger[] scalars = new BigInteger[terms.size()];
+		int i = 0;
+		for(Map.Entry<ECPoint, BigInteger> e : terms.entrySet())
+		{
+			points[i] = e.getKey();
+			scalars[i] = e.getValue();
+			i++;
+		}
+		return ECMultiScalarMult.sumOfMultiplies(points, scalars).isInfinity();
+	}
+}
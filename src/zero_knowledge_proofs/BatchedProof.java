@@ -0,0 +1,26 @@
+package zero_knowledge_proofs;
+
+import java.math.BigInteger;
+
+import zero_knowledge_proofs.CryptoData.CryptoData;
+
+/**
+ * One transcript (input, a, z, c) waiting to be checked by ZKPProtocol.batchVerifyResponse.
+ */
+public class BatchedProof
+{
+	public final CryptoData input;
+	public final CryptoData a;
+	public final CryptoData z;
+	public final BigInteger challenge;
+	public final CryptoData environment;
+
+	public BatchedProof(CryptoData input, CryptoData a, CryptoData z, BigInteger challenge, CryptoData environment)
+	{
+		this.input = input;
+		this.a = a;
+		this.z = z;
+		this.challenge = challenge;
+		this.environment = environment;
+	}
+}
@@ -0,0 +1,136 @@
+package zero_knowledge_proofs;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.math.ec.ECCurve;
+
+import zero_knowledge_proofs.CryptoData.CryptoData;
+
+/**
+ * Reads what a BinaryTranscriptWriter wrote, in order.  ENVIRONMENT records are kept to resolve statements and are not
+ * returned.  The records of an indexed transcript end at its INDEX record;  IndexedTranscriptReader reads the index.
+ */
+public class BinaryTranscriptReader extends TranscriptReader
+{
+	private final DataInputStream in;
+	private final String curveName;
+	private final CryptoDataCodec codec;
+	private final ArrayList<CryptoData> environments = new ArrayList<CryptoData>();
+
+	public BinaryTranscriptReader(InputStream input) throws IOException
+	{
+		DataInputStream header = new DataInputStream(new BufferedInputStream(input, 1 << 16));
+		if(header.readUnsignedShort() != BinaryTranscriptWriter.MAGIC) throw new StreamCorruptedException("Not a binary transcript");
+		int version = header.readUnsignedByte();
+		if(version != BinaryTranscriptWriter.VERSION) throw new StreamCorruptedException("Unsupported transcript version " + version);
+		int flags = header.readUnsignedByte();
+		curveName = header.readUTF();
+		if((flags & BinaryTranscriptWriter.DEFLATE) != 0)
+			in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(header, new Inflater(), 1 << 16), 1 << 16));
+		else
+			in = header;
+		codec = new CryptoDataCodec(ECNamedCurveTable.getParameterSpec(curveName).getCurve());
+		codec.readHeader(in);
+	}
+
+	public String getCurveName()
+	{
+		return curveName;
+	}
+
+	@Override
+	public ECCurve getCurve()
+	{
+		return codec.getCurve();
+	}
+
+	public CryptoDataCodec getCodec()
+	{
+		return codec;
+	}
+
+	@Override
+	protected Entry read(boolean decodeProofs) throws IOException
+	{
+		while(true)
+		{
+			int type = in.read();
+			if(type == -1 || type == BinaryTranscriptWriter.INDEX) return null;
+			int length = in.readInt();
+			if(length < 0) throw new StreamCorruptedException("Record of " + length + " bytes");
+			if(type == BinaryTranscriptWriter.PROOF && !decodeProofs)
+			{
+				while(length > 0)
+				{
+					int skipped = in.skipBytes(length);
+					if(skipped <= 0) throw new StreamCorruptedException("Record shorter than its length");
+					length -= skipped;
+				}
+				return proof(null, null, null, null, null, null);
+			}
+			byte[] payload = new byte[length];
+			in.readFully(payload);
+			DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+			try
+			{
+				switch((byte) type)
+				{
+					case BinaryTranscriptWriter.ENVIRONMENT:
+						int id = record.readInt();
+						if(id != environments.size()) throw new StreamCorruptedException("Environment " + id + " out of order");
+						environments.add(codec.readData(record));
+						break;
+					case BinaryTranscriptWriter.STATEMENT:
+						byte[] name = new byte[record.readInt()];
+						record.readFully(name);
+						prover = new String(name, StandardCharsets.UTF_8);
+						environment = environment(record.readInt());
+						int commitmentId = record.readInt();
+						commitmentEnvironment = commitmentId == -1 ? null : environment(commitmentId);
+						statementId++;
+						return statement();
+					case BinaryTranscriptWriter.PROOF:
+						ChallengeCommitment commitment = codec.readChallengeCommitment(record);
+						CryptoData input = codec.readData(record);
+						CryptoData a = codec.readData(record);
+						CryptoData z = codec.readData(record);
+						BigInteger[] c = codec.readIntegers(record);
+						if(c.length != 2) throw new StreamCorruptedException("Proof with " + c.length + " challenges");
+						return proof(commitment, input, a, z, c[0], c[1]);
+					case BinaryTranscriptWriter.NOTE:
+						return note(new String(payload, StandardCharsets.UTF_8));
+					default:
+						throw new StreamCorruptedException("Unknown record type " + type);
+				}
+			}
+			catch(EOFException e)
+			{
+				throw new StreamCorruptedException("Record shorter than its length");
+			}
+		}
+	}
+
+	private CryptoData environment(int id) throws StreamCorruptedException
+	{
+		if(id < 0 || id >= environments.size()) throw new StreamCorruptedException("Unknown environment " + id);
+		return environments.get(id);
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		in.close();
+	}
+}
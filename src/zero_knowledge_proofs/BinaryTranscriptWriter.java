@@ -0,0 +1,311 @@
+package zero_knowledge_proofs;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.IdentityHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.bouncycastle.jce.ECNamedCurveTable;
+
+import zero_knowledge_proofs.CryptoData.CryptoData;
+
+/**
+ * A transcript of length prefixed binary records, encoded with CryptoDataCodec (compressed points, fixed width scalars)
+ * instead of Base64 text.  Recording a proof only encodes it into a byte array;  compression and file I/O run on a
+ * background thread, and at most maxBufferedBytes of records wait for it, so a slow disk slows the proofs down instead of
+ * filling the heap.  Each environment is written once and referred to by number afterwards.
+ *
+ * The file is a header (magic, version, flags, curve name), then, compressed with Deflate if the DEFLATE flag is set, a
+ * CryptoDataCodec header and the records.  A record is its type, the length of its payload and the payload:
+ *
+ *   ENVIRONMENT  number, data             (numbered from 0 in order)
+ *   STATEMENT    prover, environment number, commitment environment number (-1 if none)
+ *   PROOF        challenge commitment, input, initial commitment, response, [challenge, challenge key]
+ *   NOTE         UTF-8 text
+ *
+ * The INDEXED flag marks an IndexedTranscriptWriter file, whose records end with an INDEX record and an index.
+ *
+ * TranscriptReader reads it back and TranscriptConverter turns it into the text format.
+ */
+public class BinaryTranscriptWriter extends Transcript
+{
+	static final int MAGIC = 0x5654;
+	static final int VERSION = 2;
+	static final int DEFLATE = 1;
+	static final int INDEXED = 2;
+
+	static final byte ENVIRONMENT = 1;
+	static final byte STATEMENT = 2;
+	static final byte PROOF = 3;
+	static final byte NOTE = 4;
+	static final byte INDEX = 5;
+
+	public static final int DEFAULT_BUFFERED_BYTES = 4 << 20;
+
+	//Markers for the writer thread, told apart from records by identity
+	private static final byte[] FLUSH = new byte[0];
+	private static final byte[] CLOSE = new byte[0];
+
+	private final CryptoDataCodec codec;
+	private final OutputStream out;
+	private final Deflater deflater;
+	private final int maxBufferedBytes;
+	private final Semaphore space;
+	private final Semaphore flushed = new Semaphore(0);
+	private final LinkedBlockingQueue<byte[]> records = new LinkedBlockingQueue<byte[]>();
+	private final IdentityHashMap<CryptoData, Integer> environments = new IdentityHashMap<CryptoData, Integer>();
+	private final ByteArrayOutputStream payload = new ByteArrayOutputStream(1024);
+	private final DataOutputStream payloadOut = new DataOutputStream(payload);
+	private final Thread writer;
+	private volatile IOException failure = null;
+	private boolean closed = false;
+	private long position;
+
+	public BinaryTranscriptWriter(OutputStream out, String curveName, boolean deflate) throws IOException
+	{
+		this(out, curveName, deflate, DEFAULT_BUFFERED_BYTES);
+	}
+
+	/**
+	 * @param out where the transcript goes.  It is closed by close.
+	 * @param curveName the named curve of the proofs
+	 * @param deflate whether to compress the records (Deflate at its fastest level)
+	 * @param maxBufferedBytes how many bytes of records may wait for the writer thread
+	 */
+	public BinaryTranscriptWriter(OutputStream out, String curveName, boolean deflate, int maxBufferedBytes) throws IOException
+	{
+		this(out, curveName, deflate ? DEFLATE : 0, maxBufferedBytes);
+	}
+
+	protected BinaryTranscriptWriter(OutputStream out, String curveName, int flags, int maxBufferedBytes) throws IOException
+	{
+		boolean deflate = (flags & DEFLATE) != 0;
+		codec = new CryptoDataCodec(ECNamedCurveTable.getParameterSpec(curveName).getCurve());
+		this.maxBufferedBytes = maxBufferedBytes;
+		space = new Semaphore(maxBufferedBytes);
+		OutputStream buffered = new BufferedOutputStream(out, 1 << 16);
+		DataOutputStream header = new DataOutputStream(buffered);
+		header.writeShort(MAGIC);
+		header.writeByte(VERSION);
+		header.writeByte(flags);
+		header.writeUTF(curveName);
+		if(deflate)
+		{
+			deflater = new Deflater(Deflater.BEST_SPEED);
+			this.out = new DeflaterOutputStream(buffered, deflater, 1 << 16, true);
+		}
+		else
+		{
+			deflater = null;
+			this.out = buffered;
+		}
+		DataOutputStream codecHeader = new DataOutputStream(this.out);
+		codec.writeHeader(codecHeader);
+		position = header.size() + codecHeader.size();
+		writer = new Thread(this::write, "transcript-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	@Override
+	protected synchronized void writeStatement(String prover, CryptoData environment, CryptoData commitmentEnvironment) throws IOException
+	{
+		int environmentId = environmentId(environment);
+		int commitmentEnvironmentId = commitmentEnvironment == null ? -1 : environmentId(commitmentEnvironment);
+		begin();
+		byte[] name = prover.getBytes(StandardCharsets.UTF_8);
+		payloadOut.writeInt(name.length);
+		payloadOut.write(name);
+		payloadOut.writeInt(environmentId);
+		payloadOut.writeInt(commitmentEnvironmentId);
+		enqueue(STATEMENT);
+	}
+
+	//The number of environment, writing it first if it is new
+	private int environmentId(CryptoData environment) throws IOException
+	{
+		Integer id = environments.get(environment);
+		if(id != null) return id;
+		id = environments.size();
+		environments.put(environment, id);
+		begin();
+		payloadOut.writeInt(id);
+		codec.writeData(payloadOut, environment);
+		enqueue(ENVIRONMENT);
+		return id;
+	}
+
+	@Override
+	protected synchronized void writeProof(ChallengeCommitment commitment, CryptoData input, CryptoData a, CryptoData z, BigInteger challenge, BigInteger challengeKey) throws IOException
+	{
+		begin();
+		codec.writeChallengeCommitment(payloadOut, commitment);
+		codec.writeData(payloadOut, input);
+		codec.writeData(payloadOut, a);
+		codec.writeData(payloadOut, z);
+		codec.writeIntegers(payloadOut, new BigInteger[] {challenge, challengeKey});
+		enqueue(PROOF);
+	}
+
+	@Override
+	public synchronized void note(String text) throws IOException
+	{
+		begin();
+		payloadOut.write(text.getBytes(StandardCharsets.UTF_8));
+		enqueue(NOTE);
+	}
+
+	//Starts a record, leaving room for its type and length
+	private void begin()
+	{
+		payload.reset();
+		payload.write(0);
+		payload.write(0);
+		payload.write(0);
+		payload.write(0);
+		payload.write(0);
+	}
+
+	//Frames the payload as a record and queues it, waiting for space if the writer is behind
+	private void enqueue(byte type) throws IOException
+	{
+		if(closed) throw new IOException("The transcript is closed");
+		checkFailure();
+		byte[] record = payload.toByteArray();
+		int length = record.length - 5;
+		record[0] = type;
+		record[1] = (byte) (length >>> 24);
+		record[2] = (byte) (length >>> 16);
+		record[3] = (byte) (length >>> 8);
+		record[4] = (byte) length;
+		try
+		{
+			space.acquire(Math.min(record.length, maxBufferedBytes));
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		records.add(record);
+	}
+
+	/**
+	 * Waits until every record so far is written to the output stream.
+	 */
+	@Override
+	public synchronized void flush() throws IOException
+	{
+		if(closed) return;
+		records.add(FLUSH);
+		try
+		{
+			flushed.acquire();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		checkFailure();
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		if(closed) return;
+		closed = true;
+		records.add(CLOSE);
+		try
+		{
+			writer.join();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		checkFailure();
+	}
+
+	private void checkFailure() throws IOException
+	{
+		if(failure != null) throw new IOException("Writing the transcript failed", failure);
+	}
+
+	/**
+	 * Called on the writer thread after each record is written.
+	 *
+	 * @param offset where the record starts in the uncompressed stream (in the file, if it is not compressed)
+	 */
+	protected void written(byte[] record, long offset) throws IOException
+	{
+	}
+
+	/**
+	 * Called on the writer thread after the last record, before out is closed.
+	 *
+	 * @param offset where the next byte of out goes
+	 */
+	protected void finish(OutputStream out, long offset) throws IOException
+	{
+	}
+
+	//The writer thread.  After a failure it keeps taking records, so nobody waits forever, and the failure is reported to the next caller.
+	private void write()
+	{
+		try
+		{
+			while(true)
+			{
+				byte[] record = records.take();
+				if(record == CLOSE)
+				{
+					try
+					{
+						if(failure == null) finish(out, position);
+						out.close();
+					}
+					catch(IOException e)
+					{
+						if(failure == null) failure = e;
+					}
+					if(deflater != null) deflater.end();
+					return;
+				}
+				try
+				{
+					if(failure == null)
+					{
+						if(record == FLUSH) out.flush();
+						else
+						{
+							out.write(record);
+							written(record, position);
+							position += record.length;
+						}
+					}
+				}
+				catch(IOException e)
+				{
+					failure = e;
+				}
+				if(record == FLUSH) flushed.release();
+				else space.release(Math.min(record.length, maxBufferedBytes));
+			}
+		}
+		catch(InterruptedException e)
+		{
+			failure = new InterruptedIOException();
+		}
+	}
+}
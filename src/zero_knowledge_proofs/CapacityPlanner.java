@@ -0,0 +1,247 @@
+package zero_knowledge_proofs;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.jce.spec.ECParameterSpec;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+
+/**
+ * Projects how long a KeyCount multi-signature run over an accounts file will take and how much it will send, before
+ * running it.  The accounts are grouped by (n, k), and each group is counted by MultiSigPlanner.estimate (the proof the
+ * main party builds with the construction the planner chooses, priced with ProofCost) and weighed with a profile of what
+ * each operation costs.
+ *
+ * Each party proves every account (as its owner, the dearer case) and verifies the other party's proof of it through
+ * its ProofPlan, and commits to its balance (and, for KEY_COUNT, to each key).  Work is spread over the threads;  blocks of proofs are
+ * pipelined, costing 6 round trips each.  Friends are not counted.
+ *
+ * Usage:  CapacityPlanner [options] accounts
+ *
+ * Options:  -curve named curve (secp256k1), -profile file of costs in us (the keys scalarMultiplication,
+ * pointAddition, fieldOperation, byte and roundTrip), -measure to time the curve operations on this machine instead,
+ * -rtt ms and -bw Mbit/s to override the profile's network, -t threads (all cores), -b block size (64), -multisig
+ * construction (auto, keycount, threshold or naive), -compare to price every construction of each (n, k).
+ */
+public class CapacityPlanner
+{
+	//A block of pipelined proofs:  the commitments, then the five steps of each proof
+	private static final int ROUND_TRIPS_PER_BLOCK = 6;
+	private static final int MEASURED_OPERATIONS = 200;
+
+	//measure writes its results here so the JIT can not drop the loops that made them
+	private static volatile Object sink;
+
+	private String accounts = null;
+	private String curveName = "secp256k1";
+	private ProofCost.Profile profile = ProofCost.Profile.DEFAULT;
+	private String profileFile = null;
+	private boolean measure = false;
+	private double rtt = -1;
+	private double bandwidth = -1;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int blockSize = 64;
+	private MultiSigPlanner planner = MultiSigPlanner.DEFAULT;
+	private boolean compare = false;
+
+	private ECCurve curve;
+
+	public static void main(String[] args) throws IOException
+	{
+		new CapacityPlanner(args).plan(System.out);
+	}
+
+	private CapacityPlanner(String[] args)
+	{
+		for(int i = 0; i < args.length; i++)
+		{
+			switch(args[i])
+			{
+				case "-curve":
+					curveName = args[++i];
+					break;
+				case "-profile":
+					profileFile = args[++i];
+					break;
+				case "-measure":
+					measure = true;
+					break;
+				case "-rtt":
+					rtt = Double.parseDouble(args[++i]);
+					break;
+				case "-bw":
+					bandwidth = Double.parseDouble(args[++i]);
+					break;
+				case "-t":
+					threads = Integer.parseInt(args[++i]);
+					break;
+				case "-b":
+					blockSize = Integer.parseInt(args[++i]);
+					break;
+				case "-multisig":
+					planner = MultiSigPlanner.forName(args[++i]);
+					break;
+				case "-compare":
+					compare = true;
+					break;
+				default:
+					if(accounts != null || args[i].startsWith("-"))
+						throw new IllegalArgumentException("Unknown option " + args[i] + ".  Usage:  CapacityPlanner [-curve name] [-profile file] [-measure] [-rtt ms] [-bw Mbit/s] [-t threads] [-b blockSize] [-multisig construction] [-compare] accounts");
+					accounts = args[i];
+			}
+		}
+		if(accounts == null) throw new IllegalArgumentException("No accounts file given");
+		if(threads < 1 || blockSize < 1) throw new IllegalArgumentException("-t and -b must be positive");
+	}
+
+	public void plan(PrintStream out) throws IOException
+	{
+		ECParameterSpec spec = ECNamedCurveTable.getParameterSpec(curveName);
+		if(spec == null) throw new IllegalArgumentException("Unknown curve " + curveName);
+		curve = spec.getCurve();
+		ECPoint g = spec.getG();
+		//Choose as the run will, but count on this curve
+		planner = planner.on(curveName);
+		if(profileFile != null) profile = load(profileFile);
+		if(measure) profile = measure(g, spec.getN());
+		if(rtt >= 0 || bandwidth >= 0)
+			profile = new ProofCost.Profile(profile.scalarMultiplicationMicros, profile.pointAdditionMicros, profile.fieldOperationMicros, bandwidth >= 0 ? (bandwidth == 0 ? 0 : 8 / bandwidth) : profile.byteMicros, rtt >= 0 ? rtt * 1000 : profile.roundTripMicros);
+
+		TreeMap<Long, Integer> histogram = histogram();
+		out.printf("Accounts:   %s%n", accounts);
+		out.printf("Profile:    %s%n", profile);
+		out.printf("Threads:    %d, blocks of %d, multi-signature %s%n%n", threads, blockSize, planner);
+		out.printf("%4s %4s %9s  %-10s %10s %10s %10s %10s %12s%n", "n", "k", "accounts", "proof", "mults", "adds", "field ops", "bytes", "ms/account");
+
+		long total = 0;
+		double computeMicros = 0;
+		double bytes = 0;
+		for(Map.Entry<Long, Integer> e : histogram.entrySet())
+		{
+			int n = (int) (e.getKey() >>> 32);
+			int k = (int) (long) e.getKey();
+			int count = e.getValue();
+			MultiSigPlanner.Construction chosen = planner.choose(n, k);
+			for(MultiSigPlanner.Construction c : MultiSigPlanner.Construction.values())
+			{
+				if(c != chosen && !compare) continue;
+				MultiSigPlanner.Cost cost = planner.estimate(c, n, k);
+				if(cost.work == null)
+				{
+					out.printf("%4d %4d %9s  %-10s %s%n", n, k, "", "(" + c + ")", cost);
+					continue;
+				}
+				ProofCost.Counts perAccount = cost.work;
+				double micros = perAccount.micros(profile);
+				out.printf("%4d %4d %9s  %-10s %10d %10d %10d %10d %12.2f%n", n, k, c == chosen ? "" + count : "", c == chosen ? c : "(" + c + ")", perAccount.scalarMultiplications, perAccount.pointAdditions, perAccount.fieldOperations, perAccount.bytes, micros / 1000);
+				if(c != chosen) continue;
+				total += count;
+				computeMicros += count * (micros - perAccount.bytes * profile.byteMicros);
+				bytes += count * (double) perAccount.bytes;
+			}
+		}
+		long blocks = (total + blockSize - 1) / blockSize;
+		long roundTrips = blocks * ROUND_TRIPS_PER_BLOCK;
+		double seconds = (computeMicros / threads + bytes * profile.byteMicros + roundTrips * profile.roundTripMicros) / 1e6;
+		out.println();
+		out.printf("Accounts:     %d%n", total);
+		out.printf("Computation:  %.1f s on %d threads%n", computeMicros / threads / 1e6, threads);
+		out.printf("Sent:         %.1f MB each way%n", bytes / 1e6);
+		out.printf("Round trips:  %d%n", roundTrips);
+		out.printf("Projected:    %.1f s, %.1f accounts/s%n", seconds, seconds == 0 ? 0 : total / seconds);
+	}
+
+	//Accounts by (n, k), keyed n << 32 | k
+	private TreeMap<Long, Integer> histogram() throws IOException
+	{
+		TreeMap<Long, Integer> toReturn = new TreeMap<Long, Integer>();
+		try(BufferedReader in = new BufferedReader(new FileReader(accounts)))
+		{
+			String line;
+			while((line = in.readLine()) != null)
+			{
+				//"Balance	n	k	Public Keys", lines can be commented with //
+				if(line.trim().isEmpty() || line.startsWith("//")) continue;
+				String[] fields = line.split("\t");
+				int n, k;
+				try
+				{
+					n = Integer.parseInt(fields[1]);
+					k = Integer.parseInt(fields[2]);
+				}
+				catch(NumberFormatException | ArrayIndexOutOfBoundsException e)
+				{
+					System.err.println("Line failed in AccountFile:  Not parsed correctly.  " + line);
+					continue;
+				}
+				if(k < 1 || n < k)
+				{
+					System.err.println("Line failed in AccountFile:  " + k + " of " + n + " keys.  " + line);
+					continue;
+				}
+				toReturn.merge(((long) n << 32) | k, 1, Integer::sum);
+			}
+		}
+		return toReturn;
+	}
+
+	private ProofCost.Profile load(String file) throws IOException
+	{
+		Properties p = new Properties();
+		try(InputStream in = new FileInputStream(file))
+		{
+			p.load(in);
+		}
+		return new ProofCost.Profile(
+				Double.parseDouble(p.getProperty("scalarMultiplication", "" + profile.scalarMultiplicationMicros)),
+				Double.parseDouble(p.getProperty("pointAddition", "" + profile.pointAdditionMicros)),
+				Double.parseDouble(p.getProperty("fieldOperation", "" + profile.fieldOperationMicros)),
+				Double.parseDouble(p.getProperty("byte", "" + profile.byteMicros)),
+				Double.parseDouble(p.getProperty("roundTrip", "" + profile.roundTripMicros)));
+	}
+
+	//Times the curve operations here, after a warm up;  the network stays as it was
+	private ProofCost.Profile measure(ECPoint g, BigInteger order)
+	{
+		SecureRandom r = new SecureRandom();
+		BigInteger[] scalars = ScalarSampler.scalars(order, MEASURED_OPERATIONS, r);
+		ECPoint[] points = new ECPoint[MEASURED_OPERATIONS];
+		ECPoint p = g.multiply(scalars[0]).normalize();
+		for(int i = 0; i < MEASURED_OPERATIONS; i++)
+			points[i] = ECMultiScalarMult.multiply(p, scalars[i]);
+		long start = System.nanoTime();
+		for(int i = 0; i < MEASURED_OPERATIONS; i++)
+			points[i] = ECMultiScalarMult.multiply(p, scalars[i]).normalize();
+		double multiplication = (System.nanoTime() - start) / 1e3 / MEASURED_OPERATIONS;
+		ECPoint sum = curve.getInfinity();
+		for(int round = 0; round < 2; round++)
+		{
+			start = System.nanoTime();
+			for(int i = 0; i < MEASURED_OPERATIONS; i++)
+				sum = sum.add(points[i]);
+		}
+		double addition = (System.nanoTime() - start) / 1e3 / MEASURED_OPERATIONS;
+		BigInteger product = BigInteger.ONE;
+		for(int round = 0; round < 2; round++)
+		{
+			start = System.nanoTime();
+			for(int i = 0; i < MEASURED_OPERATIONS; i++)
+				product = product.multiply(scalars[i]).mod(order);
+		}
+		double field = (System.nanoTime() - start) / 1e3 / MEASURED_OPERATIONS;
+		sink = sum;
+		sink = product;
+		return new ProofCost.Profile(multiplication, addition, field, profile.byteMicros, profile.roundTripMicros);
+	}
+}
@@ -0,0 +1,24 @@
+package zero_knowledge_proofs;
+
+import java.math.BigInteger;
+
+import zero_knowledge_proofs.CryptoData.CryptoData;
+
+/**
+ * A commitment to a challenge, sent before the other party's initial commitment and opened after it.  Made by a
+ * ChallengeCommitmentScheme;  the opening is the challenge (message) and its key.
+ */
+public interface ChallengeCommitment
+{
+	/**
+	 * @param environment The commitment environment [g, h].  Schemes that do not use the curve ignore it.
+	 */
+	public boolean verifyCommitment(BigInteger message, BigInteger keys, CryptoData environment);
+
+	/**
+	 * @return the scheme that made this commitment
+	 */
+	public ChallengeCommitmentScheme getScheme();
+
+	public String toString64();
+}
@@ -0,0 +1,138 @@
+package zero_knowledge_proofs;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.math.BigInteger;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.digests.SHA3Digest;
+
+import zero_knowledge_proofs.CryptoData.CryptoData;
+
+/**
+ * How a party commits to its challenges in parallelZKProve, trueZKProve and maliciousVerify.  PEDERSEN is the EC
+ * Pedersen commitment g^c h^r used so far;  SHA256 and SHA3_256 are salted HashCommitments, which avoid the scalar
+ * multiplications and matter most when the proofs themselves are small (a single key Schnorr proof, for example).
+ *
+ * Commitments describe their own scheme on the wire.  agree picks one scheme for a session, and a party only accepts
+ * commitments of that scheme from the other:  each exchange checks what it receives with accept.
+ */
+public abstract class ChallengeCommitmentScheme
+{
+	public static final ChallengeCommitmentScheme PEDERSEN = new ChallengeCommitmentScheme((byte) 0, "pedersen") {
+		@Override
+		public ChallengeCommitment commit(BigInteger message, BigInteger keys, CryptoData environment)
+		{
+			return new ECPedersenCommitment(message, keys, environment);
+		}
+	};
+
+	public static final ChallengeCommitmentScheme SHA256 = new HashScheme((byte) 1, "sha256");
+
+	public static final ChallengeCommitmentScheme SHA3_256 = new HashScheme((byte) 2, "sha3-256");
+
+	private static final ChallengeCommitmentScheme[] SCHEMES = {PEDERSEN, SHA256, SHA3_256};
+
+	private final byte id;
+	private final String name;
+
+	private ChallengeCommitmentScheme(byte id, String name)
+	{
+		this.id = id;
+		this.name = name;
+	}
+
+	/**
+	 * @param keys The opening key, a random scalar below the group order
+	 * @param environment The commitment environment [g, h]
+	 */
+	public abstract ChallengeCommitment commit(BigInteger message, BigInteger keys, CryptoData environment);
+
+	public byte getId()
+	{
+		return id;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	//null if the scheme is not a hash
+	Digest newDigest()
+	{
+		return null;
+	}
+
+	/**
+	 * @return the scheme with this id, or null if there is none
+	 */
+	public static ChallengeCommitmentScheme forId(byte id)
+	{
+		if(id < 0 || id >= SCHEMES.length) return null;
+		return SCHEMES[id];
+	}
+
+	/**
+	 * @return the scheme called name (pedersen, sha256 or sha3-256), ignoring case
+	 * @throws IllegalArgumentException if there is none
+	 */
+	public static ChallengeCommitmentScheme forName(String name)
+	{
+		for(ChallengeCommitmentScheme s : SCHEMES)
+		{
+			if(s.name.equalsIgnoreCase(name))
+				return s;
+		}
+		throw new IllegalArgumentException("Unknown challenge commitment scheme " + name);
+	}
+
+	/**
+	 * Both parties send the scheme they prefer.  They use it if they agree, and PEDERSEN otherwise.
+	 */
+	public static ChallengeCommitmentScheme agree(ChallengeCommitmentScheme mine, ObjectInputStream in, ObjectOutputStream out) throws IOException
+	{
+		out.writeByte(mine.id);
+		out.flush();
+		return in.readByte() == mine.id ? mine : PEDERSEN;
+	}
+
+	/**
+	 * @return received, which may be null, if it was made with this scheme
+	 * @throws StreamCorruptedException if it was made with another scheme than the one agreed for the session
+	 */
+	public ChallengeCommitment accept(ChallengeCommitment received) throws StreamCorruptedException
+	{
+		if(received != null && received.getScheme() != this) throw new StreamCorruptedException("Challenge committed with " + received.getScheme() + ", but the session agreed on " + this);
+		return received;
+	}
+
+	@Override
+	public String toString()
+	{
+		return name;
+	}
+
+	private static class HashScheme extends ChallengeCommitmentScheme
+	{
+		HashScheme(byte id, String name)
+		{
+			super(id, name);
+		}
+
+		@Override
+		public ChallengeCommitment commit(BigInteger message, BigInteger keys, CryptoData environment)
+		{
+			return HashCommitment.commit(getId(), message, keys);
+		}
+
+		@Override
+		Digest newDigest()
+		{
+			return getId() == 1 ? new SHA256Digest() : new SHA3Digest(256);
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package zero_knowledge_proofs;
+
+import java.util.stream.IntStream;
+
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+
+import zero_knowledge_proofs.CryptoData.CryptoData;
+
+/**
+ * A running sum of homomorphic commitments:  Pedersen commitments, or with a width of 2 the (cipher, cipher key) pairs of
+ * EC ElGamal encryptions.  Adding a commitment multiplies it into the sum.
+ *
+ * The sums stay in the curve's projective coordinates, so folding in a commitment is one point addition, with no field
+ * inversion and no encoding;  they are normalized only when the total is compared, encoded or sent.
+ *
+ * An accumulator belongs to one thread.  To sum in parallel, give each thread its own partial() and merge them at the
+ * end, as parallelSum does.
+ */
+public class CommitmentAccumulator
+{
+	private final ECCurve curve;
+	private final ECPoint[] sums;
+	private int count;
+
+	/**
+	 * An empty sum of Pedersen commitments on the curve of environment.
+	 */
+	public CommitmentAccumulator(CryptoData environment)
+	{
+		this(environment.getCryptoDataArray()[0].getECCurveData(), 1);
+	}
+
+	/**
+	 * An empty sum of commitments made of width points each.
+	 */
+	public CommitmentAccumulator(ECCurve curve, int width)
+	{
+		this.curve = curve;
+		sums = new ECPoint[width];
+		for(int i = 0; i < width; i++)
+			sums[i] = curve.getInfinity();
+	}
+
+	/**
+	 * @return an empty accumulator for the same curve and width, to hold another thread's partial sum
+	 */
+	public CommitmentAccumulator partial()
+	{
+		return new CommitmentAccumulator(curve, sums.length);
+	}
+
+	public CommitmentAccumulator add(ECPedersenCommitment commitment)
+	{
+		return add(commitment.getCommitment(curve));
+	}
+
+	/**
+	 * Adds commitments[from] to commitments[to - 1].
+	 */
+	public CommitmentAccumulator add(ECPedersenCommitment[] commitments, int from, int to)
+	{
+		for(int i = from; i < to; i++)
+			add(commitments[i].getCommitment(curve));
+		return this;
+	}
+
+	/**
+	 * Adds a commitment of width points, such as a ciphertext's [cipher, cipher key].
+	 */
+	public CommitmentAccumulator add(ECPoint... commitment)
+	{
+		if(commitment.length != sums.length) throw new IllegalArgumentException(commitment.length + " points for an accumulator of width " + sums.length);
+		for(int i = 0; i < sums.length; i++)
+			sums[i] = sums[i].add(commitment[i]);
+		count++;
+		return this;
+	}
+
+	/**
+	 * Adds a commitment given as an array of width points.
+	 */
+	public CommitmentAccumulator add(CryptoData commitment)
+	{
+		CryptoData[] points = commitment.getCryptoDataArray();
+		ECPoint[] toAdd = new ECPoint[points.length];
+		for(int i = 0; i < points.length; i++)
+			toAdd[i] = points[i].getECPointData(curve);
+		return add(toAdd);
+	}
+
+	/**
+	 * Multiplies the sum by 2^e, by doubling:  with add, this folds a commitment to a number from commitments to its
+	 * digits, most significant first.
+	 */
+	public CommitmentAccumulator timesPow2(int e)
+	{
+		for(int i = 0; i < sums.length; i++)
+			sums[i] = sums[i].timesPow2(e);
+		return this;
+	}
+
+	/**
+	 * Adds other's sum, for example a partial sum from another thread.
+	 */
+	public CommitmentAccumulator merge(CommitmentAccumulator other)
+	{
+		if(other.sums.length != sums.length) throw new IllegalArgumentException("Accumulators of width " + sums.length + " and " + other.sums.length);
+		for(int i = 0; i < sums.length; i++)
+			sums[i] = sums[i].add(other.sums[i]);
+		count += other.count;
+		return this;
+	}
+
+	/**
+	 * @return commitments[from] to commitments[to - 1] summed in parallel partial sums
+	 */
+	public static CommitmentAccumulator parallelSum(ECPedersenCommitment[] commitments, int from, int to, CryptoData environment)
+	{
+		CommitmentAccumulator empty = new CommitmentAccumulator(environment);
+		return IntStream.range(from, to).parallel().collect(empty::partial, (sum, i) -> sum.add(commitments[i]), CommitmentAccumulator::merge);
+	}
+
+	/**
+	 * @return the number of commitments added
+	 */
+	public int getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * @return the sum of a Pedersen accumulator, not normalized
+	 */
+	public ECPoint getSum()
+	{
+		return getSum(0);
+	}
+
+	public ECPoint getSum(int component)
+	{
+		return sums[component];
+	}
+
+	/**
+	 * @return the sum as a commitment;  it is encoded only if it is sent or printed
+	 */
+	public ECPedersenCommitment toCommitment()
+	{
+		if(sums.length != 1) throw new IllegalStateException("Not a sum of Pedersen commitments");
+		return new ECPedersenCommitment(sums[0]);
+	}
+
+	/**
+	 * @return whether the sum is the same point as commitment
+	 */
+	public boolean matches(ECPedersenCommitment commitment)
+	{
+		return getSum().equals(commitment.getCommitment(curve));
+	}
+}
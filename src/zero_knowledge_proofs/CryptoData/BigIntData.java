@@ -3,6 +3,8 @@ package zero_knowledge_proofs.CryptoData;
 import java.math.BigInteger;
 import java.util.Base64;
 
+import org.bouncycastle.crypto.Digest;
+
 public class BigIntData extends CryptoData {
 	/**
 	 * 
@@ -38,4 +40,9 @@ public class BigIntData extends CryptoData {
 	{
 		return Base64.getEncoder().encodeToString(data.toByteArray());
 	}
+	@Override
+	public void updateDigest(Digest d)
+	{
+		updateDigest(d, 'I', data.toByteArray());
+	}
 }
@@ -5,6 +5,7 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.StringTokenizer;
 
+import org.bouncycastle.crypto.Digest;
 import org.bouncycastle.math.ec.ECCurve;
 import org.bouncycastle.math.ec.ECPoint;
 
@@ -99,4 +100,42 @@ public abstract class CryptoData implements Serializable {
 	public boolean hasNull() {
 		return false;
 	}
+
+	/**
+	 * Builds fixed-base multiplication tables for every point in this data.  Call once per session on environments
+	 * (for example miniEnv), before provers and commitments are built from them.
+	 *
+	 * This changes the data in place:  each point is replaced by the equal point ECMultiScalarMult.precomputeFixedBase
+	 * returns, which carries the table.  Encodings, digests and the serialized form stay the same, but the data should
+	 * not be shared with other threads until this returns.
+	 * 
+	 * @param c the curve the points live on
+	 */
+	public void precomputeFixedBase(ECCurve c)
+	{
+	}
+
+	/**
+	 * Feeds an unambiguous encoding of this data into a digest.  Used to derive Fiat-Shamir challenges.
+	 * 
+	 * @param d the digest to update
+	 */
+	public void updateDigest(Digest d)
+	{
+		updateDigest(d, 'S', toString64().getBytes());
+	}
+
+	protected static void updateDigest(Digest d, char tag, byte[] bytes)
+	{
+		d.update((byte) tag);
+		updateDigest(d, bytes.length);
+		d.update(bytes, 0, bytes.length);
+	}
+	protected static void updateDigest(Digest d, int length)
+	{
+		d.update((byte) (length >>> 24));
+		d.update((byte) (length >>> 16));
+		d.update((byte) (length >>> 8));
+		d.update((byte) length);
+	}
 }
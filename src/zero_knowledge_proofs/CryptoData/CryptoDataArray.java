@@ -3,6 +3,8 @@ package zero_knowledge_proofs.CryptoData;
 import java.math.BigInteger;
 import java.util.LinkedList;
 
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.math.ec.ECCurve;
 import org.bouncycastle.math.ec.ECPoint;
 
 public class CryptoDataArray extends CryptoData {
@@ -168,8 +170,27 @@ public class CryptoDataArray extends CryptoData {
 		return strBuild.toString();
 	}
 
+	@Override
+	public void updateDigest(Digest d)
+	{
+		d.update((byte) 'A');
+		updateDigest(d, data.length);
+		for(int i = 0; i < data.length; i++)
+		{
+			if(data[i] == null) d.update((byte) 'N');
+			else data[i].updateDigest(d);
+		}
+	}
+
 	@Override
 	public boolean hasNull() {
 		return nulls != null;
 	}
+	@Override
+	public void precomputeFixedBase(ECCurve c) {
+		for(int i = 0; i < data.length; i++)
+		{
+			if(data[i] != null) data[i].precomputeFixedBase(c);
+		}
+	}
 }
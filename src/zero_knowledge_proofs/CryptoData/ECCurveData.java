@@ -4,11 +4,14 @@ import java.math.BigInteger;
 import java.security.spec.EllipticCurve;
 import java.util.Base64;
 
+import org.bouncycastle.crypto.Digest;
 import org.bouncycastle.jce.ECNamedCurveTable;
 import org.bouncycastle.jce.ECPointUtil;
 import org.bouncycastle.math.ec.ECCurve;
 import org.bouncycastle.math.ec.ECPoint;
 
+import zero_knowledge_proofs.ECMultiScalarMult;
+
 public final class ECCurveData extends CryptoData {
 	/**
 	 * 
@@ -40,6 +43,12 @@ public final class ECCurveData extends CryptoData {
 		else return c.importPoint(g);
 	}
 	
+	@Override
+	public void precomputeFixedBase(ECCurve c) {
+		//An equal point, so the curve data is unchanged but for the table
+		g = ECMultiScalarMult.precomputeFixedBase(g);
+	}
+	
 	@Override
 	public int size() {
 		return 1;
@@ -55,4 +64,11 @@ public final class ECCurveData extends CryptoData {
 	{
 		return String.format("y^2 = x^3 + %sx + %s, G = (%s, %s)", Base64.getEncoder().encodeToString(c.getA().toBigInteger().toByteArray()), Base64.getEncoder().encodeToString(c.getB().toBigInteger().toByteArray()), Base64.getEncoder().encodeToString(g.getAffineXCoord().toBigInteger().toByteArray()), Base64.getEncoder().encodeToString(g.getAffineYCoord().toBigInteger().toByteArray()));
 	}
+	@Override
+	public void updateDigest(Digest d)
+	{
+		updateDigest(d, 'C', c.getA().getEncoded());
+		updateDigest(d, 'C', c.getB().getEncoded());
+		updateDigest(d, 'G', g.getEncoded(false));
+	}
 }
@@ -2,23 +2,34 @@ package zero_knowledge_proofs.CryptoData;
 
 import java.math.BigInteger;
 import java.security.spec.EllipticCurve;
+import java.util.Arrays;
 import java.util.Base64;
 
+import org.bouncycastle.crypto.Digest;
 import org.bouncycastle.jce.ECNamedCurveTable;
 import org.bouncycastle.jce.ECPointUtil;
 import org.bouncycastle.math.ec.ECCurve;
 import org.bouncycastle.math.ec.ECPoint;
 
+import zero_knowledge_proofs.ECMultiScalarMult;
+
 public final class ECPointData extends CryptoData {
 	/**
 	 * 
 	 */
 	private static final long serialVersionUID = 5968736215439976858L;
 	private byte[] data;
+	private transient ECPoint point;
+	private transient boolean trusted;
 	
+	/**
+	 * The point is kept as is and only encoded when the bytes are needed (serialization, transcripts, hashing).
+	 * Since it was produced locally, it is never validated again.
+	 */
 	public ECPointData(ECPoint p)
 	{
-		data = p.getEncoded(false);
+		point = p;
+		trusted = true;
 	}
 	@Override
 	public CryptoData[] getCryptoDataArray() {
@@ -27,7 +38,48 @@ public final class ECPointData extends CryptoData {
 	
 	@Override
 	public ECPoint getECPointData(ECCurve c) {
-		return c.decodePoint(data);
+		ECPoint p = point;
+		if(p != null && p.getCurve() == c)
+			return p;
+		p = decodePoint(c, getEncoded(), trusted);
+		point = p;
+		return p;
+	}
+	
+	@Override
+	public void precomputeFixedBase(ECCurve c) {
+		//point only caches data, which is not touched
+		point = ECMultiScalarMult.precomputeFixedBase(getECPointData(c));
+	}
+	
+	/**
+	 * Decodes a point.  Points from other parties must be validated, so trusted should only be set for bytes this party encoded itself.
+	 */
+	public static ECPoint decodePoint(ECCurve c, byte[] data, boolean trusted)
+	{
+		if(!trusted || data.length == 0 || data[0] != 0x04)
+			return c.decodePoint(data);
+		int length = (data.length - 1) / 2;
+		BigInteger x = new BigInteger(1, Arrays.copyOfRange(data, 1, 1 + length));
+		BigInteger y = new BigInteger(1, Arrays.copyOfRange(data, 1 + length, data.length));
+		return c.createPoint(x, y);
+	}
+	
+	private byte[] getEncoded()
+	{
+		byte[] d = data;
+		if(d == null)
+		{
+			d = point.getEncoded(false);
+			data = d;
+		}
+		return d;
+	}
+	
+	private Object writeReplace()
+	{
+		getEncoded();
+		return this;
 	}
 	
 	@Override
@@ -38,12 +90,18 @@ public final class ECPointData extends CryptoData {
 	@Override
 	public String toString()
 	{
-		return String.format("(%s)", new BigInteger(data));
+		return String.format("(%s)", new BigInteger(getEncoded()));
 	}
 	
 	@Override
 	public String toString64()
 	{
-		return String.format("(%s)", Base64.getEncoder().encodeToString(data));
+		return String.format("(%s)", Base64.getEncoder().encodeToString(getEncoded()));
+	}
+	
+	@Override
+	public void updateDigest(Digest d)
+	{
+		updateDigest(d, 'P', getEncoded());
 	}
 }
@@ -0,0 +1,609 @@
+package zero_knowledge_proofs.CryptoData;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Base64;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+
+import zero_knowledge_proofs.ECMultiScalarMult;
+
+/**
+ * A CryptoData tree stored as flat arrays instead of one object per value.  The nodes of the tree are numbered in
+ * pre-order and described by a few parallel arrays (kind, end of subtree, number of children), integers and
+ * points are kept as they are with no BigIntData/ECPointData wrapper, and holes are bits of a bitset, so hasNull,
+ * getFirstNullIndex and addFillDataHole never recurse or keep lists.  A tree is built with a Builder.
+ *
+ * A FlatCryptoData is a view of one node of such a store:  getCryptoDataArray and get return views of the children,
+ * made on first use and shared afterwards, so nothing is copied.  Provers that know the shape of their input can read
+ * values directly with getBigInt(i) and getECPointData(i, c) without making views at all.  Everything else behaves like
+ * the equivalent CryptoDataArray tree, including toString64, updateDigest and CryptoDataCodec, and Java serialization
+ * writes the equivalent tree, so the two can be mixed freely.  Any CryptoData can be a value of the tree.
+ *
+ * Any number of threads may read one tree.  Like CryptoDataArray, it is not safe to fill holes while other threads
+ * read the same tree.
+ */
+public final class FlatCryptoData extends CryptoData {
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = -2183950446221687265L;
+
+	private static final byte NULL = 0;
+	private static final byte ARRAY = 1;
+	private static final byte INTEGER = 2;
+	private static final byte POINT = 3;
+	private static final byte OTHER = 4;
+
+	private final transient Store store;
+	private final transient int node;
+
+	//The nodes of one tree, in pre-order.  The subtree of node i is nodes i to end[i] - 1, so its first child is i + 1
+	//and the sibling after child j is end[j].
+	private static final class Store
+	{
+		final int count;
+		final byte[] kind;
+		final int[] end;
+		final int[] width;
+		final Object[] value;
+		final long[] holes;
+		//Made on first use, under the store's lock, since views of one tree may be read from many threads
+		private CryptoData[] views;
+		private CryptoData[][] children;
+
+		Store(int count, byte[] kind, int[] end, int[] width, Object[] value, long[] holes)
+		{
+			this.count = count;
+			this.kind = kind;
+			this.end = end;
+			this.width = width;
+			this.value = value;
+			this.holes = holes;
+		}
+
+		int child(int node, int i)
+		{
+			if(i < 0 || i >= width[node]) throw new ArrayIndexOutOfBoundsException(i);
+			int c = node + 1;
+			for(int index = 0; index < i; index++)
+				c = end[c];
+			return c;
+		}
+
+		//The position in node of the child whose subtree holds descendant d
+		int positionOf(int node, int d)
+		{
+			int i = 0;
+			for(int c = node + 1; end[c] <= d; c = end[c])
+				i++;
+			return i;
+		}
+
+		//The first hole at or after from, or count if there is none
+		int nextHole(int from)
+		{
+			int word = from >>> 6;
+			if(word >= holes.length) return count;
+			long bits = holes[word] & (-1L << from);
+			while(bits == 0)
+			{
+				if(++word == holes.length) return count;
+				bits = holes[word];
+			}
+			return Math.min((word << 6) + Long.numberOfTrailingZeros(bits), count);
+		}
+
+		void clearHole(int node)
+		{
+			holes[node >>> 6] &= ~(1L << node);
+		}
+
+		//What getCryptoDataArray of the parent holds for this node
+		synchronized CryptoData element(int node)
+		{
+			switch(kind[node])
+			{
+				case NULL:
+					return null;
+				case OTHER:
+					return (CryptoData) value[node];
+				default:
+					if(views == null) views = new CryptoData[count];
+					CryptoData v = views[node];
+					if(v == null)
+					{
+						v = new FlatCryptoData(this, node);
+						views[node] = v;
+					}
+					return v;
+			}
+		}
+
+		//Updates the children of the hole's parent, if they were made, after hole h under node was filled with d
+		synchronized void filled(int node, int h, CryptoData d)
+		{
+			if(children == null) return;
+			int p = node;
+			int c = child(p, positionOf(p, h));
+			while(c != h)
+			{
+				p = c;
+				c = child(p, positionOf(p, h));
+			}
+			if(children[p] != null) children[p][positionOf(p, h)] = d;
+		}
+
+		synchronized CryptoData[] children(int node)
+		{
+			if(children == null) children = new CryptoData[count][];
+			CryptoData[] c = children[node];
+			if(c == null)
+			{
+				c = new CryptoData[width[node]];
+				for(int i = 0, n = node + 1; i < c.length; i++, n = end[n])
+					c[i] = element(n);
+				children[node] = c;
+			}
+			return c;
+		}
+	}
+
+	private FlatCryptoData(Store store, int node)
+	{
+		this.store = store;
+		this.node = node;
+	}
+
+	/**
+	 * @return true if this is an array (rather than an integer, a point or another kind of CryptoData)
+	 */
+	public boolean isArray()
+	{
+		return store.kind[node] == ARRAY || (store.kind[node] == OTHER && other().getCryptoDataArray() != null);
+	}
+
+	/**
+	 * @return true if entry i of this array is an integer stored in the tree
+	 */
+	public boolean isInteger(int i)
+	{
+		return store.kind[node] == ARRAY && store.kind[store.child(node, i)] == INTEGER;
+	}
+
+	/**
+	 * @return true if entry i of this array is a point stored in the tree
+	 */
+	public boolean isPoint(int i)
+	{
+		return store.kind[node] == ARRAY && store.kind[store.child(node, i)] == POINT;
+	}
+
+	/**
+	 * Entry i of this array, the same as getCryptoDataArray()[i].
+	 */
+	public CryptoData get(int i)
+	{
+		if(store.kind[node] == OTHER) return other().getCryptoDataArray()[i];
+		return store.element(store.child(node, i));
+	}
+
+	/**
+	 * The same as getCryptoDataArray()[i].getBigInt(), without making a view of the entry.
+	 */
+	public BigInteger getBigInt(int i)
+	{
+		if(store.kind[node] == OTHER) return other().getCryptoDataArray()[i].getBigInt();
+		int c = store.child(node, i);
+		if(store.kind[c] == INTEGER) return (BigInteger) store.value[c];
+		CryptoData d = store.element(c);
+		return d == null ? null : d.getBigInt();
+	}
+
+	/**
+	 * The same as getCryptoDataArray()[i].getECPointData(c), without making a view of the entry.
+	 */
+	public ECPoint getECPointData(int i, ECCurve c)
+	{
+		if(store.kind[node] == OTHER) return other().getCryptoDataArray()[i].getECPointData(c);
+		int child = store.child(node, i);
+		if(store.kind[child] == POINT) return point(child, c);
+		CryptoData d = store.element(child);
+		return d == null ? null : d.getECPointData(c);
+	}
+
+	private CryptoData other()
+	{
+		return (CryptoData) store.value[node];
+	}
+
+	private ECPoint point(int n, ECCurve c)
+	{
+		ECPoint p = (ECPoint) store.value[n];
+		if(p.getCurve() == c) return p;
+		return ECPointData.decodePoint(c, p.getEncoded(false), true);
+	}
+
+	@Override
+	public BigInteger getBigInt() {
+		switch(store.kind[node])
+		{
+			case INTEGER:
+				return (BigInteger) store.value[node];
+			case OTHER:
+				return other().getBigInt();
+			default:
+				return null;
+		}
+	}
+
+	@Override
+	public ECPoint getECPointData(ECCurve c) {
+		switch(store.kind[node])
+		{
+			case POINT:
+				return point(node, c);
+			case OTHER:
+				return other().getECPointData(c);
+			default:
+				return null;
+		}
+	}
+
+	@Override
+	public ECCurve getECCurveData() {
+		if(store.kind[node] == OTHER) return other().getECCurveData();
+		return null;
+	}
+
+	@Override
+	public CryptoData[] getCryptoDataArray() {
+		switch(store.kind[node])
+		{
+			case ARRAY:
+				return store.children(node);
+			case OTHER:
+				return other().getCryptoDataArray();
+			default:
+				return null;
+		}
+	}
+
+	@Override
+	public int size() {
+		switch(store.kind[node])
+		{
+			case ARRAY:
+				return store.width[node];
+			case OTHER:
+				return other().size();
+			default:
+				return 1;
+		}
+	}
+
+	@Override
+	public CryptoData getEmbeddedCryptoData(int[] index, int pos)
+	{
+		if(!isArray()) return super.getEmbeddedCryptoData(index, pos);
+		CryptoData d = get(index[pos]);
+		if(pos == index.length - 1) return d;
+		return d.getEmbeddedCryptoData(index, pos + 1);
+	}
+
+	@Override
+	public boolean hasNull() {
+		switch(store.kind[node])
+		{
+			case ARRAY:
+				return store.nextHole(node + 1) < store.end[node];
+			case OTHER:
+				return other().hasNull();
+			default:
+				return false;
+		}
+	}
+
+	@Override
+	public int getFirstNullIndex()
+	{
+		if(store.kind[node] == OTHER) return other().getFirstNullIndex();
+		if(store.kind[node] != ARRAY) return super.getFirstNullIndex();
+		int h = store.nextHole(node + 1);
+		if(h >= store.end[node]) return -1;
+		return store.positionOf(node, h);
+	}
+
+	@Override
+	public void addFillDataHole(CryptoData d)
+	{
+		if(store.kind[node] == OTHER)
+		{
+			other().addFillDataHole(d);
+			return;
+		}
+		if(store.kind[node] != ARRAY)
+		{
+			super.addFillDataHole(d);
+			return;
+		}
+		int h = store.nextHole(node + 1);
+		if(h >= store.end[node]) throw new ArrayIndexOutOfBoundsException("No nulls to fill in array");
+		if(store.kind[h] == NULL)
+		{
+			store.value[h] = d;
+			store.kind[h] = OTHER;
+			store.clearHole(h);
+			store.filled(node, h, d);
+		}
+		else
+		{
+			CryptoData filled = (CryptoData) store.value[h];
+			filled.addFillDataHole(d);
+			if(!filled.hasNull()) store.clearHole(h);
+		}
+	}
+
+	@Override
+	public void precomputeFixedBase(ECCurve c) {
+		for(int i = node; i < store.end[node]; i++)
+		{
+			//Replaces the point in the shared store, so every view of it gets the table
+			if(store.kind[i] == POINT)
+				store.value[i] = ECMultiScalarMult.precomputeFixedBase(point(i, c));
+			else if(store.kind[i] == OTHER)
+				((CryptoData) store.value[i]).precomputeFixedBase(c);
+		}
+	}
+
+	@Override
+	public void updateDigest(Digest d)
+	{
+		digest(d, node);
+	}
+
+	private void digest(Digest d, int n)
+	{
+		switch(store.kind[n])
+		{
+			case NULL:
+				d.update((byte) 'N');
+				break;
+			case ARRAY:
+				d.update((byte) 'A');
+				updateDigest(d, store.width[n]);
+				for(int i = 0, c = n + 1; i < store.width[n]; i++, c = store.end[c])
+					digest(d, c);
+				break;
+			case INTEGER:
+				updateDigest(d, 'I', ((BigInteger) store.value[n]).toByteArray());
+				break;
+			case POINT:
+				updateDigest(d, 'P', ((ECPoint) store.value[n]).getEncoded(false));
+				break;
+			default:
+				((CryptoData) store.value[n]).updateDigest(d);
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder strBuild = new StringBuilder();
+		append(strBuild, node, false);
+		return strBuild.toString();
+	}
+
+	@Override
+	public String toString64()
+	{
+		StringBuilder strBuild = new StringBuilder();
+		append(strBuild, node, true);
+		return strBuild.toString();
+	}
+
+	private void append(StringBuilder strBuild, int n, boolean base64)
+	{
+		switch(store.kind[n])
+		{
+			case NULL:
+				strBuild.append("NULL");
+				break;
+			case ARRAY:
+				strBuild.append("[");
+				for(int i = 0, c = n + 1; i < store.width[n]; i++, c = store.end[c])
+				{
+					if(i != 0) strBuild.append(",");
+					append(strBuild, c, base64);
+				}
+				strBuild.append("]");
+				break;
+			case INTEGER:
+				BigInteger b = (BigInteger) store.value[n];
+				strBuild.append(base64 ? Base64.getEncoder().encodeToString(b.toByteArray()) : b.toString());
+				break;
+			case POINT:
+				byte[] encoded = ((ECPoint) store.value[n]).getEncoded(false);
+				strBuild.append("(").append(base64 ? Base64.getEncoder().encodeToString(encoded) : new BigInteger(encoded).toString()).append(")");
+				break;
+			default:
+				CryptoData d = (CryptoData) store.value[n];
+				strBuild.append(base64 ? d.toString64() : d.toString());
+		}
+	}
+
+	/**
+	 * @return the equivalent tree of CryptoDataArray, BigIntData and ECPointData
+	 */
+	public CryptoData toTree()
+	{
+		return toTree(node);
+	}
+
+	private CryptoData toTree(int n)
+	{
+		switch(store.kind[n])
+		{
+			case NULL:
+				return null;
+			case ARRAY:
+				CryptoData[] array = new CryptoData[store.width[n]];
+				for(int i = 0, c = n + 1; i < array.length; i++, c = store.end[c])
+					array[i] = toTree(c);
+				return new CryptoDataArray(array);
+			case INTEGER:
+				return new BigIntData((BigInteger) store.value[n]);
+			case POINT:
+				return new ECPointData((ECPoint) store.value[n]);
+			default:
+				return (CryptoData) store.value[n];
+		}
+	}
+
+	private Object writeReplace()
+	{
+		return toTree();
+	}
+
+	/**
+	 * Builds a FlatCryptoData in pre-order:  beginArray, then its entries, then endArray.  The tree must have exactly one
+	 * root.  The tables are handed to the tree without copying, so a builder makes a single tree.
+	 */
+	public static final class Builder
+	{
+		private byte[] kind;
+		private int[] end;
+		private int[] width;
+		private Object[] value;
+		private long[] holes;
+		private int count = 0;
+		private int[] open = new int[4];
+		private int depth = 0;
+
+		public Builder()
+		{
+			this(16);
+		}
+
+		/**
+		 * @param expectedSize the expected number of arrays and values, to size the tables
+		 */
+		public Builder(int expectedSize)
+		{
+			expectedSize = Math.max(expectedSize, 1);
+			kind = new byte[expectedSize];
+			end = new int[expectedSize];
+			width = new int[expectedSize];
+			value = new Object[expectedSize];
+			holes = new long[(expectedSize + 63) >>> 6];
+		}
+
+		public Builder beginArray()
+		{
+			int n = add(ARRAY, null);
+			if(depth == open.length) open = Arrays.copyOf(open, depth * 2);
+			open[depth++] = n;
+			return this;
+		}
+
+		public Builder endArray()
+		{
+			if(depth == 0) throw new IllegalStateException("No array to end");
+			end[open[--depth]] = count;
+			return this;
+		}
+
+		public Builder add(BigInteger b)
+		{
+			if(b == null) return addNull();
+			add(INTEGER, b);
+			return this;
+		}
+
+		public Builder add(ECPoint p)
+		{
+			if(p == null) return addNull();
+			add(POINT, p);
+			return this;
+		}
+
+		/**
+		 * Adds any CryptoData as a value.  It is kept as is (integers are unwrapped), so its holes are holes of the tree.
+		 */
+		public Builder add(CryptoData d)
+		{
+			if(d == null) return addNull();
+			if(d instanceof BigIntData) return add(d.getBigInt());
+			int n = add(OTHER, d);
+			if(d.hasNull()) holes[n >>> 6] |= 1L << n;
+			return this;
+		}
+
+		public Builder addNull()
+		{
+			int n = add(NULL, null);
+			holes[n >>> 6] |= 1L << n;
+			return this;
+		}
+
+		/**
+		 * Adds an array of integers, null entries being holes.
+		 */
+		public Builder add(BigInteger[] b)
+		{
+			beginArray();
+			for(int i = 0; i < b.length; i++)
+				add(b[i]);
+			return endArray();
+		}
+
+		/**
+		 * Adds an array of points, null entries being holes.
+		 */
+		public Builder add(ECPoint[] p)
+		{
+			beginArray();
+			for(int i = 0; i < p.length; i++)
+				add(p[i]);
+			return endArray();
+		}
+
+		private int add(byte k, Object v)
+		{
+			if(kind == null) throw new IllegalStateException("The tree was already built");
+			if(depth == 0 && count != 0) throw new IllegalStateException("A tree has only one root");
+			if(count == kind.length)
+			{
+				int size = count * 2;
+				kind = Arrays.copyOf(kind, size);
+				end = Arrays.copyOf(end, size);
+				width = Arrays.copyOf(width, size);
+				value = Arrays.copyOf(value, size);
+				holes = Arrays.copyOf(holes, (size + 63) >>> 6);
+			}
+			int n = count++;
+			int p = depth == 0 ? -1 : open[depth - 1];
+			kind[n] = k;
+			end[n] = n + 1;
+			value[n] = v;
+			if(p != -1) width[p]++;
+			return n;
+		}
+
+		/**
+		 * @return the tree, or null if its root is a hole
+		 */
+		public FlatCryptoData build()
+		{
+			if(kind == null) throw new IllegalStateException("The tree was already built");
+			if(depth != 0) throw new IllegalStateException(depth + " arrays not ended");
+			if(count == 0) throw new IllegalStateException("Empty tree");
+			Store store = new Store(count, kind, end, width, value, holes);
+			kind = null;
+			if(store.kind[0] == NULL) return null;
+			return new FlatCryptoData(store, 0);
+		}
+	}
+}
@@ -1,6 +1,8 @@
 package zero_knowledge_proofs.CryptoData;
 import java.math.BigInteger;
 
+import zero_knowledge_proofs.ScalarField;
+
 public class Matrix implements MatrixInterface {
 
 	private BigInteger[][] matrix_;
@@ -40,50 +42,66 @@ public class Matrix implements MatrixInterface {
 		if(matrix_.length != matrix_[0].length) throw new UnsupportedOperationException("Matrix must be square");
 		
 		int size = matrix_.length;
-		BigInteger[][] matrix = getMatrix();
-		BigInteger[][] otherMatrix = new BigInteger[matrix.length][matrix.length];
+		ScalarField field = ScalarField.of(prime);
+		ScalarField.Element[][] matrix = elements(matrix_, field);
+		ScalarField.Element[][] otherMatrix = new ScalarField.Element[size][size];
+		ScalarField.Element product = field.zero();
 		
 		for(int i = 0; i < size; i++) {
 			for(int j = 0; j < size; j++) {
-				otherMatrix[i][j] = BigInteger.ZERO;
+				otherMatrix[i][j] = i == j ? field.one() : field.zero();
 			}
 		}
 
 		for(int i = 0; i < size; i++) {
-			if(matrix[i][i].equals(BigInteger.ZERO)) throw new UnsupportedOperationException("Inverse can not be calculated.");
-			BigInteger valueInverse = matrix[i][i].modInverse(prime);
-			otherMatrix[i][i] = BigInteger.ONE;
+			if(matrix[i][i].isZero()) throw new UnsupportedOperationException("Inverse can not be calculated.");
+			ScalarField.Element valueInverse = matrix[i][i].copy().invert();
 			
 			for(int j = 0; j < size; j++)
 			{
-				matrix[i][j] = matrix[i][j].multiply(valueInverse).mod(prime);
-				otherMatrix[i][j] = otherMatrix[i][j].multiply(valueInverse).mod(prime);
+				matrix[i][j].multiply(valueInverse);
+				otherMatrix[i][j].multiply(valueInverse);
 			}
 			for(int k = i+1; k < size; k++) {
-				BigInteger factor = matrix[k][i];
+				ScalarField.Element factor = matrix[k][i].copy();
 				for(int j = 0; j < size; j++) {
-					matrix[k][j] = matrix[k][j].subtract(matrix[i][j].multiply(factor)).mod(prime);
-					otherMatrix[k][j] = otherMatrix[k][j].subtract(otherMatrix[i][j].multiply(factor)).mod(prime);
+					matrix[k][j].subtract(product.set(matrix[i][j]).multiply(factor));
+					otherMatrix[k][j].subtract(product.set(otherMatrix[i][j]).multiply(factor));
 				}
 			}
 		}
 		
 		for(int i = size-2; i >= 0; i--) {
 			for(int j = i+1; j < size; j++) {
-				BigInteger factor = matrix[i][j];
-				matrix[i][j] = BigInteger.ZERO;
+				ScalarField.Element factor = matrix[i][j];
 				for(int k = 0; k < size; k++) {
-					otherMatrix[i][k] = otherMatrix[i][k].subtract(otherMatrix[j][k].multiply(factor).mod(prime)).mod(prime); 
+					otherMatrix[i][k].subtract(product.set(otherMatrix[j][k]).multiply(factor)); 
 				}
 			}
 			
 		}
 		
-		MatrixInterface m = new Matrix(otherMatrix, prime, true);
+		MatrixInterface m = new Matrix(bigIntegers(otherMatrix), prime, true);
 		
 		return m;
 	}
 
+	private static ScalarField.Element[][] elements(BigInteger[][] matrix, ScalarField field) {
+		ScalarField.Element[][] toReturn = new ScalarField.Element[matrix.length][];
+		for(int i = 0; i < matrix.length; i++) {
+			toReturn[i] = field.elements(matrix[i]);
+		}
+		return toReturn;
+	}
+
+	private static BigInteger[][] bigIntegers(ScalarField.Element[][] matrix) {
+		BigInteger[][] toReturn = new BigInteger[matrix.length][];
+		for(int i = 0; i < matrix.length; i++) {
+			toReturn[i] = ScalarField.toBigIntegers(matrix[i]);
+		}
+		return toReturn;
+	}
+
 
 	@Override
 	public int xDim() {
@@ -99,21 +117,19 @@ public class Matrix implements MatrixInterface {
 	public MatrixInterface multiply(MatrixInterface m) {
 		if(m.xDim() != yDim()) throw new UnsupportedOperationException("Invalid Matrix Dimensions");
 		if(!(m.getModulus().equals(getModulus()))) throw new UnsupportedOperationException("Moduli are not equal");
-		BigInteger[][] otherMatrix = m.getMatrix();
+		ScalarField field = ScalarField.of(prime);
+		ScalarField.Element[][] matrix = elements(matrix_, field);
+		ScalarField.Element[][] otherMatrix = elements(m.getMatrix(), field);
 		BigInteger[][] result = new BigInteger[yDim()][xDim()];
 		
 		int y = yDim();
 		for(int i = 0; i < result.length; i++) {
 			for(int j = 0; j < result[0].length; j++) {
-				result[i][j] = BigInteger.ZERO;
+				ScalarField.Element sum = field.zero();
 				for(int k = 0; k < y; k++) {
-//					System.out.println(matrix_[k][j]);
-//					System.out.println(otherMatrix[k][j]);
-//					System.out.println(result[k][j]);
-//					System.out.println();
-					result[i][j] = result[i][j].add(matrix_[k][j].multiply(otherMatrix[i][k]).mod(prime));
+					sum.multiplyAdd(matrix[k][j], otherMatrix[i][k]);
 				}
-				result[i][j] = result[i][j].mod(prime);
+				result[i][j] = sum.toBigInteger();
 			}
 		}
 		
@@ -0,0 +1,498 @@
+package zero_knowledge_proofs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.StreamCorruptedException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.util.BigIntegers;
+
+import zero_knowledge_proofs.CryptoData.BigIntData;
+import zero_knowledge_proofs.CryptoData.CryptoData;
+import zero_knowledge_proofs.CryptoData.CryptoDataArray;
+import zero_knowledge_proofs.CryptoData.ECCurveData;
+import zero_knowledge_proofs.CryptoData.ECPointData;
+import zero_knowledge_proofs.CryptoData.FlatCryptoData;
+
+/**
+ * A compact binary encoding of CryptoData trees, challenges and commitments, used instead of Java serialization.
+ * Every value starts with a one byte tag, so no schema is needed to read it back:  arrays are a varint length
+ * followed by their entries, points are compressed (33 bytes on a 256 bit curve), scalars below the group order
+ * are fixed width, hash commitments are their scheme and digest, an ECCurveData on the codec's curve is its generator,
+ * and holes are a single NULL byte.  Anything else falls back to Java serialization inside a length prefixed block.
+ *
+ * Both parties must use a codec on the same curve.  writeHeader/readHeader check the version once per connection.
+ *
+ * What is read may come from the other party, so reading trusts none of it:  a length over getMaxLength() (or arrays
+ * nested deeper than MAX_DEPTH) is rejected, arrays and byte strings are allocated as their entries arrive rather than
+ * from their declared length, and serialized blocks may only hold CryptoData and the values CryptoData is made of.
+ */
+public class CryptoDataCodec
+{
+	public static final int VERSION = 3;
+
+	public static final int DEFAULT_MAX_LENGTH = 1 << 24;
+	public static final int MAX_DEPTH = 64;
+
+	private static final int MAGIC = 0x5A4B;
+	//Arrays and byte strings longer than this grow as they are read
+	private static final int CHUNK = 1 << 12;
+
+	private static final byte NULL = 0;
+	private static final byte ARRAY = 1;
+	private static final byte SCALAR = 2;
+	private static final byte INTEGER = 3;
+	private static final byte POINT = 4;
+	private static final byte INFINITY = 5;
+	private static final byte SERIALIZED = 6;
+	private static final byte HASH = 7;
+	private static final byte CURVE = 8;
+
+	private final ECCurve curve;
+	private final int scalarBytes;
+	private final int pointBytes;
+	private final int maxLength;
+
+	public CryptoDataCodec(ECCurve curve)
+	{
+		this(curve, DEFAULT_MAX_LENGTH);
+	}
+
+	/**
+	 * @param maxLength the most entries of an array, or bytes of an integer or serialized block, this codec reads
+	 */
+	public CryptoDataCodec(ECCurve curve, int maxLength)
+	{
+		this.curve = curve;
+		this.maxLength = maxLength;
+		scalarBytes = (curve.getOrder().bitLength() + 7) / 8;
+		pointBytes = (curve.getFieldSize() + 7) / 8 + 1;
+	}
+
+	public ECCurve getCurve()
+	{
+		return curve;
+	}
+
+	public int getMaxLength()
+	{
+		return maxLength;
+	}
+
+	public void writeHeader(DataOutput out) throws IOException
+	{
+		out.writeShort(MAGIC);
+		out.writeByte(VERSION);
+	}
+
+	public void readHeader(DataInput in) throws IOException
+	{
+		if(in.readUnsignedShort() != MAGIC) throw new StreamCorruptedException("Not a CryptoDataCodec stream");
+		int version = in.readUnsignedByte();
+		if(version != VERSION) throw new StreamCorruptedException("Unsupported CryptoDataCodec version " + version);
+	}
+
+	public void writeData(DataOutput out, CryptoData data) throws IOException
+	{
+		if(data == null)
+		{
+			out.writeByte(NULL);
+		}
+		else if(data instanceof CryptoDataArray)
+		{
+			CryptoData[] array = data.getCryptoDataArray();
+			out.writeByte(ARRAY);
+			writeLength(out, array.length);
+			for(int i = 0; i < array.length; i++)
+				writeData(out, array[i]);
+		}
+		else if(data instanceof BigIntData)
+		{
+			writeInteger(out, data.getBigInt());
+		}
+		else if(data instanceof ECPointData)
+		{
+			writePoint(out, data.getECPointData(curve));
+		}
+		else if(data instanceof ECCurveData && data.getECCurveData().equals(curve))
+		{
+			//The curve itself is implied by the codec (BouncyCastle curves are not serializable)
+			out.writeByte(CURVE);
+			out.write(data.getECPointData(curve).getEncoded(true));
+		}
+		else if(data instanceof FlatCryptoData && data.getCryptoDataArray() != null)
+		{
+			//Same bytes as the equivalent CryptoDataArray, read from the tables where possible
+			FlatCryptoData flat = (FlatCryptoData) data;
+			int length = flat.size();
+			out.writeByte(ARRAY);
+			writeLength(out, length);
+			for(int i = 0; i < length; i++)
+			{
+				if(flat.isInteger(i)) writeInteger(out, flat.getBigInt(i));
+				else if(flat.isPoint(i)) writePoint(out, flat.getECPointData(i, curve));
+				else writeData(out, flat.get(i));
+			}
+		}
+		else if(data instanceof FlatCryptoData)
+		{
+			writeData(out, ((FlatCryptoData) data).toTree());
+		}
+		else
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream objOut = new ObjectOutputStream(bytes);
+			objOut.writeObject(data);
+			objOut.close();
+			out.writeByte(SERIALIZED);
+			writeLength(out, bytes.size());
+			out.write(bytes.toByteArray());
+		}
+	}
+
+	public CryptoData readData(DataInput in) throws IOException
+	{
+		return readData(in, 0);
+	}
+
+	private CryptoData readData(DataInput in, int depth) throws IOException
+	{
+		byte tag = in.readByte();
+		switch(tag)
+		{
+			case NULL:
+				return null;
+			case ARRAY:
+				if(depth == MAX_DEPTH) throw new StreamCorruptedException("Arrays nested deeper than " + MAX_DEPTH);
+				int length = readLength(in);
+				CryptoData[] array = new CryptoData[Math.min(length, CHUNK)];
+				for(int i = 0; i < length; i++)
+				{
+					if(i == array.length) array = Arrays.copyOf(array, grow(array.length, length));
+					array[i] = readData(in, depth + 1);
+				}
+				return new CryptoDataArray(array);
+			case SCALAR:
+			case INTEGER:
+				return new BigIntData(readInteger(in, tag));
+			case POINT:
+			case INFINITY:
+				return new ECPointData(readPoint(in, tag));
+			case CURVE:
+				return new ECCurveData(curve, readPoint(in, POINT));
+			case SERIALIZED:
+				return readSerialized(in);
+			default:
+				throw new StreamCorruptedException("Unknown tag " + tag);
+		}
+	}
+
+	/**
+	 * Reads what writeData wrote into a FlatCryptoData, which takes a few arrays instead of an object per value.
+	 */
+	public CryptoData readFlatData(DataInput in) throws IOException
+	{
+		FlatCryptoData.Builder builder = new FlatCryptoData.Builder(64);
+		readFlatData(in, builder, 0);
+		return builder.build();
+	}
+
+	private void readFlatData(DataInput in, FlatCryptoData.Builder builder, int depth) throws IOException
+	{
+		byte tag = in.readByte();
+		switch(tag)
+		{
+			case NULL:
+				builder.addNull();
+				break;
+			case ARRAY:
+				if(depth == MAX_DEPTH) throw new StreamCorruptedException("Arrays nested deeper than " + MAX_DEPTH);
+				int length = readLength(in);
+				builder.beginArray();
+				for(int i = 0; i < length; i++)
+					readFlatData(in, builder, depth + 1);
+				builder.endArray();
+				break;
+			case SCALAR:
+			case INTEGER:
+				builder.add(readInteger(in, tag));
+				break;
+			case POINT:
+			case INFINITY:
+				builder.add(readPoint(in, tag));
+				break;
+			case CURVE:
+				builder.add(new ECCurveData(curve, readPoint(in, POINT)));
+				break;
+			case SERIALIZED:
+				builder.add(readSerialized(in));
+				break;
+			default:
+				throw new StreamCorruptedException("Unknown tag " + tag);
+		}
+	}
+
+	private CryptoData readSerialized(DataInput in) throws IOException
+	{
+		byte[] bytes = readBytes(in, readLength(in));
+		ObjectInputStream objIn = new CryptoDataInputStream(new ByteArrayInputStream(bytes));
+		try
+		{
+			return (CryptoData) objIn.readObject();
+		}
+		catch(ClassNotFoundException | ClassCastException e)
+		{
+			throw new StreamCorruptedException(e.toString());
+		}
+	}
+
+	/**
+	 * Deserializes only CryptoData and what it is built from (integers, byte and int arrays, the list of holes of a
+	 * CryptoDataArray), so the other party cannot choose which classes are instantiated.
+	 */
+	private static class CryptoDataInputStream extends ObjectInputStream
+	{
+		CryptoDataInputStream(ByteArrayInputStream in) throws IOException
+		{
+			super(in);
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException
+		{
+			Class<?> c = super.resolveClass(desc);
+			Class<?> element = c;
+			while(element.isArray())
+				element = element.getComponentType();
+			if(element.isPrimitive() || CryptoData.class.isAssignableFrom(element) || element == BigInteger.class || element == Number.class
+					|| element == Integer.class || element == LinkedList.class)
+				return c;
+			throw new InvalidClassException(desc.getName(), "Not allowed in a serialized CryptoData");
+		}
+
+		@Override
+		protected Class<?> resolveProxyClass(String[] interfaces) throws IOException
+		{
+			throw new InvalidClassException("Proxy classes are not allowed in a serialized CryptoData");
+		}
+	}
+
+	/**
+	 * Writes a challenge or a challenge/key pair.  Null entries are allowed.
+	 */
+	public void writeIntegers(DataOutput out, BigInteger[] values) throws IOException
+	{
+		writeLength(out, values.length);
+		for(int i = 0; i < values.length; i++)
+		{
+			if(values[i] == null) out.writeByte(NULL);
+			else writeInteger(out, values[i]);
+		}
+	}
+
+	public BigInteger[] readIntegers(DataInput in) throws IOException
+	{
+		int length = readLength(in);
+		BigInteger[] values = new BigInteger[Math.min(length, CHUNK)];
+		for(int i = 0; i < length; i++)
+		{
+			if(i == values.length) values = Arrays.copyOf(values, grow(values.length, length));
+			byte tag = in.readByte();
+			if(tag != NULL) values[i] = readInteger(in, tag);
+		}
+		return values;
+	}
+
+	public void writeCommitment(DataOutput out, ECPedersenCommitment cmt) throws IOException
+	{
+		if(cmt == null) out.writeByte(NULL);
+		else writePoint(out, cmt.getCommitment(curve));
+	}
+
+	public ECPedersenCommitment readCommitment(DataInput in) throws IOException
+	{
+		byte tag = in.readByte();
+		if(tag == NULL) return null;
+		return new ECPedersenCommitment(readPoint(in, tag));
+	}
+
+	/**
+	 * Writes a challenge commitment of any ChallengeCommitmentScheme.
+	 */
+	public void writeChallengeCommitment(DataOutput out, ChallengeCommitment cmt) throws IOException
+	{
+		if(cmt instanceof HashCommitment)
+		{
+			HashCommitment hash = (HashCommitment) cmt;
+			out.writeByte(HASH);
+			out.writeByte(hash.getSchemeId());
+			writeLength(out, hash.getDigest().length);
+			out.write(hash.getDigest());
+		}
+		else writeCommitment(out, (ECPedersenCommitment) cmt);
+	}
+
+	public ChallengeCommitment readChallengeCommitment(DataInput in) throws IOException
+	{
+		byte tag = in.readByte();
+		if(tag == NULL) return null;
+		if(tag != HASH) return new ECPedersenCommitment(readPoint(in, tag));
+		byte scheme = in.readByte();
+		int size = HashCommitment.digestSize(scheme);
+		if(size < 0) throw new StreamCorruptedException("Unknown hash commitment scheme " + scheme);
+		int length = readLength(in);
+		if(length != size) throw new StreamCorruptedException("Hash commitment of " + length + " bytes");
+		byte[] digest = new byte[length];
+		in.readFully(digest);
+		return new HashCommitment(scheme, digest);
+	}
+
+	public void writeCommitments(DataOutput out, ECPedersenCommitment[] cmts) throws IOException
+	{
+		writeLength(out, cmts.length);
+		for(int i = 0; i < cmts.length; i++)
+			writeCommitment(out, cmts[i]);
+	}
+
+	public ECPedersenCommitment[] readCommitments(DataInput in) throws IOException
+	{
+		int length = readLength(in);
+		ECPedersenCommitment[] cmts = new ECPedersenCommitment[Math.min(length, CHUNK)];
+		for(int i = 0; i < length; i++)
+		{
+			if(i == cmts.length) cmts = Arrays.copyOf(cmts, grow(cmts.length, length));
+			cmts[i] = readCommitment(in);
+		}
+		return cmts;
+	}
+
+	public BigInteger readInteger(DataInput in) throws IOException
+	{
+		return readInteger(in, in.readByte());
+	}
+
+	public void writeInteger(DataOutput out, BigInteger value) throws IOException
+	{
+		if(value.signum() >= 0 && value.bitLength() <= scalarBytes * 8)
+		{
+			out.writeByte(SCALAR);
+			out.write(BigIntegers.asUnsignedByteArray(scalarBytes, value));
+		}
+		else
+		{
+			byte[] bytes = value.toByteArray();
+			out.writeByte(INTEGER);
+			writeLength(out, bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private BigInteger readInteger(DataInput in, byte tag) throws IOException
+	{
+		byte[] bytes;
+		switch(tag)
+		{
+			case SCALAR:
+				bytes = new byte[scalarBytes];
+				in.readFully(bytes);
+				return new BigInteger(1, bytes);
+			case INTEGER:
+				bytes = readBytes(in, readLength(in));
+				if(bytes.length == 0) throw new StreamCorruptedException("Empty integer");
+				return new BigInteger(bytes);
+			default:
+				throw new StreamCorruptedException("Expected an integer, found tag " + tag);
+		}
+	}
+
+	private void writePoint(DataOutput out, ECPoint p) throws IOException
+	{
+		if(p.isInfinity())
+		{
+			out.writeByte(INFINITY);
+			return;
+		}
+		out.writeByte(POINT);
+		out.write(p.getEncoded(true));
+	}
+
+	private ECPoint readPoint(DataInput in, byte tag) throws IOException
+	{
+		switch(tag)
+		{
+			case INFINITY:
+				return curve.getInfinity();
+			case POINT:
+				byte[] bytes = new byte[pointBytes];
+				in.readFully(bytes);
+				try
+				{
+					return curve.decodePoint(bytes);
+				}
+				catch(IllegalArgumentException e)
+				{
+					throw new StreamCorruptedException(e.getMessage());
+				}
+			default:
+				throw new StreamCorruptedException("Expected a point, found tag " + tag);
+		}
+	}
+
+	private static void writeLength(DataOutput out, int length) throws IOException
+	{
+		while((length & ~0x7F) != 0)
+		{
+			out.writeByte((length & 0x7F) | 0x80);
+			length >>>= 7;
+		}
+		out.writeByte(length);
+	}
+
+	private int readLength(DataInput in) throws IOException
+	{
+		int length = 0;
+		for(int shift = 0; shift < 32; shift += 7)
+		{
+			int b = in.readUnsignedByte();
+			length |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0)
+			{
+				if(length < 0) throw new StreamCorruptedException("Negative length");
+				if(length > maxLength) throw new StreamCorruptedException("Length " + length + " over the limit of " + maxLength);
+				return length;
+			}
+		}
+		throw new StreamCorruptedException("Length too long");
+	}
+
+	//Reads length bytes, allocating no more than has arrived plus one chunk
+	private static byte[] readBytes(DataInput in, int length) throws IOException
+	{
+		byte[] bytes = new byte[Math.min(length, CHUNK)];
+		for(int read = 0; read < length; )
+		{
+			if(read == bytes.length) bytes = Arrays.copyOf(bytes, grow(bytes.length, length));
+			int n = bytes.length - read;
+			in.readFully(bytes, read, n);
+			read += n;
+		}
+		return bytes;
+	}
+
+	//The next size of an array filling up on its way to length entries
+	private static int grow(int size, int length)
+	{
+		return (int) Math.min(length, 2L * size);
+	}
+}
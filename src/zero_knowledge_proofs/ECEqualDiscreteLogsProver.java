@@ -21,8 +21,8 @@ public class ECEqualDiscreteLogsProver extends ZKPProtocol {
 		ECPoint g = e[0].getECPointData(c);
 		ECPoint h = e[1].getECPointData(c);
 		BigInteger r = i[2].getBigInt(); 
-		data[0] = g.multiply(r);
-		data[1] = h.multiply(r);
+		data[0] = ECMultiScalarMult.multiply(g, r);
+		data[1] = ECMultiScalarMult.multiply(h, r);
 		
 
 		CryptoData toReturn = new CryptoDataArray(data);
@@ -44,8 +44,8 @@ public class ECEqualDiscreteLogsProver extends ZKPProtocol {
 		BigInteger z = i[2].getBigInt();
 		//a = g^z * y^(-c)
 		//System.out.printf("c = %s\ninputs = %s\n", challenge.toString(16), input);
-		data[0] = g.multiply(z).add(y_g.multiply(challenge.negate()));
-		data[1] = h.multiply(z).add(y_h.multiply(challenge.negate()));
+		data[0] = ECMultiScalarMult.sumOfMultiplies(g, z, y_g, challenge.negate());
+		data[1] = ECMultiScalarMult.sumOfMultiplies(h, z, y_h, challenge.negate());
 		
 		CryptoData toReturn = new CryptoDataArray(data);
 		return toReturn;
@@ -92,7 +92,31 @@ public class ECEqualDiscreteLogsProver extends ZKPProtocol {
 		BigInteger zNumber = resp[0].getBigInt();
 		ECPoint a_1 = a_pack[0].getECPointData(c);
 		ECPoint a_2 = a_pack[1].getECPointData(c);
-		return (((y_g.multiply(challenge).add(a_1))).equals(g.multiply(zNumber)) && ((y_h.multiply(challenge).add(a_2))).equals(h.multiply(zNumber)));
+		return ECMultiScalarMult.sumOfMultiplies(g, zNumber, y_g, challenge.negate()).equals(a_1) && ECMultiScalarMult.sumOfMultiplies(h, zNumber, y_h, challenge.negate()).equals(a_2);
 
 	}
+
+	//check:  y_g*c + a_1 - g*z == 0 and y_h*c + a_2 - h*z == 0
+	@Override
+	protected void addBatchEquations(CryptoData input, CryptoData a, CryptoData z, BigInteger challenge, CryptoData environment, BatchVerifier batch) {
+		CryptoData[] e = environment.getCryptoDataArray();
+		CryptoData[] i = input.getCryptoDataArray();
+		CryptoData[] a_pack = a.getCryptoDataArray();
+		ECCurve c = e[0].getECCurveData();
+		BigInteger zNumber = z.getCryptoDataArray()[0].getBigInt().negate();
+		batch.newEquation();
+		batch.addTerm(i[0].getECPointData(c), challenge);
+		batch.addTerm(a_pack[0].getECPointData(c), BigInteger.ONE);
+		batch.addTerm(e[0].getECPointData(c), zNumber);
+		batch.newEquation();
+		batch.addTerm(i[1].getECPointData(c), challenge);
+		batch.addTerm(a_pack[1].getECPointData(c), BigInteger.ONE);
+		batch.addTerm(e[1].getECPointData(c), zNumber);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "ECEqualLogs";
+	}
 }
@@ -0,0 +1,188 @@
+package zero_knowledge_proofs;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.bouncycastle.math.ec.ECAlgorithms;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.FixedPointCombMultiplier;
+import org.bouncycastle.math.ec.FixedPointUtil;
+
+/**
+ * Computes sums of scalar products k_1*P_1 + ... + k_n*P_n without doing n separate multiplications.
+ * Two terms use Shamir's trick (with the GLV endomorphism on curves that have one), small batches use
+ * interleaved wNAF (Straus) and large batches use Pippenger's bucket method.
+ * Points registered with precomputeFixedBase (g and h of a session) are multiplied with a comb table instead.
+ */
+public final class ECMultiScalarMult
+{
+	/**
+	 * Number of terms at which Pippenger's method beats Straus.
+	 */
+	public static final int PIPPENGER_THRESHOLD = 256;
+
+	/**
+	 * Comb width used for fixed bases.  The table costs 2^width points per base.
+	 */
+	public static final int FIXED_BASE_WIDTH = 8;
+
+	/**
+	 * Number of bases precomputeFixedBase remembers;  the least recently used is dropped.
+	 */
+	public static final int FIXED_BASE_CACHE_SIZE = 64;
+
+	private static final FixedPointCombMultiplier comb = new FixedPointCombMultiplier();
+	private static final Map<ByteBuffer, ECPoint> fixedBases = Collections.synchronizedMap(new LinkedHashMap<ByteBuffer, ECPoint>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ByteBuffer, ECPoint> eldest)
+		{
+			return size() > FIXED_BASE_CACHE_SIZE;
+		}
+	});
+
+	private ECMultiScalarMult()
+	{
+	}
+
+	/**
+	 * Builds (or finds) the comb table for a base that will be multiplied many times.
+	 * Use the returned point in place of p:  the table lives on that object only, and a point decoded, imported or computed
+	 * from it, even an equal one, is multiplied the ordinary way.  The last FIXED_BASE_CACHE_SIZE bases are remembered, so
+	 * precomputing an equal base again (the next session's g) returns the same point;  a base dropped from the cache keeps
+	 * its table on the points already returned.
+	 */
+	public static ECPoint precomputeFixedBase(ECPoint p)
+	{
+		if(isFixedBase(p)) return p;
+		p = p.normalize();
+		ByteBuffer key = ByteBuffer.wrap(p.getEncoded(false));
+		ECPoint cached = fixedBases.get(key);
+		if(cached != null && cached.getCurve() == p.getCurve()) return cached;
+		FixedPointUtil.precompute(p, FIXED_BASE_WIDTH);
+		fixedBases.put(key, p);
+		return p;
+	}
+
+	public static boolean isFixedBase(ECPoint p)
+	{
+		return p.getCurve().getPreCompInfo(p, FixedPointUtil.PRECOMP_NAME) != null;
+	}
+
+	public static ECPoint multiply(ECPoint p, BigInteger k)
+	{
+		if(isFixedBase(p)) return comb.multiply(p, reduce(p, k));
+		return p.multiply(k);
+	}
+
+	public static ECPoint sumOfMultiplies(ECPoint p, BigInteger a, ECPoint q, BigInteger b)
+	{
+		//Two comb multiplications beat Shamir's trick, but one comb and one plain multiplication do not
+		if(isFixedBase(p) && isFixedBase(q)) return comb.multiply(p, reduce(p, a)).add(comb.multiply(q, reduce(q, b)));
+		return ECAlgorithms.sumOfTwoMultiplies(p, reduce(p, a), q, reduce(q, b));
+	}
+
+	public static ECPoint sumOfMultiplies(ECPoint p, BigInteger a, ECPoint q, BigInteger b, ECPoint r, BigInteger c)
+	{
+		return sumOfMultiplies(new ECPoint[] {p, q, r}, new BigInteger[] {a, b, c});
+	}
+
+	public static ECPoint sumOfMultiplies(ECPoint[] ps, BigInteger[] ks)
+	{
+		if(ps.length != ks.length) throw new IllegalArgumentException("" + ps.length + " != " + ks.length);
+		if(ps.length == 0) throw new IllegalArgumentException("No terms");
+
+		//Drop terms that contribute nothing, they would still cost a table or a bucket add
+		int count = 0;
+		ECPoint[] points = new ECPoint[ps.length];
+		BigInteger[] scalars = new BigInteger[ps.length];
+		for(int i = 0; i < ps.length; i++)
+		{
+			if(ps[i].isInfinity()) continue;
+			BigInteger k = reduce(ps[i], ks[i]);
+			if(k.signum() == 0) continue;
+			points[count] = ps[i];
+			scalars[count] = k;
+			count++;
+		}
+		switch(count)
+		{
+			case 0:
+				return ps[0].getCurve().getInfinity();
+			case 1:
+				return multiply(points[0], scalars[0]);
+			case 2:
+				return sumOfMultiplies(points[0], scalars[0], points[1], scalars[1]);
+		}
+		if(count != points.length)
+		{
+			points = Arrays.copyOf(points, count);
+			scalars = Arrays.copyOf(scalars, count);
+		}
+		if(count < PIPPENGER_THRESHOLD)
+			return ECAlgorithms.sumOfMultiplies(points, scalars);
+		return pippenger(points, scalars);
+	}
+
+	/**
+	 * Bucket method:  each window of c bits sorts the points into 2^c - 1 buckets by digit, then sums
+	 * the buckets with a running sum so each bucket is weighted by its digit using only additions.
+	 */
+	private static ECPoint pippenger(ECPoint[] ps, BigInteger[] ks)
+	{
+		ECCurve curve = ps[0].getCurve();
+		ps = ps.clone();
+		curve.normalizeAll(ps);
+
+		int bits = 0;
+		for(int i = 0; i < ks.length; i++)
+			bits = Math.max(bits, ks[i].bitLength());
+		int c = windowSize(ps.length);
+		int mask = (1 << c) - 1;
+
+		ECPoint infinity = curve.getInfinity();
+		ECPoint[] buckets = new ECPoint[mask];
+		ECPoint result = infinity;
+		for(int start = ((bits - 1) / c) * c; start >= 0; start -= c)
+		{
+			result = result.timesPow2(c);
+			Arrays.fill(buckets, null);
+			for(int i = 0; i < ps.length; i++)
+			{
+				int digit = ks[i].shiftRight(start).intValue() & mask;
+				if(digit == 0) continue;
+				if(buckets[digit - 1] == null) buckets[digit - 1] = ps[i];
+				else buckets[digit - 1] = buckets[digit - 1].add(ps[i]);
+			}
+			ECPoint running = infinity;
+			ECPoint windowSum = infinity;
+			for(int b = mask - 1; b >= 0; b--)
+			{
+				if(buckets[b] != null) running = running.add(buckets[b]);
+				windowSum = windowSum.add(running);
+			}
+			result = result.add(windowSum);
+		}
+		return result;
+	}
+
+	static int windowSize(int n)
+	{
+		int log = 31 - Integer.numberOfLeadingZeros(n);
+		return Math.max(4, log - 3);
+	}
+
+	private static BigInteger reduce(ECPoint p, BigInteger k)
+	{
+		BigInteger order = p.getCurve().getOrder();
+		if(order == null) return k;
+		if(k.signum() < 0 || k.compareTo(order) >= 0) return k.mod(order);
+		return k;
+	}
+}
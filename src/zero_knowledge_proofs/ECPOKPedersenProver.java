@@ -27,7 +27,7 @@ public class ECPOKPedersenProver extends ZKPProtocol{
 		BigInteger r_1 = ui[1].getBigInt();
 		BigInteger r_2 = ui[2].getBigInt();
 		
-		CryptoData a = new CryptoDataArray(new CryptoData[] {new ECPointData(g.multiply(r_1).add(h.multiply(r_2)))});
+		CryptoData a = new CryptoDataArray(new CryptoData[] {new ECPointData(ECMultiScalarMult.sumOfMultiplies(g, r_1, h, r_2))});
 		
 		return a;
 	}
@@ -47,7 +47,7 @@ public class ECPOKPedersenProver extends ZKPProtocol{
 		BigInteger z_1 = ui[1].getBigInt();
 		BigInteger z_2 = ui[2].getBigInt();
 		
-		return new CryptoDataArray(new CryptoData[] {new ECPointData(g.multiply(z_1).add(h.multiply(z_2).add(y.multiply(challenge.negate()))))});
+		return new CryptoDataArray(new CryptoData[] {new ECPointData(ECMultiScalarMult.sumOfMultiplies(g, z_1, h, z_2, y, challenge.negate()))});
 	}
 
 	@Override
@@ -95,7 +95,25 @@ public class ECPOKPedersenProver extends ZKPProtocol{
 		BigInteger z_1 = uz[0].getBigInt();
 		BigInteger z_2 = uz[1].getBigInt();
 		//check:  g^z_1*h^z_2 == y^c*a
-		return (g.multiply(z_1).add(h.multiply(z_2)).equals(y.multiply(challenge).add(init)));
+		return ECMultiScalarMult.sumOfMultiplies(g, z_1, h, z_2, y, challenge.negate()).equals(init);
 	}
 
+	//check:  g*z_1 + h*z_2 - y*c - a == 0
+	@Override
+	protected void addBatchEquations(CryptoData input, CryptoData a, CryptoData z, BigInteger challenge, CryptoData environment, BatchVerifier batch) {
+		CryptoData[] ue = environment.getCryptoDataArray();
+		CryptoData[] uz = z.getCryptoDataArray();
+		ECCurve c = ue[0].getECCurveData();
+		batch.newEquation();
+		batch.addTerm(ue[0].getECPointData(c), uz[0].getBigInt());
+		batch.addTerm(ue[1].getECPointData(c), uz[1].getBigInt());
+		batch.addTerm(input.getCryptoDataArray()[0].getECPointData(c), challenge.negate());
+		batch.addTerm(a.getCryptoDataArray()[0].getECPointData(c), BigInteger.ONE.negate());
+	}
+
+	@Override
+	public String toString()
+	{
+		return "ECPOKPedersen";
+	}
 }
@@ -8,14 +8,17 @@ import org.bouncycastle.math.ec.ECCurve;
 import org.bouncycastle.math.ec.ECPoint;
 
 import zero_knowledge_proofs.CryptoData.CryptoData;
+import zero_knowledge_proofs.CryptoData.ECPointData;
 
-public class ECPedersenCommitment implements Serializable {
+public class ECPedersenCommitment implements ChallengeCommitment, Serializable {
 	
 	/**
 	 * 
 	 */
 	private static final long serialVersionUID = -4464353885259184169L;
 	protected byte[] data;
+	private transient ECPoint commitment;
+	private transient boolean trusted;
 	
 	
 	public ECPedersenCommitment(BigInteger message, BigInteger keys, CryptoData environment)
@@ -25,18 +28,45 @@ public class ECPedersenCommitment implements Serializable {
 		ECCurve c = e[0].getECCurveData();
 		ECPoint g = e[0].getECPointData(c);
 		ECPoint h = e[1].getECPointData(c);
-		ECPoint comm = g.multiply(message).add(h.multiply(keys)); 
-		data = comm.getEncoded(false);
+		commitment = ECMultiScalarMult.sumOfMultiplies(g, message, h, keys);
+		trusted = true;
 	}
-	private ECPedersenCommitment(ECPoint comm)
+	ECPedersenCommitment(ECPoint comm)
 	{
-		data = comm.getEncoded(false);
+		commitment = comm;
+		trusted = true;
 	}
 
 	public ECPoint getCommitment(CryptoData environment) {
 		CryptoData[] e = environment.getCryptoDataArray();
-		ECCurve c = e[0].getECCurveData();
-		return c.decodePoint(data);
+		return getCommitment(e[0].getECCurveData());
+	}
+
+	public ECPoint getCommitment(ECCurve c) {
+		ECPoint p = commitment;
+		if(p != null && p.getCurve() == c)
+			return p;
+		p = ECPointData.decodePoint(c, getEncoded(), trusted);
+		commitment = p;
+		return p;
+	}
+
+	//Sums are only encoded when they are sent or printed, so folding commitments does not pay for a normalization each time
+	private byte[] getEncoded()
+	{
+		byte[] d = data;
+		if(d == null)
+		{
+			d = commitment.getEncoded(false);
+			data = d;
+		}
+		return d;
+	}
+
+	private Object writeReplace()
+	{
+		getEncoded();
+		return this;
 	}
 
 	public boolean verifyCommitment(BigInteger message, BigInteger keys, CryptoData environment) {
@@ -45,7 +75,7 @@ public class ECPedersenCommitment implements Serializable {
 		ECCurve c = e[0].getECCurveData();
 		ECPoint g = e[0].getECPointData(c);
 		ECPoint h = e[1].getECPointData(c);
-		ECPoint comm = g.multiply(message).add(h.multiply(keys));
+		ECPoint comm = ECMultiScalarMult.sumOfMultiplies(g, message, h, keys);
 		return getCommitment(environment).equals(comm);
 	}
 
@@ -60,23 +90,25 @@ public class ECPedersenCommitment implements Serializable {
 	
 	public String toString64()
 	{
-		return String.format("(%s)", Base64.getEncoder().encodeToString(data));
+		return String.format("(%s)", Base64.getEncoder().encodeToString(getEncoded()));
+	}
+
+	@Override
+	public ChallengeCommitmentScheme getScheme()
+	{
+		return ChallengeCommitmentScheme.PEDERSEN;
 	}
 
 	public String toString()
 	{
-		return String.format("(%s)", new BigInteger(data));
+		return String.format("(%s)", new BigInteger(getEncoded()));
 	}
 	public static ECPoint product(ECPedersenCommitment[] commitments, CryptoData environment) {
 		if(commitments == null || commitments.length == 0)
 		{
 			return environment.getECCurveData().getInfinity();
 		}
-		ECPoint p = commitments[0].getCommitment(environment);
-		for(int i = 1; i < commitments.length; i++) {
-			p = p.add(commitments[i].getCommitment(environment));
-		}
-		return p;
+		return new CommitmentAccumulator(environment).add(commitments, 0, commitments.length).getSum();
 	}
 	
 }
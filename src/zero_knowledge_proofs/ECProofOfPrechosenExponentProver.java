@@ -25,8 +25,8 @@ public class ECProofOfPrechosenExponentProver extends ZKPProtocol {
 		BigInteger r2 = i[4].getBigInt();
 		
 		ECPoint[] init = new ECPoint[2]; 
-		init[0] = m.multiply(r1);
-		init[1] = g.multiply(r1).add(h.multiply(r2));
+		init[0] = ECMultiScalarMult.multiply(m, r1);
+		init[1] = ECMultiScalarMult.sumOfMultiplies(g, r1, h, r2);
 		return new CryptoDataArray(init);
 	}
 	
@@ -47,8 +47,8 @@ public class ECProofOfPrechosenExponentProver extends ZKPProtocol {
 		BigInteger z2 = i[4].getBigInt();		
 		
 		ECPoint[] init = new ECPoint[2];
-		init[0] = m.multiply(z1).add(newM.multiply(challenge.negate()));
-		init[1] = g.multiply(z1).add(h.multiply(z2)).add(comm.multiply(challenge.negate()));
+		init[0] = ECMultiScalarMult.sumOfMultiplies(m, z1, newM, challenge.negate());
+		init[1] = ECMultiScalarMult.sumOfMultiplies(g, z1, h, z2, comm, challenge.negate());
 
 		return new CryptoDataArray(init);
 	}
@@ -102,6 +102,12 @@ public class ECProofOfPrechosenExponentProver extends ZKPProtocol {
 		BigInteger z2 = resp[1].getBigInt();
 		
 		
-		return (((newM.multiply(challenge).add(a1)).equals(m.multiply(z1))) && ((comm.multiply(challenge).add(a2)).equals(g.multiply(z1).add(h.multiply(z2)))));
+		return ECMultiScalarMult.sumOfMultiplies(m, z1, newM, challenge.negate()).equals(a1) && ECMultiScalarMult.sumOfMultiplies(g, z1, h, z2, comm, challenge.negate()).equals(a2);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "PrechosenExponent";
 	}
 }
@@ -33,17 +33,17 @@ public class ECProvisionsProver extends ZKPProtocol {
 		//a format: [a_1, a_2, a_3, binA_0, binA_1]
 		
 		boolean s = inputs[5].getBigInt().equals(BigInteger.ONE);
-		a[0] = (b.multiply(u_1).add(h.multiply(u_2)));
-		a[1] = (y.multiply(u_1).add(h.multiply(u_3)));
-		a[2] = (g.multiply(u_4).add(h.multiply(u_3)));
+		a[0] = ECMultiScalarMult.sumOfMultiplies(b, u_1, h, u_2);
+		a[1] = ECMultiScalarMult.sumOfMultiplies(y, u_1, h, u_3);
+		a[2] = ECMultiScalarMult.sumOfMultiplies(g, u_4, h, u_3);
 		
 		
 		//y^s * h^t
-		a[3] = h.multiply(u_5);
-		if(s) a[3] = (a[3].add(y.multiply(c_f.negate())));
+		if(s) a[3] = ECMultiScalarMult.sumOfMultiplies(h, u_5, y, c_f.negate());
+		else a[3] = ECMultiScalarMult.multiply(h, u_5);
 
-		a[4] = h.multiply(u_6);
-		if(!s) a[4] = (a[4].add(y.multiply(c_f)));
+		if(!s) a[4] = ECMultiScalarMult.sumOfMultiplies(h, u_6, y, c_f);
+		else a[4] = ECMultiScalarMult.multiply(h, u_6);
 		
 		return new CryptoDataArray(a);
 	}
@@ -141,26 +141,28 @@ public class ECProvisionsProver extends ZKPProtocol {
 		ECPoint binA_1 = init[4].getECPointData(c);
 		
 		//resp:  [r_s, r_v, r_t, r_x]
-		ECPoint s1L = (b.multiply(r_s).add(h.multiply(r_v)));
-		ECPoint s1R = (pComm.multiply(challenge).add(a_1));
+		//b^r_s * h^r_v * pComm^-c == a_1
+		ECPoint s1 = ECMultiScalarMult.sumOfMultiplies(b, r_s, h, r_v, pComm, challenge.negate());
 		
-		ECPoint s2L = (y.multiply(r_s).add(h.multiply(r_t)));
-		ECPoint s2R = (lComm.multiply(challenge).add(a_2));
+		ECPoint s2 = ECMultiScalarMult.sumOfMultiplies(y, r_s, h, r_t, lComm, challenge.negate());
 		
-		ECPoint s3L = (g.multiply(r_x).add(h.multiply(r_t)));
-		ECPoint s3R = (lComm.multiply(challenge).add(a_3));
+		ECPoint s3 = ECMultiScalarMult.sumOfMultiplies(g, r_x, h, r_t, lComm, challenge.negate());
 
 		//a = [a_1, a_2, a_3, binA_0, binA_1]
 		//r = [r_s, r_v, r_t, r_x, c_1, r_0, r_1]
 		
 		//y^s * h^t
-		ECPoint s4L = h.multiply(r_0);
-		ECPoint s4R = (binA_0.add(lComm.multiply(challenge.subtract(c_1))));
+		ECPoint s4 = ECMultiScalarMult.sumOfMultiplies(h, r_0, lComm, c_1.subtract(challenge));
 				
-		ECPoint s5L = h.multiply(r_1);
-		ECPoint s5R = (binA_1.add((lComm.add(y.negate())).multiply(c_1)));
-		boolean toReturn = (s1L.equals(s1R) && s2L.equals(s2R) && s3L.equals(s3R) && s4L.equals(s4R) && s5L.equals(s5R));
+		ECPoint s5 = ECMultiScalarMult.sumOfMultiplies(h, r_1, lComm.add(y.negate()), c_1.negate());
+		boolean toReturn = (s1.equals(a_1) && s2.equals(a_2) && s3.equals(a_3) && s4.equals(binA_0) && s5.equals(binA_1));
 		
 		return toReturn;
 	}
+
+	@Override
+	public String toString()
+	{
+		return "ECProvisions";
+	}
 }
@@ -11,7 +11,7 @@ import zero_knowledge_proofs.CryptoData.CryptoDataArray;
 public class ECSchnorrProver extends ZKPProtocol {
 	 
 	 
-	 //input format:  [[y, r, x]]
+	 //input format:  [[y, r, x]] or [[y, r, x, [g, g*r]]] with g*r from a PrecomputationPool
 
 	@Override
 	public CryptoData initialComm(CryptoData input, CryptoData environment) {
@@ -20,14 +20,19 @@ public class ECSchnorrProver extends ZKPProtocol {
 		CryptoData[] i = input.getCryptoDataArray();
 		ECCurve c = e[0].getECCurveData();
 		ECPoint g = e[0].getECPointData(c);
+		if(i.length > 3)
+		{
+			data[0] = precomputed(i[3], g, c);
+			return new CryptoDataArray(data);
+		}
 		BigInteger r = i[1].getBigInt();
-		data[0] = g.multiply(r);
+		data[0] = ECMultiScalarMult.multiply(g, r);
 
 		CryptoData toReturn = new CryptoDataArray(data);
 		return toReturn;
 	}
 
-	//input format [y, z]
+	//input format [y, z] or [y, z, [g, g*z]] with g*z from a PrecomputationPool
 	@Override
 	public CryptoData initialCommSim(CryptoData input, BigInteger challenge, CryptoData environment) {
 		ECPoint[] data;
@@ -53,12 +58,22 @@ public class ECSchnorrProver extends ZKPProtocol {
 		BigInteger z = i[1].getBigInt();
 		//a = g^z * y^(-c)
 		//System.out.printf("c = %s\ninputs = %s\n", challenge.toString(16), input);
-		data[0] = g.multiply(z).add(y.multiply(challenge.negate()));
+		if(i.length > 2) data[0] = precomputed(i[2], g, c).subtract(ECMultiScalarMult.multiply(y, challenge));
+		else data[0] = ECMultiScalarMult.sumOfMultiplies(g, z, y, challenge.negate());
 		
 		CryptoData toReturn = new CryptoDataArray(data);
 		return toReturn;
 	}
 
+	//A precomputed commitment is tagged with the base it was made on, [base, base*r], and is only used on that base
+	private static ECPoint precomputed(CryptoData tagged, ECPoint g, ECCurve c) {
+		CryptoData[] pair = tagged.getCryptoDataArray();
+		if(pair == null || pair.length != 2) throw new IllegalArgumentException("A precomputed commitment must be [base, base*r]:  " + tagged);
+		ECPoint base = pair[0].getECPointData(c);
+		if(base != g && !base.equals(g)) throw new IllegalArgumentException("Precomputed commitment on " + base.normalize() + ", not on the environment's generator " + g.normalize());
+		return pair[1].getECPointData(c);
+	}
+
 	@Override
 	public CryptoData calcResponse(CryptoData input, BigInteger challenge, CryptoData environment) {
 		BigInteger[] array = new BigInteger[1];
@@ -102,7 +117,29 @@ public class ECSchnorrProver extends ZKPProtocol {
 		ECPoint a = a_pack[0].getECPointData(c);
 		
 	//	return (a * y^c) mod p == (g^z) mod p 
-		if(!((y.multiply(challenge).add(a))).equals(g.multiply(z))) System.out.printf("V:\t%s ?= %s\n", (y.multiply(challenge).add(a)).normalize(),g.multiply(z).normalize());
-		return ((y.multiply(challenge).add(a))).equals(g.multiply(z)) ;
+		ECPoint check = ECMultiScalarMult.sumOfMultiplies(g, z, y, challenge.negate());
+		if(!check.equals(a)) System.out.printf("V:\t%s ?= %s\n", a.normalize(), check.normalize());
+		return check.equals(a);
+	}
+
+	//check:  y*c + a - g*z == 0
+	@Override
+	protected void addBatchEquations(CryptoData input, CryptoData initial_comm, CryptoData response, BigInteger challenge, CryptoData environment, BatchVerifier batch) {
+		CryptoData[] e = environment.getCryptoDataArray();
+		ECCurve c = e[0].getECCurveData();
+		ECPoint g = e[0].getECPointData(c);
+		ECPoint y = input.getCryptoDataArray()[0].getECPointData(c);
+		ECPoint a = initial_comm.getCryptoDataArray()[0].getECPointData(c);
+		BigInteger z = response.getCryptoDataArray()[0].getBigInt();
+		batch.newEquation();
+		batch.addTerm(y, challenge);
+		batch.addTerm(a, BigInteger.ONE);
+		batch.addTerm(g, z.negate());
+	}
+
+	@Override
+	public String toString()
+	{
+		return "ECSchnorr";
 	}
 }
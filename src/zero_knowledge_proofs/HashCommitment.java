@@ -0,0 +1,132 @@
+package zero_knowledge_proofs;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Base64;
+
+import org.bouncycastle.crypto.Digest;
+
+import zero_knowledge_proofs.CryptoData.CryptoData;
+
+/**
+ * A salted hash commitment:  H(tag, message, key).  The key is a random scalar, which both salts and hides the message;
+ * binding rests on the collision resistance of the hash.  Making or checking one costs a hash instead of the two scalar
+ * multiplications of an ECPedersenCommitment, but it can not be combined with other commitments.
+ */
+public class HashCommitment implements ChallengeCommitment, Serializable
+{
+	private static final long serialVersionUID = 2951446021185113276L;
+	private static final byte[] TAG = "variance challenge commitment".getBytes();
+
+	private final byte scheme;
+	private final byte[] digest;
+
+	/**
+	 * @throws IllegalArgumentException if scheme is not a hash scheme or digest is not as long as its hash
+	 */
+	HashCommitment(byte scheme, byte[] digest)
+	{
+		this.scheme = scheme;
+		this.digest = digest;
+		check();
+	}
+
+	static HashCommitment commit(byte scheme, BigInteger message, BigInteger keys)
+	{
+		return new HashCommitment(scheme, hash(scheme, message, keys));
+	}
+
+	byte getSchemeId()
+	{
+		return scheme;
+	}
+
+	@Override
+	public ChallengeCommitmentScheme getScheme()
+	{
+		return ChallengeCommitmentScheme.forId(scheme);
+	}
+
+	/**
+	 * @return the length of the digests of scheme, or -1 if it is not a hash scheme
+	 */
+	static int digestSize(byte scheme)
+	{
+		ChallengeCommitmentScheme s = ChallengeCommitmentScheme.forId(scheme);
+		Digest d = s == null ? null : s.newDigest();
+		return d == null ? -1 : d.getDigestSize();
+	}
+
+	private void check()
+	{
+		int size = digestSize(scheme);
+		if(size < 0) throw new IllegalArgumentException("Unknown hash commitment scheme " + scheme);
+		if(digest == null || digest.length != size) throw new IllegalArgumentException("Hash commitment of " + (digest == null ? 0 : digest.length) + " bytes, " + size + " expected");
+	}
+
+	//Commitments read by Java serialization get the same checks as those read by CryptoDataCodec
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		in.defaultReadObject();
+		try
+		{
+			check();
+		}
+		catch(IllegalArgumentException e)
+		{
+			throw new InvalidObjectException(e.getMessage());
+		}
+	}
+
+	byte[] getDigest()
+	{
+		return digest;
+	}
+
+	@Override
+	public boolean verifyCommitment(BigInteger message, BigInteger keys, CryptoData environment)
+	{
+		if(message == null || keys == null) return false;
+		byte[] expected = hash(scheme, message, keys);
+		return expected != null && Arrays.equals(digest, expected);
+	}
+
+	//null if scheme is not a hash scheme
+	private static byte[] hash(byte scheme, BigInteger message, BigInteger keys)
+	{
+		ChallengeCommitmentScheme s = ChallengeCommitmentScheme.forId(scheme);
+		Digest d = s == null ? null : s.newDigest();
+		if(d == null) return null;
+		d.update(TAG, 0, TAG.length);
+		update(d, message);
+		update(d, keys);
+		byte[] out = new byte[d.getDigestSize()];
+		d.doFinal(out, 0);
+		return out;
+	}
+
+	//Length prefixed, so (message, keys) can not be re-split into another pair with the same hash input
+	private static void update(Digest d, BigInteger value)
+	{
+		byte[] b = value.toByteArray();
+		d.update((byte) (b.length >>> 8));
+		d.update((byte) b.length);
+		d.update(b, 0, b.length);
+	}
+
+	@Override
+	public String toString64()
+	{
+		return String.format("(%s)", Base64.getEncoder().encodeToString(digest));
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("(%s)", new BigInteger(1, digest));
+	}
+}
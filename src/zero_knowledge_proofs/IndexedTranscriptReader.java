@@ -0,0 +1,259 @@
+package zero_knowledge_proofs;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StreamCorruptedException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.math.ec.ECCurve;
+
+import zero_knowledge_proofs.CryptoData.CryptoData;
+
+/**
+ * Reads single proofs of an IndexedTranscriptWriter file by number, seeking through its index instead of reading the
+ * records before them, and checks a proof record against the Merkle root with the log(proofs) nodes on its path.  A leaf
+ * covers the proof's statement number and its STATEMENT and ENVIRONMENT records too, so once verifyPath passes, the
+ * statement and environments proof returns with it are the ones the root fixed.  Only the footer's counts and offsets
+ * are read up front;  environments are read when a statement first needs them.
+ */
+public class IndexedTranscriptReader implements Closeable
+{
+	private final RandomAccessFile file;
+	private final CryptoDataCodec codec;
+	private final long proofCount;
+	private final long[] environmentOffsets;
+	private final long[] statementOffsets;
+	private final long indexOffset;
+	//Where each level of the Merkle tree starts and how many nodes it has, from the leaves up
+	private final long[] levelOffsets;
+	private final long[] levelSizes;
+	private final HashMap<Integer, CryptoData> environments = new HashMap<Integer, CryptoData>();
+	private final HashMap<Integer, byte[]> environmentHashes = new HashMap<Integer, byte[]>();
+
+	//The last statement read;  samples are usually taken in order, so neighbours share it
+	private int statementId = -1;
+	private String prover;
+	private CryptoData environment;
+	private CryptoData commitmentEnvironment;
+	private byte[] statementHash;
+
+	public IndexedTranscriptReader(String fileName) throws IOException
+	{
+		file = new RandomAccessFile(fileName, "r");
+		try
+		{
+			if(file.readUnsignedShort() != BinaryTranscriptWriter.MAGIC) throw new StreamCorruptedException("Not a binary transcript");
+			int version = file.readUnsignedByte();
+			if(version != BinaryTranscriptWriter.VERSION) throw new StreamCorruptedException("Unsupported transcript version " + version);
+			if((file.readUnsignedByte() & BinaryTranscriptWriter.INDEXED) == 0) throw new StreamCorruptedException("The transcript has no index");
+			codec = new CryptoDataCodec(ECNamedCurveTable.getParameterSpec(file.readUTF()).getCurve());
+			codec.readHeader(file);
+
+			if(file.length() < 16) throw new StreamCorruptedException("No trailer");
+			file.seek(file.length() - 16);
+			long footerOffset = file.readLong();
+			if(file.readLong() != IndexedTranscriptWriter.TRAILER_MAGIC) throw new StreamCorruptedException("No trailer;  the transcript may not have been closed");
+			if(footerOffset < 0 || footerOffset > file.length() - 16) throw new StreamCorruptedException("Footer at " + footerOffset);
+			file.seek(footerOffset);
+			proofCount = file.readLong();
+			environmentOffsets = offsets(file.readInt());
+			statementOffsets = offsets(file.readInt());
+			indexOffset = file.getFilePointer();
+
+			int levels = 1;
+			for(long n = proofCount; n > 1; n = (n + 1) / 2)
+				levels++;
+			levelOffsets = new long[levels];
+			levelSizes = new long[levels];
+			levelOffsets[0] = indexOffset + proofCount * IndexedTranscriptWriter.INDEX_ENTRY_BYTES;
+			levelSizes[0] = Math.max(proofCount, 1);
+			for(int k = 1; k < levels; k++)
+			{
+				levelOffsets[k] = levelOffsets[k - 1] + levelSizes[k - 1] * IndexedTranscriptWriter.HASH_BYTES;
+				levelSizes[k] = (levelSizes[k - 1] + 1) / 2;
+			}
+			if(levelOffsets[levels - 1] + IndexedTranscriptWriter.HASH_BYTES != file.length() - 16)
+				throw new StreamCorruptedException("The footer does not match the proof count");
+		}
+		catch(IOException e)
+		{
+			file.close();
+			throw e;
+		}
+	}
+
+	private long[] offsets(int count) throws IOException
+	{
+		if(count < 0) throw new StreamCorruptedException(count + " offsets");
+		long[] toReturn = new long[count];
+		for(int i = 0; i < count; i++)
+			toReturn[i] = file.readLong();
+		return toReturn;
+	}
+
+	public long proofCount()
+	{
+		return proofCount;
+	}
+
+	public ECCurve getCurve()
+	{
+		return codec.getCurve();
+	}
+
+	/**
+	 * @return the Merkle root of the proof records, as the file has it
+	 */
+	public byte[] getRoot() throws IOException
+	{
+		return node(levelOffsets.length - 1, 0);
+	}
+
+	/**
+	 * Reads proof number i (counting proofs only, from 0) with its statement.  The entry's index is i.
+	 */
+	public TranscriptReader.Entry proof(long i) throws IOException
+	{
+		statement(i);
+		byte[] record = record(i);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(record, 5, record.length - 5));
+		try
+		{
+			ChallengeCommitment commitment = codec.readChallengeCommitment(in);
+			CryptoData input = codec.readData(in);
+			CryptoData a = codec.readData(in);
+			CryptoData z = codec.readData(in);
+			BigInteger[] c = codec.readIntegers(in);
+			if(c.length != 2) throw new StreamCorruptedException("Proof with " + c.length + " challenges");
+			return new TranscriptReader.Entry(TranscriptReader.PROOF, i, statementId, prover, environment, commitmentEnvironment, commitment, input, a, z, c[0], c[1], null);
+		}
+		catch(EOFException e)
+		{
+			throw new StreamCorruptedException("Record shorter than its length");
+		}
+	}
+
+	/**
+	 * Checks that proof number i, as it is in the file with its statement and environments, is leaf i of the Merkle tree
+	 * with the given root.
+	 */
+	public boolean verifyPath(long i, byte[] root) throws IOException
+	{
+		statement(i);
+		byte[] hash = IndexedTranscriptWriter.leaf(statementId, statementHash, record(i));
+		long position = i;
+		for(int k = 0; k < levelOffsets.length - 1; k++)
+		{
+			long sibling = position ^ 1;
+			if(sibling < levelSizes[k])
+			{
+				byte[] other = node(k, sibling);
+				if((position & 1) == 0) IndexedTranscriptWriter.node(hash, other, hash);
+				else IndexedTranscriptWriter.node(other, hash, hash);
+			}
+			position >>= 1;
+		}
+		return Arrays.equals(hash, root);
+	}
+
+	//The whole record of proof i:  type, length and payload
+	private byte[] record(long i) throws IOException
+	{
+		file.seek(indexOffset + checkIndex(i) * IndexedTranscriptWriter.INDEX_ENTRY_BYTES);
+		long offset = file.readLong();
+		file.seek(offset);
+		if(file.readByte() != BinaryTranscriptWriter.PROOF) throw new StreamCorruptedException("Proof " + i + " is not at " + offset);
+		int length = file.readInt();
+		if(length < 0 || offset + 5 + length > file.length()) throw new StreamCorruptedException("Record of " + length + " bytes");
+		byte[] record = new byte[5 + length];
+		file.seek(offset);
+		file.readFully(record);
+		return record;
+	}
+
+	//Makes the statement of proof i, as its index entry numbers it, the current one
+	private void statement(long i) throws IOException
+	{
+		file.seek(indexOffset + checkIndex(i) * IndexedTranscriptWriter.INDEX_ENTRY_BYTES);
+		file.readLong();
+		int statement = file.readInt();
+		if(statement != statementId) readStatement(statement);
+	}
+
+	private long checkIndex(long i)
+	{
+		if(i < 0 || i >= proofCount) throw new IndexOutOfBoundsException("Proof " + i + " of " + proofCount);
+		return i;
+	}
+
+	private byte[] node(int level, long i) throws IOException
+	{
+		byte[] toReturn = new byte[IndexedTranscriptWriter.HASH_BYTES];
+		file.seek(levelOffsets[level] + i * IndexedTranscriptWriter.HASH_BYTES);
+		file.readFully(toReturn);
+		return toReturn;
+	}
+
+	private void readStatement(int id) throws IOException
+	{
+		if(id < 0 || id >= statementOffsets.length) throw new StreamCorruptedException("Unknown statement " + id);
+		byte[] record = record(statementOffsets[id], BinaryTranscriptWriter.STATEMENT);
+		DataInputStream in = payload(record);
+		int nameLength = in.readInt();
+		if(nameLength < 0 || nameLength > record.length) throw new StreamCorruptedException("Prover of " + nameLength + " bytes");
+		byte[] name = new byte[nameLength];
+		in.readFully(name);
+		int environmentId = in.readInt();
+		int commitmentId = in.readInt();
+		prover = new String(name, StandardCharsets.UTF_8);
+		environment = environment(environmentId);
+		commitmentEnvironment = commitmentId == -1 ? null : environment(commitmentId);
+		statementHash = IndexedTranscriptWriter.statementHash(record, environmentHashes.get(environmentId), commitmentId == -1 ? null : environmentHashes.get(commitmentId));
+		statementId = id;
+	}
+
+	private CryptoData environment(int id) throws IOException
+	{
+		if(environments.containsKey(id)) return environments.get(id);
+		if(id < 0 || id >= environmentOffsets.length) throw new StreamCorruptedException("Unknown environment " + id);
+		byte[] record = record(environmentOffsets[id], BinaryTranscriptWriter.ENVIRONMENT);
+		DataInputStream in = payload(record);
+		if(in.readInt() != id) throw new StreamCorruptedException("Environment " + id + " is not at " + environmentOffsets[id]);
+		CryptoData data = codec.readData(in);
+		environments.put(id, data);
+		environmentHashes.put(id, IndexedTranscriptWriter.environmentHash(record));
+		return data;
+	}
+
+	//The whole record of the given type at offset
+	private byte[] record(long offset, byte type) throws IOException
+	{
+		file.seek(offset);
+		if(file.readByte() != type) throw new StreamCorruptedException("No record of type " + type + " at " + offset);
+		int length = file.readInt();
+		if(length < 0 || offset + 5 + length > file.length()) throw new StreamCorruptedException("Record of " + length + " bytes");
+		byte[] record = new byte[5 + length];
+		file.seek(offset);
+		file.readFully(record);
+		return record;
+	}
+
+	private static DataInputStream payload(byte[] record)
+	{
+		return new DataInputStream(new ByteArrayInputStream(record, 5, record.length - 5));
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		file.close();
+	}
+}
@@ -0,0 +1,212 @@
+package zero_knowledge_proofs;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+
+/**
+ * A binary transcript, uncompressed, with an index after the records so IndexedTranscriptReader can seek straight to
+ * any proof, and a Merkle tree over the proof records so a sampled proof can be checked against one published root.
+ *
+ * After the last record come an INDEX record with no payload (where sequential readers stop) and the footer:
+ *
+ *   proof count (long)
+ *   environment count (int), the offset of each ENVIRONMENT record (long)
+ *   statement count (int), the offset of each STATEMENT record (long)
+ *   for each proof, the offset of its record (long) and the number of its statement (int)
+ *   the Merkle tree, level by level from the leaves up to the root, 32 bytes a node
+ *
+ * and a trailer:  the offset of the footer and TRAILER_MAGIC (two longs).  Records are hashed whole (type, length and
+ * payload).  A leaf is SHA-256 of 0, the proof's statement number (int), the hash of its statement and the proof record,
+ * where the hash of a statement is SHA-256 of 2, its STATEMENT record and the hashes of the ENVIRONMENT records it refers
+ * to (the commitment environment's only if it has one), and the hash of an environment is SHA-256 of 3 and its record.
+ * So the root also fixes the statement and environments each proof is checked under.  An inner node is SHA-256 of 1 and
+ * its two children, and the last node of a level with an odd number of nodes moves up unchanged.  A transcript without
+ * proofs has a root of zeros.
+ *
+ * The offsets and leaves go to temporary files while the transcript is written, so memory does not grow with it.
+ */
+public class IndexedTranscriptWriter extends BinaryTranscriptWriter
+{
+	static final long TRAILER_MAGIC = 0x565452494E444558L;
+	static final int HASH_BYTES = 32;
+	static final int INDEX_ENTRY_BYTES = 12;
+
+	private final ArrayList<Long> environmentOffsets = new ArrayList<Long>();
+	private final ArrayList<Long> statementOffsets = new ArrayList<Long>();
+	private final ArrayList<byte[]> environmentHashes = new ArrayList<byte[]>();
+	private byte[] statementHash;
+	private final File indexFile;
+	private final File leafFile;
+	private final DataOutputStream index;
+	private final OutputStream leaves;
+	private long proofs = 0;
+
+	public IndexedTranscriptWriter(OutputStream out, String curveName) throws IOException
+	{
+		this(out, curveName, DEFAULT_BUFFERED_BYTES);
+	}
+
+	public IndexedTranscriptWriter(OutputStream out, String curveName, int maxBufferedBytes) throws IOException
+	{
+		super(out, curveName, INDEXED, maxBufferedBytes);
+		indexFile = File.createTempFile("transcript", ".index");
+		leafFile = File.createTempFile("transcript", ".leaves");
+		indexFile.deleteOnExit();
+		leafFile.deleteOnExit();
+		index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), 1 << 16));
+		leaves = new BufferedOutputStream(new FileOutputStream(leafFile), 1 << 16);
+	}
+
+	@Override
+	protected void written(byte[] record, long offset) throws IOException
+	{
+		switch(record[0])
+		{
+			case ENVIRONMENT:
+				environmentOffsets.add(offset);
+				environmentHashes.add(environmentHash(record));
+				break;
+			case STATEMENT:
+				statementOffsets.add(offset);
+				DataInputStream in = new DataInputStream(new ByteArrayInputStream(record, 5, record.length - 5));
+				in.skipBytes(in.readInt());
+				int environmentId = in.readInt();
+				int commitmentId = in.readInt();
+				statementHash = statementHash(record, environmentHashes.get(environmentId), commitmentId == -1 ? null : environmentHashes.get(commitmentId));
+				break;
+			case PROOF:
+				if(statementHash == null) throw new IOException("A proof recorded before any statement");
+				index.writeLong(offset);
+				index.writeInt(statementOffsets.size() - 1);
+				leaves.write(leaf(statementOffsets.size() - 1, statementHash, record));
+				proofs++;
+				break;
+		}
+	}
+
+	@Override
+	protected void finish(OutputStream out, long offset) throws IOException
+	{
+		index.close();
+		leaves.close();
+		DataOutputStream footer = new DataOutputStream(out);
+		footer.writeByte(INDEX);
+		footer.writeInt(0);
+		long footerOffset = offset + footer.size();
+		footer.writeLong(proofs);
+		footer.writeInt(environmentOffsets.size());
+		for(long o : environmentOffsets)
+			footer.writeLong(o);
+		footer.writeInt(statementOffsets.size());
+		for(long o : statementOffsets)
+			footer.writeLong(o);
+		copy(indexFile, footer);
+		copy(leafFile, footer);
+
+		//Each level is read back from the file of the one below it
+		File level = leafFile;
+		long count = proofs;
+		byte[] left = new byte[HASH_BYTES];
+		byte[] right = new byte[HASH_BYTES];
+		while(count > 1)
+		{
+			File next = File.createTempFile("transcript", ".level");
+			next.deleteOnExit();
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(level), 1 << 16));
+			OutputStream nextOut = new BufferedOutputStream(new FileOutputStream(next), 1 << 16);
+			for(long i = 0; i < count; i += 2)
+			{
+				in.readFully(left);
+				if(i + 1 < count)
+				{
+					in.readFully(right);
+					node(left, right, left);
+				}
+				nextOut.write(left);
+				footer.write(left);
+			}
+			in.close();
+			nextOut.close();
+			level.delete();
+			level = next;
+			count = (count + 1) / 2;
+		}
+		level.delete();
+		indexFile.delete();
+		if(proofs == 0) footer.write(new byte[HASH_BYTES]);
+		footer.writeLong(footerOffset);
+		footer.writeLong(TRAILER_MAGIC);
+		footer.flush();
+	}
+
+	//SHA-256(1, left, right) into to
+	static void node(byte[] left, byte[] right, byte[] to)
+	{
+		Digest d = new SHA256Digest();
+		d.update((byte) 1);
+		d.update(left, 0, left.length);
+		d.update(right, 0, right.length);
+		d.doFinal(to, 0);
+	}
+
+	static byte[] leaf(int statementId, byte[] statementHash, byte[] record)
+	{
+		Digest d = new SHA256Digest();
+		byte[] toReturn = new byte[HASH_BYTES];
+		d.update((byte) 0);
+		d.update((byte) (statementId >>> 24));
+		d.update((byte) (statementId >>> 16));
+		d.update((byte) (statementId >>> 8));
+		d.update((byte) statementId);
+		d.update(statementHash, 0, statementHash.length);
+		d.update(record, 0, record.length);
+		d.doFinal(toReturn, 0);
+		return toReturn;
+	}
+
+	//commitmentEnvironmentHash is null for a statement without a commitment environment
+	static byte[] statementHash(byte[] record, byte[] environmentHash, byte[] commitmentEnvironmentHash)
+	{
+		Digest d = new SHA256Digest();
+		byte[] toReturn = new byte[HASH_BYTES];
+		d.update((byte) 2);
+		d.update(record, 0, record.length);
+		d.update(environmentHash, 0, environmentHash.length);
+		if(commitmentEnvironmentHash != null) d.update(commitmentEnvironmentHash, 0, commitmentEnvironmentHash.length);
+		d.doFinal(toReturn, 0);
+		return toReturn;
+	}
+
+	static byte[] environmentHash(byte[] record)
+	{
+		Digest d = new SHA256Digest();
+		byte[] toReturn = new byte[HASH_BYTES];
+		d.update((byte) 3);
+		d.update(record, 0, record.length);
+		d.doFinal(toReturn, 0);
+		return toReturn;
+	}
+
+	private static void copy(File file, OutputStream out) throws IOException
+	{
+		InputStream in = new FileInputStream(file);
+		byte[] buffer = new byte[1 << 16];
+		int n;
+		while((n = in.read(buffer)) != -1)
+			out.write(buffer, 0, n);
+		in.close();
+	}
+}
@@ -0,0 +1,162 @@
+package zero_knowledge_proofs;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Polynomials mod a prime, for the challenge polynomials of threshold proofs.  A polynomial is the array of its
+ * coefficients, constant first.
+ *
+ * interpolate finds the polynomial of degree m through m + 1 points in O(m^2) multiplications:  the Lagrange basis of
+ * the nodes comes from the product of (x - x_i) and the barycentric weights 1 / prod(x_i - x_j), whose m + 1 inverses
+ * cost one modInverse between them (batch inversion).  The basis depends only on the prime and the nodes, so it is
+ * cached, and interpolating again through the same nodes is one pass of m^2 multiplications with no division.  The cache
+ * holds the CACHE_SIZE most recently used bases and is safe to share between threads.
+ *
+ * The arithmetic is done in ScalarField elements.  evaluate stays on BigInteger:  its points are small, and multiplying
+ * by a small integer and reducing is cheaper than converting into and out of Montgomery form.
+ */
+public class ModularPolynomial
+{
+	public static final int CACHE_SIZE = 1024;
+
+	private static final Map<Key, ScalarField.Element[][]> bases = Collections.synchronizedMap(new LinkedHashMap<Key, ScalarField.Element[][]>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, ScalarField.Element[][]> eldest)
+		{
+			return size() > CACHE_SIZE;
+		}
+	});
+
+	private static class Key
+	{
+		final BigInteger prime;
+		final long[] nodes;
+		final int hash;
+
+		Key(BigInteger prime, long[] nodes)
+		{
+			this.prime = prime;
+			this.nodes = nodes;
+			hash = 31 * prime.hashCode() + Arrays.hashCode(nodes);
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if(!(o instanceof Key)) return false;
+			Key other = (Key) o;
+			return hash == other.hash && prime.equals(other.prime) && Arrays.equals(nodes, other.nodes);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+	}
+
+	/**
+	 * @return the coefficients of the polynomial of degree nodes.length - 1 with value values[i] at nodes[i]
+	 */
+	public static BigInteger[] interpolate(long[] nodes, BigInteger[] values, BigInteger prime)
+	{
+		if(nodes.length != values.length) throw new IllegalArgumentException(nodes.length + " nodes and " + values.length + " values");
+		ScalarField field = ScalarField.of(prime);
+		ScalarField.Element[][] basis = basis(nodes, field);
+		ScalarField.Element[] y = field.elements(values);
+		int size = nodes.length;
+		BigInteger[] toReturn = new BigInteger[size];
+		for(int d = 0; d < size; d++)
+		{
+			ScalarField.Element sum = field.zero();
+			for(int i = 0; i < size; i++)
+				sum.multiplyAdd(y[i], basis[i][d]);
+			toReturn[d] = sum.toBigInteger();
+		}
+		return toReturn;
+	}
+
+	/**
+	 * @return the value at x of the polynomial with the given coefficients, by Horner's rule
+	 */
+	public static BigInteger evaluate(BigInteger[] coefficients, long x, BigInteger prime)
+	{
+		BigInteger point = BigInteger.valueOf(x);
+		BigInteger toReturn = BigInteger.ZERO;
+		for(int d = coefficients.length - 1; d >= 0; d--)
+			toReturn = toReturn.multiply(point).add(coefficients[d]).mod(prime);
+		return toReturn;
+	}
+
+	/**
+	 * @return the inverse of every value mod prime, with one modInverse and 3 (values.length - 1) multiplications
+	 */
+	public static BigInteger[] inverses(BigInteger[] values, BigInteger prime)
+	{
+		ScalarField field = ScalarField.of(prime);
+		ScalarField.Element[] toReturn = field.elements(values);
+		field.invertAll(toReturn);
+		return ScalarField.toBigIntegers(toReturn);
+	}
+
+	//Row i is the Lagrange polynomial of node i:  1 there, 0 at every other node.  The elements are shared;  only read them
+	private static ScalarField.Element[][] basis(long[] nodes, ScalarField field)
+	{
+		Key key = new Key(field.getModulus(), nodes.clone());
+		ScalarField.Element[][] toReturn = bases.get(key);
+		if(toReturn != null) return toReturn;
+
+		int size = nodes.length;
+		ScalarField.Element[] x = new ScalarField.Element[size];
+		for(int i = 0; i < size; i++)
+			x[i] = field.element(nodes[i]);
+		ScalarField.Element scratch = field.zero();
+
+		//The product of (X - x_i), of degree size
+		ScalarField.Element[] product = new ScalarField.Element[size + 1];
+		for(int d = 0; d <= size; d++)
+			product[d] = field.zero();
+		product[0] = field.one();
+		for(int i = 0; i < size; i++)
+		{
+			for(int d = i + 1; d > 0; d--)
+			{
+				scratch.set(x[i]).multiply(product[d]);
+				product[d].set(product[d - 1]).subtract(scratch);
+			}
+			product[0].multiply(x[i]).negate();
+		}
+
+		//Barycentric weights
+		ScalarField.Element[] weights = new ScalarField.Element[size];
+		for(int i = 0; i < size; i++)
+		{
+			ScalarField.Element d = field.one();
+			for(int j = 0; j < size; j++)
+				if(j != i) d.multiply(scratch.set(x[i]).subtract(x[j]));
+			if(d.isZero()) throw new IllegalArgumentException("Repeated node " + nodes[i]);
+			weights[i] = d;
+		}
+		field.invertAll(weights);
+
+		//Each Lagrange polynomial is its weight times the product divided by (X - x_i), by synthetic division
+		toReturn = new ScalarField.Element[size][size];
+		for(int i = 0; i < size; i++)
+		{
+			ScalarField.Element carry = field.zero();
+			for(int d = size - 1; d >= 0; d--)
+			{
+				carry.multiply(x[i]).add(product[d + 1]);
+				toReturn[i][d] = carry.copy().multiply(weights[i]);
+			}
+		}
+		bases.put(key, toReturn);
+		return toReturn;
+	}
+}
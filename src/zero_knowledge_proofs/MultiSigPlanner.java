@@ -0,0 +1,236 @@
+package zero_knowledge_proofs;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.jce.spec.ECParameterSpec;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+
+import zero_knowledge_proofs.CryptoData.CryptoData;
+import zero_knowledge_proofs.CryptoData.CryptoDataArray;
+import zero_knowledge_proofs.CryptoData.ECCurveData;
+import zero_knowledge_proofs.CryptoData.ECPointData;
+
+/**
+ * Chooses which of VarianceToolkit's multi-signature constructions proves a k-of-n account most cheaply:
+ *
+ *   NAIVE      an OR over every k-subset of the keys, each an AND of k Schnorr proofs (choose(n, k) * k leaves)
+ *   KEY_COUNT  for each key an OR of "not counted" and "counted and known", with a Pedersen commitment per key whose sum
+ *              shows k were counted (3n + 1 leaves and n extra commitments)
+ *   THRESHOLD  n Schnorr proofs whose challenges lie on a polynomial through the main challenge (n leaves, n - k
+ *              coefficients and some arithmetic mod challengePrime)
+ *
+ * Each construction is priced the way it is run:  the planner builds the account's proof as the main party does, counts
+ * it with ProofCost (proving it, and verifying the other party's proof through its ProofPlan, as the pipelined sessions
+ * do), adds the account's Pedersen commitments and weighs the counts with its ProofCost.Profile.  Each party proves and
+ * verifies every account, so both sides are counted.  Round trips are the same for every construction and are left out.
+ * Choices are cached per (n, k).  Ties go to KEY_COUNT, then THRESHOLD, so 1-of-n and n-of-n accounts (where the
+ * constructions are the same OR or AND) keep the KeyCount proofs.
+ *
+ * NAIVE trees of more than MAX_NAIVE_LEAVES leaves are not built:  KEY_COUNT's 3n + 1 leaves are far cheaper by then.
+ *
+ * Both parties must choose the same way;  agree() checks that they use the same planner.
+ */
+public class MultiSigPlanner
+{
+	public enum Construction
+	{
+		KEY_COUNT, THRESHOLD, NAIVE;
+
+		public static Construction forName(String name)
+		{
+			switch(name.toLowerCase())
+			{
+				case "keycount":
+				case "key_count":
+					return KEY_COUNT;
+				case "threshold":
+				case "threshhold":
+					return THRESHOLD;
+				case "naive":
+					return NAIVE;
+				default:
+					throw new IllegalArgumentException("Unknown multi-signature construction " + name);
+			}
+		}
+	}
+
+	/**
+	 * The estimated work of one party's share of one account:  proving it, verifying the other party's proof of it and
+	 * making its commitments.
+	 */
+	public static class Cost
+	{
+		public final long leaves;
+		//null for a tree too large to build
+		public final ProofCost.Counts work;
+		public final double micros;
+
+		Cost(long leaves, ProofCost.Counts work, double micros)
+		{
+			this.leaves = leaves;
+			this.work = work;
+			this.micros = micros;
+		}
+
+		@Override
+		public String toString()
+		{
+			return work == null ? String.format("%d leaves, not built", leaves) : String.format("%d leaves, %s, %.0f us", leaves, work, micros);
+		}
+	}
+
+	public static final int MAX_NAIVE_LEAVES = 4096;
+
+	/**
+	 * secp256k1, priced with ProofCost.Profile.DEFAULT.
+	 */
+	public static final MultiSigPlanner DEFAULT = new MultiSigPlanner("secp256k1", ProofCost.Profile.DEFAULT);
+
+	private static final ECSchnorrProver schnorr = new ECSchnorrProver();
+
+	private final String curveName;
+	private final ProofCost.Profile profile;
+	private final Construction forced;
+	private final CryptoData miniEnv;
+	private final CryptoData revMiniEnv;
+	private final int pointBytes;
+	private final ConcurrentHashMap<Long, Construction> choices = new ConcurrentHashMap<Long, Construction>();
+
+	public MultiSigPlanner(String curveName, ProofCost.Profile profile)
+	{
+		this(curveName, profile, null);
+	}
+
+	private MultiSigPlanner(String curveName, ProofCost.Profile profile, Construction forced)
+	{
+		ECParameterSpec spec = ECNamedCurveTable.getParameterSpec(curveName);
+		if(spec == null) throw new IllegalArgumentException("Unknown curve " + curveName);
+		this.curveName = curveName;
+		this.profile = profile;
+		this.forced = forced;
+		ECCurve curve = spec.getCurve();
+		ECPoint g = spec.getG();
+		//Any second generator has the same costs
+		ECPoint h = g.twice().normalize();
+		miniEnv = new CryptoDataArray(new CryptoData[] {new ECCurveData(curve, g), new ECPointData(h)});
+		revMiniEnv = new CryptoDataArray(new CryptoData[] {new ECCurveData(curve, h), new ECPointData(g)});
+		pointBytes = (curve.getFieldSize() + 7) / 8 + 2;
+	}
+
+	/**
+	 * @return a planner that always chooses c, but still estimates as this one does
+	 */
+	public MultiSigPlanner always(Construction c)
+	{
+		return new MultiSigPlanner(curveName, profile, c);
+	}
+
+	/**
+	 * @return a planner that chooses as this one does, but estimates on the named curve
+	 */
+	public MultiSigPlanner on(String curveName)
+	{
+		return new MultiSigPlanner(curveName, profile, forced);
+	}
+
+	/**
+	 * @param name "auto" for DEFAULT, or a construction name (keycount, threshold or naive) for DEFAULT.always of it
+	 */
+	public static MultiSigPlanner forName(String name)
+	{
+		if(name.equalsIgnoreCase("auto")) return DEFAULT;
+		return DEFAULT.always(Construction.forName(name));
+	}
+
+	public ProofCost.Profile getProfile()
+	{
+		return profile;
+	}
+
+	/**
+	 * @return the construction to prove k-of-n accounts with
+	 */
+	public Construction choose(int n, int k)
+	{
+		if(forced != null) return forced;
+		if(n < k || k < 1) throw new ArrayIndexOutOfBoundsException();
+		return choices.computeIfAbsent(((long) n << 32) | k, key -> {
+			Construction best = null;
+			double bestMicros = Double.POSITIVE_INFINITY;
+			for(Construction c : Construction.values())
+			{
+				double micros = estimate(c, n, k).micros;
+				if(micros < bestMicros)
+				{
+					best = c;
+					bestMicros = micros;
+				}
+			}
+			return best;
+		});
+	}
+
+	public Cost estimate(Construction c, int n, int k)
+	{
+		if(n < k || k < 1) throw new ArrayIndexOutOfBoundsException();
+		if(c == Construction.NAIVE && k != 1 && k != n)
+		{
+			double leaves = subsets(n, k) * k;
+			if(leaves > MAX_NAIVE_LEAVES) return new Cost((long) Math.min(leaves, Long.MAX_VALUE), null, Double.POSITIVE_INFINITY);
+		}
+		ZKPProtocol keyProtocol = VarianceToolkit.createMultiSigProof(c, n, k, schnorr, schnorr, ZeroKnowledgeThreshhold.DEFAULT_CHALLENGE_PRIME);
+		ZKPProtocol prover = VarianceToolkit.createVarianceMultiSigProof(keyProtocol, schnorr);
+		CryptoData keyEnv = VarianceToolkit.createMultiSigEnvironment(c, n, k, miniEnv, revMiniEnv);
+		ProofCost cost = ProofCost.of(prover, VarianceToolkit.createVarianceEnvironment(keyEnv, miniEnv));
+		//A Pedersen commitment is two multiplications and an addition, sent as one point
+		int commitments = 1 + (c == Construction.KEY_COUNT && k != 1 && k != n ? n : 0);
+		ProofCost.Counts committed = new ProofCost.Counts(2 * commitments, commitments, 0, commitments * pointBytes, 1);
+		ProofCost.Counts work = cost.prove.plus(cost.verifyCompiled).plus(committed);
+		return new Cost(cost.leafCount, work, work.micros(profile));
+	}
+
+	//As a double, so a large n does not overflow
+	private static double subsets(int n, int k)
+	{
+		double toReturn = 1;
+		for(int i = 1; i <= Math.min(k, n - k); i++)
+			toReturn = toReturn * (n - Math.min(k, n - k) + i) / i;
+		return Math.rint(toReturn);
+	}
+
+	/**
+	 * Sends this planner's settings and compares them with the other party's.
+	 *
+	 * @return this planner if the other party uses the same one, otherwise one that always chooses KEY_COUNT
+	 */
+	public MultiSigPlanner agree(ObjectInputStream in, ObjectOutputStream out) throws IOException
+	{
+		out.writeByte(forced == null ? -1 : forced.ordinal());
+		out.writeUTF(curveName);
+		out.writeDouble(profile.scalarMultiplicationMicros);
+		out.writeDouble(profile.pointAdditionMicros);
+		out.writeDouble(profile.fieldOperationMicros);
+		out.writeDouble(profile.byteMicros);
+		out.writeDouble(profile.roundTripMicros);
+		out.flush();
+		boolean same = in.readByte() == (forced == null ? -1 : forced.ordinal());
+		same &= in.readUTF().equals(curveName);
+		same &= in.readDouble() == profile.scalarMultiplicationMicros;
+		same &= in.readDouble() == profile.pointAdditionMicros;
+		same &= in.readDouble() == profile.fieldOperationMicros;
+		same &= in.readDouble() == profile.byteMicros;
+		same &= in.readDouble() == profile.roundTripMicros;
+		return same ? this : always(Construction.KEY_COUNT);
+	}
+
+	@Override
+	public String toString()
+	{
+		return forced == null ? "auto" : forced.toString();
+	}
+}
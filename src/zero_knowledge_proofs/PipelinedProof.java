@@ -0,0 +1,28 @@
+package zero_knowledge_proofs;
+
+import java.math.BigInteger;
+
+import zero_knowledge_proofs.CryptoData.CryptoData;
+
+/**
+ * One proof of a PipelinedProofSession:  the same arguments parallelZKProve takes for a single proof.
+ */
+public class PipelinedProof
+{
+	public final ZKPProtocol prover;
+	public final CryptoData proverInput;
+	public final CryptoData verifierInput;
+	public final CryptoData environment;
+	public final ChallengeCommitment myCmt;
+	public final BigInteger[] challenge;
+
+	public PipelinedProof(ZKPProtocol prover, CryptoData proverInput, CryptoData verifierInput, CryptoData environment, ChallengeCommitment myCmt, BigInteger[] challenge)
+	{
+		this.prover = prover;
+		this.proverInput = proverInput;
+		this.verifierInput = verifierInput;
+		this.environment = environment;
+		this.myCmt = myCmt;
+		this.challenge = challenge;
+	}
+}
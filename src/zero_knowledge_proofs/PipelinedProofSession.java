@@ -0,0 +1,477 @@
+package zero_knowledge_proofs;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+import zero_knowledge_proofs.CryptoData.CryptoData;
+
+/**
+ * Runs a block of parallelZKProve exchanges with many proofs in flight at once.  A writer thread drains a queue of
+ * outgoing messages and a reader thread dispatches incoming ones, so neither party waits a round trip per proof.
+ * Every message carries its proof index, and each proof moves through the same steps as parallelZKProve:
+ *
+ *  1. send my challenge commitment
+ *  2. once their commitment is in, send my initial commitment
+ *  3. once their initial commitment is in, open my challenge
+ *  4. once their challenge is in, send my response (null if their opening was bad)
+ *  5. once their response is in, send whether I believe them
+ *
+ * The per-step checks (a challenge is only opened after the other initial commitment arrived, and so on) keep the
+ * security of the lock-step protocol.  The reader holds the other party to the same steps:  a message it already sent
+ * for that proof, or one it could not have sent yet (a challenge before it had my initial commitment, say), fails the
+ * run with an IOException.  Both parties must run the same number of proofs with the same codec;  the window
+ * sizes may differ.  Friends are not supported, use parallelZKProveWithFriends for those accounts.
+ */
+public class PipelinedProofSession
+{
+	public static final int DEFAULT_WINDOW = 256;
+
+	private static final byte CMT = 0;
+	private static final byte A = 1;
+	private static final byte CHALLENGE = 2;
+	private static final byte Z = 3;
+	private static final byte VERDICT = 4;
+	private static final int MESSAGES_PER_PROOF = 5;
+	private static final int ALL_RECEIVED = (1 << MESSAGES_PER_PROOF) - 1;
+
+	private final ObjectInputStream in;
+	private final ObjectOutputStream out;
+	private final CryptoDataCodec codec;
+	private final int window;
+	private final Executor compute;
+
+	private Proof[] proofs;
+	private CryptoData commitmentEnvironment;
+	private ArrayBlockingQueue<Message> outgoing;
+	private Semaphore inFlight;
+	private CountDownLatch finished;
+	private volatile Throwable failure;
+
+	/**
+	 * Incoming messages are handled on the reader thread.
+	 */
+	public PipelinedProofSession(ObjectInputStream in, ObjectOutputStream out, CryptoDataCodec codec, int window)
+	{
+		this(in, out, codec, window, null);
+	}
+
+	/**
+	 * @param compute Runs the prover and verifier work (initial commitments, responses and checks) so proofs of a block use every core,
+	 * for example a ForkJoinPool.  Null computes initial commitments on the calling thread and everything else on the reader thread.
+	 */
+	public PipelinedProofSession(ObjectInputStream in, ObjectOutputStream out, CryptoDataCodec codec, int window, Executor compute)
+	{
+		if(window < 1) throw new IllegalArgumentException("window = " + window);
+		this.in = in;
+		this.out = out;
+		this.codec = codec;
+		this.window = window;
+		this.compute = compute;
+	}
+
+	/**
+	 * Runs every proof and returns, in order, whether both parties accepted it.  The transcript (may be null) gets the same
+	 * entries parallelZKProve writes, in proof order.  The streams are left at a message boundary, so lock-step traffic can
+	 * continue once this returns.
+	 *
+	 * If it throws, the input stream has been closed to stop the reader and writer threads, which have finished by the
+	 * time it returns.  The streams are then in the middle of a message, so the transport cannot be used again and
+	 * should be closed.
+	 */
+	public boolean[] run(List<PipelinedProof> block, CryptoData commitmentEnvironment, StringBuilder transcript) throws IOException, MultipleTrueProofException, NoTrueProofException, ArraySizesDoNotMatchException
+	{
+		return run(block, commitmentEnvironment, transcript == null ? null : new TextTranscript(transcript));
+	}
+
+	public boolean[] run(List<PipelinedProof> block, CryptoData commitmentEnvironment, Transcript transcript) throws IOException, MultipleTrueProofException, NoTrueProofException, ArraySizesDoNotMatchException
+	{
+		int count = block.size();
+		boolean[] toReturn = new boolean[count];
+		if(count == 0) return toReturn;
+		this.commitmentEnvironment = commitmentEnvironment;
+		proofs = new Proof[count];
+		for(int i = 0; i < count; i++)
+			proofs[i] = new Proof(i, block.get(i));
+		outgoing = new ArrayBlockingQueue<Message>(Math.min(count, window) * MESSAGES_PER_PROOF);
+		inFlight = new Semaphore(window);
+		finished = new CountDownLatch(count);
+		failure = null;
+
+		Thread writer = new Thread(this::write, "proof-writer");
+		Thread reader = new Thread(this::read, "proof-reader");
+		writer.setDaemon(true);
+		reader.setDaemon(true);
+		writer.start();
+		reader.start();
+		try
+		{
+			for(int i = 0; i < count && failure == null; i++)
+			{
+				inFlight.acquire();
+				Proof p = proofs[i];
+				if(compute == null) start(p);
+				else compute.execute(() -> {
+					try
+					{
+						start(p);
+					}
+					catch(Throwable e)
+					{
+						fail(e);
+					}
+				});
+			}
+			finished.await();
+			if(failure == null)
+			{
+				writer.join();
+				reader.join();
+			}
+		}
+		catch(InterruptedException e)
+		{
+			fail(e);
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+		catch(Throwable e)
+		{
+			fail(e);
+			throw e;
+		}
+		finally
+		{
+			if(failure != null) stop(writer, reader);
+		}
+		if(failure != null)
+		{
+			if(failure instanceof IOException) throw (IOException) failure;
+			if(failure instanceof MultipleTrueProofException) throw (MultipleTrueProofException) failure;
+			if(failure instanceof NoTrueProofException) throw (NoTrueProofException) failure;
+			if(failure instanceof ArraySizesDoNotMatchException) throw (ArraySizesDoNotMatchException) failure;
+			throw new IOException(failure);
+		}
+
+		for(int i = 0; i < count; i++)
+		{
+			Proof p = proofs[i];
+			toReturn[i] = p.valid && p.otherValid && p.believeOther && p.believeMe;
+			if(transcript != null && p.otherZ != null)
+				transcript.proof(p.proof.prover, p.proof.environment, commitmentEnvironment, p.proof.myCmt, p.proof.verifierInput, p.otherA, p.otherZ, p.proof.challenge[0], p.proof.challenge[1]);
+		}
+		proofs = null;
+		return toReturn;
+	}
+
+	private void start(Proof p) throws MultipleTrueProofException, NoTrueProofException, ArraySizesDoNotMatchException
+	{
+		CryptoData a = p.proof.prover.initialComm(p.proof.proverInput, p.proof.environment);
+		synchronized(p)
+		{
+			p.a = a;
+			p.advance();
+		}
+	}
+
+	private void write()
+	{
+		try
+		{
+			for(int sent = 0; sent < proofs.length * MESSAGES_PER_PROOF; sent++)
+			{
+				Message m = outgoing.poll();
+				if(m == null)
+				{
+					//Nothing else is ready, so push what we have to the other party before waiting
+					out.flush();
+					m = outgoing.take();
+				}
+				if(m.type < 0) return;
+				out.writeByte(m.type);
+				out.writeInt(m.index);
+				switch(m.type)
+				{
+					case CMT:
+						codec.writeChallengeCommitment(out, (ChallengeCommitment) m.payload);
+						break;
+					case A:
+					case Z:
+						codec.writeData(out, (CryptoData) m.payload);
+						break;
+					case CHALLENGE:
+						codec.writeIntegers(out, (BigInteger[]) m.payload);
+						break;
+					case VERDICT:
+						out.writeBoolean((Boolean) m.payload);
+						break;
+				}
+				//A proof leaves the window once all of its messages are written, which keeps the queue within its bound
+				if(++proofs[m.index].written == MESSAGES_PER_PROOF) inFlight.release();
+			}
+			out.flush();
+		}
+		catch(Throwable e)
+		{
+			fail(e);
+		}
+	}
+
+	private void read()
+	{
+		try
+		{
+			for(int received = 0; received < proofs.length * MESSAGES_PER_PROOF && failure == null; received++)
+			{
+				byte type = in.readByte();
+				int index = in.readInt();
+				if(index < 0 || index >= proofs.length) throw new IOException("Proof index " + index + " out of range");
+				if(type < CMT || type > VERDICT) throw new IOException("Unknown message type " + type);
+				Proof p = proofs[index];
+				synchronized(p)
+				{
+					p.expect(type);
+				}
+				Object payload;
+				switch(type)
+				{
+					case CMT:
+						payload = proofs[index].proof.myCmt.getScheme().accept(codec.readChallengeCommitment(in));
+						break;
+					case A:
+					case Z:
+						payload = codec.readData(in);
+						break;
+					case CHALLENGE:
+						payload = codec.readIntegers(in);
+						break;
+					case VERDICT:
+						payload = in.readBoolean();
+						break;
+					default:
+						throw new IOException("Unknown message type " + type);
+				}
+				Message m = new Message(type, index, payload);
+				if(compute == null) receive(m);
+				else compute.execute(() -> receive(m));
+			}
+			//Every message was new, so every proof has all of its own;  without an executor they have been handled too
+			for(int i = 0; i < proofs.length && failure == null; i++)
+			{
+				Proof p = proofs[i];
+				synchronized(p)
+				{
+					if(p.received != ALL_RECEIVED || (compute == null && !p.done)) throw new IOException("Proof " + i + " did not finish");
+				}
+			}
+		}
+		catch(Throwable e)
+		{
+			fail(e);
+		}
+	}
+
+	private void receive(Message m)
+	{
+		Proof p = proofs[m.index];
+		try
+		{
+			synchronized(p)
+			{
+				switch(m.type)
+				{
+					case CMT:
+						p.otherCmt = (ChallengeCommitment) m.payload;
+						break;
+					case A:
+						p.otherA = (CryptoData) m.payload;
+						break;
+					case CHALLENGE:
+						p.otherChallenge = (BigInteger[]) m.payload;
+						break;
+					case Z:
+						p.otherZ = (CryptoData) m.payload;
+						p.hasOtherZ = true;
+						break;
+					case VERDICT:
+						p.believeMe = (Boolean) m.payload;
+						p.hasVerdict = true;
+						break;
+				}
+				p.advance();
+			}
+		}
+		catch(Throwable e)
+		{
+			fail(e);
+		}
+	}
+
+	private void send(byte type, int index, Object payload)
+	{
+		//At most window proofs have unwritten messages, so this never waits on the writer
+		if(!outgoing.offer(new Message(type, index, payload)))
+			throw new IllegalStateException("Outgoing queue overflow");
+	}
+
+	private void fail(Throwable e)
+	{
+		if(failure == null) failure = e;
+		outgoing.offer(new Message((byte) -1, -1, null));
+		inFlight.release(proofs.length);
+		while(finished.getCount() > 0)
+			finished.countDown();
+	}
+
+	//After a failure the reader may wait for a message that never comes and the writer for room in the channel.  Closing
+	//the input wakes the reader (and closes a socket under the writer too);  a writer waiting on the queue or on a
+	//loopback pipe is interrupted.
+	private void stop(Thread writer, Thread reader)
+	{
+		try
+		{
+			in.close();
+		}
+		catch(IOException e)
+		{
+		}
+		boolean interrupted = false;
+		for(Thread t : new Thread[] {writer, reader})
+		{
+			t.interrupt();
+			while(t.isAlive())
+			{
+				try
+				{
+					t.join();
+				}
+				catch(InterruptedException e)
+				{
+					interrupted = true;
+				}
+			}
+		}
+		if(interrupted) Thread.currentThread().interrupt();
+	}
+
+	private static class Message
+	{
+		final byte type;
+		final int index;
+		final Object payload;
+
+		Message(byte type, int index, Object payload)
+		{
+			this.type = type;
+			this.index = index;
+			this.payload = payload;
+		}
+	}
+
+	private class Proof
+	{
+		final int index;
+		final PipelinedProof proof;
+		CryptoData a;
+		ChallengeCommitment otherCmt;
+		CryptoData otherA;
+		BigInteger[] otherChallenge;
+		CryptoData otherZ;
+		boolean hasOtherZ;
+		boolean hasVerdict;
+		//Message types read for this proof, a bit each
+		int received;
+		int written;
+		boolean cmtSent, aSent, challengeSent, zSent, verdictSent, done;
+		boolean valid, otherValid, believeOther, believeMe;
+
+		Proof(int index, PipelinedProof proof)
+		{
+			this.index = index;
+			this.proof = proof;
+		}
+
+		//Checks a message the reader is about to read against what the other party can have done so far, in the order
+		//the messages were sent (handling them may be reordered by the executor).  Callers hold the lock on this proof.
+		void expect(byte type) throws IOException
+		{
+			if((received & 1 << type) != 0) throw new IOException("Proof " + index + ":  message " + type + " received twice");
+			boolean ready;
+			switch(type)
+			{
+				case A:
+					//They send it once they have sent their commitment and have mine
+					ready = has(CMT) && cmtSent;
+					break;
+				case CHALLENGE:
+					ready = has(A) && aSent;
+					break;
+				case Z:
+					ready = has(A) && challengeSent;
+					break;
+				case VERDICT:
+					ready = has(CHALLENGE) && zSent;
+					break;
+				default:
+					ready = true;
+			}
+			if(!ready) throw new IOException("Proof " + index + ":  message " + type + " out of order");
+			received |= 1 << type;
+		}
+
+		private boolean has(byte type)
+		{
+			return (received & 1 << type) != 0;
+		}
+
+		//Sends every message whose preconditions are met.  Callers hold the lock on this proof.
+		void advance() throws NoTrueProofException, MultipleTrueProofException
+		{
+			if(a != null && !cmtSent)
+			{
+				send(CMT, index, proof.myCmt);
+				cmtSent = true;
+			}
+			if(cmtSent && otherCmt != null && !aSent)
+			{
+				send(A, index, a);
+				aSent = true;
+			}
+			if(aSent && otherA != null && !challengeSent)
+			{
+				send(CHALLENGE, index, proof.challenge);
+				challengeSent = true;
+			}
+			if(aSent && otherChallenge != null && !zSent)
+			{
+				valid = otherCmt.verifyCommitment(otherChallenge[0], otherChallenge[1], commitmentEnvironment);
+				CryptoData z = null;
+				if(valid) z = proof.prover.calcResponse(proof.proverInput, otherChallenge[0], proof.environment);
+				else System.out.println("Proof " + index + ":  They lied in the commitment.");
+				send(Z, index, z);
+				zSent = true;
+			}
+			if(challengeSent && hasOtherZ && !verdictSent)
+			{
+				otherValid = otherZ != null;
+				if(!otherValid) System.out.println("Proof " + index + ":  They think I lied in the commitment");
+				believeOther = otherValid && proof.prover.verifyCompiled(proof.verifierInput, otherA, otherZ, proof.challenge[0], proof.environment);
+				if(otherValid && !believeOther) System.out.println("Proof " + index + ":  I don't believe them");
+				send(VERDICT, index, believeOther);
+				verdictSent = true;
+			}
+			if(zSent && verdictSent && hasVerdict && !done)
+			{
+				done = true;
+				if(valid && !believeMe) System.out.println("Proof " + index + ":  They don't believe me..." + proof.challenge[0]);
+				finished.countDown();
+			}
+		}
+	}
+}
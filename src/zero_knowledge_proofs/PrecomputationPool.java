@@ -0,0 +1,141 @@
+package zero_knowledge_proofs;
+
+import java.math.BigInteger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.bouncycastle.math.ec.ECPoint;
+
+/**
+ * Random scalars r paired with base*r, made ahead of time.  A Schnorr nonce and its commitment g*r, and the g*z half
+ * of a simulated transcript, never depend on the challenge, so a pool can compute them before (or while) the other
+ * party connects and leave only the challenge dependent work for the live session.
+ *
+ * Every pair is handed out once.  The i-th call to take() gets pair i, whose scalar comes from the sub-stream split(i)
+ * of the pool's sampler, whether the filler thread made it ahead of time or take() has to make it because the pool ran
+ * dry.  A session seeded from one ScalarSampler therefore gets the same nonces in the same order on every run, however
+ * the filler is scheduled, and a pool never blocks a proof.
+ *
+ * A pool belongs to one session:  pass it to the VarianceToolkit input builders that take one, and stop it when the
+ * session ends, however it ends, so its filler thread does not outlive it.
+ */
+public class PrecomputationPool
+{
+	public static final int DEFAULT_CAPACITY = 1 << 14;
+
+	private final ECPoint base;
+	private final BigInteger order;
+	private final ScalarSampler source;
+	private final int capacity;
+	//Pairs made ahead of time, by index;  indices below taken are either handed out or being made by take()
+	private final ConcurrentHashMap<Long, Nonce> made = new ConcurrentHashMap<Long, Nonce>();
+	private final AtomicLong taken = new AtomicLong();
+	//Set by the filler while it waits for room, so take() only wakes it when it has to
+	private volatile boolean waiting;
+	private volatile Thread filler;
+
+	public static class Nonce
+	{
+		public final BigInteger r;
+		public final ECPoint commitment;
+
+		private Nonce(BigInteger r, ECPoint commitment)
+		{
+			this.r = r;
+			this.commitment = commitment;
+		}
+	}
+
+	public PrecomputationPool(ECPoint base, ScalarSampler source, int capacity)
+	{
+		this.base = ECMultiScalarMult.precomputeFixedBase(base);
+		this.order = base.getCurve().getOrder();
+		this.source = source;
+		this.capacity = capacity;
+	}
+
+	public ECPoint getBase()
+	{
+		return base;
+	}
+
+	public int available()
+	{
+		return made.size();
+	}
+
+	/**
+	 * Computes the next pairs on this thread until count are ready or the pool is full.
+	 */
+	public void fill(int count)
+	{
+		count = Math.min(count, capacity);
+		for(long i = taken.get(); made.size() < count; i++)
+		{
+			i = Math.max(i, taken.get());
+			if(!made.containsKey(i)) store(i, create(i));
+		}
+	}
+
+	/**
+	 * Keeps the pool full from a daemon thread until stop is called.
+	 */
+	public synchronized void startBackgroundFill()
+	{
+		if(filler != null) return;
+		filler = new Thread(() -> {
+			long i = taken.get();
+			while(!Thread.currentThread().isInterrupted())
+			{
+				i = Math.max(i, taken.get());
+				if(i >= taken.get() + capacity)
+				{
+					waiting = true;
+					if(i >= taken.get() + capacity) LockSupport.park(this);
+					waiting = false;
+					continue;
+				}
+				if(!made.containsKey(i)) store(i, create(i));
+				i++;
+			}
+		}, "precomputation-pool");
+		filler.setDaemon(true);
+		filler.setPriority(Thread.MIN_PRIORITY);
+		filler.start();
+	}
+
+	public synchronized void stop()
+	{
+		if(filler == null) return;
+		filler.interrupt();
+		filler = null;
+	}
+
+	public Nonce take()
+	{
+		long i = taken.getAndIncrement();
+		Nonce n = made.remove(i);
+		if(n == null) n = create(i);
+		if(waiting)
+		{
+			Thread f = filler;
+			if(f != null) LockSupport.unpark(f);
+		}
+		return n;
+	}
+
+	//Pair i is the same whichever thread makes it
+	private Nonce create(long i)
+	{
+		BigInteger r = source.split(i).scalar(order);
+		return new Nonce(r, ECMultiScalarMult.multiply(base, r).normalize());
+	}
+
+	//take() claims an index before looking for it, so a pair stored after its index was claimed is never handed out
+	private void store(long i, Nonce n)
+	{
+		made.put(i, n);
+		if(i < taken.get()) made.remove(i);
+	}
+}
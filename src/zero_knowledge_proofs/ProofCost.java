@@ -0,0 +1,406 @@
+package zero_knowledge_proofs;
+
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.WNafUtil;
+
+import zero_knowledge_proofs.CryptoData.CryptoData;
+
+/**
+ * The work of one proof, counted from the shape of its ZKPProtocol tree instead of by running it.  For each of prove,
+ * simulate and verify it counts scalar multiplications (a sumOfMultiplies of m terms counts m, and m - 1 additions),
+ * point additions, field operations (threshold proofs' polynomial arithmetic) and the bytes and messages that role sends
+ * in the sigma protocol, as CryptoDataCodec encodes them:  the prover and simulator send a and z, the verifier its
+ * challenge.
+ *
+ * Provers are priced in the cheapest way they can be run:  an OR proves one branch and simulates the rest, a threshold
+ * proof proves k and simulates n - k, and where branches differ the dearest branch is the one taken to be true.  Leaves
+ * are priced from a table of their classes;  registerLeaf adds others.  A leaf that is not in the table is counted in
+ * unknownLeaves and adds nothing else.
+ *
+ * verifyCompiled is the verifier's work through ZKPProtocol.verifyCompiled, as the pipelined sessions verify:  the
+ * equations of every leaf that has addBatchEquations go into one multi-scalar multiplication, whose terms are each leaf's
+ * own points plus the distinct points of the environment, and the other leaves are verified one by one.  The
+ * multiplication is counted as the point additions and doublings of the method ECMultiScalarMult would use for that many
+ * terms (doublings count as additions).
+ *
+ * Costs are kept per tree signature (its toString), curve and number of environment points, so analyzing the prover of
+ * every account is cheap.
+ */
+public class ProofCost
+{
+	/**
+	 * What one role does in one proof.
+	 */
+	public static class Counts
+	{
+		public final long scalarMultiplications;
+		public final long pointAdditions;
+		public final long fieldOperations;
+		public final long bytes;
+		public final int messages;
+
+		public Counts(long scalarMultiplications, long pointAdditions, long fieldOperations, long bytes, int messages)
+		{
+			this.scalarMultiplications = scalarMultiplications;
+			this.pointAdditions = pointAdditions;
+			this.fieldOperations = fieldOperations;
+			this.bytes = bytes;
+			this.messages = messages;
+		}
+
+		Counts plus(Counts other)
+		{
+			return new Counts(scalarMultiplications + other.scalarMultiplications, pointAdditions + other.pointAdditions, fieldOperations + other.fieldOperations, bytes + other.bytes, messages);
+		}
+
+		Counts minus(Counts other)
+		{
+			return new Counts(scalarMultiplications - other.scalarMultiplications, pointAdditions - other.pointAdditions, fieldOperations - other.fieldOperations, bytes - other.bytes, messages);
+		}
+
+		/**
+		 * @return the time in us under profile
+		 */
+		public double micros(Profile profile)
+		{
+			return scalarMultiplications * profile.scalarMultiplicationMicros + pointAdditions * profile.pointAdditionMicros + fieldOperations * profile.fieldOperationMicros + bytes * profile.byteMicros;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("%d scalar mults, %d point adds, %d field ops, %d bytes, %d messages", scalarMultiplications, pointAdditions, fieldOperations, bytes, messages);
+		}
+	}
+
+	/**
+	 * The cost of each operation in us, as measured on the machine that will run the proofs.
+	 */
+	public static class Profile
+	{
+		/**
+		 * secp256k1 on one core of a current machine:  400 us a scalar multiplication, a point addition or doubling at
+		 * about 1/300 of that (a multiplication is some 256 doublings and 50 additions), 1 us a 256 bit modular
+		 * multiplication, a 100 Mbit/s link and a 1 ms round trip.
+		 */
+		public static final Profile DEFAULT = new Profile(400, 1.3, 1, 0.08, 1000);
+
+		public final double scalarMultiplicationMicros;
+		public final double pointAdditionMicros;
+		public final double fieldOperationMicros;
+		public final double byteMicros;
+		public final double roundTripMicros;
+
+		public Profile(double scalarMultiplicationMicros, double pointAdditionMicros, double fieldOperationMicros, double byteMicros, double roundTripMicros)
+		{
+			this.scalarMultiplicationMicros = scalarMultiplicationMicros;
+			this.pointAdditionMicros = pointAdditionMicros;
+			this.fieldOperationMicros = fieldOperationMicros;
+			this.byteMicros = byteMicros;
+			this.roundTripMicros = roundTripMicros;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("scalar mult %.2f us, point add %.2f us, field op %.3f us, byte %.4f us, round trip %.0f us", scalarMultiplicationMicros, pointAdditionMicros, fieldOperationMicros, byteMicros, roundTripMicros);
+		}
+	}
+
+	//What a leaf sends and does, in points, scalars and operations;  batchPoints is -1 for a leaf that is not batched
+	private static class Leaf
+	{
+		final int aPoints;
+		final int zScalars;
+		final int[] prove;
+		final int[] simulate;
+		final int[] verify;
+		final int batchPoints;
+		final int batchBases;
+
+		Leaf(int aPoints, int zScalars, int[] prove, int[] simulate, int[] verify, int batchPoints, int batchBases)
+		{
+			this.aPoints = aPoints;
+			this.zScalars = zScalars;
+			this.prove = prove;
+			this.simulate = simulate;
+			this.verify = verify;
+			this.batchPoints = batchPoints;
+			this.batchBases = batchBases;
+		}
+	}
+
+	private static final ConcurrentHashMap<Class<?>, Leaf> leaves = new ConcurrentHashMap<Class<?>, Leaf>();
+	private static final ConcurrentHashMap<String, ProofCost> costs = new ConcurrentHashMap<String, ProofCost>();
+
+	static
+	{
+		registerLeaf(ECSchnorrProver.class, 1, 1, 1, 0, 2, 1, 2, 1, 2, 1);
+		registerLeaf(ECEqualDiscreteLogsProver.class, 2, 1, 2, 0, 4, 2, 4, 2, 4, 2);
+		registerLeaf(ECProofOfPrechosenExponentProver.class, 2, 2, 3, 1, 5, 3, 5, 3);
+		registerLeaf(ECPOKPedersenProver.class, 1, 2, 2, 1, 3, 2, 3, 2, 2, 2);
+		//ECProvisions can not be simulated
+		registerLeaf(ECProvisionsProver.class, 5, 7, 9, 4, 0, 0, 13, 9);
+	}
+
+	public final Counts prove;
+	public final Counts simulate;
+	public final Counts verify;
+	public final Counts verifyCompiled;
+	public final int leafCount;
+	public final int unknownLeaves;
+	//The points the batched leaves add to a ProofPlan's multiplication besides the environment's, the environment points
+	//they use (counting shared ones again) and what the leaves that are not batched cost to verify
+	private final long batchPoints;
+	private final long batchBases;
+	private final Counts unbatched;
+
+	private ProofCost(Counts prove, Counts simulate, Counts verify, Counts verifyCompiled, int leafCount, int unknownLeaves, long batchPoints, long batchBases, Counts unbatched)
+	{
+		this.prove = prove;
+		this.simulate = simulate;
+		this.verify = verify;
+		this.verifyCompiled = verifyCompiled;
+		this.leafCount = leafCount;
+		this.unknownLeaves = unknownLeaves;
+		this.batchPoints = batchPoints;
+		this.batchBases = batchBases;
+		this.unbatched = unbatched;
+	}
+
+	/**
+	 * Prices a leaf prover that ProofPlan verifies on its own:  it sends aPoints points and zScalars scalars, and proving,
+	 * simulating and verifying take the given scalar multiplications and point additions.
+	 */
+	public static void registerLeaf(Class<? extends ZKPProtocol> prover, int aPoints, int zScalars, int proveMultiplications, int proveAdditions, int simulateMultiplications, int simulateAdditions, int verifyMultiplications, int verifyAdditions)
+	{
+		registerLeaf(prover, aPoints, zScalars, proveMultiplications, proveAdditions, simulateMultiplications, simulateAdditions, verifyMultiplications, verifyAdditions, -1, 0);
+	}
+
+	/**
+	 * Prices a leaf prover that has addBatchEquations:  its equations add batchPoints points of its own (its input and
+	 * a) and batchBases points of its environment to a batch.
+	 */
+	public static void registerLeaf(Class<? extends ZKPProtocol> prover, int aPoints, int zScalars, int proveMultiplications, int proveAdditions, int simulateMultiplications, int simulateAdditions, int verifyMultiplications, int verifyAdditions, int batchPoints, int batchBases)
+	{
+		leaves.put(prover, new Leaf(aPoints, zScalars, new int[] {proveMultiplications, proveAdditions}, new int[] {simulateMultiplications, simulateAdditions}, new int[] {verifyMultiplications, verifyAdditions}, batchPoints, batchBases));
+		costs.clear();
+	}
+
+	/**
+	 * @param environment the tree's environment;  the leaves' curves fix the sizes of points and scalars, and its distinct
+	 * points are the bases a ProofPlan's batch merges the leaves' terms on
+	 */
+	public static ProofCost of(ZKPProtocol tree, CryptoData environment)
+	{
+		ECCurve curve = curveOf(environment);
+		HashSet<ECPoint> bases = new HashSet<ECPoint>();
+		pointsOf(environment, curve, bases);
+		String key = tree.toString() + "@" + curve.getFieldSize() + "/" + curve.getOrder().bitLength() + "/" + bases.size();
+		ProofCost toReturn = costs.get(key);
+		if(toReturn == null)
+		{
+			Sizes sizes = new Sizes(curve);
+			toReturn = analyze(tree, sizes).compiled(tree, bases.size(), sizes);
+			costs.putIfAbsent(key, toReturn);
+		}
+		return toReturn;
+	}
+
+	/**
+	 * The cost of a prover given in generateProver's form, on curve.  With no environment to look at, every environment
+	 * point a leaf uses is taken to be a separate base of the batch.
+	 */
+	public static ProofCost of(String prover, ECCurve curve) throws InvalidStringFormatException
+	{
+		ZKToolkit.register();
+		try
+		{
+			ZKPProtocol tree = ZKPProtocol.generateProver(prover.replace(" ", ""));
+			Sizes sizes = new Sizes(curve);
+			ProofCost toReturn = analyze(tree, sizes);
+			return toReturn.compiled(tree, toReturn.batchBases, sizes);
+		}
+		catch(ReflectiveOperationException | IllegalArgumentException | SecurityException e)
+		{
+			throw new InvalidStringFormatException();
+		}
+	}
+
+	//The first curve in environment, depth first
+	private static ECCurve curveOf(CryptoData environment)
+	{
+		CryptoData[] array = environment.getCryptoDataArray();
+		if(array == null) throw new IllegalArgumentException("No curve in the environment");
+		ECCurve curve = array[0].getECCurveData();
+		return curve != null ? curve : curveOf(array[0]);
+	}
+
+	private static void pointsOf(CryptoData data, ECCurve curve, HashSet<ECPoint> points)
+	{
+		CryptoData[] array = data.getCryptoDataArray();
+		if(array == null)
+		{
+			ECPoint p = data.getECPointData(curve);
+			if(p != null) points.add(p.normalize());
+			return;
+		}
+		for(CryptoData child : array)
+			pointsOf(child, curve, points);
+	}
+
+	//Encoded sizes, as CryptoDataCodec writes them
+	private static class Sizes
+	{
+		final int point;
+		final int scalar;
+		final int bits;
+
+		Sizes(ECCurve curve)
+		{
+			bits = curve.getOrder().bitLength();
+			point = 1 + (curve.getFieldSize() + 7) / 8 + 1;
+			scalar = 1 + (bits + 7) / 8;
+		}
+
+		//An array of length entries, not counting the entries
+		static int array(int length)
+		{
+			int bytes = 2;
+			for(length >>>= 7; length != 0; length >>>= 7)
+				bytes++;
+			return bytes;
+		}
+	}
+
+	private static ProofCost analyze(ZKPProtocol node, Sizes sizes)
+	{
+		ZKPProtocol[] children = node.getChildren();
+		if(children == null)
+		{
+			Leaf leaf = leaves.get(node.getClass());
+			if(leaf == null) return unknown();
+			long sent = Sizes.array(leaf.aPoints) + leaf.aPoints * sizes.point + Sizes.array(leaf.zScalars) + leaf.zScalars * sizes.scalar;
+			boolean batched = leaf.batchPoints >= 0;
+			Counts unbatched = batched ? new Counts(0, 0, 0, 0, 1) : new Counts(leaf.verify[0], leaf.verify[1], 0, 0, 1);
+			return new ProofCost(new Counts(leaf.prove[0], leaf.prove[1], 0, sent, 2), new Counts(leaf.simulate[0], leaf.simulate[1], 0, sent, 2), new Counts(leaf.verify[0], leaf.verify[1], 0, sizes.scalar, 1), null, 1, 0, batched ? leaf.batchPoints : 0, leaf.batchBases, unbatched);
+		}
+		ProofCost[] parts = new ProofCost[children.length];
+		for(int i = 0; i < children.length; i++)
+			parts[i] = analyze(children[i], sizes);
+		int n = children.length;
+		//a and z are arrays of the children's;  ORs add their n challenges to z, threshold proofs their n - k coefficients
+		int extraScalars = 0;
+		int real = n;
+		if(node instanceof ZeroKnowledgeOrProver)
+		{
+			extraScalars = n;
+			real = 1;
+		}
+		else if(node instanceof ZeroKnowledgeThreshhold)
+		{
+			real = ((ZeroKnowledgeThreshhold) node).getThreshold();
+			extraScalars = n - real;
+		}
+		else if(!(node instanceof ZeroKnowledgeAndProver))
+		{
+			return unknown();
+		}
+		long frame = Sizes.array(n) + Sizes.array(extraScalars == 0 ? n : n + 1) + (extraScalars == 0 ? 0 : Sizes.array(extraScalars) + extraScalars * (long) sizes.scalar);
+		Counts simulate = new Counts(0, 0, 0, frame, 2);
+		Counts verify = new Counts(0, 0, 0, sizes.scalar, 1);
+		int leafCount = 0;
+		int unknown = 0;
+		long batchPoints = 0;
+		long batchBases = 0;
+		Counts unbatched = new Counts(0, 0, 0, 0, 1);
+		for(ProofCost part : parts)
+		{
+			simulate = simulate.plus(part.simulate);
+			verify = verify.plus(part.verify).minus(new Counts(0, 0, 0, sizes.scalar, 0));
+			leafCount += part.leafCount;
+			unknown += part.unknownLeaves;
+			batchPoints += part.batchPoints;
+			batchBases += part.batchBases;
+			unbatched = unbatched.plus(part.unbatched);
+		}
+		//Proving is simulating everything, then proving the real branches instead:  the dearest real ones
+		long[] extra = new long[n];
+		Counts[] saved = new Counts[n];
+		for(int i = 0; i < n; i++)
+		{
+			saved[i] = parts[i].prove.minus(parts[i].simulate);
+			extra[i] = saved[i].scalarMultiplications;
+		}
+		Counts prove = simulate;
+		boolean[] taken = new boolean[n];
+		for(int r = 0; r < real; r++)
+		{
+			int best = -1;
+			for(int i = 0; i < n; i++)
+				if(!taken[i] && (best == -1 || extra[i] > extra[best])) best = i;
+			taken[best] = true;
+			prove = prove.plus(saved[best]);
+		}
+		if(node instanceof ZeroKnowledgeThreshhold)
+		{
+			//The prover interpolates the coefficients (ModularPolynomial, about 4 (m + 1)^2 before its basis is cached),
+			//and both sides evaluate the polynomial at every leaf
+			long m = n - real;
+			long evaluate = n * m;
+			prove = prove.plus(new Counts(0, 0, 4 * (m + 1) * (m + 1) + evaluate, 0, 0));
+			verify = verify.plus(new Counts(0, 0, evaluate, 0, 0));
+		}
+		return new ProofCost(prove, simulate, verify, null, leafCount, unknown, batchPoints, batchBases, unbatched);
+	}
+
+	private static ProofCost unknown()
+	{
+		return new ProofCost(new Counts(0, 0, 0, 0, 2), new Counts(0, 0, 0, 0, 2), new Counts(0, 0, 0, 0, 1), null, 1, 1, 0, 0, new Counts(0, 0, 0, 0, 1));
+	}
+
+	//This cost with verifyCompiled filled in, for a tree whose environment has bases distinct points
+	private ProofCost compiled(ZKPProtocol tree, long bases, Sizes sizes)
+	{
+		Counts compiled;
+		//ProofPlan verifies a lone leaf directly
+		if(tree.getChildren() == null) compiled = verify;
+		else
+		{
+			long terms = batchPoints == 0 ? 0 : batchPoints + Math.min(bases, batchBases);
+			compiled = multiScalar(terms, sizes.bits).plus(unbatched).plus(new Counts(0, 0, verify.fieldOperations, verify.bytes, 0));
+		}
+		return new ProofCost(prove, simulate, verify, compiled, leafCount, unknownLeaves, batchPoints, batchBases, unbatched);
+	}
+
+	//ECMultiScalarMult.sumOfMultiplies of terms scalars of bits bits:  Shamir's trick up to two terms (counted as this
+	//class counts any sumOfMultiplies), interleaved wNAF below PIPPENGER_THRESHOLD and Pippenger's buckets above
+	static Counts multiScalar(long terms, int bits)
+	{
+		if(terms <= 2) return new Counts(terms, Math.max(0, terms - 1), 0, 0, 1);
+		long additions;
+		if(terms < ECMultiScalarMult.PIPPENGER_THRESHOLD)
+		{
+			//Shared doublings, then per term its odd multiples and an addition per nonzero digit
+			int w = Math.max(2, Math.min(16, WNafUtil.getWindowSize(bits)));
+			additions = bits + terms * ((1L << (w - 2)) + bits / (w + 1));
+		}
+		else
+		{
+			int c = ECMultiScalarMult.windowSize(terms > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) terms);
+			long windows = (bits + c - 1) / c;
+			additions = windows * (terms + 2 * ((1L << c) - 1)) + (windows - 1) * c;
+		}
+		return new Counts(0, additions, 0, 0, 1);
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("%d leaves%s%n  prove:     %s%n  simulate:  %s%n  verify:    %s%n  compiled:  %s", leafCount, unknownLeaves == 0 ? "" : " (" + unknownLeaves + " not priced)", prove, simulate, verify, verifyCompiled);
+	}
+}
@@ -0,0 +1,184 @@
+package zero_knowledge_proofs;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+import zero_knowledge_proofs.CryptoData.CryptoData;
+
+/**
+ * A ZKPProtocol tree compiled for verification.  The AND and OR nodes are flattened into arrays in pre-order, each node
+ * holding the slot of its parent and its position there, so a transcript is checked by one pass over the nodes:  every
+ * OR checks its challenge split, and every leaf (any other prover, including threshold proofs) adds its equations to a
+ * single BatchVerifier.  The whole tree then costs one multi-scalar multiplication instead of one check per leaf, and no
+ * recursion through the composite provers.  If the batch fails, the tree's own verifyResponse runs to report the bad part
+ * and give the exact answer.
+ *
+ * Shapes are cached by the tree's signature (its toString, which includes n and k of threshold proofs), so each distinct
+ * statement is compiled once however many trees are built for it;  a plan binds a shape to the leaves of one tree.
+ */
+public class ProofPlan
+{
+	private static final byte LEAF = 0;
+	private static final byte AND = 1;
+	private static final byte OR = 2;
+
+	private static final ConcurrentHashMap<String, Shape> shapes = new ConcurrentHashMap<String, Shape>();
+	
+	private final ZKPProtocol tree;
+	private final Shape shape;
+	private final ZKPProtocol[] leaves;
+
+	private static class Shape
+	{
+		final byte[] kind;
+		final int[] parent;
+		final int[] position;
+		final int[] width;
+
+		Shape(ArrayList<ZKPProtocol> nodes, ArrayList<Integer> parents, ArrayList<Integer> positions)
+		{
+			int n = nodes.size();
+			kind = new byte[n];
+			parent = new int[n];
+			position = new int[n];
+			width = new int[n];
+			for(int i = 0; i < n; i++)
+			{
+				ZKPProtocol node = nodes.get(i);
+				kind[i] = kindOf(node);
+				parent[i] = parents.get(i);
+				position[i] = positions.get(i);
+				ZKPProtocol[] children = node.getChildren();
+				width[i] = children == null ? 0 : children.length;
+			}
+		}
+	}
+
+	private ProofPlan(ZKPProtocol tree, Shape shape, ZKPProtocol[] leaves)
+	{
+		this.tree = tree;
+		this.shape = shape;
+		this.leaves = leaves;
+	}
+
+	/**
+	 * Compiles tree, reusing the shape of any tree with the same signature.
+	 */
+	public static ProofPlan compile(ZKPProtocol tree)
+	{
+		ArrayList<ZKPProtocol> nodes = new ArrayList<ZKPProtocol>();
+		ArrayList<Integer> parents = new ArrayList<Integer>();
+		ArrayList<Integer> positions = new ArrayList<Integer>();
+		flatten(tree, -1, 0, nodes, parents, positions);
+		String signature = tree.toString();
+		Shape shape = shapes.get(signature);
+		if(shape == null)
+		{
+			shape = new Shape(nodes, parents, positions);
+			Shape old = shapes.putIfAbsent(signature, shape);
+			if(old != null) shape = old;
+		}
+		ZKPProtocol[] leaves = new ZKPProtocol[nodes.size()];
+		for(int i = 0; i < leaves.length; i++)
+		{
+			if(shape.kind[i] == LEAF)
+				leaves[i] = nodes.get(i);
+		}
+		return new ProofPlan(tree, shape, leaves);
+	}
+
+	private static void flatten(ZKPProtocol node, int parent, int position, ArrayList<ZKPProtocol> nodes, ArrayList<Integer> parents, ArrayList<Integer> positions)
+	{
+		int me = nodes.size();
+		nodes.add(node);
+		parents.add(parent);
+		positions.add(position);
+		if(kindOf(node) == LEAF) return;
+		ZKPProtocol[] children = node.getChildren();
+		for(int i = 0; i < children.length; i++)
+			flatten(children[i], me, i, nodes, parents, positions);
+	}
+
+	private static byte kindOf(ZKPProtocol node)
+	{
+		if(node.getChildren() == null) return LEAF;
+		if(node instanceof ZeroKnowledgeAndProver) return AND;
+		if(node instanceof ZeroKnowledgeOrProver) return OR;
+		return LEAF;
+	}
+
+	/**
+	 * @return the number of nodes of the flattened tree
+	 */
+	public int size()
+	{
+		return shape.kind.length;
+	}
+
+	/**
+	 * Same result as verifyResponse of the tree, up to the 2^-BatchVerifier.WEIGHT_BITS chance of a batch accepting a bad
+	 * transcript.
+	 */
+	public boolean verify(CryptoData input, CryptoData a, CryptoData z, BigInteger challenge, CryptoData environment)
+	{
+		int n = shape.kind.length;
+		if(n == 1) return tree.verifyResponse(input, a, z, challenge, environment);
+		//Per node:  its own values, and for composites the unpacked arrays its children read from
+		CryptoData[][] in = new CryptoData[n][];
+		CryptoData[][] aa = new CryptoData[n][];
+		CryptoData[][] zz = new CryptoData[n][];
+		CryptoData[][] ee = new CryptoData[n][];
+		CryptoData[][] orChallenges = new CryptoData[n][];
+		BigInteger[] c = new BigInteger[n];
+		BatchVerifier batch = new BatchVerifier(ScalarSampler.forThread());
+		try
+		{
+			for(int i = 0; i < n; i++)
+			{
+				CryptoData myIn, myA, myZ, myE;
+				int p = shape.parent[i];
+				if(p == -1)
+				{
+					myIn = input;
+					myA = a;
+					myZ = z;
+					myE = environment;
+					c[i] = challenge;
+				}
+				else
+				{
+					int j = shape.position[i];
+					myIn = in[p][j];
+					myA = aa[p][j];
+					myZ = zz[p][j];
+					myE = ee[p][j];
+					c[i] = shape.kind[p] == OR ? orChallenges[p][j].getBigInt() : c[p];
+				}
+				if(shape.kind[i] == LEAF)
+				{
+					leaves[i].addBatchEquations(myIn, myA, myZ, c[i], myE, batch);
+					continue;
+				}
+				in[i] = myIn.getCryptoDataArray();
+				aa[i] = myA.getCryptoDataArray();
+				zz[i] = myZ.getCryptoDataArray();
+				ee[i] = myE.getCryptoDataArray();
+				if(shape.kind[i] == OR)
+				{
+					orChallenges[i] = zz[i][zz[i].length - 1].getCryptoDataArray();
+					BigInteger xored = c[i];
+					for(int j = 0; j < shape.width[i]; j++)
+						xored = xored.xor(orChallenges[i][j].getBigInt());
+					if(xored.signum() != 0) batch.fail();
+				}
+			}
+			if(batch.verify()) return true;
+		}
+		catch(RuntimeException e)
+		{
+			//Malformed transcripts are left to verifyResponse
+		}
+		return tree.verifyResponse(input, a, z, challenge, environment);
+	}
+}
@@ -0,0 +1,386 @@
+package zero_knowledge_proofs;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Arithmetic mod a fixed odd modulus (a curve order or a threshold proof's challengePrime) on fixed-width limbs, without
+ * the allocation and long division of a BigInteger per operation.
+ *
+ * Elements are mutable accumulators in Montgomery form:  add, subtract and multiply overwrite the element they are called
+ * on and return it, so a loop of them allocates nothing.  Multiplication is Montgomery multiplication (CIOS) on 32 bit
+ * limbs with 64 bit intermediate products;  Java 8 has no unsigned 64 x 64 bit multiply, which 64 bit limbs would need.
+ * BigIntegers are converted on the way in and out, so the gain is in chains of operations;  mulAdd covers the single
+ * r + x c of a sigma protocol response.
+ *
+ * A field is immutable and safe to share;  an Element belongs to one thread at a time.  of(modulus) keeps one field per
+ * modulus.
+ */
+public final class ScalarField
+{
+	private static final long MASK = 0xFFFFFFFFL;
+	private static final ConcurrentHashMap<BigInteger, ScalarField> fields = new ConcurrentHashMap<BigInteger, ScalarField>();
+
+	private final BigInteger modulus;
+	private final int size;
+	private final int[] n;
+	//-1 / n mod 2^32
+	private final int nPrime;
+	//R^2 mod n and R mod n, R = 2^(32 size)
+	private final int[] r2;
+	private final int[] one;
+
+	public ScalarField(BigInteger modulus)
+	{
+		if(modulus.signum() <= 0 || !modulus.testBit(0) || modulus.equals(BigInteger.ONE)) throw new IllegalArgumentException("Modulus must be odd and greater than 1");
+		this.modulus = modulus;
+		size = (modulus.bitLength() + 31) / 32;
+		n = limbs(modulus);
+		BigInteger word = BigInteger.ONE.shiftLeft(32);
+		nPrime = word.subtract(modulus.modInverse(word)).intValue();
+		BigInteger r = BigInteger.ONE.shiftLeft(32 * size);
+		r2 = limbs(r.multiply(r).mod(modulus));
+		one = limbs(r.mod(modulus));
+	}
+
+	/**
+	 * @return the shared field of modulus
+	 */
+	public static ScalarField of(BigInteger modulus)
+	{
+		ScalarField toReturn = fields.get(modulus);
+		if(toReturn == null)
+		{
+			toReturn = new ScalarField(modulus);
+			ScalarField other = fields.putIfAbsent(modulus, toReturn);
+			if(other != null) toReturn = other;
+		}
+		return toReturn;
+	}
+
+	public BigInteger getModulus()
+	{
+		return modulus;
+	}
+
+	public Element zero()
+	{
+		return new Element();
+	}
+
+	public Element one()
+	{
+		Element toReturn = new Element();
+		System.arraycopy(one, 0, toReturn.v, 0, size);
+		return toReturn;
+	}
+
+	/**
+	 * @return x mod the modulus as an element;  x may be negative or larger than the modulus
+	 */
+	public Element element(BigInteger x)
+	{
+		return new Element().set(x);
+	}
+
+	public Element element(long x)
+	{
+		return new Element().set(BigInteger.valueOf(x));
+	}
+
+	public Element[] elements(BigInteger[] x)
+	{
+		Element[] toReturn = new Element[x.length];
+		for(int i = 0; i < x.length; i++)
+			toReturn[i] = element(x[i]);
+		return toReturn;
+	}
+
+	public static BigInteger[] toBigIntegers(Element[] x)
+	{
+		BigInteger[] toReturn = new BigInteger[x.length];
+		for(int i = 0; i < x.length; i++)
+			toReturn[i] = x[i].toBigInteger();
+		return toReturn;
+	}
+
+	/**
+	 * @return (r + x c) mod the modulus, a sigma protocol's response to challenge c.  A prover with several responses to
+	 * one challenge should make c an element once and call its mulAdd for each.
+	 */
+	public BigInteger mulAdd(BigInteger r, BigInteger x, BigInteger c)
+	{
+		return element(c).mulAdd(r, x);
+	}
+
+	/**
+	 * Replaces every element by its inverse, with one inversion and 3 (values.length - 1) multiplications.
+	 *
+	 * @throws ArithmeticException if an element is 0
+	 */
+	public void invertAll(Element[] values)
+	{
+		if(values.length == 0) return;
+		Element[] prefix = new Element[values.length];
+		Element product = one();
+		for(int i = 0; i < values.length; i++)
+		{
+			prefix[i] = product.copy();
+			product.multiply(values[i]);
+		}
+		product.invert();
+		for(int i = values.length - 1; i >= 0; i--)
+		{
+			Element value = values[i].copy();
+			values[i].set(prefix[i]).multiply(product);
+			product.multiply(value);
+		}
+	}
+
+	/**
+	 * An element of the field, held as x R mod the modulus.
+	 */
+	public final class Element
+	{
+		private final int[] v = new int[size];
+		private final int[] t = new int[size + 1];
+
+		private Element()
+		{
+		}
+
+		public ScalarField getField()
+		{
+			return ScalarField.this;
+		}
+
+		public Element set(Element other)
+		{
+			System.arraycopy(other.v, 0, v, 0, size);
+			return this;
+		}
+
+		public Element set(BigInteger x)
+		{
+			System.arraycopy(limbs(reduce(x)), 0, v, 0, size);
+			montgomery(v, r2, v, t);
+			return this;
+		}
+
+		public Element add(Element other)
+		{
+			addTo(v, other.v);
+			return this;
+		}
+
+		public Element subtract(Element other)
+		{
+			subtractFrom(v, other.v);
+			return this;
+		}
+
+		public Element negate()
+		{
+			if(!isZero())
+			{
+				int[] x = v.clone();
+				System.arraycopy(n, 0, v, 0, size);
+				subtractFrom(v, x);
+			}
+			return this;
+		}
+
+		public Element multiply(Element other)
+		{
+			montgomery(v, other.v, v, t);
+			return this;
+		}
+
+		/**
+		 * this = this + a b
+		 */
+		public Element multiplyAdd(Element a, Element b)
+		{
+			int[] product = new int[size];
+			montgomery(a.v, b.v, product, t);
+			addTo(v, product);
+			return this;
+		}
+
+		/**
+		 * @return (r + x this) mod the modulus as a BigInteger, leaving this unchanged
+		 */
+		public BigInteger mulAdd(BigInteger r, BigInteger x)
+		{
+			//x R / R:  multiplying by an element takes x out of Montgomery form as it goes
+			int[] product = limbs(reduce(x));
+			montgomery(v, product, product, t);
+			addTo(product, limbs(reduce(r)));
+			return ScalarField.this.toBigInteger(product);
+		}
+
+		/**
+		 * @throws ArithmeticException if this is 0
+		 */
+		public Element invert()
+		{
+			return set(toBigInteger().modInverse(modulus));
+		}
+
+		public boolean isZero()
+		{
+			for(int limb : v)
+				if(limb != 0) return false;
+			return true;
+		}
+
+		public Element copy()
+		{
+			return new Element().set(this);
+		}
+
+		public BigInteger toBigInteger()
+		{
+			int[] x = new int[size];
+			int[] unit = new int[size];
+			unit[0] = 1;
+			montgomery(v, unit, x, t);
+			return ScalarField.this.toBigInteger(x);
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			return o instanceof Element && ((Element) o).getField() == getField() && Arrays.equals(v, ((Element) o).v);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Arrays.hashCode(v);
+		}
+
+		@Override
+		public String toString()
+		{
+			return toBigInteger().toString();
+		}
+	}
+
+	private BigInteger reduce(BigInteger x)
+	{
+		return x.signum() < 0 || x.compareTo(modulus) >= 0 ? x.mod(modulus) : x;
+	}
+
+	//Little endian limbs of 0 <= x < 2^(32 size)
+	private int[] limbs(BigInteger x)
+	{
+		int[] toReturn = new int[size];
+		byte[] bytes = x.toByteArray();
+		for(int i = 0, j = bytes.length - 1; j >= 0 && i < 4 * size; i++, j--)
+			toReturn[i >>> 2] |= (bytes[j] & 0xFF) << (8 * (i & 3));
+		return toReturn;
+	}
+
+	private BigInteger toBigInteger(int[] x)
+	{
+		byte[] bytes = new byte[4 * size];
+		for(int i = 0; i < size; i++)
+		{
+			int j = bytes.length - 4 * i;
+			bytes[j - 1] = (byte) x[i];
+			bytes[j - 2] = (byte) (x[i] >>> 8);
+			bytes[j - 3] = (byte) (x[i] >>> 16);
+			bytes[j - 4] = (byte) (x[i] >>> 24);
+		}
+		return new BigInteger(1, bytes);
+	}
+
+	//out = a b / R mod n for a, b < n;  out may be a or b, t is scratch of size + 1 limbs
+	private void montgomery(int[] a, int[] b, int[] out, int[] t)
+	{
+		final int s = size;
+		final int[] n = this.n;
+		final long n0 = n[0] & MASK;
+		Arrays.fill(t, 0);
+		for(int i = 0; i < s; i++)
+		{
+			long bi = b[i] & MASK;
+			long carry = 0;
+			for(int j = 0; j < s; j++)
+			{
+				long x = (t[j] & MASK) + (a[j] & MASK) * bi + carry;
+				t[j] = (int) x;
+				carry = x >>> 32;
+			}
+			long x = (t[s] & MASK) + carry;
+			t[s] = (int) x;
+			int top = (int) (x >>> 32);
+
+			long m = (t[0] * nPrime) & MASK;
+			carry = ((t[0] & MASK) + m * n0) >>> 32;
+			for(int j = 1; j < s; j++)
+			{
+				x = (t[j] & MASK) + m * (n[j] & MASK) + carry;
+				t[j - 1] = (int) x;
+				carry = x >>> 32;
+			}
+			x = (t[s] & MASK) + carry;
+			t[s - 1] = (int) x;
+			t[s] = top + (int) (x >>> 32);
+		}
+		//t < 2n
+		if(t[s] != 0 || !less(t, n)) subtract(t, n);
+		System.arraycopy(t, 0, out, 0, s);
+	}
+
+	//a = a + b mod n for a, b < n
+	private void addTo(int[] a, int[] b)
+	{
+		long carry = 0;
+		for(int i = 0; i < size; i++)
+		{
+			long x = (a[i] & MASK) + (b[i] & MASK) + carry;
+			a[i] = (int) x;
+			carry = x >>> 32;
+		}
+		if(carry != 0 || !less(a, n)) subtract(a, n);
+	}
+
+	//a = a - b mod n for a, b < n
+	private void subtractFrom(int[] a, int[] b)
+	{
+		if(subtract(a, b) != 0)
+		{
+			long carry = 0;
+			for(int i = 0; i < size; i++)
+			{
+				long x = (a[i] & MASK) + (n[i] & MASK) + carry;
+				a[i] = (int) x;
+				carry = x >>> 32;
+			}
+		}
+	}
+
+	//a = a - b on the first size limbs, ignoring any limb above;  returns the borrow
+	private int subtract(int[] a, int[] b)
+	{
+		long borrow = 0;
+		for(int i = 0; i < size; i++)
+		{
+			long x = (a[i] & MASK) - (b[i] & MASK) - borrow;
+			a[i] = (int) x;
+			borrow = (x >>> 63);
+		}
+		return (int) borrow;
+	}
+
+	//a < b on the first size limbs
+	private boolean less(int[] a, int[] b)
+	{
+		for(int i = size - 1; i >= 0; i--)
+			if(a[i] != b[i]) return Integer.compareUnsigned(a[i], b[i]) < 0;
+		return false;
+	}
+}
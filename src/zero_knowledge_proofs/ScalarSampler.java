@@ -0,0 +1,247 @@
+package zero_knowledge_proofs;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.security.SecureRandomSpi;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.engines.ChaChaEngine;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+
+/**
+ * A SecureRandom whose bytes are the ChaCha20 keystream of a 256 bit key, with cheap uniform scalars mod an order.
+ *
+ * It can be passed wherever the toolkits take a SecureRandom, and they draw scalars through scalar(order, rand), which
+ * takes the fast path when rand is a ScalarSampler.  A sampler made from a seed gives the same bytes on every run, unlike
+ * new SecureRandom(seed), which on most platforms mixes the seed into system entropy.
+ *
+ * split(id) derives an independent sampler (its key is HMAC-SHA256 of this key and id) without drawing from this one, so
+ * work spread over threads can give task i the sampler split(i) and still replay exactly from one seed.  A sampler is
+ * safe to share between threads but they then queue for it;  forThread() gives each thread its own, seeded from system
+ * entropy, for randomness that need not be replayed.
+ */
+public class ScalarSampler extends SecureRandom
+{
+	private static final long serialVersionUID = 1L;
+	private static final SecureRandom seeder = new SecureRandom();
+	private static final ThreadLocal<ScalarSampler> threadSampler = ThreadLocal.withInitial(ScalarSampler::new);
+
+	private final Stream stream;
+
+	/**
+	 * A sampler seeded from system entropy.
+	 */
+	public ScalarSampler()
+	{
+		this(new Stream(freshKey()));
+	}
+
+	/**
+	 * A sampler that gives the same bytes for the same seed.
+	 */
+	public ScalarSampler(byte[] seed)
+	{
+		this(new Stream(hash(new byte[0], seed)));
+	}
+
+	private ScalarSampler(Stream stream)
+	{
+		super(stream, null);
+		this.stream = stream;
+	}
+
+	/**
+	 * @return this thread's sampler, seeded from system entropy
+	 */
+	public static ScalarSampler forThread()
+	{
+		return threadSampler.get();
+	}
+
+	/**
+	 * @return the sampler of sub-stream id, which depends only on this sampler's seed and id
+	 */
+	public synchronized ScalarSampler split(long id)
+	{
+		return new ScalarSampler(new Stream(stream.child(id)));
+	}
+
+	/**
+	 * @return a uniform scalar in [0, order)
+	 */
+	public synchronized BigInteger scalar(BigInteger order)
+	{
+		byte[] bytes = new byte[(order.bitLength() + 7) / 8];
+		int mask = 0xFF >>> (bytes.length * 8 - order.bitLength());
+		BigInteger toReturn;
+		do {
+			stream.next(bytes, 0, bytes.length);
+			bytes[0] &= mask;
+			toReturn = new BigInteger(1, bytes);
+		}while(toReturn.compareTo(order) >= 0);
+		return toReturn;
+	}
+
+	/**
+	 * @return count uniform scalars in [0, order), from one run of the keystream
+	 */
+	public synchronized BigInteger[] scalars(BigInteger order, int count)
+	{
+		int length = (order.bitLength() + 7) / 8;
+		int mask = 0xFF >>> (length * 8 - order.bitLength());
+		byte[] bytes = new byte[length * count];
+		stream.next(bytes, 0, bytes.length);
+		BigInteger[] toReturn = new BigInteger[count];
+		//BigInteger copies the magnitude, so one buffer serves every scalar
+		byte[] one = new byte[length];
+		for(int i = 0; i < count; i++)
+		{
+			System.arraycopy(bytes, i * length, one, 0, length);
+			one[0] &= mask;
+			toReturn[i] = new BigInteger(1, one);
+			if(toReturn[i].compareTo(order) >= 0)
+				toReturn[i] = scalar(order);
+		}
+		return toReturn;
+	}
+
+	/**
+	 * @return a uniform scalar in [0, order) from rand, through the fast path if rand is a ScalarSampler
+	 */
+	public static BigInteger scalar(BigInteger order, Random rand)
+	{
+		if(rand instanceof ScalarSampler) return ((ScalarSampler) rand).scalar(order);
+		BigInteger r;
+		do {
+			r = new BigInteger(order.bitLength(), rand);
+		}while(r.compareTo(order) >= 0);
+		return r;
+	}
+
+	/**
+	 * @return count uniform scalars in [0, order) from rand
+	 */
+	public static BigInteger[] scalars(BigInteger order, int count, Random rand)
+	{
+		if(rand instanceof ScalarSampler) return ((ScalarSampler) rand).scalars(order, count);
+		BigInteger[] toReturn = new BigInteger[count];
+		for(int i = 0; i < count; i++)
+			toReturn[i] = scalar(order, rand);
+		return toReturn;
+	}
+
+	@Override
+	public synchronized void nextBytes(byte[] bytes)
+	{
+		stream.next(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Mixes seed into the key, so the bytes after it still depend only on the seeds given.
+	 */
+	@Override
+	public synchronized void setSeed(byte[] seed)
+	{
+		stream.engineSetSeed(seed);
+	}
+
+	@Override
+	public void setSeed(long seed)
+	{
+		//Random's constructor calls this before stream is set
+		if(stream != null) setSeed(ByteBuffer.allocate(8).putLong(seed).array());
+	}
+
+	@Override
+	public byte[] generateSeed(int numBytes)
+	{
+		byte[] toReturn = new byte[numBytes];
+		nextBytes(toReturn);
+		return toReturn;
+	}
+
+	@Override
+	public String getAlgorithm()
+	{
+		return "ChaCha20";
+	}
+
+	private static byte[] freshKey()
+	{
+		byte[] key = new byte[32];
+		seeder.nextBytes(key);
+		return key;
+	}
+
+	//SHA-256(key, data)
+	private static byte[] hash(byte[] key, byte[] data)
+	{
+		SHA256Digest d = new SHA256Digest();
+		byte[] toReturn = new byte[d.getDigestSize()];
+		d.update(key, 0, key.length);
+		d.update(data, 0, data.length);
+		d.doFinal(toReturn, 0);
+		return toReturn;
+	}
+
+	//The keystream;  only touched while holding the lock of its sampler
+	private static class Stream extends SecureRandomSpi
+	{
+		private static final long serialVersionUID = 1L;
+
+		private byte[] key;
+		private final ChaChaEngine engine = new ChaChaEngine();
+
+		Stream(byte[] key)
+		{
+			rekey(key);
+		}
+
+		private void rekey(byte[] key)
+		{
+			this.key = key;
+			engine.init(true, new ParametersWithIV(new KeyParameter(key), new byte[8]));
+		}
+
+		void next(byte[] bytes, int offset, int length)
+		{
+			Arrays.fill(bytes, offset, offset + length, (byte) 0);
+			engine.processBytes(bytes, offset, length, bytes, offset);
+		}
+
+		byte[] child(long id)
+		{
+			HMac mac = new HMac(new SHA256Digest());
+			byte[] toReturn = new byte[mac.getMacSize()];
+			mac.init(new KeyParameter(key));
+			mac.update(ByteBuffer.allocate(8).putLong(id).array(), 0, 8);
+			mac.doFinal(toReturn, 0);
+			return toReturn;
+		}
+
+		@Override
+		protected void engineSetSeed(byte[] seed)
+		{
+			rekey(hash(key, seed));
+		}
+
+		@Override
+		protected void engineNextBytes(byte[] bytes)
+		{
+			next(bytes, 0, bytes.length);
+		}
+
+		@Override
+		protected byte[] engineGenerateSeed(int numBytes)
+		{
+			byte[] toReturn = new byte[numBytes];
+			next(toReturn, 0, numBytes);
+			return toReturn;
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package zero_knowledge_proofs;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.util.Base64;
+
+import zero_knowledge_proofs.CryptoData.CryptoData;
+
+/**
+ * The Verifier_Transcript text format:  toString64 of every value, one labelled line each, in a StringBuilder that flush
+ * writes out.  A statement is a Protocol, an Environment and a Commitment Environment line;  a proof is a Challenge
+ * Commitment, Input, InitComm, Response, challenge and challenge key line.  TextTranscriptReader reads it back.
+ */
+public class TextTranscript extends Transcript
+{
+	private final StringBuilder text;
+	private final Writer out;
+
+	/**
+	 * A transcript that only appends to text.
+	 */
+	public TextTranscript(StringBuilder text)
+	{
+		this.text = text;
+		this.out = null;
+	}
+
+	/**
+	 * A transcript written to out on every flush.
+	 */
+	public TextTranscript(Writer out)
+	{
+		this.text = new StringBuilder();
+		this.out = out;
+	}
+
+	@Override
+	protected void writeStatement(String prover, CryptoData environment, CryptoData commitmentEnvironment)
+	{
+		appendStatement(text, prover, environment.toString64(), commitmentEnvironment == null ? null : commitmentEnvironment.toString64());
+	}
+
+	@Override
+	protected void writeProof(ChallengeCommitment commitment, CryptoData input, CryptoData a, CryptoData z, BigInteger challenge, BigInteger challengeKey)
+	{
+		appendProof(text, commitment, input, a, z, challenge, challengeKey);
+	}
+
+	@Override
+	public void note(String note)
+	{
+		text.append(note);
+	}
+
+	@Override
+	public void flush() throws IOException
+	{
+		if(out == null) return;
+		out.write(text.toString());
+		text.setLength(0);
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		flush();
+		if(out != null) out.close();
+	}
+
+	//commitmentEnvironment64 may be null, then its line is left out
+	static void appendStatement(StringBuilder text, String prover, String environment64, String commitmentEnvironment64)
+	{
+		text.append("Protocol:  ");
+		text.append(prover);
+		text.append("\nEnvironment:  ");
+		text.append(environment64);
+		if(commitmentEnvironment64 != null)
+		{
+			text.append("\nCommitment Environment:  ");
+			text.append(commitmentEnvironment64);
+		}
+		text.append("\n\n");
+	}
+
+	static void appendProof(StringBuilder text, ChallengeCommitment commitment, CryptoData input, CryptoData a, CryptoData z, BigInteger challenge, BigInteger challengeKey)
+	{
+		text.append("\nChallenge Commitment:  ");
+		text.append(commitment.toString64());
+		text.append("\nInput:  ");
+		text.append(input.toString64());
+		text.append("\nInitComm:  ");
+		text.append(a.toString64());
+		text.append("\nResponse:  ");
+		text.append(z.toString64());
+		text.append("\nchallenge:  ");
+		text.append(Base64.getEncoder().encodeToString(challenge.toByteArray()));
+		text.append("\nchallenge key:  ");
+		text.append(Base64.getEncoder().encodeToString(challengeKey.toByteArray()));
+		text.append("\n\n");
+	}
+}
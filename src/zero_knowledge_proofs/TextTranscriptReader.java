@@ -0,0 +1,246 @@
+package zero_knowledge_proofs;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StreamCorruptedException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+
+import zero_knowledge_proofs.CryptoData.BigIntData;
+import zero_knowledge_proofs.CryptoData.CryptoData;
+import zero_knowledge_proofs.CryptoData.CryptoDataArray;
+import zero_knowledge_proofs.CryptoData.ECCurveData;
+import zero_knowledge_proofs.CryptoData.ECPointData;
+
+/**
+ * Reads what a TextTranscript wrote, turning the toString64 forms back into CryptoData.  The text does not name the
+ * curve or the hash of a hash challenge commitment, so both are given.  An Environment line without a Protocol line
+ * (transcripts written before statements were recorded) starts a statement without a prover.  Lines that are not part
+ * of a statement or a proof are notes.
+ */
+public class TextTranscriptReader extends TranscriptReader
+{
+	private static final String PROTOCOL = "Protocol:  ";
+	private static final String ENVIRONMENT = "Environment:  ";
+	private static final String COMMITMENT_ENVIRONMENT = "Commitment Environment:  ";
+	private static final String COMMITMENT = "Challenge Commitment:  ";
+	private static final String[] PROOF_LINES = {"Input:  ", "InitComm:  ", "Response:  ", "challenge:  ", "challenge key:  "};
+
+	private final BufferedReader in;
+	private final ECCurve curve;
+	private final int pointBytes;
+	private final ChallengeCommitmentScheme hashScheme;
+	private String pending = null;
+
+	/**
+	 * @param hashScheme the scheme of hash challenge commitments (SHA256 or SHA3_256);  Pedersen commitments are told
+	 * apart from digests by their length
+	 */
+	public TextTranscriptReader(InputStream input, String curveName, ChallengeCommitmentScheme hashScheme)
+	{
+		in = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), 1 << 16);
+		curve = ECNamedCurveTable.getParameterSpec(curveName).getCurve();
+		pointBytes = (curve.getFieldSize() + 7) / 8;
+		this.hashScheme = hashScheme;
+	}
+
+	@Override
+	public ECCurve getCurve()
+	{
+		return curve;
+	}
+
+	@Override
+	protected Entry read(boolean decodeProofs) throws IOException
+	{
+		String line;
+		do
+		{
+			line = nextLine();
+			if(line == null) return null;
+		} while(line.isEmpty());
+
+		if(line.startsWith(PROTOCOL) || line.startsWith(ENVIRONMENT))
+		{
+			prover = null;
+			environment = null;
+			commitmentEnvironment = null;
+			if(line.startsWith(PROTOCOL))
+			{
+				prover = line.substring(PROTOCOL.length());
+				line = nextLine();
+			}
+			if(line == null || !line.startsWith(ENVIRONMENT)) throw new StreamCorruptedException("Statement without an environment");
+			environment = parse(line.substring(ENVIRONMENT.length()));
+			line = nextLine();
+			if(line != null && line.startsWith(COMMITMENT_ENVIRONMENT))
+				commitmentEnvironment = parse(line.substring(COMMITMENT_ENVIRONMENT.length()));
+			else pending = line;
+			statementId++;
+			return statement();
+		}
+		if(line.startsWith(COMMITMENT))
+		{
+			String[] values = new String[PROOF_LINES.length];
+			for(int i = 0; i < values.length; i++)
+			{
+				String l = nextLine();
+				if(l == null || !l.startsWith(PROOF_LINES[i])) throw new StreamCorruptedException("Proof without " + PROOF_LINES[i].trim());
+				values[i] = l.substring(PROOF_LINES[i].length());
+			}
+			if(!decodeProofs) return proof(null, null, null, null, null, null);
+			return proof(parseCommitment(line.substring(COMMITMENT.length())), parse(values[0]), parse(values[1]), parse(values[2]), integer(values[3]), integer(values[4]));
+		}
+		return note(line + "\n");
+	}
+
+	private String nextLine() throws IOException
+	{
+		if(pending != null)
+		{
+			String line = pending;
+			pending = null;
+			return line;
+		}
+		return in.readLine();
+	}
+
+	private ChallengeCommitment parseCommitment(String text) throws StreamCorruptedException
+	{
+		if(text.length() < 2 || text.charAt(0) != '(' || text.charAt(text.length() - 1) != ')') throw new StreamCorruptedException("Bad challenge commitment " + text);
+		byte[] bytes = decode(text.substring(1, text.length() - 1));
+		if(bytes.length == pointBytes + 1 || bytes.length == 2 * pointBytes + 1)
+			return new ECPedersenCommitment(point(bytes));
+		try
+		{
+			return new HashCommitment(hashScheme.getId(), bytes);
+		}
+		catch(IllegalArgumentException e)
+		{
+			throw new StreamCorruptedException(e.getMessage());
+		}
+	}
+
+	/**
+	 * Parses toString64 of a CryptoData tree.
+	 */
+	public CryptoData parse(String text) throws StreamCorruptedException
+	{
+		int[] at = {0};
+		CryptoData data = parse(text, at);
+		if(at[0] != text.length()) throw new StreamCorruptedException("Unexpected " + text.charAt(at[0]) + " at " + at[0]);
+		return data;
+	}
+
+	private CryptoData parse(String text, int[] at) throws StreamCorruptedException
+	{
+		int i = at[0];
+		if(text.startsWith("NULL", i))
+		{
+			at[0] = i + 4;
+			return null;
+		}
+		if(text.startsWith("[", i))
+		{
+			ArrayList<CryptoData> array = new ArrayList<CryptoData>();
+			at[0] = i + 1;
+			if(text.startsWith("]", at[0]))
+			{
+				at[0]++;
+				return new CryptoDataArray(new CryptoData[0]);
+			}
+			while(true)
+			{
+				array.add(parse(text, at));
+				if(at[0] >= text.length()) throw new StreamCorruptedException("Unterminated array");
+				char c = text.charAt(at[0]++);
+				if(c == ']') return new CryptoDataArray(array.toArray(new CryptoData[array.size()]));
+				if(c != ',') throw new StreamCorruptedException("Unexpected " + c + " at " + (at[0] - 1));
+			}
+		}
+		if(text.startsWith("(", i))
+		{
+			int end = text.indexOf(')', i);
+			if(end == -1) throw new StreamCorruptedException("Unterminated point");
+			at[0] = end + 1;
+			return new ECPointData(point(decode(text.substring(i + 1, end))));
+		}
+		if(text.startsWith("y^2 = x^3 + ", i))
+			return parseCurve(text, at);
+		int end = i;
+		while(end < text.length() && text.charAt(end) != ',' && text.charAt(end) != ']')
+			end++;
+		at[0] = end;
+		return new BigIntData(new BigInteger(decode(text.substring(i, end))));
+	}
+
+	//ECCurveData:  "y^2 = x^3 + <a>x + <b>, G = (<x>, <y>)", with Base64 coefficients
+	private CryptoData parseCurve(String text, int[] at) throws StreamCorruptedException
+	{
+		at[0] += "y^2 = x^3 + ".length();
+		BigInteger a = integer(until(text, "x + ", at));
+		BigInteger b = integer(until(text, ", G = (", at));
+		BigInteger x = integer(until(text, ", ", at));
+		BigInteger y = integer(until(text, ")", at));
+		if(!a.equals(curve.getA().toBigInteger()) || !b.equals(curve.getB().toBigInteger()))
+			throw new StreamCorruptedException("The transcript is not on the given curve");
+		ECPoint g = curve.createPoint(x, y);
+		if(!g.isValid()) throw new StreamCorruptedException("Generator not on the curve");
+		return new ECCurveData(curve, g);
+	}
+
+	//The text from at to the next end, moving at past end
+	private static String until(String text, String end, int[] at) throws StreamCorruptedException
+	{
+		int i = text.indexOf(end, at[0]);
+		if(i == -1) throw new StreamCorruptedException("Expected " + end.trim() + " after " + at[0]);
+		String toReturn = text.substring(at[0], i);
+		at[0] = i + end.length();
+		return toReturn;
+	}
+
+	private ECPoint point(byte[] bytes) throws StreamCorruptedException
+	{
+		try
+		{
+			return curve.decodePoint(bytes);
+		}
+		catch(IllegalArgumentException e)
+		{
+			throw new StreamCorruptedException("Bad point:  " + e.getMessage());
+		}
+	}
+
+	private static BigInteger integer(String text) throws StreamCorruptedException
+	{
+		byte[] bytes = decode(text);
+		if(bytes.length == 0) throw new StreamCorruptedException("Empty integer");
+		return new BigInteger(bytes);
+	}
+
+	private static byte[] decode(String text) throws StreamCorruptedException
+	{
+		try
+		{
+			return Base64.getDecoder().decode(text);
+		}
+		catch(IllegalArgumentException e)
+		{
+			throw new StreamCorruptedException("Bad Base64 " + text);
+		}
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		in.close();
+	}
+}
@@ -0,0 +1,92 @@
+package zero_knowledge_proofs;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.math.BigInteger;
+
+import zero_knowledge_proofs.CryptoData.CryptoData;
+
+/**
+ * The verifier's record of a run:  for every proof the other party gave, what it sent (initial commitment and response),
+ * the verifier's input, and the challenge the proof was checked against with the verifier's commitment to it and its
+ * opening key.  Whenever the proof changes, the statement (the prover's string form, as generateProver takes it), its
+ * environment and the commitment environment are recorded first, so TranscriptVerifier can check every proof again later.
+ *
+ * TextTranscript writes the Verifier_Transcript text format, BinaryTranscriptWriter writes compact records on a
+ * background thread, and TranscriptConverter turns the binary form back into text.
+ */
+public abstract class Transcript
+{
+	private ZKPProtocol lastProver;
+	private CryptoData lastEnvironment;
+	private CryptoData lastCommitmentEnvironment;
+
+	/**
+	 * Records one proof, as seen by the verifier, after its statement if that changed since the last proof.
+	 *
+	 * @param commitmentEnvironment the environment of the challenge commitment, or null if it is not known
+	 * @param commitment the verifier's commitment to challenge
+	 * @param challenge the challenge the proof answers
+	 * @param challengeKey the opening key of commitment
+	 */
+	public synchronized void proof(ZKPProtocol prover, CryptoData environment, CryptoData commitmentEnvironment, ChallengeCommitment commitment, CryptoData input, CryptoData a, CryptoData z, BigInteger challenge, BigInteger challengeKey) throws IOException
+	{
+		if(prover != lastProver || environment != lastEnvironment || commitmentEnvironment != lastCommitmentEnvironment)
+		{
+			writeStatement(prover.toString(), environment, commitmentEnvironment);
+			lastProver = prover;
+			lastEnvironment = environment;
+			lastCommitmentEnvironment = commitmentEnvironment;
+		}
+		writeProof(commitment, input, a, z, challenge, challengeKey);
+	}
+
+	/**
+	 * Records the statement of the proofs that follow.
+	 */
+	protected abstract void writeStatement(String prover, CryptoData environment, CryptoData commitmentEnvironment) throws IOException;
+
+	protected abstract void writeProof(ChallengeCommitment commitment, CryptoData input, CryptoData a, CryptoData z, BigInteger challenge, BigInteger challengeKey) throws IOException;
+
+	/**
+	 * Records free text, for example the outcome of the run.
+	 */
+	public abstract void note(String text) throws IOException;
+
+	/**
+	 * Hands everything recorded so far to the output.
+	 */
+	public void flush() throws IOException
+	{
+	}
+
+	/**
+	 * Flushes and closes the output.
+	 */
+	public void close() throws IOException
+	{
+		flush();
+	}
+
+	/**
+	 * Opens a transcript file.
+	 *
+	 * @param format "text" for the text format, "binary" for BinaryTranscriptWriter records, "deflate" for compressed
+	 * records, or "indexed" for IndexedTranscriptWriter records.  Binary transcripts get ".vtr" added to their name.
+	 * @param curveName the named curve of the run, needed to read binary transcripts back
+	 */
+	public static Transcript open(String format, String fileName, String curveName) throws IOException
+	{
+		if(format.equals("text"))
+			return new TextTranscript(new BufferedWriter(new FileWriter(fileName)));
+		if(format.equals("binary"))
+			return new BinaryTranscriptWriter(new FileOutputStream(fileName + ".vtr"), curveName, false);
+		if(format.equals("deflate"))
+			return new BinaryTranscriptWriter(new FileOutputStream(fileName + ".vtr"), curveName, true);
+		if(format.equals("indexed"))
+			return new IndexedTranscriptWriter(new FileOutputStream(fileName + ".vtr"), curveName);
+		throw new IllegalArgumentException("Unknown transcript format " + format);
+	}
+}
@@ -0,0 +1,75 @@
+package zero_knowledge_proofs;
+
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.IdentityHashMap;
+
+import zero_knowledge_proofs.CryptoData.CryptoData;
+
+/**
+ * Turns a binary transcript into the text format of TextTranscript.
+ *
+ * Usage:  TranscriptConverter transcript.vtr [output]  (standard out if no output is given)
+ */
+public class TranscriptConverter
+{
+	public static void main(String[] args) throws IOException
+	{
+		if(args.length < 1 || args.length > 2)
+		{
+			System.err.println("Usage:  TranscriptConverter transcript.vtr [output]");
+			System.exit(1);
+		}
+		TranscriptReader reader = new BinaryTranscriptReader(new FileInputStream(args[0]));
+		Writer out = new BufferedWriter(args.length == 2 ? new FileWriter(args[1]) : new OutputStreamWriter(System.out));
+		convert(reader, out);
+		reader.close();
+		out.close();
+	}
+
+	/**
+	 * Writes every record of the transcript as text, in order.
+	 */
+	public static void convert(TranscriptReader reader, Writer out) throws IOException
+	{
+		//Environments repeat whenever the proof changes back, so each is turned into text once
+		IdentityHashMap<CryptoData, String> environments = new IdentityHashMap<CryptoData, String>();
+		StringBuilder text = new StringBuilder();
+		TranscriptReader.Entry entry;
+		while((entry = reader.next()) != null)
+		{
+			switch(entry.type)
+			{
+				case TranscriptReader.STATEMENT:
+					TextTranscript.appendStatement(text, entry.prover, text64(entry.environment, environments), entry.commitmentEnvironment == null ? null : text64(entry.commitmentEnvironment, environments));
+					break;
+				case TranscriptReader.PROOF:
+					TextTranscript.appendProof(text, entry.commitment, entry.input, entry.a, entry.z, entry.challenge, entry.challengeKey);
+					break;
+				default:
+					text.append(entry.note);
+			}
+			if(text.length() > 1 << 16)
+			{
+				out.write(text.toString());
+				text.setLength(0);
+			}
+		}
+		out.write(text.toString());
+	}
+
+	private static String text64(CryptoData environment, IdentityHashMap<CryptoData, String> environments)
+	{
+		String text = environments.get(environment);
+		if(text == null)
+		{
+			text = environment.toString64();
+			environments.put(environment, text);
+		}
+		return text;
+	}
+}
@@ -0,0 +1,129 @@
+package zero_knowledge_proofs;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+
+import org.bouncycastle.math.ec.ECCurve;
+
+import zero_knowledge_proofs.CryptoData.CryptoData;
+
+/**
+ * Reads the records of a transcript in order, whichever Transcript wrote it.  open tells the formats apart.
+ */
+public abstract class TranscriptReader implements Closeable
+{
+	public static final byte STATEMENT = BinaryTranscriptWriter.STATEMENT;
+	public static final byte PROOF = BinaryTranscriptWriter.PROOF;
+	public static final byte NOTE = BinaryTranscriptWriter.NOTE;
+
+	/**
+	 * One record.  Every STATEMENT and PROOF entry has the statement in effect:  its prover, environment and commitment
+	 * environment (prover and commitment environment are null if the transcript did not record them), and statementId,
+	 * which counts the statements read so far from 0 (-1 before the first).  Proof fields are null when the proof was
+	 * skipped.
+	 */
+	public static class Entry
+	{
+		public final byte type;
+		public final long index;
+		public final int statementId;
+		public final String prover;
+		public final CryptoData environment;
+		public final CryptoData commitmentEnvironment;
+		public final ChallengeCommitment commitment;
+		public final CryptoData input;
+		public final CryptoData a;
+		public final CryptoData z;
+		public final BigInteger challenge;
+		public final BigInteger challengeKey;
+		public final String note;
+
+		Entry(byte type, long index, int statementId, String prover, CryptoData environment, CryptoData commitmentEnvironment, ChallengeCommitment commitment, CryptoData input, CryptoData a, CryptoData z, BigInteger challenge, BigInteger challengeKey, String note)
+		{
+			this.type = type;
+			this.index = index;
+			this.statementId = statementId;
+			this.prover = prover;
+			this.environment = environment;
+			this.commitmentEnvironment = commitmentEnvironment;
+			this.commitment = commitment;
+			this.input = input;
+			this.a = a;
+			this.z = z;
+			this.challenge = challenge;
+			this.challengeKey = challengeKey;
+			this.note = note;
+		}
+	}
+
+	//The statement in effect, kept by the subclasses
+	protected long index = 0;
+	protected int statementId = -1;
+	protected String prover;
+	protected CryptoData environment;
+	protected CryptoData commitmentEnvironment;
+
+	/**
+	 * @return the next record, or null at the end of the transcript
+	 */
+	public Entry next() throws IOException
+	{
+		return read(true);
+	}
+
+	/**
+	 * Moves past up to count records without decoding their proofs.  Statements are still read, so the entries after the
+	 * skipped ones have the right statement.
+	 *
+	 * @return how many records were skipped
+	 */
+	public long skip(long count) throws IOException
+	{
+		long skipped = 0;
+		while(skipped < count && read(false) != null)
+			skipped++;
+		return skipped;
+	}
+
+	/**
+	 * Reads a record.  If decodeProofs is false a PROOF entry only has its statement.
+	 */
+	protected abstract Entry read(boolean decodeProofs) throws IOException;
+
+	public abstract ECCurve getCurve();
+
+	protected Entry statement()
+	{
+		return new Entry(STATEMENT, index++, statementId, prover, environment, commitmentEnvironment, null, null, null, null, null, null, null);
+	}
+
+	protected Entry proof(ChallengeCommitment commitment, CryptoData input, CryptoData a, CryptoData z, BigInteger challenge, BigInteger challengeKey)
+	{
+		return new Entry(PROOF, index++, statementId, prover, environment, commitmentEnvironment, commitment, input, a, z, challenge, challengeKey, null);
+	}
+
+	protected Entry note(String note)
+	{
+		return new Entry(NOTE, index++, statementId, null, null, null, null, null, null, null, null, null, note);
+	}
+
+	/**
+	 * Opens a transcript of either format.
+	 *
+	 * @param curveName the named curve of a text transcript (binary transcripts name their own)
+	 * @param hashScheme how the hash challenge commitments of a text transcript were made, which the text does not say
+	 */
+	public static TranscriptReader open(String fileName, String curveName, ChallengeCommitmentScheme hashScheme) throws IOException
+	{
+		InputStream in = new BufferedInputStream(new FileInputStream(fileName), 1 << 16);
+		in.mark(2);
+		int magic = (in.read() << 8) | in.read();
+		in.reset();
+		if(magic == BinaryTranscriptWriter.MAGIC) return new BinaryTranscriptReader(in);
+		return new TextTranscriptReader(in, curveName, hashScheme);
+	}
+}
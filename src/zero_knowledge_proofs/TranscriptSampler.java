@@ -0,0 +1,228 @@
+package zero_knowledge_proofs;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Audits an indexed transcript by checking k proofs drawn at random instead of all of them.  Each sampled proof record,
+ * with the statement and environments it is checked under, is checked against the Merkle root, then its challenge
+ * commitment is opened and the proof verified as TranscriptVerifier does.  If the transcript's root was published before the samples were drawn (-root), the prover
+ * could not have chosen which proofs get checked, and if all k pass then, with 95% confidence, fewer than
+ * 1 - 0.05^(1/k) of the proofs are bad (about 3/k).
+ *
+ * Usage:  TranscriptSampler [options] transcript.vtr
+ *
+ * Options:  -k samples (100), -root the published root in hex (the file's own root if not given, which only checks
+ * the records against the rest of the file), -seed to draw the same samples again (a fresh random seed if not given).
+ *
+ * The exit status is 0 if every sample passed.
+ */
+public class TranscriptSampler
+{
+	private static final int REPORTED_FAILURES = 20;
+
+	private String transcript = null;
+	private int k = 100;
+	private byte[] root = null;
+	private Long seed = null;
+
+	private long proofCount = 0;
+	private byte[] fileRoot;
+	private int samples = 0;
+	private int verified = 0;
+	private int badPaths = 0;
+	private int failed = 0;
+	private int badCommitments = 0;
+	private int unverifiable = 0;
+	private double seconds = 0;
+	private final ArrayList<Long> reportedFailures = new ArrayList<Long>();
+	private final ArrayList<String> errors = new ArrayList<String>();
+
+	public static void main(String[] args) throws Exception
+	{
+		TranscriptSampler sampler = new TranscriptSampler(args);
+		boolean valid = sampler.sample();
+		sampler.report(System.out);
+		System.exit(valid ? 0 : 1);
+	}
+
+	private TranscriptSampler(String[] args)
+	{
+		for(int i = 0; i < args.length; i++)
+		{
+			switch(args[i])
+			{
+				case "-k":
+					k = Integer.parseInt(args[++i]);
+					break;
+				case "-root":
+					root = hex(args[++i]);
+					break;
+				case "-seed":
+					seed = Long.parseLong(args[++i]);
+					break;
+				default:
+					if(transcript != null || args[i].startsWith("-"))
+						throw new IllegalArgumentException("Unknown option " + args[i] + ".  Usage:  TranscriptSampler [-k samples] [-root hex] [-seed seed] transcript.vtr");
+					transcript = args[i];
+			}
+		}
+		if(transcript == null) throw new IllegalArgumentException("No transcript given");
+		if(k < 1) throw new IllegalArgumentException("-k must be positive");
+		if(root != null && root.length != IndexedTranscriptWriter.HASH_BYTES) throw new IllegalArgumentException("The root is " + IndexedTranscriptWriter.HASH_BYTES + " bytes");
+		if(seed == null) seed = new SecureRandom().nextLong();
+	}
+
+	/**
+	 * Draws and checks the samples.
+	 *
+	 * @return true if every sample passed
+	 */
+	public boolean sample() throws IOException
+	{
+		ZKToolkit.register();
+		IndexedTranscriptReader reader = new IndexedTranscriptReader(transcript);
+		long start = System.nanoTime();
+		try
+		{
+			proofCount = reader.proofCount();
+			fileRoot = reader.getRoot();
+			if(root == null) root = fileRoot;
+			SecureRandom random = new SecureRandom();
+			HashMap<String, Object> provers = new HashMap<String, Object>();
+
+			//In file order, so samples of one statement are checked together and the reads move forward
+			ArrayList<TranscriptReader.Entry> batch = new ArrayList<TranscriptReader.Entry>();
+			for(long i : draw())
+			{
+				samples++;
+				if(!reader.verifyPath(i, root))
+				{
+					badPaths++;
+					fail(i);
+					continue;
+				}
+				TranscriptReader.Entry e = reader.proof(i);
+				if(!batch.isEmpty() && batch.get(0).statementId != e.statementId)
+				{
+					check(batch, provers, random);
+					batch.clear();
+				}
+				batch.add(e);
+			}
+			if(!batch.isEmpty()) check(batch, provers, random);
+		}
+		finally
+		{
+			reader.close();
+			seconds = (System.nanoTime() - start) / 1e9;
+		}
+		return passed();
+	}
+
+	//k distinct proof numbers, sorted, or all of them if there are no more than k
+	private TreeSet<Long> draw()
+	{
+		TreeSet<Long> toReturn = new TreeSet<Long>();
+		Random random = new Random(seed);
+		if(proofCount <= k)
+		{
+			for(long i = 0; i < proofCount; i++)
+				toReturn.add(i);
+			return toReturn;
+		}
+		while(toReturn.size() < k)
+		{
+			//Uniform in [0, proofCount), as Random.nextInt(bound) does it
+			long bits, value;
+			do
+			{
+				bits = random.nextLong() >>> 1;
+				value = bits % proofCount;
+			} while(bits - value + (proofCount - 1) < 0);
+			toReturn.add(value);
+		}
+		return toReturn;
+	}
+
+	private void check(ArrayList<TranscriptReader.Entry> batch, HashMap<String, Object> provers, SecureRandom random)
+	{
+		Object prover = provers.computeIfAbsent(batch.get(0).prover, TranscriptVerifier::build);
+		if(prover instanceof String)
+		{
+			unverifiable += batch.size();
+			if(!errors.contains(prover)) errors.add((String) prover);
+			return;
+		}
+		boolean[] commitmentValid = new boolean[batch.size()];
+		boolean[] proofValid = TranscriptVerifier.check((ZKPProtocol) prover, batch, commitmentValid, random);
+		for(int i = 0; i < batch.size(); i++)
+		{
+			if(proofValid[i] && commitmentValid[i])
+			{
+				verified++;
+				continue;
+			}
+			if(!proofValid[i]) failed++;
+			if(!commitmentValid[i]) badCommitments++;
+			fail(batch.get(i).index);
+		}
+	}
+
+	private void fail(long i)
+	{
+		if(reportedFailures.size() < REPORTED_FAILURES) reportedFailures.add(i);
+	}
+
+	private boolean passed()
+	{
+		return badPaths == 0 && failed == 0 && badCommitments == 0 && unverifiable == 0 && Arrays.equals(root, fileRoot);
+	}
+
+	public void report(PrintStream out)
+	{
+		out.printf("Transcript:           %s%n", transcript);
+		out.printf("Proofs:               %d%n", proofCount);
+		out.printf("Merkle root:          %s%s%n", hex(fileRoot), Arrays.equals(root, fileRoot) ? "" : " (expected " + hex(root) + ")");
+		out.printf("Seed:                 %d%n", seed);
+		out.printf("Samples:              %d%n", samples);
+		out.printf("  verified:           %d%n", verified);
+		out.printf("  not in the tree:    %d%n", badPaths);
+		out.printf("  failed:             %d%n", failed);
+		out.printf("  bad commitments:    %d%n", badCommitments);
+		out.printf("  unverifiable:       %d%n", unverifiable);
+		for(String error : errors)
+			out.printf("  %s%n", error);
+		if(!reportedFailures.isEmpty()) out.printf("First failed proofs:  %s%n", reportedFailures);
+		if(passed() && samples != 0)
+		{
+			if(samples == proofCount) out.printf("Every proof was checked%n");
+			else out.printf("Bad proofs:           under %.2f%% with 95%% confidence%n", 100 * (1 - Math.pow(0.05, 1.0 / samples)));
+		}
+		out.printf("Time:                 %.2f s%n", seconds);
+		out.printf("Result:               %s%n", passed() ? "VALID" : "INVALID");
+	}
+
+	private static String hex(byte[] bytes)
+	{
+		StringBuilder toReturn = new StringBuilder();
+		for(byte b : bytes)
+			toReturn.append(String.format("%02x", b));
+		return toReturn.toString();
+	}
+
+	private static byte[] hex(String text)
+	{
+		if(text.length() % 2 != 0) throw new IllegalArgumentException("Odd length hex " + text);
+		byte[] toReturn = new byte[text.length() / 2];
+		for(int i = 0; i < toReturn.length; i++)
+			toReturn[i] = (byte) Integer.parseInt(text.substring(2 * i, 2 * i + 2), 16);
+		return toReturn;
+	}
+}
@@ -0,0 +1,367 @@
+package zero_knowledge_proofs;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks every proof of a transcript again, offline.  Each statement's prover is rebuilt with generateProver from the
+ * recorded string, and for every proof the verifier's challenge commitment is opened and the proof checked against
+ * the challenge.  Proofs of one statement are verified in batches (batchVerifyResponse:  one random linear combination
+ * per batch, each proof on its own only if that fails), on every core.
+ *
+ * Records are streamed:  the reader stays at most a few batches per thread ahead of the verifiers, so memory does not
+ * grow with the transcript.  Batches finish in order, and every so many proofs a checkpoint records how far the
+ * transcript is verified;  a run that is given the same checkpoint file starts from there.
+ *
+ * Usage:  TranscriptVerifier [options] transcript
+ *
+ * Options:  -t threads (all cores), -batch proofs per batch (64), -curve named curve of text transcripts (secp256k1),
+ * -cc hash of text transcripts' hash challenge commitments (sha256), -checkpoint file, -every proofs between
+ * checkpoints (100000), -failures file to append the record number of every failed proof to.
+ *
+ * The exit status is 0 if every proof verified, 1 if any failed or could not be checked.
+ */
+public class TranscriptVerifier
+{
+	private static final int REPORTED_FAILURES = 20;
+
+	private String transcript = null;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int batchSize = 64;
+	private String curveName = "secp256k1";
+	private ChallengeCommitmentScheme hashScheme = ChallengeCommitmentScheme.SHA256;
+	private String checkpoint = null;
+	private long every = 100000;
+	private String failuresFile = null;
+
+	private final ConcurrentHashMap<String, Object> provers = new ConcurrentHashMap<String, Object>();
+	private final ThreadLocal<SecureRandom> random = ThreadLocal.withInitial(SecureRandom::new);
+
+	//Totals, only touched by the thread running verify
+	private long records = 0;
+	private long proofs = 0;
+	private long verified = 0;
+	private long failed = 0;
+	private long badCommitments = 0;
+	private long uncheckedCommitments = 0;
+	private long unverifiable = 0;
+	private long sinceCheckpoint = 0;
+	private long resumedAt = 0;
+	private String lastNote = null;
+	private double seconds = 0;
+	private final ArrayList<Long> reportedFailures = new ArrayList<Long>();
+	private final ArrayList<String> errors = new ArrayList<String>();
+	private Writer failures = null;
+
+	public static void main(String[] args) throws Exception
+	{
+		TranscriptVerifier verifier = new TranscriptVerifier(args);
+		boolean valid = verifier.verify();
+		verifier.report(System.out);
+		System.exit(valid ? 0 : 1);
+	}
+
+	private TranscriptVerifier(String[] args)
+	{
+		for(int i = 0; i < args.length; i++)
+		{
+			switch(args[i])
+			{
+				case "-t":
+					threads = Integer.parseInt(args[++i]);
+					break;
+				case "-batch":
+					batchSize = Integer.parseInt(args[++i]);
+					break;
+				case "-curve":
+					curveName = args[++i];
+					break;
+				case "-cc":
+					hashScheme = ChallengeCommitmentScheme.forName(args[++i]);
+					break;
+				case "-checkpoint":
+					checkpoint = args[++i];
+					break;
+				case "-every":
+					every = Long.parseLong(args[++i]);
+					break;
+				case "-failures":
+					failuresFile = args[++i];
+					break;
+				default:
+					if(transcript != null || args[i].startsWith("-"))
+						throw new IllegalArgumentException("Unknown option " + args[i] + ".  Usage:  TranscriptVerifier [-t threads] [-batch proofs] [-curve name] [-cc scheme] [-checkpoint file] [-every proofs] [-failures file] transcript");
+					transcript = args[i];
+			}
+		}
+		if(transcript == null) throw new IllegalArgumentException("No transcript given");
+		if(threads < 1 || batchSize < 1 || every < 1) throw new IllegalArgumentException("-t, -batch and -every must be positive");
+	}
+
+	/**
+	 * Verifies the whole transcript.
+	 *
+	 * @return true if every proof verified
+	 */
+	public boolean verify() throws IOException, InterruptedException
+	{
+		ZKToolkit.register();
+		TranscriptReader reader = TranscriptReader.open(transcript, curveName, hashScheme);
+		if(checkpoint != null && new File(checkpoint).exists()) resume(reader);
+		if(failuresFile != null) failures = new BufferedWriter(new FileWriter(failuresFile, true));
+		ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "transcript-verifier");
+			t.setDaemon(true);
+			return t;
+		});
+		ArrayDeque<Future<Batch>> pending = new ArrayDeque<Future<Batch>>();
+		long start = System.nanoTime();
+		try
+		{
+			ArrayList<TranscriptReader.Entry> batch = new ArrayList<TranscriptReader.Entry>(batchSize);
+			TranscriptReader.Entry entry;
+			while((entry = reader.next()) != null)
+			{
+				if(entry.type == TranscriptReader.PROOF)
+				{
+					if(!batch.isEmpty() && batch.get(0).statementId != entry.statementId)
+						batch = submit(pool, pending, batch);
+					batch.add(entry);
+					if(batch.size() == batchSize)
+						batch = submit(pool, pending, batch);
+				}
+				else if(entry.type == TranscriptReader.NOTE)
+				{
+					lastNote = entry.note.trim();
+				}
+				//Finish the oldest batches while the reader is too far ahead
+				while(pending.size() > 4 * threads)
+					finish(pending.removeFirst());
+			}
+			if(!batch.isEmpty()) submit(pool, pending, batch);
+			while(!pending.isEmpty())
+				finish(pending.removeFirst());
+			saveCheckpoint();
+		}
+		finally
+		{
+			pool.shutdownNow();
+			reader.close();
+			if(failures != null) failures.close();
+			seconds = (System.nanoTime() - start) / 1e9;
+		}
+		return failed == 0 && badCommitments == 0 && unverifiable == 0;
+	}
+
+	private ArrayList<TranscriptReader.Entry> submit(ExecutorService pool, ArrayDeque<Future<Batch>> pending, ArrayList<TranscriptReader.Entry> entries)
+	{
+		pending.addLast(pool.submit(() -> check(entries)));
+		return new ArrayList<TranscriptReader.Entry>(batchSize);
+	}
+
+	//Results of one batch, in record order
+	private static class Batch
+	{
+		final List<TranscriptReader.Entry> entries;
+		final boolean[] proofValid;
+		final boolean[] commitmentValid;
+		final String error;
+
+		Batch(List<TranscriptReader.Entry> entries, boolean[] proofValid, boolean[] commitmentValid, String error)
+		{
+			this.entries = entries;
+			this.proofValid = proofValid;
+			this.commitmentValid = commitmentValid;
+			this.error = error;
+		}
+	}
+
+	//Runs on the pool
+	private Batch check(List<TranscriptReader.Entry> entries)
+	{
+		TranscriptReader.Entry first = entries.get(0);
+		if(first.prover == null)
+			return new Batch(entries, null, null, "Statement " + first.statementId + " has no recorded prover");
+		Object prover = provers.computeIfAbsent(first.prover, TranscriptVerifier::build);
+		if(prover instanceof String)
+			return new Batch(entries, null, null, (String) prover);
+		boolean[] commitmentValid = new boolean[entries.size()];
+		boolean[] proofValid = check((ZKPProtocol) prover, entries, commitmentValid, random.get());
+		return new Batch(entries, proofValid, commitmentValid, null);
+	}
+
+	/**
+	 * Checks proofs of one statement:  each challenge commitment is opened into commitmentValid (true if the commitment
+	 * environment was not recorded), and the proofs are verified together, each on its own only if that fails.
+	 *
+	 * @return whether each proof verified
+	 */
+	static boolean[] check(ZKPProtocol p, List<TranscriptReader.Entry> entries, boolean[] commitmentValid, SecureRandom random)
+	{
+		ArrayList<BatchedProof> batch = new ArrayList<BatchedProof>(entries.size());
+		for(int i = 0; i < entries.size(); i++)
+		{
+			TranscriptReader.Entry e = entries.get(i);
+			commitmentValid[i] = e.commitmentEnvironment == null || e.commitment.verifyCommitment(e.challenge, e.challengeKey, e.commitmentEnvironment);
+			batch.add(new BatchedProof(e.input, e.a, e.z, e.challenge, e.environment));
+		}
+		try
+		{
+			return p.batchVerifyResponse(batch, random);
+		}
+		catch(RuntimeException e)
+		{
+			//A malformed proof can break the combined check, so check each one on its own
+			boolean[] proofValid = new boolean[entries.size()];
+			for(int i = 0; i < proofValid.length; i++)
+			{
+				BatchedProof b = batch.get(i);
+				try
+				{
+					proofValid[i] = p.verifyResponse(b.input, b.a, b.z, b.challenge, b.environment);
+				}
+				catch(RuntimeException e2)
+				{
+					proofValid[i] = false;
+				}
+			}
+			return proofValid;
+		}
+	}
+
+	//The prover of a statement, or why there is none
+	static Object build(String statement)
+	{
+		try
+		{
+			//toString separates the parts of compound provers with ", ", generateProver takes ","
+			return ZKPProtocol.generateProver(statement.replace(" ", ""));
+		}
+		catch(Exception e)
+		{
+			return "Can not build the prover " + statement + ":  " + e;
+		}
+	}
+
+	private void finish(Future<Batch> future) throws IOException, InterruptedException
+	{
+		Batch batch;
+		try
+		{
+			batch = future.get();
+		}
+		catch(ExecutionException e)
+		{
+			throw new IOException("Verification failed", e.getCause());
+		}
+		int count = batch.entries.size();
+		proofs += count;
+		sinceCheckpoint += count;
+		if(batch.error != null)
+		{
+			unverifiable += count;
+			if(!errors.contains(batch.error)) errors.add(batch.error);
+		}
+		else
+		{
+			for(int i = 0; i < count; i++)
+			{
+				TranscriptReader.Entry e = batch.entries.get(i);
+				if(e.commitmentEnvironment == null) uncheckedCommitments++;
+				if(!batch.commitmentValid[i]) badCommitments++;
+				if(batch.proofValid[i] && batch.commitmentValid[i])
+				{
+					verified++;
+					continue;
+				}
+				if(!batch.proofValid[i]) failed++;
+				if(reportedFailures.size() < REPORTED_FAILURES) reportedFailures.add(e.index);
+				if(failures != null) failures.write(e.index + "\n");
+			}
+		}
+		records = batch.entries.get(count - 1).index + 1;
+		if(sinceCheckpoint >= every) saveCheckpoint();
+	}
+
+	private void resume(TranscriptReader reader) throws IOException
+	{
+		Properties p = new Properties();
+		InputStream in = new FileInputStream(checkpoint);
+		p.load(in);
+		in.close();
+		if(!new File(transcript).getCanonicalPath().equals(p.getProperty("transcript")))
+			throw new IOException("The checkpoint " + checkpoint + " is for " + p.getProperty("transcript"));
+		records = Long.parseLong(p.getProperty("records"));
+		proofs = Long.parseLong(p.getProperty("proofs"));
+		verified = Long.parseLong(p.getProperty("verified"));
+		failed = Long.parseLong(p.getProperty("failed"));
+		badCommitments = Long.parseLong(p.getProperty("badCommitments"));
+		uncheckedCommitments = Long.parseLong(p.getProperty("uncheckedCommitments"));
+		unverifiable = Long.parseLong(p.getProperty("unverifiable"));
+		if(reader.skip(records) != records) throw new IOException("The transcript is shorter than the checkpoint");
+		resumedAt = proofs;
+	}
+
+	//Written to a temporary file and moved over the old checkpoint, so a crash leaves one or the other
+	private void saveCheckpoint() throws IOException
+	{
+		sinceCheckpoint = 0;
+		if(failures != null) failures.flush();
+		if(checkpoint == null) return;
+		Properties p = new Properties();
+		p.setProperty("transcript", new File(transcript).getCanonicalPath());
+		p.setProperty("records", "" + records);
+		p.setProperty("proofs", "" + proofs);
+		p.setProperty("verified", "" + verified);
+		p.setProperty("failed", "" + failed);
+		p.setProperty("badCommitments", "" + badCommitments);
+		p.setProperty("uncheckedCommitments", "" + uncheckedCommitments);
+		p.setProperty("unverifiable", "" + unverifiable);
+		File target = new File(checkpoint);
+		File temp = new File(checkpoint + ".tmp");
+		OutputStream out = new FileOutputStream(temp);
+		p.store(out, "TranscriptVerifier checkpoint");
+		out.close();
+		Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	public void report(PrintStream out)
+	{
+		long checked = proofs - resumedAt;
+		out.printf("Transcript:           %s%n", transcript);
+		if(resumedAt != 0) out.printf("Resumed after:        %d proofs%n", resumedAt);
+		out.printf("Records:              %d%n", records);
+		out.printf("Proofs:               %d%n", proofs);
+		out.printf("  verified:           %d%n", verified);
+		out.printf("  failed:             %d%n", failed);
+		out.printf("  bad commitments:    %d%n", badCommitments);
+		out.printf("  unverifiable:       %d%n", unverifiable);
+		if(uncheckedCommitments != 0) out.printf("  commitments not recorded:  %d%n", uncheckedCommitments);
+		for(String error : errors)
+			out.printf("  %s%n", error);
+		if(!reportedFailures.isEmpty()) out.printf("First failed records: %s%n", reportedFailures);
+		if(lastNote != null) out.printf("Recorded outcome:     %s%n", lastNote);
+		out.printf("Time:                 %.1f s, %.0f proofs/s on %d threads%n", seconds, checked / Math.max(seconds, 1e-9), threads);
+		out.printf("Result:               %s%n", failed == 0 && badCommitments == 0 && unverifiable == 0 ? "VALID" : "INVALID");
+	}
+}
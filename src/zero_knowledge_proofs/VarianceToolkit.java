@@ -18,6 +18,7 @@ import zero_knowledge_proofs.CryptoData.CryptoData;
 import zero_knowledge_proofs.CryptoData.CryptoDataArray;
 import zero_knowledge_proofs.CryptoData.ECCurveData;
 import zero_knowledge_proofs.CryptoData.ECPointData;
+import zero_knowledge_proofs.CryptoData.FlatCryptoData;
 
 abstract public class VarianceToolkit {
 	public static ZKPProtocol tableEqualityProver;
@@ -28,7 +29,8 @@ abstract public class VarianceToolkit {
 	private static boolean registered = false;
 	private static int[][] nChooseKTable = {{1}};
 	
-	public static int choose(int n, int k)
+	//The table grows on demand, so lookups are serialized for provers running on several threads
+	public static synchronized int choose(int n, int k)
 	{
 		n++;
 		if(n < k || k < 0 || n <= 0) throw new ArrayIndexOutOfBoundsException();
@@ -59,7 +61,7 @@ abstract public class VarianceToolkit {
 		}
 		return nChooseKTable[n-1][k-1];
 	}
-	public static boolean register()
+	public static synchronized boolean register()
 	{
 		if(registered)
 			return true;
@@ -88,7 +90,6 @@ abstract public class VarianceToolkit {
 		CryptoData[] unpackedEnv = env.getCryptoDataArray();
 		ECCurve curve = unpackedEnv[0].getECCurveData();
 		BigInteger order = curve.getOrder();
-		int orderBits = order.bitLength();
 		
 		ECPedersenOwnedBitwiseCommitment toReturn = new ECPedersenOwnedBitwiseCommitment();
 		
@@ -100,11 +101,7 @@ abstract public class VarianceToolkit {
 		toReturn.m = m;
 		for(int i = 1; i < numBits; i++)
 		{
-			do
-			{
-				pcKey = new BigInteger(orderBits, r);
-			}while(pcKey.compareTo(order) >= 0);
-			key = key.subtract(pcKey.shiftLeft(i));
+			pcKey = ScalarSampler.scalar(order, r);
 			if(m.testBit(i))
 			{
 				toReturn.comm[i] = new ECPedersenCommitment(BigInteger.ONE, pcKey, env);
@@ -117,6 +114,12 @@ abstract public class VarianceToolkit {
 				toReturn.keys[i] = pcKey;
 			}
 		}
+		//key minus the sum of keys[i] 2^i, folded by Horner's rule so keys[0] stays below the order
+		ScalarField field = ScalarField.of(order);
+		ScalarField.Element sum = field.zero();
+		for(int i = numBits - 1; i >= 1; i--)
+			sum.add(sum).add(field.element(toReturn.keys[i]));
+		key = field.element(key).subtract(sum.add(sum)).toBigInteger();
 
 		if(m.testBit(0))
 		{
@@ -132,12 +135,13 @@ abstract public class VarianceToolkit {
 		return toReturn;
 	}
 	public static boolean checkBitCommitment(ECPedersenCommitment total, ECPedersenCommitment[] bits, CryptoData env) {
-		ECPedersenCommitment current = bits[bits.length-1];
-		for(int i = bits.length-2; i >= 0; i--)
+		//Most significant bit first:  double the sum, then add the next bit
+		CommitmentAccumulator current = new CommitmentAccumulator(env);
+		for(int i = bits.length-1; i >= 0; i--)
 		{
-			current = bits[i].multiplyShiftedCommitment(current, 1, env);
+			current.timesPow2(1).add(bits[i]);
 		}
-		return (current.getCommitment(env).equals(total.getCommitment(env)));
+		return current.matches(total);
 	}
 	
 	
@@ -204,9 +208,7 @@ abstract public class VarianceToolkit {
 					ECPoint cipherDiff = newCipher.subtract(origCipher);
 					ECPoint cipherKeyDiff = newCipherKey.subtract(origCipherKey);
 					CryptoData[] cell;
-					BigInteger temp = new BigInteger(bits, r);
-					while(temp.compareTo(order) >= 0) 
-						temp = new BigInteger(bits, r);
+					BigInteger temp = ScalarSampler.scalar(order, r);
 					if(shuffle[i] == j)
 					{
 						//input = [y_g, y_h, r, x]
@@ -386,15 +388,7 @@ abstract public class VarianceToolkit {
 		CryptoData[] inputs0 = new CryptoData[5];
 		CryptoData[] inputs1 = new CryptoData[5];
 		CryptoData[] inputs2 = new CryptoData[2];
-		BigInteger[] randoms = new BigInteger[10];
-		for(int i = 0; i < 10; i++)
-		{
-			randoms[i] = new BigInteger(bits, r);
-			while(randoms[i].compareTo(order) >= 0)
-			{
-				randoms[i] = new BigInteger(bits, r);
-			}
-		}
+		BigInteger[] randoms = ScalarSampler.scalars(order, 10, r);
 		CryptoData[][] rowUnpacked = new CryptoData[row.length][];
 		for(int i = 0; i < row.length; i++)
 		{
@@ -551,6 +545,46 @@ abstract public class VarianceToolkit {
 		return new CryptoDataArray(new CryptoData[] {middleLayer, middleLayer, middleLayer,baseEnvironment});
 	}
 	
+	//The multi-signature proof, environment and verifier inputs of construction c (see MultiSigPlanner).  keyEnvironment
+	//is the environment of the keys, commitmentEnvironment and commitments are only used by KEY_COUNT, and
+	//challengePrime only by THRESHOLD.
+	public static ZKPProtocol createMultiSigProof(MultiSigPlanner.Construction c, int n, int k, ZKPProtocol keyProtocol, ZKPProtocol commitmentProtocol, BigInteger challengePrime)
+	{
+		switch(c)
+		{
+			case NAIVE:
+				return createMultiSigProofNaive(n, k, keyProtocol);
+			case THRESHOLD:
+				return createMultiSigProofThreshhold(n, k, keyProtocol, challengePrime);
+			default:
+				return createMultiSigProofKeyCount(n, k, keyProtocol, commitmentProtocol);
+		}
+	}
+	public static CryptoData createMultiSigEnvironment(MultiSigPlanner.Construction c, int n, int k, CryptoData keyEnvironment, CryptoData commitmentEnvironment)
+	{
+		switch(c)
+		{
+			case NAIVE:
+				return createMultiSigEnvironmentNaive(n, k, keyEnvironment);
+			case THRESHOLD:
+				return createMultiSigEnvironmentThreshhold(n, k, keyEnvironment);
+			default:
+				return createMultiSigEnvironmentKeyCount(n, k, keyEnvironment, commitmentEnvironment);
+		}
+	}
+	public static CryptoData createMultiSigVerifierInputs(MultiSigPlanner.Construction c, int n, int k, CryptoData[] publicKeys, ECPedersenCommitment[] commitments, CryptoData keyEnvironment, ZKPProtocol keyProtocol, BigInteger challengePrime)
+	{
+		switch(c)
+		{
+			case NAIVE:
+				return createMultiSigVerifierInputsNaive(n, k, publicKeys, keyProtocol);
+			case THRESHOLD:
+				return createMultiSigVerifierInputsThreshhold(n, k, publicKeys, keyProtocol, challengePrime);
+			default:
+				return createMultiSigVerifierInputsKeyCount(n, k, publicKeys, commitments, keyEnvironment, keyProtocol);
+		}
+	}
+
 	public static ZKPProtocol createMultiSigProofNaive(int n, int k, ZKPProtocol keyProtocol)
 	{
 		
@@ -879,11 +913,7 @@ abstract public class VarianceToolkit {
 		if(secrets.hasNull()) return null;
 		CryptoData[] array = new CryptoData[3];
 		array[0] = publicInformation;
-		BigInteger r;
-		do {
-			r = new BigInteger(order.bitLength(), rand);
-		}while(r.compareTo(order) >= 0);
-		array[1] = new BigIntData(r);
+		array[1] = new BigIntData(ScalarSampler.scalar(order, rand));
 		array[2] = secrets;
 		
 		return new CryptoDataArray(array);
@@ -892,19 +922,74 @@ abstract public class VarianceToolkit {
 	{
 		CryptoData[] array = new CryptoData[2];
 		array[0] = publicInformation;
-		BigInteger r;
-		do {
-			r = new BigInteger(order.bitLength(), rand);
-		}while(r.compareTo(order) >= 0);
-		array[1] = new BigIntData(r);
+		array[1] = new BigIntData(ScalarSampler.scalar(order, rand));
 		
 		return new CryptoDataArray(array);
 	}
+	//Same as above, but r and g*r come from the pool so initialComm does no multiplication.  g*r is tagged with the
+	//pool's base, [g, g*r], which ECSchnorrProver checks against its environment
+	public static CryptoData createSchnorrProverInputsNoChecks(CryptoData publicInformation, CryptoData secrets, PrecomputationPool pool)
+	{
+		if(secrets.hasNull()) return null;
+		PrecomputationPool.Nonce nonce = pool.take();
+		return new CryptoDataArray(new CryptoData[] {publicInformation, new BigIntData(nonce.r), secrets, new CryptoDataArray(new ECPoint[] {pool.getBase(), nonce.commitment})});
+	}
+	//Same as above, but z and g*z come from the pool so initialCommSim only multiplies y
+	public static CryptoData createSchnorrSimulatorInputsNoChecks(CryptoData publicInformation, PrecomputationPool pool)
+	{
+		PrecomputationPool.Nonce nonce = pool.take();
+		return new CryptoDataArray(new CryptoData[] {publicInformation, new BigIntData(nonce.r), new CryptoDataArray(new ECPoint[] {pool.getBase(), nonce.commitment})});
+	}
+	//Takes r (or z) and its commitment from the pool when there is one
+	private static CryptoData createSchnorrProverInputs(CryptoData publicInformation, CryptoData secrets, PrecomputationPool pool, BigInteger order, SecureRandom rand)
+	{
+		if(pool == null) return createSchnorrProverInputsNoChecks(publicInformation, secrets, order, rand);
+		return createSchnorrProverInputsNoChecks(publicInformation, secrets, pool);
+	}
+	private static CryptoData createSchnorrSimulatorInputs(CryptoData publicInformation, PrecomputationPool pool, BigInteger order, SecureRandom rand)
+	{
+		if(pool == null) return createSchnorrSimulatorInputsNoChecks(publicInformation, order, rand);
+		return createSchnorrSimulatorInputsNoChecks(publicInformation, pool);
+	}
+	//Same as createSchnorrProverInputs and createSchnorrSimulatorInputs, but adding the inputs to a flat tree
+	private static void addSchnorrProverInputs(FlatCryptoData.Builder b, CryptoData publicInformation, CryptoData secrets, PrecomputationPool pool, BigInteger order, SecureRandom rand)
+	{
+		if(secrets.hasNull()) {
+			b.addNull();
+			return;
+		}
+		b.beginArray().add(publicInformation);
+		if(pool == null)
+			b.add(ScalarSampler.scalar(order, rand)).add(secrets);
+		else
+		{
+			PrecomputationPool.Nonce nonce = pool.take();
+			b.add(nonce.r).add(secrets).add(new ECPoint[] {pool.getBase(), nonce.commitment});
+		}
+		b.endArray();
+	}
+	private static void addSchnorrSimulatorInputs(FlatCryptoData.Builder b, CryptoData publicInformation, PrecomputationPool pool, BigInteger order, SecureRandom rand)
+	{
+		b.beginArray().add(publicInformation);
+		if(pool == null)
+			b.add(ScalarSampler.scalar(order, rand));
+		else
+		{
+			PrecomputationPool.Nonce nonce = pool.take();
+			b.add(nonce.r).add(new ECPoint[] {pool.getBase(), nonce.commitment});
+		}
+		b.endArray();
+	}
 	public static CryptoData createSchnorrVerifierInputsNoChecks(CryptoData publicInformation)
 	{
 		return new CryptoDataArray(new CryptoData[] {publicInformation});
 	}
 	public static CryptoData createVarianceProverData(CryptoData keyData, BigInteger commitmentKey, ECPoint commitment, BigInteger balance, CryptoData baseEnvironment, boolean claimed, SecureRandom r)
+	{
+		return createVarianceProverData(keyData, commitmentKey, commitment, balance, baseEnvironment, claimed, r, null);
+	}
+	//hPool, if not null, is a pool on h (baseEnvironment[1]) that the nonces of the commitment proofs are taken from
+	public static CryptoData createVarianceProverData(CryptoData keyData, BigInteger commitmentKey, ECPoint commitment, BigInteger balance, CryptoData baseEnvironment, boolean claimed, SecureRandom r, PrecomputationPool hPool)
 	{
 		CryptoData[] e = baseEnvironment.getCryptoDataArray();
 		ECCurve c = e[0].getECCurveData();
@@ -915,22 +1000,22 @@ abstract public class VarianceToolkit {
 		CryptoData[] inner = new CryptoData[2];
 		BigInteger simulatedChallenge = new BigInteger(order.bitLength() - 1, r);
 		CryptoData comm0 = new ECPointData(commitment);
-		CryptoData commB = new ECPointData(commitment.subtract(g.multiply(balance)));
+		CryptoData commB = new ECPointData(commitment.subtract(ECMultiScalarMult.multiply(g, balance)));
 		if(claimed)
 		{
 			simulatedChallenges[0] = new BigIntData(simulatedChallenge);
 			simulatedChallenges[1] = new BigIntData(BigInteger.ZERO);
 			
-			outer[0] = createSchnorrSimulatorInputsNoChecks(comm0, order, r);
-			inner[0] = createSchnorrProverInputsNoChecks(commB,new BigIntData(commitmentKey), order, r);
+			outer[0] = createSchnorrSimulatorInputs(comm0, hPool, order, r);
+			inner[0] = createSchnorrProverInputs(commB,new BigIntData(commitmentKey), hPool, order, r);
 		}
 		else
 		{
 			simulatedChallenges[0] = new BigIntData(BigInteger.ZERO);
 			simulatedChallenges[1] = new BigIntData(simulatedChallenge);
 			
-			outer[0] = createSchnorrProverInputsNoChecks(comm0, new BigIntData(commitmentKey), order, r);
-			inner[0] = createSchnorrSimulatorInputsNoChecks(commB, order, r);
+			outer[0] = createSchnorrProverInputs(comm0, new BigIntData(commitmentKey), hPool, order, r);
+			inner[0] = createSchnorrSimulatorInputs(commB, hPool, order, r);
 		}
 		inner[1] = keyData; 
 		outer[2] = new CryptoDataArray(simulatedChallenges);
@@ -947,7 +1032,7 @@ abstract public class VarianceToolkit {
 		CryptoData[] inner = new CryptoData[2];
 		
 		CryptoData comm0 = new ECPointData(commitment);
-		CryptoData commB = new ECPointData(commitment.subtract(g.multiply(balance)));
+		CryptoData commB = new ECPointData(commitment.subtract(ECMultiScalarMult.multiply(g, balance)));
 
 		outer[0] = createSchnorrVerifierInputsNoChecks(comm0);
 		inner[0] = createSchnorrVerifierInputsNoChecks(commB);
@@ -1022,7 +1107,7 @@ abstract public class VarianceToolkit {
 		for(int i = 0; i < n; i++) {
 			proof[i] = oneProof;
 		}
-		andOuter[0] = new ZeroKnowledgeOrProver(proof);
+		andOuter[0] = new ZeroKnowledgeAndProver(proof);
 		andOuter[1] = commitmentProtocol;
 		return new ZeroKnowledgeAndProver(andOuter);
 	}
@@ -1075,31 +1160,34 @@ abstract public class VarianceToolkit {
 		ECPoint g = commitmentEnvirionment.getCryptoDataArray()[0].getECPointData(c);
 		if(n != 1)
 		{
+			if(k == 1 || k == n) {
+				FlatCryptoData.Builder b = new FlatCryptoData.Builder(2 * n + 1);
+				b.beginArray();
+				for(int i = 0; i < n; i++) {
+					b.beginArray().add(publicKeys[i]).endArray();
+				}
+				return b.endArray().build();
+			}
 			CryptoData[] inner = new CryptoData[n];
 			for(int i = 0; i < n; i++) {
 				inner[i] = createSchnorrVerifierInputsNoChecks(publicKeys[i]);
 			}
-			if(k == 1 || k == n) {
-				return new CryptoDataArray(inner);
-			}
 			CryptoData[] andOuter = new CryptoData[2];
 			CryptoData[] toReturn = new CryptoData[n];
 			for(int i = 0; i < n; i++) {
 				CryptoData[] andInner = new CryptoData[2];
 				CryptoData[] or = new CryptoData[2];
-				andInner[0] = new ECPointData(commitments[i].getCommitment(commitmentEnvirionment).subtract(g));
+				andInner[0] = createSchnorrVerifierInputsNoChecks(new ECPointData(commitments[i].getCommitment(commitmentEnvirionment).subtract(g)));
 				andInner[1] = inner[i];
-				or[0] = new ECPointData(commitments[i].getCommitment(commitmentEnvirionment));
+				or[0] = createSchnorrVerifierInputsNoChecks(new ECPointData(commitments[i].getCommitment(commitmentEnvirionment)));
 				or[1] = new CryptoDataArray(andInner);
 				toReturn[i] = new CryptoDataArray(or);
 			}
 			andOuter[0] = new CryptoDataArray(toReturn);
 
-			ECPedersenCommitment otherTotalComm = commitments[0];
-			for(int i = 1; i < n; i++){
-				otherTotalComm = otherTotalComm.multiplyCommitment(commitments[i], commitmentEnvirionment);
-			}
-			andOuter[1] = createSchnorrVerifierInputsNoChecks(new ECPointData(otherTotalComm.getCommitment(commitmentEnvirionment)));
+			ECPoint otherTotalComm = new CommitmentAccumulator(commitmentEnvirionment).add(commitments, 0, n).getSum();
+			//The commitments sum to k, so their sum less k g is a commitment to 0
+			andOuter[1] = createSchnorrVerifierInputsNoChecks(new ECPointData(otherTotalComm.subtract(g.multiply(BigInteger.valueOf(k)))));
 			return new CryptoDataArray(andOuter);
 		}
 		
@@ -1107,6 +1195,11 @@ abstract public class VarianceToolkit {
 	}
 	
 	public static CryptoData createMultiSigProverDataKeyCount(int n, int k, CryptoData[] publicKeys, CryptoData[] privateKeys, int[] positions, CryptoData baseEnvironment, ECPedersenCommitment[] commitments, BigInteger[] ephemeralKey, BigInteger order, SecureRandom rand)  //TODO Should get order from baseEnvironment
+	{
+		return createMultiSigProverDataKeyCount(n, k, publicKeys, privateKeys, positions, baseEnvironment, commitments, ephemeralKey, order, rand, null, null);
+	}
+	//gPool and hPool, if not null, are pools on g and h that the Schnorr nonces are taken from instead of rand
+	public static CryptoData createMultiSigProverDataKeyCount(int n, int k, CryptoData[] publicKeys, CryptoData[] privateKeys, int[] positions, CryptoData baseEnvironment, ECPedersenCommitment[] commitments, BigInteger[] ephemeralKey, BigInteger order, SecureRandom rand, PrecomputationPool gPool, PrecomputationPool hPool)
 	{
 		if(n < k || publicKeys.length != n || privateKeys.length < k || privateKeys.length != positions.length)
 		{
@@ -1119,36 +1212,38 @@ abstract public class VarianceToolkit {
 		{
 			if(k == 1)
 			{
-				CryptoData[] simulatedChallenges = new CryptoData[n];
-				CryptoData[] or = new CryptoData[n + 1];
+				BigInteger[] simulatedChallenges = new BigInteger[n];
+				FlatCryptoData.Builder or = new FlatCryptoData.Builder(6 * n + 2);
+				or.beginArray();
 				for(int i = 0; i < n; i++){
 					if(i == positions[0]){
-						simulatedChallenges[i] = new BigIntData(BigInteger.ZERO);
+						simulatedChallenges[i] = BigInteger.ZERO;
 						if(privateKeys[0] == null){
-							or[i] = null;
+							or.addNull();
 						}
 						else
-							or[i] = createSchnorrProverInputsNoChecks(publicKeys[i], privateKeys[0], order, rand);
+							addSchnorrProverInputs(or, publicKeys[i], privateKeys[0], gPool, order, rand);
 					}
 					else {
-						or[i] = createSchnorrSimulatorInputsNoChecks(publicKeys[i], order, rand);
-						simulatedChallenges[i] = new BigIntData(new BigInteger(255, rand));
+						addSchnorrSimulatorInputs(or, publicKeys[i], gPool, order, rand);
+						simulatedChallenges[i] = new BigInteger(255, rand);
 					}
 				}
-				or[n] = new CryptoDataArray(simulatedChallenges);
-				return new CryptoDataArray(or);
+				or.add(simulatedChallenges);
+				return or.endArray().build();
 			}
 			if(k == n) {
-				CryptoData[] and = new CryptoData[n];
+				FlatCryptoData.Builder and = new FlatCryptoData.Builder(5 * n + 1);
+				and.beginArray();
 				for(int i = 0; i < n; i++)
 				{
 					if(privateKeys[i] == null){
-						and[i] = null;
+						and.addNull();
 					}
 					else
-						and[i] = createSchnorrProverInputsNoChecks(publicKeys[i], privateKeys[i], order, rand);
+						addSchnorrProverInputs(and, publicKeys[i], privateKeys[i], gPool, order, rand);
 				}
-				return new CryptoDataArray(and);
+				return and.endArray().build();
 			}
 
 			CryptoData[] data = new CryptoData[n];
@@ -1157,38 +1252,37 @@ abstract public class VarianceToolkit {
 			for(int i = 0; i < n; i++) {
 				CryptoData[] andInner = new CryptoData[2];
 				CryptoData[] or = new CryptoData[3];
-				if(positions[counter] == i)
+				if(counter < positions.length && positions[counter] == i)
 				{
-					andInner[0] = createSchnorrProverInputsNoChecks(new ECPointData(commitments[i].getCommitment(baseEnvironment).subtract(g)), new BigIntData(ephemeralKey[i]), order, rand);
-					if(privateKeys[positions[counter]] == null) {
+					andInner[0] = createSchnorrProverInputs(new ECPointData(commitments[i].getCommitment(baseEnvironment).subtract(g)), new BigIntData(ephemeralKey[i]), hPool, order, rand);
+					if(privateKeys[counter] == null) {
 						andInner[1] = null;
 					}
 					else{
-						andInner[1] = createSchnorrProverInputsNoChecks(publicKeys[i], privateKeys[positions[counter]], order, rand);
+						andInner[1] = createSchnorrProverInputs(publicKeys[i], privateKeys[counter], gPool, order, rand);
 					}
-					or[0] = createSchnorrSimulatorInputsNoChecks(new ECPointData(commitments[i].getCommitment(baseEnvironment)), order, rand);
+					or[0] = createSchnorrSimulatorInputs(new ECPointData(commitments[i].getCommitment(baseEnvironment)), hPool, order, rand);
 					or[1] = new CryptoDataArray(andInner);
 					or[2] = new CryptoDataArray(new CryptoData[] {new BigIntData(new BigInteger(255, rand)), new BigIntData(BigInteger.ZERO)});
 					
 					counter++;
 				}
 				else {
-					andInner[0] = createSchnorrSimulatorInputsNoChecks(new ECPointData(commitments[i].getCommitment(baseEnvironment).subtract(g)), order, rand);
-					andInner[1] = createSchnorrSimulatorInputsNoChecks(publicKeys[i], order, rand);
-					or[0] = createSchnorrProverInputsNoChecks(new ECPointData(commitments[i].getCommitment(baseEnvironment)), new BigIntData(ephemeralKey[i]), order, rand);
+					andInner[0] = createSchnorrSimulatorInputs(new ECPointData(commitments[i].getCommitment(baseEnvironment).subtract(g)), hPool, order, rand);
+					andInner[1] = createSchnorrSimulatorInputs(publicKeys[i], gPool, order, rand);
+					or[0] = createSchnorrProverInputs(new ECPointData(commitments[i].getCommitment(baseEnvironment)), new BigIntData(ephemeralKey[i]), hPool, order, rand);
 					or[1] = new CryptoDataArray(andInner);
 					or[2] = new CryptoDataArray(new CryptoData[] {new BigIntData(BigInteger.ZERO),new BigIntData(new BigInteger(255, rand))});
 				}
 				data[i] = new CryptoDataArray(or);
 			}
 			andOuter[0] = new CryptoDataArray(data);
-			ECPedersenCommitment totalComm = commitments[0];
+			ECPoint totalComm = new CommitmentAccumulator(baseEnvironment).add(commitments, 0, n).getSum();
 			BigInteger totalKey = ephemeralKey[0];
 			for(int i = 1; i < n; i++){
-				totalComm = totalComm.multiplyCommitment(commitments[i], baseEnvironment);
-				totalKey = totalKey.add(ephemeralKey[i]);
+				totalKey = totalKey.add(ephemeralKey[i]).mod(order);
 			}
-			andOuter[1] = createSchnorrProverInputsNoChecks(new ECPointData(totalComm.getCommitment(baseEnvironment)), new BigIntData(totalKey), order, rand);
+			andOuter[1] = createSchnorrProverInputs(new ECPointData(totalComm.subtract(g.multiply(BigInteger.valueOf(k)))), new BigIntData(totalKey), hPool, order, rand);
 			return new CryptoDataArray(andOuter);
 		}
 		else 
@@ -1196,10 +1290,14 @@ abstract public class VarianceToolkit {
 			if(privateKeys[0] == null)
 				return null;
 			else
-				return createSchnorrProverInputsNoChecks(publicKeys[0], privateKeys[0], order, rand);
+				return createSchnorrProverInputs(publicKeys[0], privateKeys[0], gPool, order, rand);
 		}
 	}
 	public static CryptoData createMultiSigSimulatorDataKeyCount(int n, int k, CryptoData[] publicKeys, CryptoData baseEnvironment, ECPedersenCommitment[] commitments, BigInteger[] ephemeralKey, BigInteger order, SecureRandom rand)  //TODO Should get order from baseEnvironment
+	{
+		return createMultiSigSimulatorDataKeyCount(n, k, publicKeys, baseEnvironment, commitments, ephemeralKey, order, rand, null, null);
+	}
+	public static CryptoData createMultiSigSimulatorDataKeyCount(int n, int k, CryptoData[] publicKeys, CryptoData baseEnvironment, ECPedersenCommitment[] commitments, BigInteger[] ephemeralKey, BigInteger order, SecureRandom rand, PrecomputationPool gPool, PrecomputationPool hPool)
 	{
 		if(n < k || publicKeys.length != n)
 		{
@@ -1213,23 +1311,25 @@ abstract public class VarianceToolkit {
 		{
 			if(k == 1)
 			{
-				CryptoData[] simulatedChallenges = new CryptoData[n];
-				CryptoData[] data = new CryptoData[n + 1];
+				BigInteger[] simulatedChallenges = new BigInteger[n];
+				FlatCryptoData.Builder data = new FlatCryptoData.Builder(6 * n + 2);
+				data.beginArray();
 				for(int i = 0; i < n; i++){
-					data[i] = createSchnorrSimulatorInputsNoChecks(publicKeys[i], order, rand);
-					if(i != 0) simulatedChallenges[i] = new BigIntData(new BigInteger(255, rand));
-					else simulatedChallenges[i] = new BigIntData(BigInteger.ZERO);
+					addSchnorrSimulatorInputs(data, publicKeys[i], gPool, order, rand);
+					if(i != 0) simulatedChallenges[i] = new BigInteger(255, rand);
+					else simulatedChallenges[i] = BigInteger.ZERO;
 				}
-				data[n] = new CryptoDataArray(simulatedChallenges);
-				return new CryptoDataArray(data);
+				data.add(simulatedChallenges);
+				return data.endArray().build();
 			}
 			if(k == n) {
-				CryptoData[] data = new CryptoData[n];
+				FlatCryptoData.Builder data = new FlatCryptoData.Builder(5 * n + 1);
+				data.beginArray();
 				for(int i = 0; i < n; i++)
 				{
-					data[i] = createSchnorrSimulatorInputsNoChecks(publicKeys[i], order, rand);
+					addSchnorrSimulatorInputs(data, publicKeys[i], gPool, order, rand);
 				}
-				return new CryptoDataArray(data);
+				return data.endArray().build();
 			}
 
 			CryptoData[] data = new CryptoData[n];
@@ -1237,23 +1337,21 @@ abstract public class VarianceToolkit {
 			for(int i = 0; i < n; i++) {
 				CryptoData[] andInner = new CryptoData[2];
 				CryptoData[] or = new CryptoData[3];
-				andInner[0] = createSchnorrSimulatorInputsNoChecks(new ECPointData(commitments[i].getCommitment(baseEnvironment).subtract(g)), order, rand);
-				andInner[1] = createSchnorrSimulatorInputsNoChecks(publicKeys[i], order, rand);
-				or[0] = createSchnorrProverInputsNoChecks(new ECPointData(commitments[i].getCommitment(baseEnvironment)), new BigIntData(ephemeralKey[i]), order, rand);
+				andInner[0] = createSchnorrSimulatorInputs(new ECPointData(commitments[i].getCommitment(baseEnvironment).subtract(g)), hPool, order, rand);
+				andInner[1] = createSchnorrSimulatorInputs(publicKeys[i], gPool, order, rand);
+				//Every leaf is simulated, so both branches take simulator inputs
+				or[0] = createSchnorrSimulatorInputs(new ECPointData(commitments[i].getCommitment(baseEnvironment)), hPool, order, rand);
 				or[1] = new CryptoDataArray(andInner);
 				or[2] = new CryptoDataArray(new CryptoData[] {new BigIntData(BigInteger.ZERO),new BigIntData(new BigInteger(255, rand))});
 				data[i] = new CryptoDataArray(or);
 			}
 			andOuter[0] = new CryptoDataArray(data);
 
-			ECPedersenCommitment totalComm = commitments[0];
-			for(int i = 1; i < n; i++){
-				totalComm = totalComm.multiplyCommitment(commitments[i], baseEnvironment);
-			}
-			andOuter[1] = createSchnorrSimulatorInputsNoChecks(new ECPointData(totalComm.getCommitment(baseEnvironment)), order, rand);
+			ECPoint totalComm = new CommitmentAccumulator(baseEnvironment).add(commitments, 0, n).getSum();
+			andOuter[1] = createSchnorrSimulatorInputs(new ECPointData(totalComm.subtract(g.multiply(BigInteger.valueOf(k)))), hPool, order, rand);
 			return new CryptoDataArray(andOuter);
 		}
-		else return createSchnorrSimulatorInputsNoChecks(publicKeys[0], order, rand);
+		else return createSchnorrSimulatorInputs(publicKeys[0], gPool, order, rand);
 	}
 	
 	public static ZKPProtocol createMultiSigProofThreshhold(int n, int k, ZKPProtocol keyProtocol, BigInteger challengePrime)
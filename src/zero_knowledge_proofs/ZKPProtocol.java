@@ -3,20 +3,39 @@ package zero_knowledge_proofs;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.math.BigInteger;
+import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
 
 import zero_knowledge_proofs.CryptoData.CryptoData;
+import zero_knowledge_proofs.CryptoData.CryptoDataArray;
 
 
 public abstract class ZKPProtocol{
-	private static ArrayList<ProverProtocolPair> protocols = new ArrayList<ProverProtocolPair>();
-	private static ArrayList<ProverProtocolPair> compoundProtocols = new ArrayList<ProverProtocolPair>();
+	//Copy on write, so generateProver can run on any thread while protocols are registered
+	private static List<ProverProtocolPair> protocols = new CopyOnWriteArrayList<ProverProtocolPair>();
+	private static List<ProverProtocolPair> compoundProtocols = new CopyOnWriteArrayList<ProverProtocolPair>();
+	private CryptoDataCodec codec = null;
+	private volatile ProofPlan plan = null;
+	//Parsed prover strings;  registered names never change, so entries stay valid
+	private static ConcurrentHashMap<String, Recipe> recipes = new ConcurrentHashMap<String, Recipe>();
+	//ZeroKnowledgeThreshhold's name, which is not registered since it carries k and n
+	private static final Pattern THRESHOLD = Pattern.compile("PT(\\d{1,9})-of-(\\d{1,9})");
 
 	@SuppressWarnings("rawtypes")
-	public static boolean registerProtocol(String uniqueName, Class protocol, boolean isCompound)
+	public static synchronized boolean registerProtocol(String uniqueName, Class protocol, boolean isCompound)
 	{
 		for(ProverProtocolPair ppp : protocols)
 		{
@@ -38,6 +57,86 @@ public abstract class ZKPProtocol{
 		return true;
 	}
 
+	/**
+	 * Sends the messages of the interactive and streamed proofs with a binary codec instead of Java serialization.
+	 * Both parties must set a codec on the same curve, otherwise (null) objects are written as before.  Messages to friends are not affected.
+	 */
+	public void setCodec(CryptoDataCodec codec)
+	{
+		this.codec = codec;
+	}
+
+	public CryptoDataCodec getCodec()
+	{
+		return codec;
+	}
+
+	private void writeData(ObjectOutputStream out, CryptoData data) throws IOException
+	{
+		if(codec == null) out.writeObject(data);
+		else codec.writeData(out, data);
+	}
+
+	private CryptoData readData(ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		if(codec == null) return (CryptoData) in.readObject();
+		return codec.readData(in);
+	}
+
+	private void writeChallenge(ObjectOutputStream out, BigInteger challenge) throws IOException
+	{
+		if(codec == null) out.writeObject(challenge);
+		else codec.writeInteger(out, challenge);
+	}
+
+	private BigInteger readChallenge(ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		if(codec == null) return (BigInteger) in.readObject();
+		return codec.readInteger(in);
+	}
+
+	private void writeChallenges(ObjectOutputStream out, BigInteger[] challenge) throws IOException
+	{
+		if(codec == null) out.writeObject(challenge);
+		else codec.writeIntegers(out, challenge);
+	}
+
+	private BigInteger[] readChallenges(ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		if(codec == null) return (BigInteger[]) in.readObject();
+		return codec.readIntegers(in);
+	}
+
+	private void writeCommitment(ObjectOutputStream out, ChallengeCommitment cmt) throws IOException
+	{
+		if(codec == null) out.writeObject(cmt);
+		else codec.writeChallengeCommitment(out, cmt);
+	}
+
+	private ChallengeCommitment readCommitment(ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		if(codec == null) return (ChallengeCommitment) in.readObject();
+		return codec.readChallengeCommitment(in);
+	}
+
+	//The other party's commitment, which must be of the scheme of mine, the one agreed for the session
+	private ChallengeCommitment readCommitment(ObjectInputStream in, ChallengeCommitment myCmt) throws IOException, ClassNotFoundException
+	{
+		return myCmt.getScheme().accept(readCommitment(in));
+	}
+
+	private void writeResult(ObjectOutputStream out, boolean result) throws IOException
+	{
+		if(codec == null) out.writeObject(result);
+		else out.writeBoolean(result);
+	}
+
+	private boolean readResult(ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		if(codec == null) return (boolean) in.readObject();
+		return in.readBoolean();
+	}
+
 	/**
 	 * An HVZKP protocol
 	 * 
@@ -53,13 +152,13 @@ public abstract class ZKPProtocol{
 		//System.out.println("input = " + input);
 		CryptoData a = initialComm(input, environment);
 		//System.out.println("ProverCounter = " + counter);
-		out.writeObject(a);
+		writeData(out, a);
 		out.flush();
-		BigInteger c = (BigInteger) in.readObject();
+		BigInteger c = readChallenge(in);
 		CryptoData z = calcResponse(input, c, environment);
-		out.writeObject(z);
+		writeData(out, z);
 		out.flush();
-		boolean toReturn = (boolean) in.readObject();
+		boolean toReturn = readResult(in);
 		if(!toReturn)
 		{
 			System.out.println("i = " + input);
@@ -82,19 +181,19 @@ public abstract class ZKPProtocol{
 	 */
 	public boolean trueZKProve(CryptoData input, CryptoData environment, CryptoData commitmentEnvironment, ObjectInputStream in, ObjectOutputStream out) throws ClassNotFoundException, IOException, MultipleTrueProofException, NoTrueProofException, ArraySizesDoNotMatchException {
 		CryptoData a = initialComm(input, environment);
-		ECPedersenCommitment cCmt = (ECPedersenCommitment) in.readObject();
-		out.writeObject(a);
+		ChallengeCommitment cCmt = readCommitment(in);
+		writeData(out, a);
 		out.flush();
-		BigInteger[] c = (BigInteger[]) in.readObject();
+		BigInteger[] c = readChallenges(in);
 		boolean valid = cCmt.verifyCommitment(c[0], c[1], commitmentEnvironment);
-		out.writeObject(valid);
+		writeResult(out, valid);
 		out.flush();
 		if(valid)
 		{
 			CryptoData z = calcResponse(input, c[0], environment);
-			out.writeObject(z);
+			writeData(out, z);
 			out.flush();
-			boolean toReturn = (boolean) in.readObject();
+			boolean toReturn = readResult(in);
 			return toReturn;
 		}
 		else System.out.println("BAD CHALLENGE COMMITMENT");
@@ -119,23 +218,23 @@ public abstract class ZKPProtocol{
 	 * @throws NoTrueProofException
 	 * @throws ArraySizesDoNotMatchException
 	 */
-	public boolean parallelZKProve(CryptoData proverInput, CryptoData verifierInput, CryptoData environment, ObjectInputStream in, ObjectOutputStream out, ECPedersenCommitment myCmt, CryptoData commitmentEnvironment, BigInteger[] challenge, StringBuilder transcript) throws ClassNotFoundException, IOException, MultipleTrueProofException, NoTrueProofException, ArraySizesDoNotMatchException {
-		out.writeObject(myCmt);	
+	public boolean parallelZKProve(CryptoData proverInput, CryptoData verifierInput, CryptoData environment, ObjectInputStream in, ObjectOutputStream out, ChallengeCommitment myCmt, CryptoData commitmentEnvironment, BigInteger[] challenge, Transcript transcript) throws ClassNotFoundException, IOException, MultipleTrueProofException, NoTrueProofException, ArraySizesDoNotMatchException {
+		writeCommitment(out, myCmt);
 		out.flush();	
 		BigInteger order = commitmentEnvironment.getCryptoDataArray()[0].getECCurveData().getOrder();
 		CryptoData a = initialComm(proverInput, environment);
-		ECPedersenCommitment otherCmt = new ECPedersenCommitment(BigInteger.ZERO, BigInteger.ZERO, commitmentEnvironment);
+		ChallengeCommitment otherCmt;
 		CryptoData otherA = null;
 		CryptoData otherZ = null;
 		BigInteger[] otherChallenge;
 		out.flush();
-		otherCmt = (ECPedersenCommitment) in.readObject();
-		out.writeObject(a);
+		otherCmt = readCommitment(in, myCmt);
+		writeData(out, a);
 		out.flush();
-		otherA = (CryptoData) in.readObject();
-		out.writeObject(challenge);
+		otherA = readData(in);
+		writeChallenges(out, challenge);
 		out.flush();
-		otherChallenge = (BigInteger[]) in.readObject();
+		otherChallenge = readChallenges(in);
 		boolean good = true;
 
 		boolean valid = otherCmt.verifyCommitment(otherChallenge[0], otherChallenge[1], commitmentEnvironment);
@@ -168,10 +267,10 @@ public abstract class ZKPProtocol{
 		if((valid && otherValid))
 		{ 
 			CryptoData z = calcResponse(proverInput, otherChallenge[0], environment);
-			out.writeObject(z);
+			writeData(out, z);
 			out.flush();
-			otherZ = (CryptoData) in.readObject();
-			boolean believeOther = verifyResponse(verifierInput, otherA, otherZ, challenge[0], environment);
+			otherZ = readData(in);
+			boolean believeOther = verifyCompiled(verifierInput, otherA, otherZ, challenge[0], environment);
 			if(!believeOther) {
 				good = false;
 				System.out.println("I don't believe them");
@@ -227,28 +326,17 @@ public abstract class ZKPProtocol{
 			System.out.println("BAD CHALLENGE COMMITMENT 2");
 			good = false;
 		}
-		if(transcript != null)
-		{
-			transcript.append("\nChallenge Commitment:  ");
-			transcript.append(otherCmt.toString64());
-			transcript.append("\nInput:  ");
-			transcript.append(verifierInput.toString64());
-			transcript.append("\nInitComm:  ");
-			
-			transcript.append(otherA.toString64());
-			transcript.append("\nResponse:  ");
-			transcript.append(otherZ.toString64());
-			transcript.append("\nchallenge:  ");
-			transcript.append(Base64.getEncoder().encodeToString(otherChallenge[0].toByteArray()));
-			transcript.append("\nchallenge key:  ");
-			transcript.append(Base64.getEncoder().encodeToString(otherChallenge[1].toByteArray()));
-			//			transcriptOut.append("\nEnvironment:  ");
-			//			transcriptOut.append(environment.toString64());
-			transcript.append("\n\n");
-			
-		}
+		if(transcript != null && otherZ != null)
+			transcript.proof(this, environment, commitmentEnvironment, myCmt, verifierInput, otherA, otherZ, challenge[0], challenge[1]);
 		return good;
 	}
+
+	/**
+	 * parallelZKProve with a TextTranscript appending to transcript (may be null).
+	 */
+	public boolean parallelZKProve(CryptoData proverInput, CryptoData verifierInput, CryptoData environment, ObjectInputStream in, ObjectOutputStream out, ChallengeCommitment myCmt, CryptoData commitmentEnvironment, BigInteger[] challenge, StringBuilder transcript) throws ClassNotFoundException, IOException, MultipleTrueProofException, NoTrueProofException, ArraySizesDoNotMatchException {
+		return parallelZKProve(proverInput, verifierInput, environment, in, out, myCmt, commitmentEnvironment, challenge, transcript == null ? null : new TextTranscript(transcript));
+	}
 	/**
 	 * @param proverInput
 	 * @param verifierInput
@@ -266,9 +354,9 @@ public abstract class ZKPProtocol{
 	 * @throws NoTrueProofException
 	 * @throws ArraySizesDoNotMatchException
 	 */
-	public boolean parallelZKProveWithFriends(CryptoData proverInput, CryptoData verifierInput, CryptoData environment, ObjectInputStream in, ObjectOutputStream out, ECPedersenCommitment myCmt, CryptoData commitmentEnvironment, BigInteger[] challenge, ObjectOutputStream[] friendsOut, ObjectInputStream[] friendsIn, int[] request, StringBuilder transcript) throws ClassNotFoundException, IOException, MultipleTrueProofException, NoTrueProofException, ArraySizesDoNotMatchException {
+	public boolean parallelZKProveWithFriends(CryptoData proverInput, CryptoData verifierInput, CryptoData environment, ObjectInputStream in, ObjectOutputStream out, ChallengeCommitment myCmt, CryptoData commitmentEnvironment, BigInteger[] challenge, ObjectOutputStream[] friendsOut, ObjectInputStream[] friendsIn, int[] request, Transcript transcript) throws ClassNotFoundException, IOException, MultipleTrueProofException, NoTrueProofException, ArraySizesDoNotMatchException {
 
-		out.writeObject(myCmt);
+		writeCommitment(out, myCmt);
 		out.flush();
 		for(int r : request)
 		{
@@ -282,13 +370,13 @@ public abstract class ZKPProtocol{
 			if(friendA == null) throw new NullPointerException("Friend returned null");
 			a.addFillDataHole(friendA);
 		}
-		ECPedersenCommitment cCmt = (ECPedersenCommitment) in.readObject();
-		out.writeObject(a);
+		ChallengeCommitment cCmt = readCommitment(in, myCmt);
+		writeData(out, a);
 		out.flush();
-		CryptoData otherA = (CryptoData) in.readObject();
-		out.writeObject(challenge);
+		CryptoData otherA = readData(in);
+		writeChallenges(out, challenge);
 		out.flush();
-		BigInteger[] otherC = (BigInteger[]) in.readObject();
+		BigInteger[] otherC = readChallenges(in);
 
 		boolean valid = cCmt.verifyCommitment(otherC[0], otherC[1], commitmentEnvironment);
 		out.writeBoolean(valid);
@@ -310,10 +398,10 @@ public abstract class ZKPProtocol{
 			{
 				z.addFillDataHole((CryptoData) friendsIn[request[i]].readObject());
 			}
-			out.writeObject(z);
+			writeData(out, z);
 			out.flush();
-			CryptoData otherZ = (CryptoData) in.readObject();
-			valid = verifyResponse(verifierInput, otherA, otherZ, challenge[0], environment);
+			CryptoData otherZ = readData(in);
+			valid = verifyCompiled(verifierInput, otherA, otherZ, challenge[0], environment);
 			out.writeBoolean(valid);
 			out.flush();
 			hisValid = in.readBoolean();
@@ -323,25 +411,7 @@ public abstract class ZKPProtocol{
 			}
 			if(valid == false) System.out.println("I don't like his proof");
 			if(transcript != null)
-			{
-				transcript.append("\nChallenge Commitment:  ");
-				transcript.append(cCmt.toString64());
-				transcript.append("\nInput:  ");
-				transcript.append(verifierInput.toString64());
-
-				transcript.append("\nInitComm:  ");
-
-				transcript.append(otherA.toString64());
-				transcript.append("\nResponse:  ");
-				transcript.append(otherZ.toString64());
-				transcript.append("\nchallenge:  ");
-				transcript.append(Base64.getEncoder().encodeToString(otherC[0].toByteArray()));
-				transcript.append("\nchallenge key:  ");
-				transcript.append(Base64.getEncoder().encodeToString(otherC[1].toByteArray()));
-				//			transcriptOut.append("\nEnvironment:  ");
-				//			transcriptOut.append(environment.toString64());
-				transcript.append("\n\n");
-			}
+				transcript.proof(this, environment, commitmentEnvironment, myCmt, verifierInput, otherA, otherZ, challenge[0], challenge[1]);
 			return hisValid && valid;
 		}
 		else {
@@ -350,6 +420,13 @@ public abstract class ZKPProtocol{
 		}
 	}
 
+	/**
+	 * parallelZKProveWithFriends with a TextTranscript appending to transcript (may be null).
+	 */
+	public boolean parallelZKProveWithFriends(CryptoData proverInput, CryptoData verifierInput, CryptoData environment, ObjectInputStream in, ObjectOutputStream out, ChallengeCommitment myCmt, CryptoData commitmentEnvironment, BigInteger[] challenge, ObjectOutputStream[] friendsOut, ObjectInputStream[] friendsIn, int[] request, StringBuilder transcript) throws ClassNotFoundException, IOException, MultipleTrueProofException, NoTrueProofException, ArraySizesDoNotMatchException {
+		return parallelZKProveWithFriends(proverInput, verifierInput, environment, in, out, myCmt, commitmentEnvironment, challenge, friendsOut, friendsIn, request, transcript == null ? null : new TextTranscript(transcript));
+	}
+
 
 
 	//	BigInteger order = commitmentEnvironment.getCryptoDataArray()[0].getECCurveData().getOrder();
@@ -436,15 +513,15 @@ public abstract class ZKPProtocol{
 	public boolean verify(CryptoData input, BigInteger challenge, CryptoData environment, ObjectInputStream in, ObjectOutputStream out, StringBuilder transcriptOut) throws IOException, ClassNotFoundException
 	{
 		//System.out.println("vInput = " + input);
-		CryptoData a = (CryptoData) in.readObject();
-		out.writeObject(challenge);
+		CryptoData a = readData(in);
+		writeChallenge(out, challenge);
 		out.flush();
 		//System.out.println("vA = " + a);
-		CryptoData z = (CryptoData) in.readObject();
+		CryptoData z = readData(in);
 
 		//System.out.println("vZ = " + z);
 		boolean toReturn = verifyResponse(input, a, z, challenge, environment);
-		out.writeObject(toReturn);
+		writeResult(out, toReturn);
 		out.flush();
 		if(transcriptOut != null)
 		{
@@ -464,42 +541,188 @@ public abstract class ZKPProtocol{
 
 		return toReturn;
 	}
-	public boolean maliciousVerify(CryptoData input, ECPedersenCommitment cCmt, BigInteger[] challenge, CryptoData environment, ObjectInputStream in, ObjectOutputStream out, StringBuilder transcriptOut) throws IOException, ClassNotFoundException
+	public boolean maliciousVerify(CryptoData input, ChallengeCommitment cCmt, BigInteger[] challenge, CryptoData environment, ObjectInputStream in, ObjectOutputStream out, StringBuilder transcriptOut) throws IOException, ClassNotFoundException
 	{
-		out.writeObject(cCmt);
+		return maliciousVerify(input, cCmt, challenge, environment, in, out, transcriptOut == null ? null : new TextTranscript(transcriptOut));
+	}
+	public boolean maliciousVerify(CryptoData input, ChallengeCommitment cCmt, BigInteger[] challenge, CryptoData environment, ObjectInputStream in, ObjectOutputStream out, Transcript transcriptOut) throws IOException, ClassNotFoundException
+	{
+		writeCommitment(out, cCmt);
 		out.flush();
-		CryptoData a = (CryptoData) in.readObject();
-		out.writeObject(challenge);
+		CryptoData a = readData(in);
+		writeChallenges(out, challenge);
 		out.flush();
-		boolean verified = (boolean) in.readObject();
+		boolean verified = readResult(in);
 		if(verified) {
-			CryptoData z = (CryptoData) in.readObject();
-			boolean toReturn = verifyResponse(input, a, z, challenge[0], environment);
-			out.writeObject(toReturn);
+			CryptoData z = readData(in);
+			boolean toReturn = verifyCompiled(input, a, z, challenge[0], environment);
+			writeResult(out, toReturn);
 			out.flush();
 			if(transcriptOut != null)
-			{
-				transcriptOut.append("\nChallenge Commitment:  ");
-				transcriptOut.append(cCmt.toString64());
-				transcriptOut.append("\nInput:  ");
-				transcriptOut.append(input.toString64());
-				transcriptOut.append("\nInitComm:  ");
-				transcriptOut.append(a.toString64());
-				transcriptOut.append("\nResponse:  ");
-				transcriptOut.append(z.toString64());
-				transcriptOut.append("\nchallenge:  ");
-				transcriptOut.append(Base64.getEncoder().encodeToString(challenge[0].toByteArray()));
-				transcriptOut.append("\nchallenge key:  ");
-				transcriptOut.append(Base64.getEncoder().encodeToString(challenge[1].toByteArray()));
-				//			transcriptOut.append("\nEnvironment:  ");
-				//			transcriptOut.append(environment.toString64());
-				transcriptOut.append("\n\n");
-			}
+				transcriptOut.proof(this, environment, null, cCmt, input, a, z, challenge[0], challenge[1]);
 			return toReturn;
 		}
 		return verified;
 	}
 
+	/**
+	 * Fiat-Shamir challenge:  a hash of the statement (the prover tree), the environment, the input and the initial commitment.
+	 *
+	 * @param input The verifier's view of the input
+	 * @param a The initial commitment
+	 * @param environment
+	 * @param context Session data both parties agree on (for example, the prover's identity), may be null
+	 * @param challengeBits Size of the challenge, this should match the size of the interactive challenges (order.bitLength() - 1)
+	 * @return
+	 */
+	public BigInteger fiatShamirChallenge(CryptoData input, CryptoData a, CryptoData environment, byte[] context, int challengeBits)
+	{
+		Digest d = new SHA256Digest();
+		byte[] statement = toString().getBytes();
+		d.update(statement, 0, statement.length);
+		d.update((byte) 0);
+		if(context != null) d.update(context, 0, context.length);
+		d.update((byte) 0);
+		environment.updateDigest(d);
+		input.updateDigest(d);
+		a.updateDigest(d);
+		byte[] seed = new byte[d.getDigestSize()];
+		d.doFinal(seed, 0);
+
+		//Expand the seed if the challenge is larger than the digest
+		int blocks = (challengeBits + 8 * seed.length - 1) / (8 * seed.length);
+		byte[] expanded = new byte[blocks * seed.length];
+		for(int i = 0; i < blocks; i++)
+		{
+			d.update(seed, 0, seed.length);
+			d.update((byte) i);
+			d.doFinal(expanded, i * seed.length);
+		}
+		return new BigInteger(1, expanded).shiftRight(expanded.length * 8 - challengeBits);
+	}
+
+	/**
+	 * A non-interactive (Fiat-Shamir) proof.  The challenge is derived with fiatShamirChallenge, so nothing has to be read from the verifier.
+	 * Inputs with null holes (keys held by friends) can not be proven this way.
+	 *
+	 * @return [a, z]
+	 */
+	public CryptoData nonInteractiveProof(CryptoData proverInput, CryptoData verifierInput, CryptoData environment, byte[] context, BigInteger order) throws MultipleTrueProofException, NoTrueProofException, ArraySizesDoNotMatchException
+	{
+		if(proverInput == null || proverInput.hasNull()) throw new IllegalArgumentException("Fiat-Shamir proofs need every secret");
+		CryptoData a = initialComm(proverInput, environment);
+		BigInteger c = fiatShamirChallenge(verifierInput, a, environment, context, order.bitLength() - 1);
+		CryptoData z = calcResponse(proverInput, c, environment);
+		return new CryptoDataArray(new CryptoData[] {a, z});
+	}
+
+	public boolean nonInteractiveVerify(CryptoData input, CryptoData proof, CryptoData environment, byte[] context, BigInteger order)
+	{
+		CryptoData[] aZ = proof.getCryptoDataArray();
+		BigInteger c = fiatShamirChallenge(input, aZ[0], environment, context, order.bitLength() - 1);
+		return verifyResponse(input, aZ[0], aZ[1], c, environment);
+	}
+
+	/**
+	 * Writes a non-interactive proof without flushing, so a block of proofs can be streamed in one direction.  The caller flushes.
+	 */
+	public void nonInteractiveProve(CryptoData proverInput, CryptoData verifierInput, CryptoData environment, byte[] context, BigInteger order, ObjectOutputStream out) throws IOException, MultipleTrueProofException, NoTrueProofException, ArraySizesDoNotMatchException
+	{
+		writeData(out, nonInteractiveProof(proverInput, verifierInput, environment, context, order));
+	}
+
+	public boolean nonInteractiveVerify(CryptoData input, CryptoData environment, byte[] context, BigInteger order, ObjectInputStream in, StringBuilder transcript) throws ClassNotFoundException, IOException
+	{
+		CryptoData proof = readData(in);
+		CryptoData[] aZ = proof.getCryptoDataArray();
+		BigInteger c = fiatShamirChallenge(input, aZ[0], environment, context, order.bitLength() - 1);
+		boolean toReturn = verifyResponse(input, aZ[0], aZ[1], c, environment);
+		if(transcript != null)
+		{
+			transcript.append("\nInput:  ");
+			transcript.append(input.toString64());
+			transcript.append("\nInitComm:  ");
+			transcript.append(aZ[0].toString64());
+			transcript.append("\nResponse:  ");
+			transcript.append(aZ[1].toString64());
+			transcript.append("\nchallenge:  ");
+			transcript.append(Base64.getEncoder().encodeToString(c.toByteArray()));
+			transcript.append("\n\n");
+		}
+		return toReturn;
+	}
+
+	/**
+	 * Verifies a list of transcripts with a single random linear combination of their equations.
+	 * If the combined check fails, every proof is verified on its own to find the bad ones.
+	 *
+	 * @return One result per proof
+	 */
+	public boolean[] batchVerifyResponse(List<BatchedProof> proofs)
+	{
+		return batchVerifyResponse(proofs, ScalarSampler.forThread());
+	}
+
+	public boolean[] batchVerifyResponse(List<BatchedProof> proofs, SecureRandom rand)
+	{
+		boolean[] toReturn = new boolean[proofs.size()];
+		BatchVerifier batch = new BatchVerifier(rand);
+		for(BatchedProof proof : proofs)
+			addBatchEquations(proof.input, proof.a, proof.z, proof.challenge, proof.environment, batch);
+		if(batch.verify())
+		{
+			Arrays.fill(toReturn, true);
+			return toReturn;
+		}
+		for(int i = 0; i < toReturn.length; i++)
+		{
+			BatchedProof proof = proofs.get(i);
+			toReturn[i] = verifyResponse(proof.input, proof.a, proof.z, proof.challenge, proof.environment);
+		}
+		return toReturn;
+	}
+
+	/**
+	 * Adds the verification equations of one transcript to the batch.  Provers whose check is a group equation should override this;
+	 * the default just runs verifyResponse and records the result.
+	 */
+	protected void addBatchEquations(CryptoData input, CryptoData a, CryptoData z, BigInteger challenge, CryptoData environment, BatchVerifier batch)
+	{
+		if(!verifyResponse(input, a, z, challenge, environment)) batch.fail();
+	}
+
+	/**
+	 * verifyResponse through this tree's ProofPlan:  the equations of every leaf are checked with one multi-scalar
+	 * multiplication, and verifyResponse only runs if that fails.  The plan is compiled on first use.
+	 */
+	public boolean verifyCompiled(CryptoData input, CryptoData a, CryptoData z, BigInteger challenge, CryptoData environment)
+	{
+		ProofPlan p = plan;
+		if(p == null)
+		{
+			p = ProofPlan.compile(this);
+			plan = p;
+		}
+		return p.verify(input, a, z, challenge, environment);
+	}
+
+	/**
+	 * The sub-protocols of a composite that ProofPlan may flatten, or null for a leaf.
+	 */
+	ZKPProtocol[] getChildren()
+	{
+		return null;
+	}
+
+	/**
+	 * The statement hashed into Fiat-Shamir challenges.  Provers should override this with their registered name.
+	 */
+	@Override
+	public String toString()
+	{
+		return getClass().getSimpleName();
+	}
+
 	public abstract boolean verifyResponse(CryptoData input, CryptoData a, CryptoData z, BigInteger challenge, CryptoData environment);
 
 
@@ -523,16 +746,68 @@ public abstract class ZKPProtocol{
 		return list;
 	}
 
-	@SuppressWarnings("rawtypes")
+	/**
+	 * Builds a prover from its string form, for example "OR(AND(ECSchnorr,ECSchnorr),ECSchnorr)".  "PTk-of-n(...)" is a
+	 * ZeroKnowledgeThreshhold over ZeroKnowledgeThreshhold.DEFAULT_CHALLENGE_PRIME.  Each string is parsed once;  later
+	 * calls only instantiate the cached structure.
+	 */
 	public static ZKPProtocol generateProver(String string) throws InvalidStringFormatException, InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException, SecurityException {
+		Recipe recipe = recipes.get(string);
+		if(recipe == null)
+		{
+			recipe = parseProver(string);
+			recipes.put(string, recipe);
+		}
+		return recipe.build();
+	}
+
+	//A parsed prover string:  the class of a leaf, or the constructor of a compound (none for a threshold) and the recipes
+	//of its parts
+	private static class Recipe
+	{
+		@SuppressWarnings("rawtypes")
+		final Class leaf;
+		final Constructor<?> compound;
+		final Recipe[] parts;
+		final int threshold;
+
+		@SuppressWarnings("rawtypes")
+		Recipe(Class leaf, Constructor<?> compound, Recipe[] parts)
+		{
+			this(leaf, compound, parts, 0);
+		}
+
+		@SuppressWarnings("rawtypes")
+		Recipe(Class leaf, Constructor<?> compound, Recipe[] parts, int threshold)
+		{
+			this.leaf = leaf;
+			this.compound = compound;
+			this.parts = parts;
+			this.threshold = threshold;
+		}
+
+		ZKPProtocol build() throws InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException
+		{
+			if(leaf != null) return (ZKPProtocol) leaf.newInstance();
+			ZKPProtocol[] provers = new ZKPProtocol[parts.length];
+			for(int i = 0; i < parts.length; i++)
+				provers[i] = parts[i].build();
+			if(threshold != 0) return new ZeroKnowledgeThreshhold(provers, threshold, ZeroKnowledgeThreshhold.DEFAULT_CHALLENGE_PRIME);
+			return (ZKPProtocol) compound.newInstance(new Object[] {provers});
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static Recipe parseProver(String string) throws InvalidStringFormatException {
 		String str = string;
 		int place = string.indexOf('(');
-		ZKPProtocol toReturn = null;
+		Recipe toReturn = null;
 		if(place != -1) //If it is compound, it has a paren.
 		{
 			if(string.charAt(string.length()-1) != ')')
 				throw new InvalidStringFormatException();
 			str = string.substring(0, place);
+			Matcher threshold = THRESHOLD.matcher(str);
 			int protocol = -1;
 			for(int i = 0; i < compoundProtocols.size(); i++)
 			{
@@ -543,7 +818,7 @@ public abstract class ZKPProtocol{
 				}
 			}
 
-			if(protocol == -1)
+			if(protocol == -1 && !threshold.matches())
 				throw new InvalidStringFormatException();	//Maybe I should make a better exception name for this one.
 
 			String args = string.substring(place+1, string.length()-1);
@@ -565,7 +840,7 @@ public abstract class ZKPProtocol{
 			}
 			if(inParens != 0) throw new InvalidStringFormatException();
 			start = 0;
-			ZKPProtocol[] provers = new ZKPProtocol[proverNum];
+			Recipe[] provers = new Recipe[proverNum];
 			for(int i = 0; i < args.length(); i++)
 			{
 				char p = args.charAt(i);
@@ -574,15 +849,22 @@ public abstract class ZKPProtocol{
 				if(inParens < 0) throw new InvalidStringFormatException();
 				if((p == ',') && inParens == 0)
 				{
-					provers[proversIndex] = generateProver(args.substring(start, i));
+					provers[proversIndex] = parseProver(args.substring(start, i));
 					proversIndex++;
 					start = i + 1;
 				}
 			}
-			provers[proversIndex] = generateProver(args.substring(start));
+			provers[proversIndex] = parseProver(args.substring(start));
 			proversIndex++;
 
-			toReturn = (ZKPProtocol) compoundProtocols.get(protocol).protocol.getConstructors()[0].newInstance(new Object[] {provers});
+			if(protocol == -1)
+			{
+				int k = Integer.parseInt(threshold.group(1));
+				if(Integer.parseInt(threshold.group(2)) != proverNum || k < 1 || k > proverNum) throw new InvalidStringFormatException();
+				toReturn = new Recipe(null, null, provers, k);
+			}
+			else
+				toReturn = new Recipe(null, compoundProtocols.get(protocol).protocol.getConstructors()[0], provers);
 		} 
 		else { // It is not a compound statement or it not presented correctly.
 			Class toMake = null;
@@ -594,20 +876,17 @@ public abstract class ZKPProtocol{
 					break;
 				}
 			}
-			try
-			{
-				toReturn = (ZKPProtocol) toMake.newInstance();
-			}catch(NullPointerException e)
+			if(toMake == null)
 			{
 				System.out.println(string);
-				System.out.println(toMake);
 				for(int i = 0; i < protocols.size(); i++)
 				{
 					System.out.println(protocols.get(i).name);
 
 				}
-				throw e;
+				throw new NullPointerException();
 			}
+			toReturn = new Recipe(toMake, null, null);
 		}
 		return toReturn;
 	}
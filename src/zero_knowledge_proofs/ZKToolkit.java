@@ -17,7 +17,7 @@ import zero_knowledge_proofs.CryptoData.ECPointData;
 public abstract class ZKToolkit {
 	protected static ZKPProtocol prechosenExponentProver = new ECProofOfPrechosenExponentProver();
 	private static boolean registered = false;
-	public static boolean register()
+	public static synchronized boolean register()
 	{
 		if(registered)
 			return false;
@@ -44,8 +44,8 @@ public abstract class ZKToolkit {
 		ECPoint g = temp[0].getECPointData(c);
 		ECPoint y = temp[1].getECPointData(c);
 		
-		ECPoint cipher = g.multiply(message).add(y.multiply(ephemeralKey));
-		ECPoint cipherKey = g.multiply(ephemeralKey);
+		ECPoint cipher = ECMultiScalarMult.sumOfMultiplies(g, message, y, ephemeralKey);
+		ECPoint cipherKey = ECMultiScalarMult.multiply(g, ephemeralKey);
 		
 		toReturn = new CryptoDataArray(new ECPointData[] {new ECPointData(cipher), new ECPointData(cipherKey)});
 		
@@ -56,12 +56,7 @@ public abstract class ZKToolkit {
 	{
 		CryptoData[] e = environment.getCryptoDataArray();
 		ECCurve c = e[0].getECCurveData();
-		int bits = c.getOrder().bitLength();
-		BigInteger ephKey = new BigInteger(bits, r);
-		while(ephKey.compareTo(c.getOrder()) >= 0)
-		{
-			ephKey = new BigInteger(bits, r);
-		}
+		BigInteger ephKey = ScalarSampler.scalar(c.getOrder(), r);
 		CryptoData cipher = ellipticExpElgamalEncrypt(message, ephKey, environment);
 		
 		return cipher;
@@ -90,8 +85,8 @@ public abstract class ZKToolkit {
 		ECPoint origCipher = temp[0].getECPointData(c);
 		ECPoint origCipherKey = temp[1].getECPointData(c);
 		
-		ECPoint newCipher = origCipher.add(y.multiply(ephemeralKeyChange));
-		ECPoint newCipherKey = origCipherKey.add(g.multiply(ephemeralKeyChange));
+		ECPoint newCipher = origCipher.add(ECMultiScalarMult.multiply(y, ephemeralKeyChange));
+		ECPoint newCipherKey = origCipherKey.add(ECMultiScalarMult.multiply(g, ephemeralKeyChange));
 		
 		temp = new CryptoData[2];
 		temp[0] = new ECPointData(newCipher);
@@ -109,14 +104,9 @@ public abstract class ZKToolkit {
 		
 		diff[0] = encryption1[0].getECPointData(c).subtract(encryption2[0].getECPointData(c));
 		diff[1] = encryption1[1].getECPointData(c).subtract(encryption2[1].getECPointData(c));
-		BigInteger random;
-		random = new BigInteger(bitLength, r);
-		while(random.compareTo(order) >= 0)
-			random = new BigInteger(bitLength, r);
-		BigInteger message;
-		message = new BigInteger(bitLength, r);
-		while(message.compareTo(order) >= 0)
-			message = new BigInteger(bitLength, r);
+		BigInteger[] scalars = ScalarSampler.scalars(order, 2, r);
+		BigInteger random = scalars[0];
+		BigInteger message = scalars[1];
 		ECPedersenCommitment comm = new ECPedersenCommitment(message, random, environment);
 		ECPedersenCommitment[] otherComms = new ECPedersenCommitment[out.length];
 		for(int i = 0; i < out.length; i++)
@@ -135,6 +125,8 @@ public abstract class ZKToolkit {
 		}
 		CryptoData proverInput = getPrechosenExponentProverInputs(diff, randomized, comm.getCommitment(environment), message, random, r);
 		CryptoData[] verifierInput = new CryptoData[out.length];
+		//The parties' randomized differences, folded as ciphertexts
+		CommitmentAccumulator folded = new CommitmentAccumulator(c, 2).add(randomized);
 		for(int i = 0; i < out.length; i++)
 		{
 			otherRandomizedDiff[i] = (CryptoData) in[i].readObject();	
@@ -143,17 +135,16 @@ public abstract class ZKToolkit {
 			otherRandomized[0] = oRD[0].getECPointData(c);
 			otherRandomized[1] = oRD[1].getECPointData(c);
 			verifierInput[i] = getPrechosenExponentVerifierInputs(diff, otherRandomized, otherComms[i].getCommitment(environment));
-			randomized[0] = randomized[0].add(otherRandomized[0]);
-			randomized[1] = randomized[1].add(otherRandomized[1]);
+			folded.add(otherRandomized);
 		}
+		randomized[0] = folded.getSum(0);
+		randomized[1] = folded.getSum(1);
 		
 		BigInteger[] challenge = new BigInteger[2];
 		challenge[0] = new BigInteger(bitLength - 1, r);
-		challenge[1] = new BigInteger(bitLength, r);
-		while(challenge[1].compareTo(order) >= 0)
-			challenge[1] = new BigInteger(bitLength, r);
+		challenge[1] = ScalarSampler.scalar(order, r);
 		ECPedersenCommitment myCmt = new ECPedersenCommitment(challenge[0], challenge[1], environment);
-		if(!prechosenExponentProver.parallelZKProve(proverInput, verifierInput[0], environment, in[0], out[0], myCmt, environment, challenge, null))
+		if(!prechosenExponentProver.parallelZKProve(proverInput, verifierInput[0], environment, in[0], out[0], myCmt, environment, challenge, (StringBuilder) null))
 			throw new CheaterException();
 		CryptoData partiallyDecrypted;		
 		
@@ -203,15 +194,9 @@ public abstract class ZKToolkit {
 		inputs[0] = new ECPointData(base[0].add(base[1]));
 		inputs[1] = new ECPointData(exponentiatedBase[0].add(exponentiatedBase[1]));
 		inputs[2] = new ECPointData(commitment);
-		BigInteger random;
-		do {
-			random = new BigInteger(order.bitLength(), r);
-		} while(random.compareTo(order) >= 0);
-		inputs[3] = new BigIntData(random);
-		do {
-			random = new BigInteger(order.bitLength(), r);
-		} while(random.compareTo(order) >= 0);
-		inputs[4] = new BigIntData(random);
+		BigInteger[] randoms = ScalarSampler.scalars(order, 2, r);
+		inputs[3] = new BigIntData(randoms[0]);
+		inputs[4] = new BigIntData(randoms[1]);
 		inputs[5] = new BigIntData(exponent);
 		inputs[6] = new BigIntData(key);
 		return new CryptoDataArray(inputs);
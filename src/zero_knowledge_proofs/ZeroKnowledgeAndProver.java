@@ -124,6 +124,24 @@ public class ZeroKnowledgeAndProver extends ZKPProtocol {
 		return toReturn;
  	}
 
+	@Override
+	protected void addBatchEquations(CryptoData input, CryptoData a, CryptoData z, BigInteger challenge, CryptoData environment, BatchVerifier batch) {
+		CryptoData[] in = input.getCryptoDataArray();
+		CryptoData[] initialComm = a.getCryptoDataArray();
+		CryptoData[] responses = z.getCryptoDataArray();
+		CryptoData[] environments = environment.getCryptoDataArray();
+		for(int i = 0; i < in.length; i++)
+		{
+			p[i].addBatchEquations(in[i], initialComm[i], responses[i], challenge, environments[i], batch);
+		}
+	}
+
+	@Override
+	ZKPProtocol[] getChildren()
+	{
+		return p;
+	}
+
 	@Override
 	public String toString()
 	{
@@ -278,6 +278,30 @@ public class ZeroKnowledgeOrProver extends ZKPProtocol{
 		
 		return toReturn;
 	}
+	@Override
+	protected void addBatchEquations(CryptoData input, CryptoData a_unopened, CryptoData z_unopened, BigInteger challenge, CryptoData environments, BatchVerifier batch) {
+		CryptoData[] in = input.getCryptoDataArray();
+		CryptoData[] a = a_unopened.getCryptoDataArray();
+		CryptoData[] z = z_unopened.getCryptoDataArray();
+		CryptoData[] e = environments.getCryptoDataArray();
+		CryptoData[] challenges = z[z.length-1].getCryptoDataArray();
+		BigInteger xoredChallenge = challenge;
+		for(int i = 0; i < p.length; i++)
+		{
+			BigInteger c = challenges[i].getBigInt();
+			xoredChallenge = xoredChallenge.xor(c);
+			p[i].addBatchEquations(in[i], a[i], z[i], c, e[i], batch);
+		}
+		if(xoredChallenge.equals(BigInteger.ZERO) == false)
+			batch.fail();
+	}
+
+	@Override
+	ZKPProtocol[] getChildren()
+	{
+		return p;
+	}
+
 	@Override
 	public String toString()
 	{
@@ -3,22 +3,24 @@ package zero_knowledge_proofs;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.InputMismatchException;
 
 import zero_knowledge_proofs.CryptoData.BigIntData;
 import zero_knowledge_proofs.CryptoData.CryptoData;
 import zero_knowledge_proofs.CryptoData.CryptoDataArray;
-import zero_knowledge_proofs.CryptoData.Matrix;
-import zero_knowledge_proofs.CryptoData.MatrixInterface;
 
 public class ZeroKnowledgeThreshhold extends ZKPProtocol {
-	private static HashMap<int[], MatrixInterface> history = new HashMap<int[], MatrixInterface>();
-	
 	private ZKPProtocol[] p;
 
 	private int numSimulated;
 	private BigInteger challengePrime;
+
+	/**
+	 * 2^255 - 19, the largest prime below 2^255 and so the closest to the challenge space:  challenges are
+	 * order.bitLength() - 1 = 255 bits, and the few at or above the prime are reduced mod it.  Provers built from their
+	 * string form ("PTk-of-n(...)", as toString gives) use it, since the string does not carry the prime.
+	 */
+	public static final BigInteger DEFAULT_CHALLENGE_PRIME = BigInteger.ONE.shiftLeft(255).subtract(BigInteger.valueOf(19));
 	
 	public ZeroKnowledgeThreshhold(ZKPProtocol[] p, int threshholdK, BigInteger challengePrime) {
 		this.p = p.clone();
@@ -38,14 +40,11 @@ public class ZeroKnowledgeThreshhold extends ZKPProtocol {
 		CryptoData[] z = response.getCryptoDataArray();
 		CryptoData[] c = z[z.length-1].getCryptoDataArray();
 		if(c.length != p.length) {
-			CryptoData[] coefficients = c;
+			BigInteger[] polynomial = polynomial(challenge, c);
 			for(int i = 0; i < p.length; i++) {
 
 				if(z[i] == null || z[i].hasNull()) {
-					BigInteger subC = challenge;
-					for(int j = 0; j < coefficients.length; j++) {
-						subC = subC.add(coefficients[j].getBigInt().multiply(BigInteger.valueOf(i+1).modPow(BigInteger.valueOf(j+1), challengePrime))).mod(challengePrime);
-					}
+					BigInteger subC = subChallenge(polynomial, i);
 					if(z[i] == null) {
 						list.add(subC);
 					}
@@ -122,25 +121,10 @@ public class ZeroKnowledgeThreshhold extends ZKPProtocol {
 			System.out.println(input);
 			throw new NullPointerException(e.getMessage());
 		}
-		BigInteger[] challenges = new BigInteger[p.length];
-		BigInteger[] coefficientsBigInt = new BigInteger[coefficients.length];
-		BigInteger[] values = new BigInteger[p.length+10];
-		for(int i = 0; i < values.length; i++) {
-			values[i] = BigInteger.valueOf(i);
-		}
-	
-		for(int i = 0; i < coefficientsBigInt.length; i++) {
-			coefficientsBigInt[i] = coefficients[i].getBigInt();
-		}
-		for(int i = 0; i < challenges.length; i++) {
-			challenges[i] = challenge;
-			for(int j = 0; j < coefficients.length;j++) {
-				challenges[i] = challenges[i].add(coefficientsBigInt[j].multiply((BigInteger.valueOf(i+1)).modPow(BigInteger.valueOf(j+1), challengePrime))).mod(challengePrime);
-			}
-		}
+		BigInteger[] polynomial = polynomial(challenge, coefficients);
 		for(int j = 0; j < p.length; j++)
 		{
-			BigInteger c = challenges[j];
+			BigInteger c = subChallenge(polynomial, j);
 
 			if(in[j] == null) 
 				out[j] = null;
@@ -156,10 +140,12 @@ public class ZeroKnowledgeThreshhold extends ZKPProtocol {
 		CryptoData[] in = input.getCryptoDataArray();
 		CryptoData[] environment = packedEnvironment.getCryptoDataArray();
 		CryptoData[] simulatedChallenges = in[in.length - 1].getCryptoDataArray().clone();
-		BigInteger[][] simChallenges = new BigInteger[numSimulated+1][1];
+		//The polynomial through (0, challenge) and (i+1, c_i) for each simulated proof i
+		long[] nodes = new long[numSimulated+1];
+		BigInteger[] values = new BigInteger[numSimulated+1];
 		int[] positions = new int[numSimulated]; 
 		
-		simChallenges[0][0] = challenge;
+		values[0] = challenge;
 		int count = 0;
 		for(int i = 0; i < p.length; i++)
 		{
@@ -167,43 +153,20 @@ public class ZeroKnowledgeThreshhold extends ZKPProtocol {
 			if(!c.equals(BigInteger.ZERO)) {
 				positions[count] = i;
 				count++;
-				simChallenges[count][0] = c;
-			}
-		}
-		MatrixInterface m = history.get(positions);
-		if(m == null){
-			BigInteger[][] basic = new BigInteger[numSimulated+1][numSimulated+1];
-			basic[0][0] = BigInteger.ONE;
-			for(int i = 1; i < numSimulated+1; i++) {
-				basic[0][i] = BigInteger.ZERO;
+				nodes[count] = i+1;
+				values[count] = c;
 			}
-			for(int i = 0; i < numSimulated; i++) {
-				basic[i+1][0] = BigInteger.ONE;
-				for(int j = 1; j < numSimulated+1; j++) {
-					basic[i+1][j] = BigInteger.valueOf(positions[i]+1).modPow(BigInteger.valueOf(j), challengePrime);
-				}
-			}
-			MatrixInterface mainM = new Matrix(basic, challengePrime);
-			m = mainM.getInverse();
-			history.put(positions, m);
 		}
-		MatrixInterface simChallengesM = new Matrix(simChallenges, challengePrime);
-		MatrixInterface coefficientsM = simChallengesM.multiply(m);
-		BigInteger[][] coefficients = coefficientsM.getMatrix();
+		BigInteger[] polynomial = ModularPolynomial.interpolate(nodes, values, challengePrime);
 		CryptoData[] toReturn = new CryptoData[p.length+1];
 		count = 0;
-		BigInteger[] coefficientsToReturn = new BigInteger[numSimulated];
 		for(int i = 0; i < p.length; i++) {
 			if(count != positions.length && positions[count] == i) {
 				toReturn[i] = p[i].simulatorGetResponse(in[i]);
 				count++;
 			}
 			else {
-				BigInteger c = coefficients[0][0];
-				for(int j = 0; j < numSimulated; j++) {
-					c = c.add(coefficients[j+1][0].multiply(BigInteger.valueOf(i+1).modPow(BigInteger.valueOf(j+1), challengePrime))).mod(challengePrime);
-					
-				}
+				BigInteger c = subChallenge(polynomial, i);
 				if(in[i] != null) {
 					toReturn[i] = p[i].calcResponse(in[i], c, environment[i]);
 				}else {
@@ -212,10 +175,7 @@ public class ZeroKnowledgeThreshhold extends ZKPProtocol {
 			}
 		}
 		
-		for(int i = 0; i < numSimulated; i++) {
-			coefficientsToReturn[i] = coefficients[i+1][0];
-		}
-		toReturn[p.length] = new CryptoDataArray(coefficientsToReturn);
+		toReturn[p.length] = new CryptoDataArray(Arrays.copyOfRange(polynomial, 1, numSimulated+1));
 		return new CryptoDataArray(toReturn);
 	}
 
@@ -249,15 +209,11 @@ public class ZeroKnowledgeThreshhold extends ZKPProtocol {
 		//		System.out.println("V:\tc  = " + challenge);
 		boolean toReturn = true;
 		boolean flag;
-		BigInteger[] challenges = new BigInteger[p.length];
+		BigInteger[] polynomial = polynomial(challenge, coefficients);
 		
 		for(int i = 0; i < p.length; i++)
 		{ 
-			BigInteger c = challenge;
-			for(int j = 0; j != coefficients.length; j++) {
-				c = c.add(coefficients[j].getBigInt().multiply(BigInteger.valueOf(i+1).modPow(BigInteger.valueOf(j+1), challengePrime))).mod(challengePrime);
-
-			}
+			BigInteger c = subChallenge(polynomial, i);
 			flag = p[i].verifyResponse(in[i], a[i], z[i], c, e[i]);
 			if(!flag) 
 			{
@@ -269,6 +225,47 @@ public class ZeroKnowledgeThreshhold extends ZKPProtocol {
 
 		return toReturn;
 	}
+	@Override
+	protected void addBatchEquations(CryptoData input, CryptoData a_unopened, CryptoData z_unopened, BigInteger challenge, CryptoData environments, BatchVerifier batch) {
+		CryptoData[] in = input.getCryptoDataArray();
+		CryptoData[] a = a_unopened.getCryptoDataArray();
+		CryptoData[] z = z_unopened.getCryptoDataArray();
+		CryptoData[] e = environments.getCryptoDataArray();
+		BigInteger[] polynomial = polynomial(challenge, z[z.length-1].getCryptoDataArray());
+		for(int i = 0; i < p.length; i++)
+		{ 
+			BigInteger c = subChallenge(polynomial, i);
+			p[i].addBatchEquations(in[i], a[i], z[i], c, e[i], batch);
+		}
+	}
+
+	//challenge, then the coefficients of x^1 .. x^numSimulated as sent in z
+	private static BigInteger[] polynomial(BigInteger challenge, CryptoData[] coefficients) {
+		BigInteger[] toReturn = new BigInteger[coefficients.length+1];
+		toReturn[0] = challenge;
+		for(int j = 0; j < coefficients.length; j++) {
+			toReturn[j+1] = coefficients[j].getBigInt();
+		}
+		return toReturn;
+	}
+
+	//The challenge of proof i is the polynomial at i+1
+	private BigInteger subChallenge(BigInteger[] polynomial, int i) {
+		return ModularPolynomial.evaluate(polynomial, i+1, challengePrime);
+	}
+
+	//A leaf for ProofPlan, which does not look inside threshold proofs;  ProofCost does
+	@Override
+	ZKPProtocol[] getChildren()
+	{
+		return p;
+	}
+
+	int getThreshold()
+	{
+		return p.length - numSimulated;
+	}
+
 	@Override
 	public String toString()
 	{